@@ -1,5 +1,8 @@
 package org.openforis.collect.android.gui;
 
+import org.openforis.collect.android.collectadapter.CodeListItemStore;
+import org.openforis.collect.android.gui.util.meter.Gauge;
+import org.openforis.collect.android.gui.util.meter.Metrics;
 import org.openforis.collect.android.gui.util.meter.Timer;
 import org.openforis.collect.android.sqlite.AndroidDatabase;
 import org.openforis.collect.android.util.persistence.ConnectionCallback;
@@ -15,77 +18,101 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.List;
-import java.util.concurrent.Callable;
 
 // TODO: Rewrite this using DataSource
 public class MobileCodeListItemDao extends CodeListItemDao {
+    private static final Timer LOAD_CHILD_ITEMS_TIMER = timer("loadChildItems");
+    private static final Timer LOAD_ITEM_TIMER = timer("loadItem");
+    private static final Timer INSERT_TIMER = timer("insert");
     private final AndroidDatabase database;
-    private final ChildCodeListItemsRepository childCodeListItemsRepository;
-    private final CodeListItemRepository codeListItemRepository;
+    private final CodeListItemStore store;
 
     public MobileCodeListItemDao(AndroidDatabase database) {
         super();
         this.database = database;
-        childCodeListItemsRepository = new ChildCodeListItemsRepository(database);
-        codeListItemRepository = new CodeListItemRepository(database);
+        store = new CodeListItemStore(database);
+        registerCacheGauges();
+    }
+
+    /**
+     * Loads the top levels of the code lists of the survey, stopping when the thread is interrupted.
+     */
+    public void warmUp(Survey survey) {
+        store.warmUp(survey);
+    }
+
+    public CodeListItemStore.Statistics cacheStatistics() {
+        return store.statistics();
     }
 
     @Override
     protected List<PersistedCodeListItem> loadChildItems(CodeList codeList, Integer parentItemId, ModelVersion version) {
-        return childCodeListItemsRepository.load(codeList, parentItemId);
+        long start = LOAD_CHILD_ITEMS_TIMER.start();
+        try {
+            return store.childItems(codeList, parentItemId);
+        } finally {
+            LOAD_CHILD_ITEMS_TIMER.stop(start);
+        }
     }
 
-    public PersistedCodeListItem loadItem(final CodeList codeList, final Integer parentItemId, final String code, final ModelVersion version) {
-        return codeListItemRepository.load(codeList, parentItemId, code);
+    public PersistedCodeListItem loadItem(CodeList codeList, Integer parentItemId, String code, ModelVersion version) {
+        long start = LOAD_ITEM_TIMER.start();
+        try {
+            return store.item(codeList, parentItemId, code);
+        } finally {
+            LOAD_ITEM_TIMER.stop(start);
+        }
     }
 
-    public PersistedCodeListItem loadItem(final CodeList codeList, final String code, final ModelVersion version) {
-        return codeListItemRepository.load(codeList, null, code);
+    public PersistedCodeListItem loadItem(CodeList codeList, String code, ModelVersion version) {
+        return loadItem(codeList, null, code, version);
     }
 
     /**
      * Inserts the items in batch.
      */
     public void insert(final List<PersistedCodeListItem> items) {
-        time("insert", new Runnable() {
-            public void run() {
-                database.execute(new ConnectionCallback<Void>() {
-                    public Void execute(Connection connection) throws SQLException {
-                        PersistedCodeListItem firstItem = items.get(0);
-                        int surveyId = firstItem.getSurvey().getId();
-                        int nextSystemId = maxSystemId(connection) + 1;
-                        PreparedStatement ps = connection.prepareStatement("INSERT INTO ofc_code_list(\n" +
-                                "id, survey_id, code_list_id, item_id, parent_id, sort_order, code, qualifiable, since_version_id, " +
-                                "deprecated_version_id, label1, label2, label3, description1, description2, description3)" +
-                                "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-                        for (PersistedCodeListItem item : items) {
-                            if (item.getSystemId() == null)
-                                item.setSystemId(nextSystemId);
-                            nextSystemId = Math.max(item.getSystemId(), nextSystemId) + 1;
-                            PreparedStatementHelper psh = new PreparedStatementHelper(ps);
-                            psh.setInt(item.getSystemId());
-                            psh.setInt(surveyId);
-                            psh.setInt(item.getCodeList().getId());
-                            psh.setInt(item.getId());
-                            psh.setIntOrNull(item.getParentId());
-                            psh.setIntOrNull(item.getSortOrder());
-                            psh.setString(item.getCode());
-                            psh.setBoolean(item.isQualifiable());
-                            psh.setStringOrNull(item.getSinceVersionName());
-                            psh.setStringOrNull(item.getDeprecatedVersionName());
-                            for (String label : labels(item))
-                                psh.setStringOrNull(label);
-                            for (String description : descriptions(item))
-                                psh.setStringOrNull(description);
-                            ps.addBatch();
-                        }
-
-                        ps.executeBatch();
-                        return null;
+        long start = INSERT_TIMER.start();
+        try {
+            database.execute(new ConnectionCallback<Void>() {
+                public Void execute(Connection connection) throws SQLException {
+                    PersistedCodeListItem firstItem = items.get(0);
+                    int surveyId = firstItem.getSurvey().getId();
+                    int nextSystemId = maxSystemId(connection) + 1;
+                    PreparedStatement ps = connection.prepareStatement("INSERT INTO ofc_code_list(\n" +
+                            "id, survey_id, code_list_id, item_id, parent_id, sort_order, code, qualifiable, since_version_id, " +
+                            "deprecated_version_id, label1, label2, label3, description1, description2, description3)" +
+                            "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                    for (PersistedCodeListItem item : items) {
+                        if (item.getSystemId() == null)
+                            item.setSystemId(nextSystemId);
+                        nextSystemId = Math.max(item.getSystemId(), nextSystemId) + 1;
+                        PreparedStatementHelper psh = new PreparedStatementHelper(ps);
+                        psh.setInt(item.getSystemId());
+                        psh.setInt(surveyId);
+                        psh.setInt(item.getCodeList().getId());
+                        psh.setInt(item.getId());
+                        psh.setIntOrNull(item.getParentId());
+                        psh.setIntOrNull(item.getSortOrder());
+                        psh.setString(item.getCode());
+                        psh.setBoolean(item.isQualifiable());
+                        psh.setStringOrNull(item.getSinceVersionName());
+                        psh.setStringOrNull(item.getDeprecatedVersionName());
+                        for (String label : labels(item))
+                            psh.setStringOrNull(label);
+                        for (String description : descriptions(item))
+                            psh.setStringOrNull(description);
+                        ps.addBatch();
                     }
-                });
-            }
-        });
+
+                    ps.executeBatch();
+                    store.clear();
+                    return null;
+                }
+            });
+        } finally {
+            INSERT_TIMER.stop(start);
+        }
     }
 
     private String[] labels(PersistedCodeListItem item) {
@@ -132,12 +159,39 @@ public class MobileCodeListItemDao extends CodeListItemDao {
         return maxId;
     }
 
-    private <T> T time(String methodName, Callable<T> action) {
-        return Timer.time(MobileCodeListItemDao.class, methodName, action);
+    /**
+     * Exposes the statistics of the item store. Gauges of a previously opened survey are replaced.
+     */
+    private void registerCacheGauges() {
+        Metrics.gauge(CodeListItemStore.class, "hits", new Gauge() {
+            public long value() {
+                return store.statistics().hits;
+            }
+        });
+        Metrics.gauge(CodeListItemStore.class, "misses", new Gauge() {
+            public long value() {
+                return store.statistics().misses;
+            }
+        });
+        Metrics.gauge(CodeListItemStore.class, "evictions", new Gauge() {
+            public long value() {
+                return store.statistics().evictions;
+            }
+        });
+        Metrics.gauge(CodeListItemStore.class, "entries", new Gauge() {
+            public long value() {
+                return store.statistics().entries;
+            }
+        });
+        Metrics.gauge(CodeListItemStore.class, "bytes", new Gauge() {
+            public long value() {
+                return store.statistics().bytes;
+            }
+        });
     }
 
-    private void time(String methodName, Runnable action) {
-        Timer.time(MobileCodeListItemDao.class, methodName, action);
+    private static Timer timer(String methodName) {
+        return Metrics.timer(MobileCodeListItemDao.class, methodName);
     }
 
 }
@@ -1,6 +1,7 @@
 package org.openforis.collect.android.gui;
 
 import android.content.Context;
+import android.util.Log;
 
 import org.jooq.Configuration;
 import org.jooq.ConnectionProvider;
@@ -8,6 +9,7 @@ import org.jooq.impl.DataSourceConnectionProvider;
 import org.jooq.impl.DialectAwareJooqConfiguration;
 import org.openforis.collect.android.CodeListService;
 import org.openforis.collect.android.CoordinateDestinationService;
+import org.openforis.collect.android.IdGenerator;
 import org.openforis.collect.android.Settings;
 import org.openforis.collect.android.SurveyService;
 import org.openforis.collect.android.collectadapter.CollectModelBackedSurveyService;
@@ -19,22 +21,28 @@ import org.openforis.collect.android.collectadapter.TaxonRepository;
 import org.openforis.collect.android.databaseschema.NodeDatabaseSchemaChangeLog;
 import org.openforis.collect.android.gui.util.AndroidFiles;
 import org.openforis.collect.android.gui.util.AppDirs;
+import org.openforis.collect.android.gui.util.meter.Metrics;
+import org.openforis.collect.android.gui.util.meter.MetricsSnapshot;
 import org.openforis.collect.android.sqlite.AndroidDatabase;
 import org.openforis.collect.android.sqlite.NodeSchemaChangeLog;
 import org.openforis.collect.android.util.persistence.Database;
 import org.openforis.collect.android.viewmodel.UiNode;
 import org.openforis.collect.android.viewmodel.UiRecord;
 import org.openforis.collect.android.viewmodelmanager.DataSourceNodeRepository;
+import org.openforis.collect.android.viewmodelmanager.NodeIdSequence;
+import org.openforis.collect.android.viewmodelmanager.NodeJournal;
+import org.openforis.collect.android.viewmodelmanager.NodeRepository;
 import org.openforis.collect.android.viewmodelmanager.TaxonService;
 import org.openforis.collect.android.viewmodelmanager.ViewModelManager;
+import org.openforis.collect.android.viewmodelmanager.WriteBehindNodeRepository;
 import org.openforis.collect.manager.CodeListManager;
 import org.openforis.collect.manager.RecordFileManager;
 import org.openforis.collect.manager.RecordManager;
 import org.openforis.collect.manager.SpeciesManager;
 import org.openforis.collect.manager.SurveyManager;
+import org.openforis.collect.model.CollectSurvey;
 import org.openforis.collect.model.CollectSurveyContext;
 import org.openforis.collect.model.validation.CollectValidator;
-import org.openforis.collect.persistence.DatabaseExternalCodeListProvider;
 import org.openforis.collect.persistence.DatabaseLookupProvider;
 import org.openforis.collect.persistence.DynamicTableDao;
 import org.openforis.collect.persistence.SamplingDesignDao;
@@ -50,6 +58,14 @@ import org.openforis.collect.service.CollectSpeciesListService;
 import org.openforis.idm.model.expression.ExpressionFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import static org.openforis.collect.android.viewmodelmanager.ViewModelRepository.DatabaseViewModelRepository;
 
@@ -59,13 +75,20 @@ import static org.openforis.collect.android.viewmodelmanager.ViewModelRepository
 public class ServiceLocator {
     public static final String MODEL_DB = "collect.db";
     private static final String NODES_DB = "nodes";
+    private static final String NODES_JOURNAL = "nodes.journal";
+    private static final String METRICS_FILE = "metrics.json";
     private static CollectModelManager collectModelManager;
+    private static MobileCodeListItemDao codeListItemDao;
+    private static MobileExternalCodeListProvider externalCodeListProvider;
     private static SurveyService surveyService;
     private static TaxonService taxonService;
     private static File workingDir;
     private static AndroidDatabase modelDatabase;
     private static AndroidDatabase nodeDatabase;
+    private static WriteBehindNodeRepository nodeRepository;
     private static CollectDSLContext jooqDsl;
+    private static ExecutorService surveyTasks; // Background work on the databases of the selected survey
+    private static final List<Future<?>> modelManagerTasks = new ArrayList<Future<?>>();
 
     /**
      * Initializes the ServiceLocator.
@@ -81,6 +104,7 @@ public class ServiceLocator {
                 return false;
             modelDatabase = createModelDatabase(surveyName, applicationContext);
             nodeDatabase = createNodeDatabase(surveyName, applicationContext);
+            nodeRepository = createNodeRepository(nodeDatabase, surveyName, applicationContext);
 
             ConnectionProvider connectionProvider = new DataSourceConnectionProvider(modelDatabase.dataSource());
             Configuration jooqConf = new DialectAwareJooqConfiguration(connectionProvider);
@@ -88,6 +112,7 @@ public class ServiceLocator {
 
             new ModelDatabaseMigrator(modelDatabase, surveyName, applicationContext).migrateIfNeeded();
 
+            surveyTasks = createSurveyTasks();
             taxonService = createTaxonService(modelDatabase);
 
             initModelManager(applicationContext);
@@ -98,19 +123,72 @@ public class ServiceLocator {
     private static void initModelManager(Context applicationContext) {
         String surveyName = SurveyImporter.selectedSurvey(applicationContext);
         if (surveyName != null) {
+            cancelModelManagerTasks();
             collectModelManager = createCollectModelManager(modelDatabase, nodeDatabase, surveyName, applicationContext);
-            surveyService = createSurveyService(collectModelManager, nodeDatabase);
+            surveyService = createSurveyService(collectModelManager, nodeRepository);
             surveyService.loadSurvey();
+            prepareLookupTables();
+            warmUpCodeListItems();
         }
     }
 
+    private static void prepareLookupTables() {
+        final CollectSurvey survey = collectModelManager.getSelectedSurvey();
+        if (survey == null)
+            return;
+        final MobileExternalCodeListProvider provider = externalCodeListProvider;
+        modelManagerTasks.add(surveyTasks.submit(new Runnable() {
+            public void run() {
+                try {
+                    provider.prepareLookupTables(survey);
+                } catch (RuntimeException e) {
+                    Log.w("CollectMobile", "Failed to prepare lookup tables", e);
+                }
+            }
+        }));
+    }
+
+    private static void warmUpCodeListItems() {
+        final CollectSurvey survey = collectModelManager.getSelectedSurvey();
+        if (survey == null)
+            return;
+        final MobileCodeListItemDao dao = codeListItemDao;
+        modelManagerTasks.add(surveyTasks.submit(new Runnable() {
+            public void run() {
+                dao.warmUp(survey);
+            }
+        }));
+    }
+
+    /**
+     * Cancels the tasks of the replaced model manager, interrupting the running one.
+     */
+    private static void cancelModelManagerTasks() {
+        for (Future<?> task : modelManagerTasks)
+            task.cancel(true);
+        modelManagerTasks.clear();
+    }
+
     public static void reset(Context context) {
         surveyService = null;
-        if (modelDatabase != null)
+        closeDatabases();
+        init(context.getApplicationContext());
+    }
+
+    /**
+     * Closes the databases of the selected survey, including their cached statements and session connections.
+     */
+    private static void closeDatabases() {
+        stopSurveyTasks();
+        closeNodeRepository();
+        if (modelDatabase != null) {
             modelDatabase.close();
-        if (nodeDatabase != null)
+            modelDatabase = null;
+        }
+        if (nodeDatabase != null) {
             nodeDatabase.close();
-        init(context.getApplicationContext());
+            nodeDatabase = null;
+        }
     }
 
     public static void resetModelManager(Context context) {
@@ -133,6 +211,7 @@ public class ServiceLocator {
         boolean imported = new SurveyImporter(surveyDatabasePath, applicationContext).importSurvey(overwrite);
         if (imported) {
             surveyService = null;
+            closeDatabases();
             init(applicationContext);
         }
         return imported;
@@ -143,10 +222,75 @@ public class ServiceLocator {
     }
 
     public static void deleteNodeDatabase(Context applicationContext, String surveyName) {
+        closeNodeRepository();
         deleteDatabase(NODES_DB, surveyName, nodeDatabase, applicationContext);
+        databasePath(NODES_JOURNAL, surveyName, applicationContext).delete();
+    }
+
+    /**
+     * Writes node changes pending in the write-behind journal to the node database.
+     */
+    public static void flushNodeChanges() {
+        if (nodeRepository != null)
+            nodeRepository.flush();
+    }
+
+    /**
+     * Writes a snapshot of the metrics as JSON to the directory of the selected survey, in a background thread.
+     */
+    public static void exportMetrics(Context applicationContext) {
+        String surveyName = SurveyImporter.selectedSurvey(applicationContext);
+        if (surveyName == null)
+            return;
+        final File file = new File(AppDirs.surveyDatabasesDir(surveyName, applicationContext), METRICS_FILE);
+        final MetricsSnapshot snapshot = Metrics.snapshot();
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    snapshot.writeTo(file);
+                } catch (IOException e) {
+                    Log.w("CollectMobile", "Failed to write metrics to " + file, e);
+                }
+            }
+        }, "MetricsExport").start();
+    }
+
+    private static ExecutorService createSurveyTasks() {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SurveyTasks");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Interrupts the running survey task, and waits for it to stop, so it doesn't use the databases after they're closed.
+     */
+    private static void stopSurveyTasks() {
+        if (surveyTasks == null)
+            return;
+        modelManagerTasks.clear();
+        surveyTasks.shutdownNow();
+        try {
+            if (!surveyTasks.awaitTermination(10, TimeUnit.SECONDS))
+                Log.w("CollectMobile", "Survey task still running after being interrupted");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        surveyTasks = null;
+    }
+
+    private static void closeNodeRepository() {
+        if (nodeRepository != null) {
+            nodeRepository.close();
+            nodeRepository = null;
+        }
     }
 
     public static void deleteModelDatabase(Context applicationContext, String surveyName) {
+        stopSurveyTasks();
         deleteDatabase(MODEL_DB, surveyName, modelDatabase, applicationContext);
     }
 
@@ -176,6 +320,13 @@ public class ServiceLocator {
         );
     }
 
+    private static WriteBehindNodeRepository createNodeRepository(Database nodeDatabase, String surveyName, Context applicationContext) {
+        return new WriteBehindNodeRepository(
+                new DataSourceNodeRepository(nodeDatabase),
+                new NodeJournal(databasePath(NODES_JOURNAL, surveyName, applicationContext))
+        );
+    }
+
     public static SurveyService surveyService() {
         return surveyService;
     }
@@ -192,20 +343,20 @@ public class ServiceLocator {
         return taxonService;
     }
 
-    private static CollectModelBackedSurveyService createSurveyService(CollectModelManager collectModelManager, Database database) {
+    private static CollectModelBackedSurveyService createSurveyService(CollectModelManager collectModelManager, NodeRepository nodeRepository) {
         return new CollectModelBackedSurveyService(
                 new ViewModelManager(
-                        new DatabaseViewModelRepository(collectModelManager, new DataSourceNodeRepository(database))
+                        new DatabaseViewModelRepository(collectModelManager, nodeRepository, true)
                 ),
                 collectModelManager, workingDir
         );
     }
 
     private static CollectModelManager createCollectModelManager(AndroidDatabase modelDatabase, Database nodeDatabase, final String surveyName, final Context context) {
-        DatabaseExternalCodeListProvider externalCodeListProvider = createExternalCodeListProvider(modelDatabase);
+        externalCodeListProvider = createExternalCodeListProvider(modelDatabase);
 
         CodeListManager codeListManager = new CodeListManager();
-        MobileCodeListItemDao codeListItemDao = new MobileCodeListItemDao(modelDatabase);
+        codeListItemDao = new MobileCodeListItemDao(modelDatabase);
         codeListItemDao.setDsl(jooqDsl);
         codeListManager.setCodeListItemDao(codeListItemDao);
         codeListManager.setExternalCodeListProvider(externalCodeListProvider);
@@ -269,12 +420,12 @@ public class ServiceLocator {
         }};
         recordFileManager.setDefaultRootStoragePath(AppDirs.surveyDatabasesDir(surveyName, context).getAbsolutePath());
         return new CollectModelManager(surveyManager, recordManager, codeListManager, speciesManager,
-                recordFileManager, modelDatabase, Settings.getPreferredLanguageMode(),
-                Settings.getPreferredLanguage());
+                recordFileManager, modelDatabase, new IdGenerator(new NodeIdSequence(nodeDatabase)),
+                Settings.getPreferredLanguageMode(), Settings.getPreferredLanguage());
     }
 
-    private static DatabaseExternalCodeListProvider createExternalCodeListProvider(AndroidDatabase modelDatabase) {
-        DatabaseExternalCodeListProvider externalCodeListProvider = new MobileExternalCodeListProvider(modelDatabase);
+    private static MobileExternalCodeListProvider createExternalCodeListProvider(AndroidDatabase modelDatabase) {
+        MobileExternalCodeListProvider externalCodeListProvider = new MobileExternalCodeListProvider(modelDatabase);
         DynamicTableDao dynamicTableDao = new DynamicTableDao();
         dynamicTableDao.setDsl(jooqDsl);
         externalCodeListProvider.setDynamicTableDao(dynamicTableDao);
@@ -297,6 +448,6 @@ public class ServiceLocator {
     }
 
     private static TaxonService createTaxonService(Database modelDatabase) {
-        return new TaxonRepository(modelDatabase);
+        return new TaxonRepository(modelDatabase, surveyTasks);
     }
 }
@@ -223,9 +223,7 @@ public class SurveyNodeActivity extends BaseActivity implements SurveyListener,
         } else {
             if (next.getParent() == selectedNode.getParent()) {
                 ViewPager pager = nodePager();
-                List<UiNode> relevantSiblings = next.getRelevantSiblings();
-                int nextIndex = relevantSiblings.indexOf(next);
-                pager.setCurrentItem(nextIndex);
+                pager.setCurrentItem(next.getRelevantIndexInParent());
             } else
                 navigateTo(next);
         }
@@ -311,6 +309,8 @@ public class SurveyNodeActivity extends BaseActivity implements SurveyListener,
         if (surveyService != null) {
             surveyService.setListener(null);
         }
+        ServiceLocator.flushNodeChanges();
+        ServiceLocator.exportMetrics(getApplicationContext());
         super.onPause();
     }
 
@@ -15,7 +15,6 @@ import org.openforis.collect.android.gui.list.NodeListDialogFragment;
 import org.openforis.collect.android.gui.util.Keyboard;
 import org.openforis.collect.android.viewmodel.*;
 
-import java.util.List;
 import java.util.Map;
 
 
@@ -99,8 +98,7 @@ public abstract class NodeDetailFragment<T extends UiNode> extends Fragment {
     private void setupPrevNodeMenuItem(Menu menu) {
         MenuItem menuItem = menu.findItem(R.id.action_prev_attribute);
         if (menuItem != null) {
-            List<UiNode> relevantSiblings = node.getRelevantSiblings();
-            boolean isFirst = relevantSiblings.indexOf(node) == 0;
+            boolean isFirst = node.getRelevantIndexInParent() == 0;
             disable(menuItem, isFirst);
         }
     }
@@ -108,8 +106,7 @@ public abstract class NodeDetailFragment<T extends UiNode> extends Fragment {
     private void setupNextNodeMenuItem(Menu menu) {
         MenuItem menuItem = menu.findItem(R.id.action_next_attribute);
         if (menuItem != null) {
-            List<UiNode> relevantSiblings = node.getRelevantSiblings();
-            boolean isLast = relevantSiblings.indexOf(node) == relevantSiblings.size() - 1;
+            boolean isLast = node.getRelevantIndexInParent() == node.getRelevantSiblings().size() - 1;
             disable(menuItem, isLast);
         }
     }
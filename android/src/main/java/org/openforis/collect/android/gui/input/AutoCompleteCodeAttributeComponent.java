@@ -17,6 +17,7 @@ import org.openforis.collect.android.SurveyService;
 import org.openforis.collect.android.gui.util.ClearableAutoCompleteTextView;
 import org.openforis.collect.android.viewmodel.UiCode;
 import org.openforis.collect.android.viewmodel.UiCodeAttribute;
+import org.openforis.collect.android.viewmodel.UiCodeList;
 
 import java.util.HashMap;
 import java.util.List;
@@ -177,15 +178,15 @@ class AutoCompleteCodeAttributeComponent extends CodeAttributeComponent {
             List<UiCode> codes = codeList.getCodes();
             for (UiCode code : codes)
                 uiCodeByValue.put(code.getValue(), code);
-            setAdapter(codes, uiHandler);
+            setAdapter(codeList, uiHandler);
             if (codeList.isQualifiable(attribute.getCode()))
                 showQualifier();
         }
 
-        private void setAdapter(final List<UiCode> codes, Handler uiHandler) {
+        private void setAdapter(final UiCodeList codeList, Handler uiHandler) {
             uiHandler.post(new Runnable() {
                 public void run() {
-                    autoComplete.setAdapter(new UiCodeAdapter(context, codes));
+                    autoComplete.setAdapter(new UiCodeAdapter(context, codeList, codeListService));
                 }
             });
         }
@@ -3,6 +3,7 @@ package org.openforis.collect.android.gui.input;
 import android.os.Handler;
 import android.support.v4.app.FragmentActivity;
 import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.inputmethod.EditorInfo;
@@ -84,6 +85,19 @@ public class TaxonAttributeComponent extends AttributeComponent<UiTaxonAttribute
                 commonNamesLayout.removeAllViews();
             }
         });
+        autoComplete.addTextChangedListener(new TextWatcher() {
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            public void afterTextChanged(Editable s) {
+                UiTaxonAdapter adapter = (UiTaxonAdapter) autoComplete.getAdapter();
+                if (adapter != null && autoComplete.enoughToFilter())
+                    adapter.search(s.toString());
+            }
+        });
         autoComplete.setAdapter(new UiTaxonAdapter(context, attribute, ServiceLocator.taxonService()));
     }
 
@@ -9,9 +9,10 @@ import android.widget.ArrayAdapter;
 import android.widget.Filter;
 import android.widget.TextView;
 import org.openforis.collect.R;
+import org.openforis.collect.android.CodeListService;
 import org.openforis.collect.android.viewmodel.UiCode;
+import org.openforis.collect.android.viewmodel.UiCodeList;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -21,14 +22,16 @@ import java.util.concurrent.CopyOnWriteArrayList;
 class UiCodeAdapter extends ArrayAdapter<UiCode> {
     private static final int LAYOUT_RESOURCE_ID = R.layout.wrapping_dropdown_item;
     private final Context context;
-    private final List<UiCode> codes;
+    private final UiCodeList codeList;
+    private final CodeListService codeListService;
     private List<UiCode> filteredCodes;
 
-    UiCodeAdapter(Context context, List<UiCode> codes) {
-        super(context, LAYOUT_RESOURCE_ID, codes);
+    UiCodeAdapter(Context context, UiCodeList codeList, CodeListService codeListService) {
+        super(context, LAYOUT_RESOURCE_ID, codeList.getCodes());
         this.context = context;
-        this.codes = codes;
-        filteredCodes = new CopyOnWriteArrayList<UiCode>(codes);
+        this.codeList = codeList;
+        this.codeListService = codeListService;
+        filteredCodes = new CopyOnWriteArrayList<UiCode>(codeList.getCodes());
     }
 
     public View getView(int position, View convertView, ViewGroup parent) {
@@ -72,15 +75,8 @@ class UiCodeAdapter extends ArrayAdapter<UiCode> {
 
             private List<UiCode> findCodes(CharSequence constraint) {
                 if (constraint == null || constraint.length() == 0)
-                    return codes;
-                String query = constraint.toString().trim().toLowerCase();
-                ArrayList<UiCode> matchingCodes = new ArrayList<UiCode>();
-                String[] terms = query.split(" ");
-                for (UiCode code : codes) {
-                    if (matches(code, terms))
-                        matchingCodes.add(code);
-                }
-                return matchingCodes;
+                    return codeList.getCodes();
+                return codeListService.findCodes(codeList, constraint.toString());
             }
 
             @SuppressWarnings("unchecked")
@@ -96,18 +92,6 @@ class UiCodeAdapter extends ArrayAdapter<UiCode> {
         };
     }
 
-    private boolean matches(UiCode code, String[] terms) {
-        for (String term : terms) {
-            if (!matches(term, code.getValue()) && !matches(term, code.getLabel()) && !matches(term, code.toString()))
-                return false;
-        }
-        return true;
-    }
-
-    private boolean matches(String term, String s) {
-        return s != null && s.trim().toLowerCase().matches(".*\\b" + term + ".*");
-    }
-
     private static class CodeHolder {
         TextView code;
         TextView label;
@@ -13,28 +13,45 @@ import org.apache.commons.lang3.StringUtils;
 import org.openforis.collect.R;
 import org.openforis.collect.android.viewmodel.UiTaxon;
 import org.openforis.collect.android.viewmodel.UiTaxonAttribute;
+import org.openforis.collect.android.viewmodelmanager.TaxonSearch;
 import org.openforis.collect.android.viewmodelmanager.TaxonService;
 
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * @author Daniel Wiell
  */
 public class UiTaxonAdapter extends BaseAdapter implements Filterable {
     private static final int MAX_RESULTS = 50;
+    private static final long DEBOUNCE_MILLIS = 250;
+    // Searches are serialized by the database anyway
+    private static final ScheduledExecutorService SEARCH_EXECUTOR = Executors.newSingleThreadScheduledExecutor();
     // TODO: Use custom layout
     private static final int LAYOUT_RESOURCE_ID = R.layout.taxon_dropdown_item;
     private final Context context;
     private final UiTaxonAttribute attribute;
-    private final TaxonService taxonService;
+    private final TaxonSearch taxonSearch;
     private List<UiTaxon> filteredValues = new CopyOnWriteArrayList<UiTaxon>();
     private String query = "";
 
     public UiTaxonAdapter(Context context, UiTaxonAttribute attribute, TaxonService taxonService) {
         this.context = context;
         this.attribute = attribute;
-        this.taxonService = taxonService;
+        this.taxonSearch = new TaxonSearch(taxonService, attribute.getDefinition().taxonomy, MAX_RESULTS,
+                SEARCH_EXECUTOR, DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * Starts searching as soon as the text changes, superseding any pending search.
+     * The filter picks up the search when it gets to the query.
+     */
+    public void search(String text) {
+        taxonSearch.search(text.trim());
     }
 
     public UiTaxon getItem(int position) {
@@ -79,9 +96,19 @@ public class UiTaxonAdapter extends BaseAdapter implements Filterable {
     public Filter getFilter() {
         return new Filter() {
             protected FilterResults performFiltering(CharSequence constraint) {
-                constraint = constraint == null ? "" : ((String) constraint).trim();
-                List values = taxonService.find(constraint.toString(), attribute.getDefinition().taxonomy, MAX_RESULTS);
+                constraint = constraint == null ? "" : constraint.toString().trim();
                 FilterResults results = new FilterResults();
+                List<UiTaxon> values;
+                try {
+                    values = taxonSearch.search(constraint.toString()).get();
+                } catch (CancellationException ignore) {
+                    return results; // Superseded by a later query
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return results;
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
                 results.values = values;
                 results.count = values.size();
                 return results;
@@ -90,9 +117,10 @@ public class UiTaxonAdapter extends BaseAdapter implements Filterable {
 
             @SuppressWarnings("unchecked")
             protected void publishResults(CharSequence constraint, FilterResults results) {
+                if (results.values == null)
+                    return;
                 filteredValues.clear();
-                if (results.values != null)
-                    filteredValues.addAll((List<UiTaxon>) results.values);
+                filteredValues.addAll((List<UiTaxon>) results.values);
                 UiTaxonAdapter.this.query = (String) constraint;
                 if (results.count > 0)
                     notifyDataSetChanged();
@@ -123,9 +123,7 @@ public class NodePagerFragment extends Fragment {
         final PageIndicator indicator = view.findViewById(R.id.attributePagerIndicator);
         indicator.setViewPager(pager);
         indicator.setOnPageChangeListener(pageChangeListener);
-        List<UiNode> relevantSiblings = selectedNode().getRelevantSiblings();
-        int selectedIndex = relevantSiblings.indexOf(selectedNode());
-        indicator.setCurrentItem(selectedIndex);
+        indicator.setCurrentItem(selectedNode().getRelevantIndexInParent());
 
         fragmentsByNode.get(selectedNode()).onSelect();
     }
@@ -12,19 +12,25 @@ import org.openforis.collect.android.util.persistence.ConnectionCallback;
 import org.openforis.collect.android.util.persistence.Database;
 import org.openforis.collect.android.util.persistence.PersistenceException;
 import org.openforis.collect.android.util.persistence.SchemaChange;
+import org.openforis.collect.android.util.persistence.StatementCachingSession;
 
 import javax.sql.DataSource;
 import java.io.File;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 /**
  * @author Daniel Wiell
  */
 public class AndroidDatabase implements Database {
     public static final String ACTION_PREPARE_EJECT = "org.openforis.collect.android.sqlite.Unmount";
+    private final Context applicationContext;
     private final OpenHelper openHelper;
+    private final StatementCachingSession session;
+    private final List<BroadcastReceiver> receivers = new ArrayList<BroadcastReceiver>();
 
     private DataSource dataSource;
 
@@ -33,7 +39,9 @@ public class AndroidDatabase implements Database {
     }
 
     public AndroidDatabase(NodeSchemaChangeLog schemaChangeLog, Context context, File databasePath) {
+        applicationContext = context.getApplicationContext();
         dataSource = new AndroidDataSource(databasePath);
+        session = new StatementCachingSession(dataSource);
         openHelper = new OpenHelper(schemaChangeLog, context.getApplicationContext(), databasePath);
         listenToPrepareEjectionBroadcasts(context);
         listenToStorageEjectionBroadcasts(context);
@@ -42,11 +50,36 @@ public class AndroidDatabase implements Database {
         schemaChangeLog.apply(openOrCreateDatabase());
     }
 
+    /**
+     * Closes the session connection and the open helper, and stops listening to storage ejection.
+     * The database must not be used after being closed.
+     */
     public void close() {
+        closeConnections();
+        for (BroadcastReceiver receiver : receivers) {
+            try {
+                applicationContext.unregisterReceiver(receiver);
+            } catch (IllegalArgumentException ignore) {
+                // Already unregistered
+            }
+        }
+        receivers.clear();
+    }
+
+    /**
+     * Closes the connections, which are opened again when the database is next used.
+     */
+    private synchronized void closeConnections() {
+        session.close();
         openHelper.close();
         ((AndroidDataSource) dataSource).close();
     }
 
+    private void registerReceiver(BroadcastReceiver receiver, IntentFilter filter) {
+        applicationContext.registerReceiver(receiver, filter);
+        receivers.add(receiver);
+    }
+
     private void listenToStorageEjectionBroadcasts(Context context) {
         IntentFilter filter = new IntentFilter();
         filter.addDataScheme("file");
@@ -54,11 +87,10 @@ public class AndroidDatabase implements Database {
         filter.addAction(Intent.ACTION_MEDIA_REMOVED);
         filter.addAction(Intent.ACTION_MEDIA_BAD_REMOVAL);
         filter.addAction(Intent.ACTION_MEDIA_EJECT);
-        context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+        registerReceiver(new BroadcastReceiver() {
             public void onReceive(Context context, Intent intent) {
                 Log.i("android_database", "Received storage ejection event for " + dataSource);
-                openHelper.close();
-                ((AndroidDataSource) dataSource).close();
+                closeConnections();
             }
         }, filter);
     }
@@ -66,10 +98,10 @@ public class AndroidDatabase implements Database {
     private void listenToPrepareEjectionBroadcasts(Context context) {
         IntentFilter filter = new IntentFilter();
         filter.addAction(ACTION_PREPARE_EJECT);
-        context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+        registerReceiver(new BroadcastReceiver() {
             public void onReceive(Context context, Intent intent) {
                 Log.i("android_database", "Received storage ejection request for " + dataSource);
-                close();
+                closeConnections();
             }
         }, filter);
     }
@@ -88,6 +120,10 @@ public class AndroidDatabase implements Database {
         return dataSource;
     }
 
+    public StatementCachingSession.Statistics statementCacheStatistics() {
+        return session.statistics();
+    }
+
     public synchronized <T> T execute(AndroidDatabaseCallback<T> AndroidDatabaseCallback) {
         SQLiteDatabase database = null;
         try {
@@ -101,7 +137,7 @@ public class AndroidDatabase implements Database {
     public synchronized <T> T execute(ConnectionCallback<T> connectionCallback) {
         Connection connection = null;
         try {
-            connection = dataSource.getConnection();
+            connection = session.connection();
             connection.setAutoCommit(false);
             T result = connectionCallback.execute(connection);
             connection.commit();
@@ -115,7 +151,7 @@ public class AndroidDatabase implements Database {
                     connection.setAutoCommit(true);
             } catch (SQLException ignore) {
             }
-            close(connection);
+            session.release();
         }
     }
 
@@ -131,15 +167,6 @@ public class AndroidDatabase implements Database {
         return openHelper.getWritableDatabase();
     }
 
-    private void close(Connection connection) {
-        try {
-            if (connection != null && !connection.isClosed())
-                connection.close();
-        } catch (SQLException e) {
-            throw new IllegalStateException("Exception when closing connection", e);
-        }
-    }
-
     private void close(SQLiteDatabase database) {
         if (database != null && database.isOpen())
             database.close();
@@ -2,6 +2,8 @@ package org.openforis.collect.android;
 
 import org.openforis.collect.android.viewmodel.*;
 
+import java.util.List;
+
 /**
  * @author Daniel Wiell
  */
@@ -10,6 +12,11 @@ public interface CodeListService {
 
     UiCodeList codeList(UiAttributeCollection uiAttributeCollection);
 
+    /**
+     * Finds the codes of the code list matching the query, ranked by how well they match.
+     */
+    List<UiCode> findCodes(UiCodeList codeList, String query);
+
     boolean isParentCodeAttribute(UiAttribute attribute, UiCodeAttribute codeAttribute);
 
     boolean isParentCodeAttribute(UiAttribute attribute, UiAttributeCollection attributeCollection);
@@ -1,16 +1,70 @@
 package org.openforis.collect.android;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
+ * Hands out ids from a range reserved in blocks from a {@link BlockSource}, without locking until the range is used up.
+ * Node ids are generated from a block source persisted in the node database, so they're unique per node database.
+ *
  * @author Daniel Wiell
  */
 public class IdGenerator {
-    private static int lastId;
+    private static final int BLOCK_SIZE = 1000;
+    private final BlockSource blockSource;
+    private volatile Range range = new Range(0, 0);
+
+    /**
+     * Creates a generator with ids kept in memory only, starting at 1.
+     */
+    public IdGenerator() {
+        this(new InMemoryBlockSource());
+    }
+
+    public IdGenerator(BlockSource blockSource) {
+        this.blockSource = blockSource;
+    }
+
+    public int nextId() {
+        while (true) {
+            Range current = range;
+            int id = current.next.getAndIncrement();
+            if (id < current.end)
+                return id;
+            reserve(current);
+        }
+    }
 
-    public static synchronized void setLastId(int lastId) {
-        IdGenerator.lastId = lastId;
+    private synchronized void reserve(Range usedUp) {
+        if (range != usedUp)
+            return; // Already reserved by another thread
+        int first = blockSource.reserve(BLOCK_SIZE);
+        range = new Range(first, first + BLOCK_SIZE);
     }
 
-    public static synchronized int nextId() {
-        return ++lastId;
+    public interface BlockSource {
+        /**
+         * Reserves size consecutive ids, returning the first of them.
+         */
+        int reserve(int size);
+    }
+
+    private static class InMemoryBlockSource implements BlockSource {
+        private int next = 1;
+
+        public int reserve(int size) {
+            int first = next;
+            next += size;
+            return first;
+        }
+    }
+
+    private static class Range {
+        final AtomicInteger next;
+        final int end;
+
+        Range(int first, int end) {
+            this.next = new AtomicInteger(first);
+            this.end = end;
+        }
     }
 }
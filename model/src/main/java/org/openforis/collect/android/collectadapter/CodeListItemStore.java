@@ -0,0 +1,373 @@
+package org.openforis.collect.android.collectadapter;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.openforis.collect.android.util.persistence.ConnectionCallback;
+import org.openforis.collect.android.util.persistence.Database;
+import org.openforis.collect.android.util.persistence.PersistenceException;
+import org.openforis.idm.metamodel.CodeList;
+import org.openforis.idm.metamodel.ModelVersion;
+import org.openforis.idm.metamodel.PersistedCodeListItem;
+import org.openforis.idm.metamodel.Survey;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Code list items from {@code ofc_code_list}, cached by parent item. Single items are looked up in the cached
+ * items of their parent, and only loaded on their own when those aren't cached.
+ * Items loaded on their own are reused when the items of their parent are loaded, so each item is cached once.
+ * <p/>
+ * Entries are weighted by the estimated memory used by the items, bounded to a fraction of the heap.
+ * The top levels of the code lists can be loaded up front by {@link #warmUp}.
+ *
+ * @author Daniel Wiell
+ */
+public class CodeListItemStore {
+    private static final Logger LOG = Logger.getLogger(CodeListItemStore.class.getName());
+    private static final int HEAP_FRACTION = 16;
+    private static final int ENTRY_BYTES = 64;
+    private static final int ITEM_BYTES = 160;
+    private static final int WARM_UP_LEVELS = 2;
+    private static final String COLUMNS = "id, code_list_id, item_id, parent_id, sort_order, code, qualifiable, " +
+            "since_version_id, deprecated_version_id, label1, label2, label3, description1, description2, description3";
+
+    private final Database database;
+    private final long maxBytes;
+    private final Cache<Key, Items> itemsByKey;
+
+    public CodeListItemStore(Database database) {
+        this(database, Runtime.getRuntime().maxMemory() / HEAP_FRACTION);
+    }
+
+    CodeListItemStore(Database database, long maxBytes) {
+        this.database = database;
+        this.maxBytes = maxBytes;
+        itemsByKey = CacheBuilder.newBuilder()
+                .concurrencyLevel(1) // Single segment, so the items of a parent can take up to the whole weight
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<Key, Items>() {
+                    public int weigh(Key key, Items items) {
+                        return items.bytes;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    public List<PersistedCodeListItem> childItems(final CodeList codeList, final Integer parentItemId) {
+        return get(Key.children(codeList, parentItemId), new Callable<Items>() {
+            public Items call() {
+                return loadChildItems(codeList, parentItemId);
+            }
+        }).list;
+    }
+
+    public PersistedCodeListItem item(final CodeList codeList, final Integer parentItemId, final String code) {
+        Items children = itemsByKey.asMap().get(Key.children(codeList, parentItemId));
+        if (children != null)
+            return children.byCode.get(code);
+        return get(Key.item(codeList, parentItemId, code), new Callable<Items>() {
+            public Items call() {
+                return loadItem(codeList, parentItemId, code);
+            }
+        }).byCode.get(code);
+    }
+
+    /**
+     * Loads the top levels of the code lists of a survey, one code list per transaction, until half the store is used.
+     * Stops when the thread is interrupted. Items are loaded on demand if warming up fails.
+     */
+    public void warmUp(Survey survey) {
+        long start = System.currentTimeMillis();
+        long bytes = 0;
+        try {
+            for (CodeList codeList : survey.getCodeLists()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    LOG.info("Warming up code list items interrupted");
+                    return;
+                }
+                if (bytes >= maxBytes / 2)
+                    break;
+                if (!codeList.isExternal())
+                    bytes += warmUp(codeList, maxBytes / 2 - bytes);
+            }
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to warm up code list items", e);
+            return;
+        }
+        LOG.info("Warmed up code list items in " + (System.currentTimeMillis() - start) + " millis: " + statistics());
+    }
+
+    public void clear() {
+        itemsByKey.invalidateAll();
+    }
+
+    public Statistics statistics() {
+        CacheStats stats = itemsByKey.stats();
+        long bytes = 0;
+        for (Items items : itemsByKey.asMap().values())
+            bytes += items.bytes;
+        return new Statistics(stats.hitCount(), stats.missCount(), stats.evictionCount(), itemsByKey.size(), bytes);
+    }
+
+    /**
+     * Loads the items of the top levels of the code list, until the bytes are used, returning the bytes used.
+     */
+    private long warmUp(final CodeList codeList, final long maxBytes) {
+        return database.execute(new ConnectionCallback<Long>() {
+            public Long execute(Connection connection) throws SQLException {
+                PreparedStatement ps = connection.prepareStatement("" +
+                        "SELECT " + COLUMNS + "\n" +
+                        "FROM ofc_code_list\n" +
+                        "WHERE code_list_id = ? AND level <= ?\n" +
+                        "ORDER BY parent_id, sort_order");
+                ps.setInt(1, codeList.getId());
+                ps.setInt(2, WARM_UP_LEVELS);
+                ResultSet rs = ps.executeQuery();
+                long bytes = 0;
+                ItemsBuilder builder = null;
+                while (rs.next() && bytes < maxBytes) {
+                    Integer parentItemId = intOrNull(rs, 4);
+                    if (builder == null || !Objects.equal(builder.parentItemId, parentItemId)) {
+                        if (builder != null)
+                            bytes += warmedUp(builder);
+                        builder = new ItemsBuilder(codeList, parentItemId);
+                    }
+                    builder.add(rs);
+                }
+                if (builder != null && bytes < maxBytes)
+                    bytes += warmedUp(builder);
+                rs.close();
+                ps.close();
+                return bytes;
+            }
+        });
+    }
+
+    private int warmedUp(ItemsBuilder builder) {
+        Items items = builder.build();
+        itemsByKey.put(Key.children(builder.codeList, builder.parentItemId), items);
+        return items.bytes;
+    }
+
+    private Items get(Key key, Callable<Items> loader) {
+        try {
+            return itemsByKey.get(key, loader);
+        } catch (ExecutionException e) {
+            throw new PersistenceException(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof PersistenceException)
+                throw (PersistenceException) e.getCause();
+            throw new PersistenceException(e.getCause());
+        }
+    }
+
+    private Items loadChildItems(final CodeList codeList, final Integer parentItemId) {
+        return database.execute(new ConnectionCallback<Items>() {
+            public Items execute(Connection connection) throws SQLException {
+                PreparedStatement ps = connection.prepareStatement("" +
+                        "SELECT " + COLUMNS + "\n" +
+                        "FROM ofc_code_list\n" +
+                        "WHERE code_list_id = ?\n" +
+                        "AND parent_id " + (parentItemId == null ? "IS NULL" : "= ?") + "\n" +
+                        "ORDER BY sort_order");
+                ps.setInt(1, codeList.getId());
+                if (parentItemId != null)
+                    ps.setInt(2, parentItemId);
+                ResultSet rs = ps.executeQuery();
+                ItemsBuilder builder = new ItemsBuilder(codeList, parentItemId);
+                while (rs.next())
+                    builder.add(rs);
+                rs.close();
+                ps.close();
+                return builder.build();
+            }
+        });
+    }
+
+    private Items loadItem(final CodeList codeList, final Integer parentItemId, final String code) {
+        return database.execute(new ConnectionCallback<Items>() {
+            public Items execute(Connection connection) throws SQLException {
+                PreparedStatement ps = connection.prepareStatement("" +
+                        "SELECT " + COLUMNS + "\n" +
+                        "FROM ofc_code_list\n" +
+                        "WHERE code_list_id = ?\n" +
+                        "AND parent_id " + (parentItemId == null ? "IS NULL" : "= ?") + "\n" +
+                        "AND code " + (code == null ? "IS NULL" : "= ?"));
+                int i = 1;
+                ps.setInt(i++, codeList.getId());
+                if (parentItemId != null)
+                    ps.setInt(i++, parentItemId);
+                if (code != null)
+                    ps.setString(i, code);
+                ResultSet rs = ps.executeQuery();
+                ItemsBuilder builder = new ItemsBuilder(codeList, parentItemId);
+                if (rs.next())
+                    builder.add(rs);
+                rs.close();
+                ps.close();
+                return builder.build();
+            }
+        });
+    }
+
+    private static Integer intOrNull(ResultSet rs, int column) throws SQLException {
+        int value = rs.getInt(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    private class ItemsBuilder {
+        final CodeList codeList;
+        final Integer parentItemId;
+        final List<PersistedCodeListItem> list = new ArrayList<PersistedCodeListItem>();
+        int bytes = ENTRY_BYTES;
+
+        ItemsBuilder(CodeList codeList, Integer parentItemId) {
+            this.codeList = codeList;
+            this.parentItemId = parentItemId;
+        }
+
+        void add(ResultSet rs) throws SQLException {
+            String code = rs.getString(6);
+            Key itemKey = Key.item(codeList, parentItemId, code);
+            Items loadedOnItsOwn = itemsByKey.asMap().get(itemKey);
+            PersistedCodeListItem item = loadedOnItsOwn == null ? null : loadedOnItsOwn.byCode.get(code);
+            if (item == null)
+                item = createItem(rs, code);
+            else
+                itemsByKey.invalidate(itemKey);
+            list.add(item);
+        }
+
+        Items build() {
+            Map<String, PersistedCodeListItem> byCode = list.size() == 1
+                    ? Collections.singletonMap(list.get(0).getCode(), list.get(0))
+                    : new HashMap<String, PersistedCodeListItem>();
+            if (list.size() > 1)
+                for (PersistedCodeListItem item : list)
+                    byCode.put(item.getCode(), item);
+            return new Items(list, byCode, bytes);
+        }
+
+        private PersistedCodeListItem createItem(ResultSet rs, String code) throws SQLException {
+            PersistedCodeListItem item = new PersistedCodeListItem(codeList, rs.getInt(3));
+            item.setSystemId(rs.getInt(1));
+            item.setParentId(rs.getInt(4));
+            item.setSortOrder(rs.getInt(5));
+            item.setCode(code);
+            item.setQualifiable(!"0".equals(rs.getString(7)));
+            item.setSinceVersion(version(rs.getInt(8)));
+            item.setDeprecatedVersion(version(rs.getInt(9)));
+            bytes += ITEM_BYTES + chars(code);
+            List<String> languages = codeList.getSurvey().getLanguages();
+            item.removeAllLabels();
+            item.removeAllDescriptions();
+            for (int i = 0; i < languages.size() && i < 3; i++) {
+                String label = rs.getString(10 + i);
+                String description = rs.getString(13 + i);
+                item.setLabel(languages.get(i), label);
+                item.setDescription(languages.get(i), description);
+                bytes += chars(label) + chars(description);
+            }
+            return item;
+        }
+
+        private ModelVersion version(int versionId) {
+            return versionId == 0 ? null : codeList.getSurvey().getVersionById(versionId);
+        }
+
+        private int chars(String s) {
+            return s == null ? 0 : 2 * s.length();
+        }
+    }
+
+    private static class Items {
+        final List<PersistedCodeListItem> list;
+        final Map<String, PersistedCodeListItem> byCode;
+        final int bytes;
+
+        Items(List<PersistedCodeListItem> list, Map<String, PersistedCodeListItem> byCode, int bytes) {
+            this.list = list;
+            this.byCode = byCode;
+            this.bytes = bytes;
+        }
+    }
+
+    private static class Key {
+        final int codeListId;
+        final Integer parentItemId;
+        final boolean children;
+        final String code;
+
+        private Key(int codeListId, Integer parentItemId, boolean children, String code) {
+            this.codeListId = codeListId;
+            this.parentItemId = parentItemId;
+            this.children = children;
+            this.code = code;
+        }
+
+        static Key children(CodeList codeList, Integer parentItemId) {
+            return new Key(codeList.getId(), parentItemId, true, null);
+        }
+
+        static Key item(CodeList codeList, Integer parentItemId, String code) {
+            return new Key(codeList.getId(), parentItemId, false, code);
+        }
+
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return codeListId == key.codeListId
+                    && children == key.children
+                    && Objects.equal(parentItemId, key.parentItemId)
+                    && Objects.equal(code, key.code);
+        }
+
+        public int hashCode() {
+            return Objects.hashCode(codeListId, parentItemId, children, code);
+        }
+    }
+
+    public static final class Statistics {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final long entries;
+        public final long bytes;
+
+        public Statistics(long hits, long misses, long evictions, long entries, long bytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.bytes = bytes;
+        }
+
+        public double hitRatio() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        public String toString() {
+            return "hits: " + hits + ", misses: " + misses + ", evictions: " + evictions
+                    + ", entries: " + entries + ", bytes: " + bytes;
+        }
+    }
+}
@@ -1,9 +1,16 @@
 package org.openforis.collect.android.collectadapter;
 
+import org.openforis.collect.model.CollectSurvey;
+
 /**
  * @author Daniel Wiell
  */
 public interface CodeListSizeDao {
+    /**
+     * Loads the code list sizes of the survey, to be returned by the other methods.
+     */
+    void loadSizes(CollectSurvey survey);
+
     int codeListSize(int codeListId, int level);
 
     int externalCodeListSize(int codeListId, int level);
@@ -1,5 +1,6 @@
 package org.openforis.collect.android.collectadapter;
 
+import org.openforis.collect.model.CollectSurvey;
 import org.openforis.idm.metamodel.CodeAttributeDefinition;
 import org.openforis.idm.metamodel.CodeList;
 import org.openforis.idm.metamodel.CodeListItem;
@@ -18,7 +19,10 @@ public class CodeListSizeEvaluator {
         this.codeListSizeDao = codeListSizeDao;
     }
 
-    public synchronized int size(CodeAttributeDefinition definition) {
+    /**
+     * Sizes are read from the catalogue loaded by the dao, so determining one concurrently is cheap and harmless.
+     */
+    public int size(CodeAttributeDefinition definition) {
         Integer size = sizeByCodeListDefinition.get(definition.getId());
         if (size == null) {
             size = determineMaxSize(definition);
@@ -27,8 +31,9 @@ public class CodeListSizeEvaluator {
         return size;
     }
 
-    public void reset() {
+    public void surveySelected(CollectSurvey survey) {
         sizeByCodeListDefinition.clear();
+        codeListSizeDao.loadSizes(survey);
     }
 
     private int determineMaxSize(CodeAttributeDefinition definition) {
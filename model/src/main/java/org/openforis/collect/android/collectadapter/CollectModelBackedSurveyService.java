@@ -25,6 +25,11 @@ public class CollectModelBackedSurveyService implements SurveyService {
     private final ViewModelManager viewModelManager;
     private final CollectModelManager collectModelManager;
     private final File workingDir;
+    private final CollectModelManager.RecordLoader fullRecordLoader = new CollectModelManager.RecordLoader() {
+        public UiRecord load(int recordId) {
+            return viewModelManager.loadFullRecord(recordId);
+        }
+    };
 
     private SurveyListener listener;
     private boolean updating;
@@ -66,7 +71,7 @@ public class CollectModelBackedSurveyService implements SurveyService {
 
     public UiRecord selectRecord(int recordId) {
         UiRecord record = viewModelManager.selectRecord(recordId);
-        collectModelManager.recordSelected(record);
+        collectModelManager.recordSelected(record, fullRecordLoader);
         return record;
     }
 
@@ -111,6 +116,9 @@ public class CollectModelBackedSurveyService implements SurveyService {
             viewModelManager.addEntity(result.nodeAdded, result.nodeChanges);
             updateCalculatedAttributes(result.nodeChanges);
             return result.nodeAdded;
+        } catch (RuntimeException e) {
+            collectModelManager.discardSelectedRecord();
+            throw e;
         } finally {
             onRecordUpdateComplete();
         }
@@ -140,6 +148,9 @@ public class CollectModelBackedSurveyService implements SurveyService {
             viewModelManager.updateAttribute(attribute, nodeChanges);
             handleNodeChanges(UPDATED, attribute, nodeChanges);
             return attribute;
+        } catch (RuntimeException e) {
+            collectModelManager.discardSelectedRecord();
+            throw e;
         } finally {
             onRecordUpdateComplete();
         }
@@ -159,6 +170,9 @@ public class CollectModelBackedSurveyService implements SurveyService {
             viewModelManager.addAttribute(attribute, result.nodeChanges);
             updateAttribute(attribute);
             return attribute;
+        } catch (RuntimeException e) {
+            collectModelManager.discardSelectedRecord();
+            throw e;
         } finally {
             onRecordUpdateComplete();
         }
@@ -174,6 +188,9 @@ public class CollectModelBackedSurveyService implements SurveyService {
             Map<UiNode, UiNodeChange> nodeChanges = collectModelManager.removeAttribute(attribute);
             viewModelManager.removeNode(attribute, nodeChanges);
             handleNodeChanges(DELETED, attribute, nodeChanges);
+        } catch (RuntimeException e) {
+            collectModelManager.discardSelectedRecord();
+            throw e;
         } finally {
             onRecordUpdateComplete();
         }
@@ -192,6 +209,9 @@ public class CollectModelBackedSurveyService implements SurveyService {
                 viewModelManager.removeNode(entity, nodeChanges);
                 handleNodeChanges(DELETED, entity, nodeChanges);
             }
+        } catch (RuntimeException e) {
+            collectModelManager.discardSelectedRecord();
+            throw e;
         } finally {
             onRecordUpdateComplete();
         }
@@ -203,6 +223,7 @@ public class CollectModelBackedSurveyService implements SurveyService {
             UiRecordCollection recordCollection = (UiRecordCollection) selectedNode();
             UiRecord.Placeholder record = (UiRecord.Placeholder) recordCollection.getChildById(recordId);
             viewModelManager.removeRecord(record);
+            collectModelManager.recordRemoved(recordId);
         }
     }
 
@@ -219,6 +240,9 @@ public class CollectModelBackedSurveyService implements SurveyService {
             Map<UiNode, UiNodeChange> nodeChanges = collectModelManager.updateAttribute(attributeToUpdate);
             viewModelManager.updateAttribute(attributeToUpdate, nodeChanges);
             handleNodeChanges(UPDATED, attributeToUpdate, nodeChanges);
+        } catch (RuntimeException e) {
+            collectModelManager.discardSelectedRecord();
+            throw e;
         } finally {
             onRecordUpdateComplete();
         }
@@ -242,18 +266,9 @@ public class CollectModelBackedSurveyService implements SurveyService {
     }
 
     public File exportSurvey(File surveysDir, boolean excludeBinaries) throws IOException {
-        Integer selectedRecordId = viewModelManager.getSelectedRecordId();
-
         File exportedFile = exportFile(surveysDir);
         try {
-            collectModelManager.exportSurvey(viewModelManager.getSelectedSurvey(), exportedFile, excludeBinaries, new CollectModelManager.ExportListener() {
-                public void beforeRecordExport(int recordId) {
-                    selectRecord(recordId);
-                }
-            });
-
-            if (selectedRecordId != null)
-                selectRecord(selectedRecordId);
+            collectModelManager.exportSurvey(viewModelManager.getSelectedSurvey(), exportedFile, excludeBinaries, fullRecordLoader);
         } catch(IOException e) {
             if (exportedFile != null) {
                 exportedFile.delete();
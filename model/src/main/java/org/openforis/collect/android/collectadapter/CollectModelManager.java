@@ -1,5 +1,7 @@
 package org.openforis.collect.android.collectadapter;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.jooq.SQLDialect;
 import org.jooq.impl.DefaultConfiguration;
 import org.openforis.collect.android.CodeListService;
@@ -9,6 +11,7 @@ import org.openforis.collect.android.IdGenerator;
 import org.openforis.collect.android.Settings;
 import org.openforis.collect.android.SurveyException;
 import org.openforis.collect.android.attributeconverter.AttributeConverter;
+import org.openforis.collect.android.gui.util.meter.Metrics;
 import org.openforis.collect.android.gui.util.meter.Timer;
 import org.openforis.collect.android.util.CoordinateUtils;
 import org.openforis.collect.android.util.persistence.Database;
@@ -23,6 +26,7 @@ import org.openforis.collect.android.viewmodel.UiCoordinateAttribute;
 import org.openforis.collect.android.viewmodel.UiEntity;
 import org.openforis.collect.android.viewmodel.UiEntityCollection;
 import org.openforis.collect.android.viewmodel.UiFileAttribute;
+import org.openforis.collect.android.viewmodel.UiInternalNode;
 import org.openforis.collect.android.viewmodel.UiNode;
 import org.openforis.collect.android.viewmodel.UiNodeChange;
 import org.openforis.collect.android.viewmodel.UiRecord;
@@ -49,6 +53,7 @@ import org.openforis.collect.persistence.SurveyImportException;
 import org.openforis.collect.persistence.jooq.CollectDSLContext;
 import org.openforis.idm.metamodel.AttributeDefinition;
 import org.openforis.idm.metamodel.CodeAttributeDefinition;
+import org.openforis.idm.metamodel.CodeList;
 import org.openforis.idm.metamodel.CodeListItem;
 import org.openforis.idm.metamodel.FileAttributeDefinition;
 import org.openforis.idm.metamodel.ModelVersion;
@@ -63,25 +68,41 @@ import org.openforis.idm.model.Coordinate;
 import org.openforis.idm.model.CoordinateAttribute;
 import org.openforis.idm.model.Entity;
 import org.openforis.idm.model.FileAttribute;
-import org.openforis.idm.model.Node;
 import org.openforis.idm.model.NodePointer;
 import org.openforis.idm.model.Value;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * @author Daniel Wiell
  */
 public class CollectModelManager implements DefinitionProvider, CodeListService, CoordinateDestinationService {
 
+    private static final ExecutorService recordInitializer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "RecordInitializer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private static final Timer LOAD_SURVEY_TIMER = Metrics.timer(SurveyDao.class, "loadSurvey");
     private static final String FILE_TYPE_IMAGE_EXTENSION = "jpg";
     private static final String FILE_TYPE_AUDIO_EXTENSION = "3gp";
     private static final String FILE_TYPE_VIDEO_EXTENSION = "mp4";
@@ -92,6 +113,9 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
     private final SpeciesManager speciesManager;
     private final RecordFileManager recordFileManager;
     private final CodeListSizeEvaluator codeListSizeEvaluator;
+    private final IdGenerator idGenerator;
+    private final UiCodeListCache codeListCache = new UiCodeListCache();
+    private final CollectRecordCache recordCache = new CollectRecordCache();
 
     private final User user = new User();
     private final CollectDSLContext jooqDsl;
@@ -99,10 +123,13 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
     private Settings.PreferredLanguageMode languagePreference;
     private String preferredLanguage;
     private String selectedSurveyPreferredLanguage;
-    private RecordNodes recordNodes;
+    private Future<RecordNodes> recordNodes;
+    private UiRecord selectedRecord;
+    private boolean selectedRecordDependencyGraphsEnabled;
     private CollectSurvey selectedSurvey;
     private ModelConverter modelConverter;
     private Definitions definitions;
+    private ValidationMessages validationMessages;
 
     public CollectModelManager(SurveyManager surveyManager,
                                RecordManager recordManager,
@@ -110,6 +137,7 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
                                SpeciesManager speciesManager,
                                RecordFileManager recordFileManager,
                                Database database,
+                               IdGenerator idGenerator,
                                Settings.PreferredLanguageMode languagePreference,
                                String preferredLanguage) {
         this.surveyManager = surveyManager;
@@ -117,6 +145,7 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
         this.codeListManager = codeListManager;
         this.speciesManager = speciesManager;
         this.recordFileManager = recordFileManager;
+        this.idGenerator = idGenerator;
         this.languagePreference = languagePreference;
         this.preferredLanguage = preferredLanguage;
         codeListSizeEvaluator = new CodeListSizeEvaluator(new DatabaseCodeListSizeDao(database));
@@ -143,18 +172,16 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
 
     public UiSurvey loadSurvey() {
         try {
-            codeListSizeEvaluator.reset();
-            CollectSurvey collectSurvey = Timer.time(SurveyDao.class, "loadSurvey", new Callable<CollectSurvey>() {
-                public CollectSurvey call() throws Exception {
-                    SurveyDao surveyDao = surveyManager.getSurveyDao();
-                    List<CollectSurvey> surveys = surveyDao.loadAll();
-                    if (surveys.isEmpty())
-                        return null;
-                    return surveys.get(0);
-                }
-            });
-            if (collectSurvey == null)
+            long start = LOAD_SURVEY_TIMER.start();
+            List<CollectSurvey> surveys;
+            try {
+                surveys = surveyManager.getSurveyDao().loadAll();
+            } finally {
+                LOAD_SURVEY_TIMER.stop(start);
+            }
+            if (surveys.isEmpty())
                 return null;
+            CollectSurvey collectSurvey = surveys.get(0);
             selectSurvey(collectSurvey);
             return modelConverter.toUiSurvey();
         } catch (Exception e) {
@@ -163,48 +190,56 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
     }
 
     public UiRecord addRecord(String entityName, UiSurvey survey) {
+        releaseSelectedRecord();
         CollectRecord record = recordManager.create(selectedSurvey, entityName, user, latestSurveyVersion(), null, CollectRecord.Step.CLEANSING);
         UiRecord uiRecord = modelConverter.toUiRecord(record, survey);
-        recordNodes = new RecordNodes(record);
+        recordNodes = Futures.immediateFuture(new RecordNodes(record));
         return uiRecord;
     }
 
     public NodeAddedResult<UiEntity> addEntity(final UiEntityCollection uiEntityCollection) {
-        Entity parentEntity = recordNodes.getEntityById(uiEntityCollection.getParentEntityId());
+        Entity parentEntity = recordNodes().getEntityById(uiEntityCollection.getParentEntityId());
         NodeChangeSet changeSet = recordManager.addEntity(parentEntity, uiEntityCollection.getName());
         Entity entity = extractAddedEntity(changeSet);
         UiEntity uiEntity = modelConverter.toUiEntity(selectedSurvey, entity, uiEntityCollection);
-        recordNodes.add(entity);
-        Map<UiNode, UiNodeChange> nodeChanges = new NodeChangeSetParser(changeSet, uiEntity.getUiRecord(), selectedSurveyPreferredLanguage).extractChanges();
+        recordNodes().add(entity);
+        Map<UiNode, UiNodeChange> nodeChanges = new NodeChangeSetParser(changeSet, uiEntity.getUiRecord(), validationMessages).extractChanges();
         return new NodeAddedResult<UiEntity>(uiEntity, nodeChanges);
     }
 
     public NodeAddedResult<UiAttribute> addAttribute(UiAttributeCollection uiAttributeCollection) {
-        Entity parentEntity = recordNodes.getEntityById(uiAttributeCollection.getParentEntityId());
+        Entity parentEntity = recordNodes().getEntityById(uiAttributeCollection.getParentEntityId());
         UiAttributeDefinition definition = uiAttributeCollection.getDefinition().attributeDefinition;
 
         Value value = null; // TODO: Set the default value
         NodeChangeSet changeSet = recordManager.addAttribute(parentEntity, definition.name, value, null, null);
         Attribute attribute = extractAddedAttribute(changeSet);
-        attribute.setId(IdGenerator.nextId()); // TODO: Not right place to do this - use converter?
-        recordNodes.add(attribute);
+        attribute.setId(idGenerator.nextId()); // TODO: Not right place to do this - use converter?
+        recordNodes().add(attribute);
         UiAttribute uiAttribute = AttributeConverter.toUiAttribute(definition, attribute);
-        Map<UiNode, UiNodeChange> nodeChanges = new NodeChangeSetParser(changeSet, uiAttributeCollection.getUiRecord(), selectedSurveyPreferredLanguage).extractChanges();
+        Map<UiNode, UiNodeChange> nodeChanges = new NodeChangeSetParser(changeSet, uiAttributeCollection.getUiRecord(), validationMessages).extractChanges();
         return new NodeAddedResult<UiAttribute>(uiAttribute, nodeChanges);
     }
 
     @SuppressWarnings("unchecked")
     public Map<UiNode, UiNodeChange> updateAttribute(final UiAttribute uiAttribute) {
-        Attribute attribute = recordNodes.getAttribute(uiAttribute.getId());
+        Attribute attribute = recordNodes().getAttribute(uiAttribute.getId());
         Value value = AttributeConverter.toValue(uiAttribute);
         NodeChangeSet nodeChangeSet = recordManager.updateAttribute(attribute, value);
-        Map<UiNode, UiNodeChange> nodeChanges = new NodeChangeSetParser(nodeChangeSet, uiAttribute.getUiRecord(), selectedSurveyPreferredLanguage).extractChanges();
+        Map<UiNode, UiNodeChange> nodeChanges = new NodeChangeSetParser(nodeChangeSet, uiAttribute.getUiRecord(), validationMessages).extractChanges();
         if (uiAttribute instanceof UiCodeAttribute)
             updateChildrenCodeAttributes((UiCodeAttribute) uiAttribute, nodeChanges.keySet());
         return nodeChanges;
     }
 
+    /**
+     * Validates the attribute, if the selected record has been initialized. Otherwise there are no changes,
+     * so validation isn't waiting for the initialization when a node is selected.
+     */
     public Map<UiNode, UiNodeChange> validateAttribute(UiAttribute uiAttribute) {
+        RecordNodes recordNodes = initializedRecordNodes();
+        if (recordNodes == null)
+            return Collections.emptyMap();
         Attribute attribute = recordNodes.getAttribute(uiAttribute.getId());
         Validator validator = attribute.getRecord().getSurveyContext().getValidator();
         ValidationResults attributeResult = validator.validate(attribute);
@@ -212,7 +247,7 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
         NodeChangeMap changeMap = new NodeChangeMap();
         changeMap.addMinCountValidationResultChange(new NodePointer(attribute), cardinalityResult);
         changeMap.addValidationResultChange(attribute, attributeResult);
-        return new NodeChangeSetParser(changeMap, uiAttribute.getUiRecord(), selectedSurveyPreferredLanguage).extractChanges();
+        return new NodeChangeSetParser(changeMap, uiAttribute.getUiRecord(), validationMessages).extractChanges();
     }
 
     /**
@@ -225,7 +260,7 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
                 CodeAttributeDefinition nodeDefinition = selectedSurvey.getSchema().getDefinitionById(Integer.parseInt(uiNode.getDefinition().id));
                 CodeAttributeDefinition parentDefinition = nodeDefinition.getParentCodeAttributeDefinition();
                 if (parentDefinition != null && parentDefinition.getId() == parentDefinitionId) {
-                    CodeAttribute childCodeAttribute = recordNodes.getCodeAttribute(uiNode.getId());
+                    CodeAttribute childCodeAttribute = recordNodes().getCodeAttribute(uiNode.getId());
                     CodeListItem item = codeListManager.loadItemByAttribute(childCodeAttribute);
                     if (item != null) {
                         UiCodeAttribute childUiCodeAttribute = (UiCodeAttribute) uiNode;
@@ -239,26 +274,109 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
     }
 
     public Map<UiNode, UiNodeChange> removeAttribute(UiAttribute uiAttribute) {
-        Attribute attribute = recordNodes.getAttribute(uiAttribute.getId());
+        Attribute attribute = recordNodes().getAttribute(uiAttribute.getId());
         NodeChangeSet nodeChangeSet = recordManager.deleteNode(attribute);
-        recordNodes.remove(uiAttribute.getId());
-        return new NodeChangeSetParser(nodeChangeSet, uiAttribute.getUiRecord(), selectedSurveyPreferredLanguage).extractChanges();
+        recordNodes().remove(uiAttribute.getId());
+        return new NodeChangeSetParser(nodeChangeSet, uiAttribute.getUiRecord(), validationMessages).extractChanges();
     }
 
     public Map<UiNode, UiNodeChange> removeEntity(UiEntity uiEntity) {
-        Node node = recordNodes.getEntityById(uiEntity.getId());
-        NodeChangeSet nodeChangeSet = recordManager.deleteNode(node);
-        recordNodes.remove(uiEntity.getId());
-        return new NodeChangeSetParser(nodeChangeSet, uiEntity.getUiRecord(), selectedSurveyPreferredLanguage).extractChanges();
+        Entity entity = recordNodes().getEntityById(uiEntity.getId());
+        NodeChangeSet nodeChangeSet = recordManager.deleteNode(entity);
+        recordNodes().remove(uiEntity.getId());
+        return new NodeChangeSetParser(nodeChangeSet, uiEntity.getUiRecord(), validationMessages).extractChanges();
     }
 
     public void recordSelected(UiRecord uiRecord) {
         recordSelected(uiRecord, true);
     }
 
+    /**
+     * Selects the record, reusing the record last selected with the same id, if it hasn't been changed since.
+     */
     public void recordSelected(UiRecord uiRecord, boolean enableDependencyGraphs) {
-        CollectRecord record = modelConverter.toCollectRecord(uiRecord, selectedSurvey, enableDependencyGraphs);
-        recordNodes = new RecordNodes(record);
+        releaseSelectedRecord();
+        RecordNodes cachedRecordNodes = recordCache.take(uiRecord.getId(), uiRecord.getModifiedOn(), enableDependencyGraphs);
+        recordNodes = Futures.immediateFuture(cachedRecordNodes == null
+                ? new RecordNodes(modelConverter.toCollectRecord(uiRecord, selectedSurvey, enableDependencyGraphs))
+                : cachedRecordNodes);
+        selectedRecord = uiRecord;
+        selectedRecordDependencyGraphsEnabled = enableDependencyGraphs;
+    }
+
+    /**
+     * Selects the record without waiting for it to be initialized, unless recently selected.
+     * The record is loaded in full by the record loader and initialized, with dependency graphs, in the background,
+     * so a lazily loaded view model record isn't traversed. Methods changing the record wait for the initialization,
+     * while code lists are determined from the view model.
+     */
+    public void recordSelected(final UiRecord uiRecord, final RecordLoader recordLoader) {
+        releaseSelectedRecord();
+        RecordNodes cachedRecordNodes = recordCache.take(uiRecord.getId(), uiRecord.getModifiedOn(), true);
+        if (cachedRecordNodes == null) {
+            final ModelConverter modelConverter = this.modelConverter;
+            final CollectSurvey survey = selectedSurvey;
+            recordNodes = recordInitializer.submit(new Callable<RecordNodes>() {
+                public RecordNodes call() {
+                    UiRecord fullRecord = recordLoader.load(uiRecord.getId());
+                    return new RecordNodes(modelConverter.toCollectRecord(fullRecord, survey, true));
+                }
+            });
+        } else {
+            recordNodes = Futures.immediateFuture(cachedRecordNodes);
+        }
+        selectedRecord = uiRecord;
+        selectedRecordDependencyGraphsEnabled = true;
+    }
+
+    /**
+     * Keeps the selected record from being reused, as it might not match the node database after a failed update.
+     */
+    public void discardSelectedRecord() {
+        selectedRecord = null;
+    }
+
+    public void recordRemoved(int recordId) {
+        recordCache.remove(recordId);
+        if (selectedRecord != null && selectedRecord.getId() == recordId)
+            selectedRecord = null;
+    }
+
+    private void releaseSelectedRecord() {
+        if (selectedRecord != null) {
+            RecordNodes initializedRecordNodes = initializedRecordNodes();
+            if (initializedRecordNodes != null)
+                recordCache.put(selectedRecord.getId(), selectedRecord.getModifiedOn(), initializedRecordNodes, selectedRecordDependencyGraphsEnabled);
+        }
+        if (recordNodes != null)
+            recordNodes.cancel(false); // Skips the initialization, if not started yet
+        selectedRecord = null;
+    }
+
+    /**
+     * The nodes of the selected record, waiting for the record to be initialized.
+     */
+    private RecordNodes recordNodes() {
+        try {
+            return Uninterruptibles.getUninterruptibly(recordNodes);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("Failed to initialize selected record", e.getCause());
+        }
+    }
+
+    /**
+     * The nodes of the selected record, if already initialized without failing, otherwise null.
+     */
+    private RecordNodes initializedRecordNodes() {
+        if (!recordNodes.isDone() || recordNodes.isCancelled())
+            return null;
+        try {
+            return recordNodes.get();
+        } catch (Exception e) {
+            return null;
+        }
     }
 
     public Definition getById(String definitionId) {
@@ -269,21 +387,119 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
     }
 
     public UiCodeList codeList(UiCodeAttribute uiAttribute) {
-        CodeAttribute attribute = recordNodes.getCodeAttribute(uiAttribute.getId());
-        List<CodeListItem> items = codeListManager.loadValidItems(attribute.getParent(), attribute.getDefinition());
-        boolean valueShown = selectedSurvey.getUIOptions().getShowCode(attribute.getDefinition());
-        return modelConverter.toUiCodeList(items, valueShown, selectedSurveyPreferredLanguage);
+        return codeList(parentEntity(uiAttribute), (CodeAttributeDefinition) getDefinition(uiAttribute));
     }
 
     public UiCodeList codeList(UiAttributeCollection uiAttributeCollection) {
         if (!uiAttributeCollection.getDefinition().isOfAttributeType(UiCodeAttribute.class))
             throw new IllegalStateException("uiAttributeCollection " + uiAttributeCollection + " expected to have UiAttributeCollection attribute type");
-        Entity parentEntity = recordNodes.getEntityById(uiAttributeCollection.getParentEntityId());
-        Definition definition = uiAttributeCollection.getDefinition().attributeDefinition;
-        CodeAttributeDefinition codeAttributeDefinition = selectedSurvey.getSchema().getDefinitionById(Integer.parseInt(definition.id));
-        List<CodeListItem> items = codeListManager.loadValidItems(parentEntity, codeAttributeDefinition);
-        boolean valueShown = selectedSurvey.getUIOptions().getShowCode(codeAttributeDefinition);
-        return modelConverter.toUiCodeList(items, valueShown, selectedSurveyPreferredLanguage);
+        return codeList(parentEntity(uiAttributeCollection), (CodeAttributeDefinition) getDefinition(uiAttributeCollection));
+    }
+
+    /**
+     * Code list of attributes with the definition in the entity. The parent codes are taken from the view model,
+     * so the selected record doesn't have to be initialized. Records always have the latest survey version.
+     */
+    private UiCodeList codeList(UiEntity uiEntity, final CodeAttributeDefinition definition) {
+        final boolean valueShown = selectedSurvey.getUIOptions().getShowCode(definition);
+        final List<String> parentCodes = parentCodes(uiEntity, definition);
+        if (parentCodes == null) {
+            Entity parentEntity = recordNodes().getEntityById(uiEntity.getId());
+            List<CodeListItem> items = codeListManager.loadValidItems(parentEntity, definition);
+            return modelConverter.toUiCodeList(items, valueShown, selectedSurveyPreferredLanguage);
+        }
+        final ModelVersion version = latestVersion();
+        return codeListCache.codeList(definition, version, valueShown, parentCodes, new Callable<UiCodeList>() {
+            public UiCodeList call() {
+                List<CodeListItem> items = loadValidItems(definition, version, parentCodes);
+                return modelConverter.toUiCodeList(items, valueShown, selectedSurveyPreferredLanguage);
+            }
+        });
+    }
+
+    /**
+     * Codes of the parent code attributes of an attribute with the definition in the entity, starting with the
+     * root level. Null if a parent code attribute isn't in the entity or an ancestor entity, which the view model
+     * can't resolve the parent expression for.
+     */
+    private List<String> parentCodes(UiEntity uiEntity, CodeAttributeDefinition definition) {
+        LinkedList<String> parentCodes = new LinkedList<String>();
+        for (CodeAttributeDefinition parentDefinition = definition.getParentCodeAttributeDefinition();
+             parentDefinition != null; parentDefinition = parentDefinition.getParentCodeAttributeDefinition()) {
+            UiCodeAttribute parent = findInAncestors(uiEntity, Definitions.nodeDefinitionId(parentDefinition));
+            if (parent == null)
+                return null;
+            parentCodes.addFirst(parent.getCode() == null ? null : parent.getCode().getValue());
+            uiEntity = parentEntity(parent);
+        }
+        return parentCodes;
+    }
+
+    private UiCodeAttribute findInAncestors(UiEntity uiEntity, String definitionId) {
+        for (UiNode node = uiEntity; node != null; node = node.getParent()) {
+            if (node instanceof UiEntity) {
+                UiCodeAttribute attribute = findInEntity((UiEntity) node, definitionId);
+                if (attribute != null)
+                    return attribute;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Looks among the attributes of the entity, including the ones in tabs, but not in child entities.
+     */
+    private UiCodeAttribute findInEntity(UiInternalNode node, String definitionId) {
+        for (UiNode child : node.getChildren()) {
+            if (child instanceof UiCodeAttribute && child.getDefinition().id.equals(definitionId))
+                return (UiCodeAttribute) child;
+            if (child.getClass() == UiInternalNode.class) {
+                UiCodeAttribute attribute = findInEntity((UiInternalNode) child, definitionId);
+                if (attribute != null)
+                    return attribute;
+            }
+        }
+        return null;
+    }
+
+    private UiEntity parentEntity(UiNode node) {
+        UiNode parent = node.getParent();
+        while (!(parent instanceof UiEntity))
+            parent = parent.getParent();
+        return (UiEntity) parent;
+    }
+
+    /**
+     * Items of the code list level of the definition, below the items with the parent codes, applicable in the version.
+     * No items when a parent code is not specified.
+     */
+    private List<CodeListItem> loadValidItems(CodeAttributeDefinition definition, ModelVersion version, List<String> parentCodes) {
+        CodeList list = definition.getList();
+        List<CodeListItem> items;
+        if (parentCodes.isEmpty()) {
+            items = codeListManager.loadRootItems(list);
+        } else {
+            CodeListItem parentItem = null;
+            for (String parentCode : parentCodes) {
+                if (parentCode == null)
+                    return Collections.emptyList();
+                parentItem = parentItem == null
+                        ? codeListManager.loadRootItem(list, parentCode, version)
+                        : codeListManager.loadChildItem(parentItem, parentCode, version);
+                if (parentItem == null)
+                    return Collections.emptyList();
+            }
+            items = codeListManager.loadChildItems(parentItem);
+        }
+        List<CodeListItem> validItems = new ArrayList<CodeListItem>();
+        for (CodeListItem item : items)
+            if (version == null || version.isApplicable(item))
+                validItems.add(item);
+        return validItems;
+    }
+
+    public List<UiCode> findCodes(UiCodeList codeList, String query) {
+        return codeList.find(query);
     }
 
     public boolean isParentCodeAttribute(UiAttribute attribute, UiCodeAttribute codeAttribute) {
@@ -303,8 +519,7 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
     }
 
     public int getMaxCodeListSize(UiCodeAttribute uiAttribute) {
-        CodeAttribute attribute = recordNodes.getCodeAttribute(uiAttribute.getId());
-        return codeListSizeEvaluator.size(attribute.getDefinition());
+        return codeListSizeEvaluator.size((CodeAttributeDefinition) getDefinition(uiAttribute));
     }
 
 
@@ -324,9 +539,14 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
 
     private void selectSurvey(CollectSurvey survey) {
         selectedSurvey = survey;
+        selectedRecord = null;
+        recordCache.clear();
+        codeListCache.clear();
+        codeListSizeEvaluator.surveySelected(survey);
         selectedSurveyPreferredLanguage = determineSelectedSurveyPreferredLanguage();
         definitions = new Definitions(selectedSurvey, selectedSurveyPreferredLanguage);
-        modelConverter = new ModelConverter(selectedSurvey, definitions);
+        modelConverter = new ModelConverter(selectedSurvey, definitions, idGenerator);
+        validationMessages = new ValidationMessages(selectedSurveyPreferredLanguage);
     }
 
     private String determineSelectedSurveyPreferredLanguage() {
@@ -358,31 +578,44 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
     }
 
     private String latestSurveyVersion() {
+        ModelVersion version = latestVersion();
+        return version == null ? null : version.getName();
+    }
+
+    private ModelVersion latestVersion() {
         List<ModelVersion> versions = selectedSurvey.getVersions();
         if (versions == null || versions.isEmpty())
             return null;
-        return versions.get(versions.size() - 1).getName();
+        return versions.get(versions.size() - 1);
     }
 
-    public void exportSurvey(UiSurvey uiSurvey, File exportFile, boolean excludeBinaries, final ExportListener exportListener) throws IOException {
+    /**
+     * Records are taken from the record cache when unchanged, and put back once written, so they're not selected while
+     * exported. Other records are converted without dependency graphs. The selected record is not changed.
+     */
+    public void exportSurvey(UiSurvey uiSurvey, File exportFile, boolean excludeBinaries, final RecordLoader recordLoader) throws IOException {
+        final Map<Integer, CollectRecordCache.CachedRecord> exportedCachedRecords =
+                new ConcurrentHashMap<Integer, CollectRecordCache.CachedRecord>();
         new SurveyExporter(uiSurvey, selectedSurvey, surveyManager, excludeBinaries, new SurveyExporter.CollectRecordProvider() {
-            public CollectRecord record(int recordId) {
-                exportListener.beforeRecordExport(recordId);
-                return getCollectRecordForExporting(recordId);
+            public CollectRecord record(UiRecord.Placeholder recordPlaceholder) {
+                CollectRecordCache.CachedRecord cachedRecord = recordCache.takeRecord(recordPlaceholder.getId(), recordPlaceholder.getModifiedOn());
+                if (cachedRecord != null) {
+                    exportedCachedRecords.put(recordPlaceholder.getId(), cachedRecord);
+                    return cachedRecord.record();
+                }
+                return modelConverter.toCollectRecord(recordLoader.load(recordPlaceholder.getId()), selectedSurvey, false);
             }
-        }, recordFileManager).export(exportFile);
-    }
 
-    private CollectRecord getCollectRecordForExporting(int recordId) {
-        Entity rootEntity = recordNodes.getEntityById(recordId);
-        CollectRecord collectRecord = new CollectRecord(selectedSurvey, latestSurveyVersion(), rootEntity.getName(), false);
-        collectRecord.setId(recordId);
-        collectRecord.replaceRootEntity(rootEntity);
-        return collectRecord;
+            public void exported(UiRecord.Placeholder recordPlaceholder) {
+                CollectRecordCache.CachedRecord cachedRecord = exportedCachedRecords.remove(recordPlaceholder.getId());
+                if (cachedRecord != null)
+                    recordCache.putBack(recordPlaceholder.getId(), cachedRecord);
+            }
+        }, recordFileManager).export(exportFile);
     }
 
     public File file(UiFileAttribute uiFileAttribute) {
-        FileAttribute attribute = (FileAttribute) recordNodes.getAttribute(uiFileAttribute.getId());
+        FileAttribute attribute = (FileAttribute) recordNodes().getAttribute(uiFileAttribute.getId());
         FileAttributeDefinition def = attribute.getDefinition();
         String extension = determineFileAttributeExtension(def);
         File dir = new File(recordFileManager.getDefaultStorageDirectory().getPath() + "/" + RecordFileManager.getRepositoryRelativePath(def));
@@ -407,7 +640,7 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
     }
 
     public double[] destination(UiCoordinateAttribute uiAttribute, double[] coordinate) {
-        CoordinateAttribute attribute = (CoordinateAttribute) recordNodes.getAttribute(uiAttribute.getId());
+        CoordinateAttribute attribute = (CoordinateAttribute) recordNodes().getAttribute(uiAttribute.getId());
         Coordinate previousValue = attribute.getValue();
         try {
             attribute.setValue(new Coordinate(coordinate[0], coordinate[1], uiAttribute.getSpatialReferenceSystem().id));
@@ -431,7 +664,7 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
     }
 
     public ValidationResultFlag validateDistance(UiCoordinateAttribute uiAttribute, double[] coordinate) {
-        CoordinateAttribute attribute = (CoordinateAttribute) recordNodes.getAttribute(uiAttribute.getId());
+        CoordinateAttribute attribute = (CoordinateAttribute) recordNodes().getAttribute(uiAttribute.getId());
         Coordinate previousValue = attribute.getValue();
         try {
             attribute.setValue(new Coordinate(coordinate[0], coordinate[1], uiAttribute.getSpatialReferenceSystem().id));
@@ -468,8 +701,8 @@ public class CollectModelManager implements DefinitionProvider, CodeListService,
         return selectedSurvey;
     }
 
-    public interface ExportListener {
-        void beforeRecordExport(int recordId);
+    public interface RecordLoader {
+        UiRecord load(int recordId);
     }
 
 }
\ No newline at end of file
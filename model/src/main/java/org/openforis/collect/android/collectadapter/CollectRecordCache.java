@@ -0,0 +1,91 @@
+package org.openforis.collect.android.collectadapter;
+
+import com.google.common.base.Objects;
+import org.openforis.collect.model.CollectRecord;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The most recently selected records, initialized and ready to be selected again.
+ * A record is cached when another record gets selected, stamped with its modification date at that time.
+ * Records are only reused when the stamp still matches the modification date of the record in the node database,
+ * so records changed elsewhere are converted again.
+ * <p/>
+ * The selected record is never cached, so it's only used by the thread updating it. Records being exported are
+ * taken from the cache too, for the same reason.
+ *
+ * @author Daniel Wiell
+ */
+class CollectRecordCache {
+    private static final int MAX_RECORDS = 4;
+
+    private final Map<Integer, CachedRecord> recordById = new LinkedHashMap<Integer, CachedRecord>(MAX_RECORDS, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<Integer, CachedRecord> eldest) {
+            return size() > MAX_RECORDS;
+        }
+    };
+
+    synchronized void put(int recordId, Date modifiedOn, RecordNodes recordNodes, boolean dependencyGraphsEnabled) {
+        recordById.put(recordId, new CachedRecord(modifiedOn, recordNodes, dependencyGraphsEnabled));
+    }
+
+    /**
+     * Removes and returns the record nodes, if cached with the modification date and dependency graphs, when enabled.
+     */
+    synchronized RecordNodes take(int recordId, Date modifiedOn, boolean dependencyGraphsEnabled) {
+        CachedRecord cachedRecord = recordById.remove(recordId);
+        if (cachedRecord == null || !cachedRecord.matches(modifiedOn) || (dependencyGraphsEnabled && !cachedRecord.dependencyGraphsEnabled))
+            return null;
+        return cachedRecord.recordNodes;
+    }
+
+    /**
+     * Removes and returns the cached record, if cached with the modification date, to be put back with
+     * {@link #putBack} when no longer used.
+     */
+    synchronized CachedRecord takeRecord(int recordId, Date modifiedOn) {
+        CachedRecord cachedRecord = recordById.get(recordId);
+        if (cachedRecord == null || !cachedRecord.matches(modifiedOn))
+            return null;
+        recordById.remove(recordId);
+        return cachedRecord;
+    }
+
+    /**
+     * Puts back a record taken with {@link #takeRecord}, unless a record with the id has been cached since.
+     */
+    synchronized void putBack(int recordId, CachedRecord cachedRecord) {
+        if (!recordById.containsKey(recordId))
+            recordById.put(recordId, cachedRecord);
+    }
+
+    synchronized void remove(int recordId) {
+        recordById.remove(recordId);
+    }
+
+    synchronized void clear() {
+        recordById.clear();
+    }
+
+    static class CachedRecord {
+        final Date modifiedOn;
+        final RecordNodes recordNodes;
+        final boolean dependencyGraphsEnabled;
+
+        CachedRecord(Date modifiedOn, RecordNodes recordNodes, boolean dependencyGraphsEnabled) {
+            this.modifiedOn = modifiedOn;
+            this.recordNodes = recordNodes;
+            this.dependencyGraphsEnabled = dependencyGraphsEnabled;
+        }
+
+        CollectRecord record() {
+            return recordNodes.record();
+        }
+
+        boolean matches(Date modifiedOn) {
+            return Objects.equal(this.modifiedOn, modifiedOn);
+        }
+    }
+}
@@ -2,42 +2,168 @@ package org.openforis.collect.android.collectadapter;
 
 import org.openforis.collect.android.util.persistence.ConnectionCallback;
 import org.openforis.collect.android.util.persistence.Database;
+import org.openforis.collect.model.CollectSurvey;
+import org.openforis.idm.metamodel.CodeList;
+import org.openforis.idm.metamodel.CodeListLevel;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
+ * Code list sizes, read from a catalogue of the max number of items per parent, for each code list level.
+ * <p/>
+ * The catalogue is persisted in the survey database, which is replaced when a survey is imported. It's computed when
+ * first found missing, for both the code lists in {@code ofc_code_list} and the external code list lookup tables.
+ *
  * @author Daniel Wiell
  */
 public class DatabaseCodeListSizeDao implements CodeListSizeDao {
+    private static final Logger LOG = Logger.getLogger(DatabaseCodeListSizeDao.class.getName());
     private final Database database;
+    private volatile Map<SizeKey, Integer> sizeByCodeListLevel = Collections.emptyMap();
 
     public DatabaseCodeListSizeDao(Database database) {
         this.database = database;
     }
 
-    public int codeListSize(final int codeListId, final int level) {
-        return database.execute(new ConnectionCallback<Integer>() {
-            public Integer execute(Connection connection) throws SQLException {
-                PreparedStatement ps = connection.prepareStatement("" +
-                        "SELECT MAX(count) " +
-                        "FROM \n" +
-                        "   (SELECT COUNT(*) count\n" +
-                        "   FROM ofc_code_list\n" +
-                        "   WHERE code_list_id = ? AND level = ?" +
-                        "   GROUP BY parent_id) s");
-                ps.setInt(1, codeListId);
-                ps.setInt(2, level);
-                ResultSet rs = ps.executeQuery();
-                rs.next();
-                return rs.getInt(1);
+    public void loadSizes(final CollectSurvey survey) {
+        sizeByCodeListLevel = database.execute(new ConnectionCallback<Map<SizeKey, Integer>>() {
+            public Map<SizeKey, Integer> execute(Connection connection) throws SQLException {
+                if (createCatalogueIfMissing(connection)) {
+                    insertCodeListSizes(connection);
+                    for (CodeList codeList : survey.getCodeLists())
+                        if (codeList.isExternal())
+                            insertExternalCodeListSizes(codeList, connection);
+                }
+                return selectSizes(connection);
             }
         });
     }
 
+    public int codeListSize(int codeListId, int level) {
+        Integer size = sizeByCodeListLevel.get(new SizeKey(codeListId, level));
+        return size == null ? 0 : size;
+    }
+
     public int externalCodeListSize(int codeListId, int level) {
-        return Integer.MAX_VALUE; // TODO: Implement...
+        Integer size = sizeByCodeListLevel.get(new SizeKey(codeListId, level));
+        return size == null ? Integer.MAX_VALUE : size; // Lookup table could not be sized
+    }
+
+    private boolean createCatalogueIfMissing(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        statement.execute("" +
+                "CREATE TABLE IF NOT EXISTS ofc_code_list_size(\n" +
+                "code_list_id INTEGER NOT NULL,\n" +
+                "level INTEGER NOT NULL,\n" +
+                "max_size INTEGER NOT NULL,\n" +
+                "PRIMARY KEY (code_list_id, level)\n" +
+                ")");
+        ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM ofc_code_list_size");
+        rs.next();
+        boolean empty = rs.getInt(1) == 0;
+        rs.close();
+        statement.close();
+        return empty;
+    }
+
+    private void insertCodeListSizes(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        statement.executeUpdate("" +
+                "INSERT INTO ofc_code_list_size(code_list_id, level, max_size)\n" +
+                "SELECT code_list_id, level, MAX(count)\n" +
+                "FROM\n" +
+                "   (SELECT code_list_id, level, COUNT(*) count\n" +
+                "   FROM ofc_code_list\n" +
+                "   GROUP BY code_list_id, level, parent_id) s\n" +
+                "GROUP BY code_list_id, level");
+        statement.close();
+    }
+
+    /**
+     * Sizes each level the way {@link MobileExternalCodeListProvider} selects the items of a parent:
+     * by the parent level column, with the level column set and the next level column not set.
+     */
+    private void insertExternalCodeListSizes(CodeList codeList, Connection connection) throws SQLException {
+        List<CodeListLevel> hierarchy = codeList.getHierarchy();
+        int levels = Math.max(1, hierarchy.size());
+        PreparedStatement insert = connection.prepareStatement("" +
+                "INSERT INTO ofc_code_list_size(code_list_id, level, max_size) VALUES(?, ?, ?)");
+        for (int level = 1; level <= levels; level++) {
+            StringBuilder constraint = new StringBuilder("1 = 1");
+            if (level > 1)
+                constraint.append(" AND ").append(levelName(hierarchy, level)).append(" IS NOT NULL");
+            if (level < hierarchy.size())
+                constraint.append(" AND ").append(levelName(hierarchy, level + 1)).append(" IS NULL");
+            String groupBy = level > 1 ? "\n   GROUP BY " + levelName(hierarchy, level - 1) : "";
+            Statement statement = connection.createStatement();
+            try {
+                ResultSet rs = statement.executeQuery("" +
+                        "SELECT MAX(count)\n" +
+                        "FROM\n" +
+                        "   (SELECT COUNT(*) count\n" +
+                        "   FROM " + codeList.getLookupTable() + "\n" +
+                        "   WHERE " + constraint +
+                        groupBy + ") s");
+                rs.next();
+                insert.setInt(1, codeList.getId());
+                insert.setInt(2, level);
+                insert.setInt(3, rs.getInt(1));
+                insert.executeUpdate();
+                rs.close();
+            } catch (SQLException e) {
+                LOG.log(Level.WARNING, "Failed to determine size of external code list " + codeList.getName(), e);
+                break;
+            } finally {
+                statement.close();
+                insert.clearParameters();
+            }
+        }
+        insert.close();
+    }
+
+    private String levelName(List<CodeListLevel> hierarchy, int level) {
+        return hierarchy.get(level - 1).getName();
+    }
+
+    private Map<SizeKey, Integer> selectSizes(Connection connection) throws SQLException {
+        Map<SizeKey, Integer> sizes = new HashMap<SizeKey, Integer>();
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT code_list_id, level, max_size FROM ofc_code_list_size");
+        while (rs.next())
+            sizes.put(new SizeKey(rs.getInt(1), rs.getInt(2)), rs.getInt(3));
+        rs.close();
+        statement.close();
+        return sizes;
+    }
+
+    private static class SizeKey {
+        final int codeListId;
+        final int level;
+
+        SizeKey(int codeListId, int level) {
+            this.codeListId = codeListId;
+            this.level = level;
+        }
+
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            SizeKey sizeKey = (SizeKey) o;
+            return codeListId == sizeKey.codeListId && level == sizeKey.level;
+        }
+
+        public int hashCode() {
+            return 31 * codeListId + level;
+        }
     }
 }
@@ -260,11 +260,11 @@ public class Definitions {
         }
     }
 
-    private String nodeDefinitionId(NodeDefinition nodeDefinition) {
+    static String nodeDefinitionId(NodeDefinition nodeDefinition) {
         return String.valueOf(nodeDefinition.getId());
     }
 
-    private String collectionNodeDefinitionId(NodeDefinition nodeDefinition) {
+    static String collectionNodeDefinitionId(NodeDefinition nodeDefinition) {
         return COLLECTION_ID_PREFIX + nodeDefinition.getId();
     }
 
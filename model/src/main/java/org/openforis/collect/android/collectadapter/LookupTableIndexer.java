@@ -0,0 +1,136 @@
+package org.openforis.collect.android.collectadapter;
+
+import org.openforis.idm.metamodel.CodeList;
+import org.openforis.idm.metamodel.CodeListLevel;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Prepares external code list lookup tables for {@link MobileExternalCodeListProvider}: a natural sort key column,
+ * so items can be ordered in SQL, and an index for each level.
+ * <p/>
+ * The survey database is replaced when a survey is imported, so lookup tables are prepared when the survey is opened.
+ * Prepared lookup tables are recorded in {@code ofc_lookup_table_index}.
+ *
+ * @author Daniel Wiell
+ */
+class LookupTableIndexer {
+    static final String SORT_KEY_COLUMN = "ofc_sort_key";
+    private static final Logger LOG = Logger.getLogger(LookupTableIndexer.class.getName());
+    private static final int MAX_ENCODED_NUMBER_LENGTH = 'z' - '0';
+
+    /**
+     * Returns true if the lookup table is prepared, preparing it if needed.
+     */
+    boolean prepare(CodeList codeList, Connection connection) throws SQLException {
+        List<CodeListLevel> hierarchy = codeList.getHierarchy();
+        if (hierarchy.isEmpty())
+            return false;
+        String table = codeList.getLookupTable();
+        Statement statement = connection.createStatement();
+        statement.execute("CREATE TABLE IF NOT EXISTS ofc_lookup_table_index(lookup_table VARCHAR PRIMARY KEY NOT NULL)");
+        statement.close();
+        if (isPrepared(table, connection))
+            return true;
+        try {
+            addSortKeys(table, hierarchy, connection);
+            createIndexes(table, hierarchy, connection);
+        } catch (SQLException e) {
+            LOG.log(Level.WARNING, "Failed to prepare lookup table " + table, e);
+            return false;
+        }
+        PreparedStatement ps = connection.prepareStatement("INSERT INTO ofc_lookup_table_index(lookup_table) VALUES(?)");
+        ps.setString(1, table);
+        ps.executeUpdate();
+        ps.close();
+        return true;
+    }
+
+    /**
+     * A key sorting numbers in codes by value, as {@link org.openforis.collect.android.util.NaturalOrderComparator}
+     * does: each number is prefixed by a character encoding its length, with leading zeros stripped, so longer numbers
+     * sort after shorter ones.
+     */
+    static String naturalSortKey(String code) {
+        if (code == null)
+            return null;
+        StringBuilder key = new StringBuilder(code.length() + 4);
+        int i = 0;
+        while (i < code.length()) {
+            char c = code.charAt(i);
+            if (!Character.isDigit(c)) {
+                key.append(c);
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < code.length() && Character.isDigit(code.charAt(i)))
+                i++;
+            int nonZeroStart = start;
+            while (nonZeroStart < i - 1 && code.charAt(nonZeroStart) == '0')
+                nonZeroStart++;
+            int length = Math.min(i - nonZeroStart, MAX_ENCODED_NUMBER_LENGTH);
+            key.append((char) ('0' + length)).append(code, nonZeroStart, i);
+        }
+        return key.toString();
+    }
+
+    private boolean isPrepared(String table, Connection connection) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("SELECT 1 FROM ofc_lookup_table_index WHERE lookup_table = ?");
+        ps.setString(1, table);
+        ResultSet rs = ps.executeQuery();
+        boolean prepared = rs.next();
+        rs.close();
+        ps.close();
+        return prepared;
+    }
+
+    private void addSortKeys(String table, List<CodeListLevel> hierarchy, Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        statement.execute("ALTER TABLE " + table + " ADD COLUMN " + SORT_KEY_COLUMN + " VARCHAR");
+        StringBuilder levelColumns = new StringBuilder();
+        for (CodeListLevel level : hierarchy)
+            levelColumns.append(", ").append(level.getName());
+        ResultSet rs = statement.executeQuery("SELECT id" + levelColumns + " FROM " + table);
+        PreparedStatement update = connection.prepareStatement("" +
+                "UPDATE " + table + " SET " + SORT_KEY_COLUMN + " = ? WHERE id = ?");
+        while (rs.next()) {
+            String code = null;
+            for (int i = hierarchy.size(); i >= 1 && code == null; i--)
+                code = rs.getString(i + 1);
+            update.setString(1, naturalSortKey(code));
+            update.setInt(2, rs.getInt(1));
+            update.addBatch();
+        }
+        rs.close();
+        statement.close();
+        update.executeBatch();
+        update.close();
+    }
+
+    /**
+     * Items of a level are selected by the parent level code, and the next level being null.
+     * Indexing the level code as well covers looking up single items.
+     */
+    private void createIndexes(String table, List<CodeListLevel> hierarchy, Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        for (int level = 1; level <= hierarchy.size(); level++) {
+            StringBuilder columns = new StringBuilder();
+            if (level > 1)
+                columns.append(hierarchy.get(level - 2).getName()).append(", ");
+            if (level < hierarchy.size())
+                columns.append(hierarchy.get(level).getName()).append(", ");
+            columns.append(hierarchy.get(level - 1).getName());
+            statement.execute("CREATE INDEX IF NOT EXISTS " + table + "_ofc_level" + level + "_idx "
+                    + "ON " + table + "(" + columns + ")");
+        }
+        statement.close();
+    }
+}
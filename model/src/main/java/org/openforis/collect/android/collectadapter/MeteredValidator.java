@@ -1,5 +1,6 @@
 package org.openforis.collect.android.collectadapter;
 
+import org.openforis.collect.android.gui.util.meter.Metrics;
 import org.openforis.collect.android.gui.util.meter.Timer;
 import org.openforis.collect.manager.CodeListManager;
 import org.openforis.collect.model.validation.CollectValidator;
@@ -7,149 +8,176 @@ import org.openforis.idm.metamodel.NodeDefinition;
 import org.openforis.idm.metamodel.validation.*;
 import org.openforis.idm.model.*;
 
-import java.util.concurrent.Callable;
-
 /**
  * @author Daniel Wiell
  */
 public class MeteredValidator extends CollectValidator {
+    private static final Timer VALIDATE = timer("validate");
+    private static final Timer VALIDATE_MIN_COUNT = timer("validateMinCount");
+    private static final Timer VALIDATE_MAX_COUNT = timer("validateMaxCount");
+    private static final Timer GET_MIN_COUNT_VALIDATOR = timer("getMinCountValidator");
+    private static final Timer GET_MAX_COUNT_VALIDATOR = timer("getMaxCountValidator");
+    private static final Timer GET_TAXON_VERNACULAR_LANGUAGE_VALIDATOR = timer("getTaxonVernacularLanguageValidator");
+    private static final Timer GET_CODE_VALIDATOR = timer("getCodeValidator");
+    private static final Timer GET_CODE_PARENT_VALIDATOR = timer("getCodeParentValidator");
+    private static final Timer VALIDATE_ATTRIBUTE_CHECKS = timer("validateAttributeChecks");
+    private static final Timer VALIDATE_ATTRIBUTE_VALUE = timer("validateAttributeValue");
+    private static final Timer VALIDATE_NUMERIC_ATTRIBUTE_VALUE = timer("validateNumericAttributeValue");
+    private static final Timer VALIDATE_NUMERIC_ATTRIBUTE_UNIT = timer("validateNumericAttributeUnit");
+    private static final Timer VALIDATE_INTEGER_RANGE_ATTRIBUTE_VALUE = timer("validateIntegerRangeAttributeValue");
+    private static final Timer VALIDATE_REAL_RANGE_ATTRIBUTE_VALUE = timer("validateRealRangeAttributeValue");
+    private static final Timer VALIDATE_NUMERIC_RANGE_UNIT = timer("validateNumericRangeUnit");
+    private static final Timer VALIDATE_TAXON_ATTRIBUTE_VALUE = timer("validateTaxonAttributeValue");
+
     public MeteredValidator(CodeListManager codeListManager) {
         setCodeListManager(codeListManager);
     }
 
-    public ValidationResults validate(final Attribute<?, ?> attribute) {
-        return time("validate", new Callable<ValidationResults>() {
-            public ValidationResults call() throws Exception {
-                return MeteredValidator.super.validate(attribute);
-            }
-        });
+    public ValidationResults validate(Attribute<?, ?> attribute) {
+        long start = VALIDATE.start();
+        try {
+            return super.validate(attribute);
+        } finally {
+            VALIDATE.stop(start);
+        }
     }
 
-    public ValidationResultFlag validateMinCount(final Entity entity, final String childName) {
-        return time("validateMinCount", new Callable<ValidationResultFlag>() {
-            public ValidationResultFlag call() throws Exception {
-                return MeteredValidator.super.validateMinCount(entity, childName);
-            }
-        });
+    public ValidationResultFlag validateMinCount(Entity entity, String childName) {
+        long start = VALIDATE_MIN_COUNT.start();
+        try {
+            return super.validateMinCount(entity, childName);
+        } finally {
+            VALIDATE_MIN_COUNT.stop(start);
+        }
     }
 
-    public ValidationResultFlag validateMaxCount(final Entity entity, final String childName) {
-        return time("validateMaxCount", new Callable<ValidationResultFlag>() {
-            public ValidationResultFlag call() throws Exception {
-                return MeteredValidator.super.validateMaxCount(entity, childName);
-            }
-        });
+    public ValidationResultFlag validateMaxCount(Entity entity, String childName) {
+        long start = VALIDATE_MAX_COUNT.start();
+        try {
+            return super.validateMaxCount(entity, childName);
+        } finally {
+            VALIDATE_MAX_COUNT.stop(start);
+        }
     }
 
-    protected MinCountValidator getMinCountValidator(final NodeDefinition defn) {
-        return time("getMinCountValidator", new Callable<MinCountValidator>() {
-            public MinCountValidator call() throws Exception {
-                return MeteredValidator.super.getMinCountValidator(defn);
-            }
-        });
+    protected MinCountValidator getMinCountValidator(NodeDefinition defn) {
+        long start = GET_MIN_COUNT_VALIDATOR.start();
+        try {
+            return super.getMinCountValidator(defn);
+        } finally {
+            GET_MIN_COUNT_VALIDATOR.stop(start);
+        }
     }
 
-    protected MaxCountValidator getMaxCountValidator(final NodeDefinition defn) {
-        return time("getMaxCountValidator", new Callable<MaxCountValidator>() {
-            public MaxCountValidator call() throws Exception {
-                return MeteredValidator.super.getMaxCountValidator(defn);
-            }
-        });
+    protected MaxCountValidator getMaxCountValidator(NodeDefinition defn) {
+        long start = GET_MAX_COUNT_VALIDATOR.start();
+        try {
+            return super.getMaxCountValidator(defn);
+        } finally {
+            GET_MAX_COUNT_VALIDATOR.stop(start);
+        }
     }
 
     protected TaxonVernacularLanguageValidator getTaxonVernacularLanguageValidator() {
-        return time("getTaxonVernacularLanguageValidator", new Callable<TaxonVernacularLanguageValidator>() {
-            public TaxonVernacularLanguageValidator call() throws Exception {
-                return MeteredValidator.super.getTaxonVernacularLanguageValidator();
-            }
-        });
+        long start = GET_TAXON_VERNACULAR_LANGUAGE_VALIDATOR.start();
+        try {
+            return super.getTaxonVernacularLanguageValidator();
+        } finally {
+            GET_TAXON_VERNACULAR_LANGUAGE_VALIDATOR.stop(start);
+        }
     }
 
     protected CodeValidator getCodeValidator() {
-        return time("getCodeValidator", new Callable<CodeValidator>() {
-            public CodeValidator call() throws Exception {
-                return MeteredValidator.super.getCodeValidator();
-            }
-        });
+        long start = GET_CODE_VALIDATOR.start();
+        try {
+            return super.getCodeValidator();
+        } finally {
+            GET_CODE_VALIDATOR.stop(start);
+        }
     }
 
     protected CodeParentValidator getCodeParentValidator() {
-        return time("getCodeParentValidator", new Callable<CodeParentValidator>() {
-            public CodeParentValidator call() throws Exception {
-                return MeteredValidator.super.getCodeParentValidator();
-            }
-        });
-    }
-
-    protected void validateAttributeChecks(final Attribute<?, ?> attribute, final ValidationResults results) {
-        time("validateAttributeChecks", new Runnable() {
-            public void run() {
-                MeteredValidator.super.validateAttributeChecks(attribute, results);
-            }
-        });
-    }
-
-    protected void validateAttributeValue(final Attribute<?, ?> attribute, final ValidationResults results) {
-        time("validateAttributeValue", new Runnable() {
-            public void run() {
-                MeteredValidator.super.validateAttributeValue(attribute, results);
-            }
-        });
-    }
-
-    protected void validateNumericAttributeValue(final NumberAttribute<?, ?> attribute, final ValidationResults results) {
-        time("validateNumericAttributeValue", new Runnable() {
-            public void run() {
-                MeteredValidator.super.validateNumericAttributeValue(attribute, results);
-            }
-        });
-    }
-
-    protected void validateNumericAttributeUnit(final NumberAttribute<?, ?> attribute, final ValidationResults results) {
-        time("validateNumericAttributeUnit", new Runnable() {
-            public void run() {
-                MeteredValidator.super.validateNumericAttributeUnit(attribute, results);
-            }
-        });
-    }
-
-    protected void validateIntegerRangeAttributeValue(final IntegerRangeAttribute attribute, final ValidationResults results) {
-        time("validateIntegerRangeAttributeValue", new Runnable() {
-            public void run() {
-                MeteredValidator.super.validateIntegerRangeAttributeValue(attribute, results);
-            }
-        });
-    }
-
-    protected void validateRealRangeAttributeValue(final RealRangeAttribute attribute, final ValidationResults results) {
-        time("validateRealRangeAttributeValue", new Runnable() {
-            public void run() {
-                MeteredValidator.super.validateRealRangeAttributeValue(attribute, results);
-            }
-        });
-    }
-
-    protected void validateNumericRangeUnit(final NumericRangeAttribute<?, ?> attribute, final ValidationResults results) {
-        time("validateNumericRangeUnit", new Runnable() {
-            public void run() {
-                MeteredValidator.super.validateNumericRangeUnit(attribute, results);
-            }
-        });
-    }
-
-    protected void validateTaxonAttributeValue(final TaxonAttribute attribute, final ValidationResults results) {
-        time("validateTaxonAttributeValue", new Runnable() {
-            public void run() {
-                MeteredValidator.super.validateTaxonAttributeValue(attribute, results);
-            }
-        });
-    }
-
-    private <T> T time(String methodName, Callable<T> action) {
-        return Timer.time(CollectValidator.class, methodName, action);
-    }
-
-    private void time(String methodName, Runnable action) {
-        Timer.time(CollectValidator.class, methodName, action);
+        long start = GET_CODE_PARENT_VALIDATOR.start();
+        try {
+            return super.getCodeParentValidator();
+        } finally {
+            GET_CODE_PARENT_VALIDATOR.stop(start);
+        }
+    }
+
+    protected void validateAttributeChecks(Attribute<?, ?> attribute, ValidationResults results) {
+        long start = VALIDATE_ATTRIBUTE_CHECKS.start();
+        try {
+            super.validateAttributeChecks(attribute, results);
+        } finally {
+            VALIDATE_ATTRIBUTE_CHECKS.stop(start);
+        }
+    }
+
+    protected void validateAttributeValue(Attribute<?, ?> attribute, ValidationResults results) {
+        long start = VALIDATE_ATTRIBUTE_VALUE.start();
+        try {
+            super.validateAttributeValue(attribute, results);
+        } finally {
+            VALIDATE_ATTRIBUTE_VALUE.stop(start);
+        }
+    }
+
+    protected void validateNumericAttributeValue(NumberAttribute<?, ?> attribute, ValidationResults results) {
+        long start = VALIDATE_NUMERIC_ATTRIBUTE_VALUE.start();
+        try {
+            super.validateNumericAttributeValue(attribute, results);
+        } finally {
+            VALIDATE_NUMERIC_ATTRIBUTE_VALUE.stop(start);
+        }
+    }
+
+    protected void validateNumericAttributeUnit(NumberAttribute<?, ?> attribute, ValidationResults results) {
+        long start = VALIDATE_NUMERIC_ATTRIBUTE_UNIT.start();
+        try {
+            super.validateNumericAttributeUnit(attribute, results);
+        } finally {
+            VALIDATE_NUMERIC_ATTRIBUTE_UNIT.stop(start);
+        }
+    }
+
+    protected void validateIntegerRangeAttributeValue(IntegerRangeAttribute attribute, ValidationResults results) {
+        long start = VALIDATE_INTEGER_RANGE_ATTRIBUTE_VALUE.start();
+        try {
+            super.validateIntegerRangeAttributeValue(attribute, results);
+        } finally {
+            VALIDATE_INTEGER_RANGE_ATTRIBUTE_VALUE.stop(start);
+        }
+    }
+
+    protected void validateRealRangeAttributeValue(RealRangeAttribute attribute, ValidationResults results) {
+        long start = VALIDATE_REAL_RANGE_ATTRIBUTE_VALUE.start();
+        try {
+            super.validateRealRangeAttributeValue(attribute, results);
+        } finally {
+            VALIDATE_REAL_RANGE_ATTRIBUTE_VALUE.stop(start);
+        }
+    }
+
+    protected void validateNumericRangeUnit(NumericRangeAttribute<?, ?> attribute, ValidationResults results) {
+        long start = VALIDATE_NUMERIC_RANGE_UNIT.start();
+        try {
+            super.validateNumericRangeUnit(attribute, results);
+        } finally {
+            VALIDATE_NUMERIC_RANGE_UNIT.stop(start);
+        }
+    }
+
+    protected void validateTaxonAttributeValue(TaxonAttribute attribute, ValidationResults results) {
+        long start = VALIDATE_TAXON_ATTRIBUTE_VALUE.start();
+        try {
+            super.validateTaxonAttributeValue(attribute, results);
+        } finally {
+            VALIDATE_TAXON_ATTRIBUTE_VALUE.stop(start);
+        }
+    }
+
+    private static Timer timer(String methodName) {
+        return Metrics.timer(CollectValidator.class, methodName);
     }
 }
@@ -1,8 +1,12 @@
 package org.openforis.collect.android.collectadapter;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
 import org.openforis.collect.android.util.NaturalOrderComparator;
 import org.openforis.collect.android.util.persistence.ConnectionCallback;
 import org.openforis.collect.android.util.persistence.Database;
+import org.openforis.collect.model.CollectSurvey;
 import org.openforis.collect.persistence.DatabaseExternalCodeListProvider;
 import org.openforis.idm.metamodel.CodeAttributeDefinition;
 import org.openforis.idm.metamodel.CodeList;
@@ -11,21 +15,61 @@ import org.openforis.idm.model.CodeAttribute;
 
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * Lookup tables are prepared by {@link LookupTableIndexer}, in the background by {@link #prepareLookupTables}, to have
+ * items ordered in SQL, and selected through indexes. Until then, items are sorted after being selected.
+ * Item lists and single items are cached, by code list, level and codes, weighted by item count.
+ *
  * @author Daniel Wiell
  */
 public class MobileExternalCodeListProvider extends DatabaseExternalCodeListProvider {
+    private static final int MAX_CACHED_ITEMS = 20000;
     private final Database database;
+    private final LookupTableIndexer indexer = new LookupTableIndexer();
+    private final Map<String, Boolean> preparedByLookupTable = new ConcurrentHashMap<String, Boolean>();
+    private final Cache<ItemsKey, List<ExternalCodeListItem>> itemsByKey = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_CACHED_ITEMS)
+            .weigher(new Weigher<ItemsKey, List<ExternalCodeListItem>>() {
+                public int weigh(ItemsKey key, List<ExternalCodeListItem> items) {
+                    return items.size() + 1;
+                }
+            })
+            .build();
 
     public MobileExternalCodeListProvider(Database database) {
         this.database = database;
     }
 
+    /**
+     * Prepares the lookup tables of the external code lists of the survey, one table per transaction.
+     * Stops when the thread is interrupted.
+     */
+    public void prepareLookupTables(CollectSurvey survey) {
+        for (final CodeList codeList : survey.getCodeLists()) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+            if (!codeList.isExternal() || preparedByLookupTable.containsKey(codeList.getLookupTable()))
+                continue;
+            boolean prepared = database.execute(new ConnectionCallback<Boolean>() {
+                public Boolean execute(Connection connection) throws SQLException {
+                    return indexer.prepare(codeList, connection);
+                }
+            });
+            preparedByLookupTable.put(codeList.getLookupTable(), prepared);
+        }
+    }
+
     public List<ExternalCodeListItem> getRootItems(final CodeList codeList) {
-        return database.execute(new ConnectionCallback<List<ExternalCodeListItem>>() {
+        ItemsKey key = new ItemsKey(codeList, 1, Collections.<String>emptyList(), false);
+        List<ExternalCodeListItem> cached = itemsByKey.getIfPresent(key);
+        if (cached != null)
+            return new ArrayList<ExternalCodeListItem>(cached);
+        List<ExternalCodeListItem> items = database.execute(new ConnectionCallback<List<ExternalCodeListItem>>() {
             public List<ExternalCodeListItem> execute(Connection connection) throws SQLException {
-                String query = rootItemsQuery(codeList);
+                boolean prepared = isPrepared(codeList);
+                String query = rootItemsQuery(codeList, prepared);
                 PreparedStatement ps = connection.prepareStatement(query);
                 ResultSet rs = ps.executeQuery();
                 List<ExternalCodeListItem> items = new ArrayList<ExternalCodeListItem>();
@@ -33,35 +77,45 @@ public class MobileExternalCodeListProvider extends DatabaseExternalCodeListProv
                     items.add(parseRow(toRow(rs), codeList, 1));
                 rs.close();
                 ps.close();
-                final Comparator<String> naturalOrderComparator =
-                        new NaturalOrderComparator<String>();
-                Collections.sort(items, new Comparator<ExternalCodeListItem>() {
-                    public int compare(ExternalCodeListItem o1, ExternalCodeListItem o2) {
-                        return naturalOrderComparator.compare(o1.getCode(), o2.getCode());
-                    }
-                });
+                if (!prepared) {
+                    final Comparator<String> naturalOrderComparator =
+                            new NaturalOrderComparator<String>();
+                    Collections.sort(items, new Comparator<ExternalCodeListItem>() {
+                        public int compare(ExternalCodeListItem o1, ExternalCodeListItem o2) {
+                            return naturalOrderComparator.compare(o1.getCode(), o2.getCode());
+                        }
+                    });
+                }
                 return items;
             }
         });
+        itemsByKey.put(key, items);
+        return new ArrayList<ExternalCodeListItem>(items);
     }
 
-    private String rootItemsQuery(CodeList codeList) {
+    private String rootItemsQuery(CodeList codeList, boolean prepared) {
         String constraint = "1 = 1";
         int childLevel = 2; // Level is 1 based, so children of root is at level 2
         if (hasLevel(codeList, childLevel))
             constraint = levelName(codeList, childLevel) + " IS NULL";
         return "SELECT *\n" +
                 "FROM " + codeList.getLookupTable() + "\n" +
-                "WHERE " + constraint;
+                "WHERE " + constraint +
+                orderBy(prepared);
     }
 
     public List<ExternalCodeListItem> getChildItems(final ExternalCodeListItem parentItem) {
         final CodeList codeList = parentItem.getCodeList();
         if (codeList.getHierarchy().size() <= parentItem.getLevel())
             return Collections.emptyList();
-        return database.execute(new ConnectionCallback<List<ExternalCodeListItem>>() {
+        ItemsKey key = new ItemsKey(codeList, parentItem.getLevel() + 1, Collections.singletonList(parentItem.getCode()), false);
+        List<ExternalCodeListItem> cached = itemsByKey.getIfPresent(key);
+        if (cached != null)
+            return new ArrayList<ExternalCodeListItem>(cached);
+        List<ExternalCodeListItem> items = database.execute(new ConnectionCallback<List<ExternalCodeListItem>>() {
             public List<ExternalCodeListItem> execute(Connection connection) throws SQLException {
-                String query = childItemsQuery(parentItem);
+                boolean prepared = isPrepared(codeList);
+                String query = childItemsQuery(parentItem, prepared);
                 PreparedStatement ps = connection.prepareStatement(query);
                 ps.setString(1, parentItem.getCode());
                 ResultSet rs = ps.executeQuery();
@@ -70,22 +124,31 @@ public class MobileExternalCodeListProvider extends DatabaseExternalCodeListProv
                     items.add(parseRow(toRow(rs), codeList, parentItem.getLevel() + 1));
                 rs.close();
                 ps.close();
-                Collections.sort(items, new NaturalOrderComparator<ExternalCodeListItem>());
+                if (!prepared)
+                    Collections.sort(items, new NaturalOrderComparator<ExternalCodeListItem>());
                 return items;
             }
         });
+        itemsByKey.put(key, items);
+        return new ArrayList<ExternalCodeListItem>(items);
     }
 
     public ExternalCodeListItem getItem(final CodeAttribute attribute) {
         if (attribute.getValue().getCode() == null)
             return null;
-        return database.execute(new ConnectionCallback<ExternalCodeListItem>() {
+        final CodeAttributeDefinition definition = attribute.getDefinition();
+        final CodeList codeList = definition.getList();
+        final List<String> codes = itemQueryParams(attribute);
+        ItemsKey key = new ItemsKey(codeList, definition.getLevelPosition(), codes, true);
+        List<ExternalCodeListItem> cached = itemsByKey.getIfPresent(key);
+        if (cached != null)
+            return cached.isEmpty() ? null : cached.get(0);
+        ExternalCodeListItem item = database.execute(new ConnectionCallback<ExternalCodeListItem>() {
             public ExternalCodeListItem execute(Connection connection) throws SQLException {
-                CodeAttributeDefinition definition = attribute.getDefinition();
-                CodeList codeList = definition.getList();
                 String query = singleItemQuery(attribute, codeList);
                 PreparedStatement ps = connection.prepareStatement(query);
-                setItemQueryParams(ps, attribute);
+                for (int i = 0; i < codes.size(); i++)
+                    ps.setString(i + 1, codes.get(i));
                 ResultSet rs = ps.executeQuery();
                 ExternalCodeListItem item = null;
                 if (rs.next())
@@ -95,20 +158,30 @@ public class MobileExternalCodeListProvider extends DatabaseExternalCodeListProv
                 return item;
             }
         });
+        itemsByKey.put(key, item == null
+                ? Collections.<ExternalCodeListItem>emptyList()
+                : Collections.singletonList(item));
+        return item;
+    }
 
+    private boolean isPrepared(CodeList codeList) {
+        return Boolean.TRUE.equals(preparedByLookupTable.get(codeList.getLookupTable()));
     }
 
-    private void setItemQueryParams(PreparedStatement ps, CodeAttribute attribute) throws SQLException {
+    private String orderBy(boolean prepared) {
+        return prepared ? "\nORDER BY " + LookupTableIndexer.SORT_KEY_COLUMN : "";
+    }
+
+    private List<String> itemQueryParams(CodeAttribute attribute) {
+        List<String> codes = new ArrayList<String>();
         CodeAttribute a = attribute;
-        int i = 1;
         while (a != null) {
             String code = a.getValue().getCode();
-            if (code != null) {
-                ps.setString(i, code);
-                i++;
-            }
+            if (code != null)
+                codes.add(code);
             a = a.getCodeParent();
         }
+        return codes;
     }
 
     private String singleItemQuery(CodeAttribute attribute, CodeList codeList) {
@@ -131,7 +204,7 @@ public class MobileExternalCodeListProvider extends DatabaseExternalCodeListProv
             appendSingleItemQueryConstraint(parent, codeList, s);
     }
 
-    private String childItemsQuery(ExternalCodeListItem parentItem) {
+    private String childItemsQuery(ExternalCodeListItem parentItem, boolean prepared) {
         CodeList codeList = parentItem.getCodeList();
         String parentName = levelName(codeList, parentItem.getLevel());
         String childName = levelName(codeList, parentItem.getLevel() + 1);
@@ -143,7 +216,8 @@ public class MobileExternalCodeListProvider extends DatabaseExternalCodeListProv
             constraint += "AND " + grandChildName + " IS NULL";
         return "SELECT *\n" +
                 "FROM " + codeList.getLookupTable() + "\n" +
-                "WHERE " + constraint;
+                "WHERE " + constraint +
+                orderBy(prepared);
     }
 
     private String levelName(CodeList codeList, int level) {
@@ -167,4 +241,30 @@ public class MobileExternalCodeListProvider extends DatabaseExternalCodeListProv
             row.put(metaData.getColumnName(i).toLowerCase(), rs.getString(i));
         return row;
     }
+
+    private static class ItemsKey {
+        final int codeListId;
+        final int level;
+        final List<String> codes;
+        final boolean singleItem;
+
+        ItemsKey(CodeList codeList, int level, List<String> codes, boolean singleItem) {
+            this.codeListId = codeList.getId();
+            this.level = level;
+            this.codes = codes;
+            this.singleItem = singleItem;
+        }
+
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ItemsKey key = (ItemsKey) o;
+            return codeListId == key.codeListId && level == key.level && singleItem == key.singleItem
+                    && codes.equals(key.codes);
+        }
+
+        public int hashCode() {
+            return 31 * (31 * (31 * codeListId + level) + codes.hashCode()) + (singleItem ? 1 : 0);
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package org.openforis.collect.android.collectadapter;
 
+import org.openforis.collect.android.IdGenerator;
 import org.openforis.collect.android.attributeconverter.AttributeConverter;
 import org.openforis.collect.android.viewmodel.*;
 import org.openforis.collect.model.CollectRecord;
@@ -21,22 +22,24 @@ import java.util.List;
 class ModelConverter {
     private final CollectSurvey collectSurvey;
     private final Definitions definitions;
+    private final IdGenerator idGenerator;
 
-    ModelConverter(CollectSurvey collectSurvey, Definitions definitions) {
+    ModelConverter(CollectSurvey collectSurvey, Definitions definitions, IdGenerator idGenerator) {
         this.collectSurvey = collectSurvey;
         this.definitions = definitions;
+        this.idGenerator = idGenerator;
     }
 
     public UiSurvey toUiSurvey() {
-        return new UiModelBuilder(collectSurvey, definitions).createUiSurvey();
+        return new UiModelBuilder(collectSurvey, definitions, idGenerator).createUiSurvey();
     }
 
     public UiRecord toUiRecord(CollectRecord collectRecord, UiSurvey uiSurvey) {
-        return new UiModelBuilder(collectSurvey, definitions).createRecord(collectRecord, uiSurvey);
+        return new UiModelBuilder(collectSurvey, definitions, idGenerator).createRecord(collectRecord, uiSurvey);
     }
 
     public UiEntity toUiEntity(CollectSurvey collectSurvey, Entity entity, UiEntityCollection uiEntityCollection) {
-        return new UiModelBuilder(collectSurvey, definitions).addUiEntity(entity, uiEntityCollection);
+        return new UiModelBuilder(collectSurvey, definitions, idGenerator).addUiEntity(entity, uiEntityCollection);
     }
 
     public UiCodeList toUiCodeList(List<CodeListItem> codeList, boolean valueShown, String preferredLanguage) {
@@ -2,13 +2,11 @@ package org.openforis.collect.android.collectadapter;
 
 import org.openforis.collect.android.attributeconverter.AttributeConverter;
 import org.openforis.collect.android.viewmodel.*;
-import org.openforis.collect.manager.ResourceBundleMessageSource;
 import org.openforis.collect.model.AttributeChange;
 import org.openforis.collect.model.EntityChange;
 import org.openforis.collect.model.NodeChange;
 import org.openforis.collect.model.NodeChangeSet;
 import org.openforis.collect.model.validation.SpecifiedValidator;
-import org.openforis.collect.model.validation.ValidationMessageBuilder;
 import org.openforis.idm.metamodel.AttributeDefinition;
 import org.openforis.idm.metamodel.NodeDefinition;
 import org.openforis.idm.metamodel.validation.ValidationResult;
@@ -27,16 +25,12 @@ import static org.openforis.collect.android.collectadapter.AttributeUtils.*;
 class NodeChangeSetParser {
     private final NodeChangeSet nodeChangeSet;
     private final UiRecord uiRecord;
-    private final Messages messages = new Messages();
-    private final ValidationMessageBuilder validationMessageBuilder = ValidationMessageBuilder.createInstance(messages);
-    private final String preferredLanguage;
-    private final Locale preferredLocale;
+    private final ValidationMessages validationMessages;
 
-    public NodeChangeSetParser(NodeChangeSet nodeChangeSet, UiRecord uiRecord, String preferredLanguage) {
+    public NodeChangeSetParser(NodeChangeSet nodeChangeSet, UiRecord uiRecord, ValidationMessages validationMessages) {
         this.nodeChangeSet = nodeChangeSet;
         this.uiRecord = uiRecord;
-        this.preferredLanguage = preferredLanguage;
-        preferredLocale = new Locale(preferredLanguage);
+        this.validationMessages = validationMessages;
     }
 
     public Map<UiNode, UiNodeChange> extractChanges() {
@@ -91,7 +85,7 @@ class NodeChangeSetParser {
                 continue;
 
             boolean relevant = relevanceEntry.getValue();
-            for (UiNode uiNode : parentUiNode.findAllByName(nodeDefinition.getName())) {
+            for (UiNode uiNode : findAllByDefinition(parentUiNode, nodeDefinition)) {
                 boolean previouslyRelevant = uiNode.isRelevant();
                 if (relevant != previouslyRelevant)
                     getOrAddNodeChange(uiNode, nodeChanges).relevanceChange = true;
@@ -100,6 +94,15 @@ class NodeChangeSetParser {
         }
     }
 
+    /**
+     * Nodes of the definition in the entity, including collections of the definition.
+     */
+    private List<UiNode> findAllByDefinition(UiInternalNode uiNode, NodeDefinition nodeDefinition) {
+        return uiNode.findAllByDefinitionId(
+                Definitions.nodeDefinitionId(nodeDefinition),
+                Definitions.collectionNodeDefinitionId(nodeDefinition));
+    }
+
     private void parseValidationErrors(AttributeChange attributeChange, Map<UiNode, UiNodeChange> nodeChanges) {
         Attribute<?, ?> node = attributeChange.getNode();
         if (isCalculated(node) || isHidden(node) || isIrrelevant(node))
@@ -142,7 +145,7 @@ class NodeChangeSetParser {
             String childDefName = validationEntry.getKey();
             NodeDefinition childDef = entity.getDefinition().getChildDefinition(childDefName);
             ValidationResultFlag validationResultFlag = validationEntry.getValue();
-            Collection<UiNode> childrenNodes = parentNode.findAllByName(childDefName);
+            Collection<UiNode> childrenNodes = findAllByDefinition(parentNode, childDef);
 
             for (UiNode childNode : childrenNodes) {
                 if (childDef instanceof AttributeDefinition && !((AttributeDefinition) childDef).isCalculated() && isShown(childDef)
@@ -174,11 +177,12 @@ class NodeChangeSetParser {
                                               ValidationResultFlag validationResultFlag, Integer requiredCount,
                                               String singleCountMessageKey, String multipleCountMessageKey) {
         if (validationResultFlag != null && !validationResultFlag.isOk()) {
-            String message = requiredCount == null || requiredCount == 1 ? messages.getMessage(this.preferredLocale, singleCountMessageKey):
-                    messages.getMessage(this.preferredLocale, multipleCountMessageKey, requiredCount);
             UiNodeChange nodeChange = getOrAddNodeChange(uiNode, nodeChanges);
             if (!nodeChange.validationErrors.isEmpty())
                 return; // We've already added required validation for this node
+            UiValidationError.Message message = requiredCount == null || requiredCount == 1
+                    ? validationMessages.countMessage(singleCountMessageKey)
+                    : validationMessages.countMessage(multipleCountMessageKey, requiredCount);
             nodeChange.validationErrors.add(new UiValidationError(message, level(validationResultFlag), uiNode));
         }
     }
@@ -202,8 +206,8 @@ class NodeChangeSetParser {
     }
 
     private UiValidationError toValidationError(Attribute attribute, UiAttribute uiAttribute, ValidationResult validationResult) {
-        String message = validationMessageBuilder.getValidationMessage(attribute, validationResult, this.preferredLocale);
-        return new UiValidationError(message, getLevel(validationResult), uiAttribute);
+        return new UiValidationError(validationMessages.attributeMessage(attribute, validationResult),
+                getLevel(validationResult), uiAttribute);
     }
 
     private UiValidationError.Level getLevel(ValidationResult validationResult) {
@@ -220,10 +224,4 @@ class NodeChangeSetParser {
                 throw new IllegalStateException("Cannot create validation error level from an OK validation result flag");
         }
     }
-
-    private static class Messages extends ResourceBundleMessageSource {
-        protected PropertyResourceBundle findBundle(Locale locale, String baseName) {
-            return (PropertyResourceBundle) PropertyResourceBundle.getBundle(baseName, locale);
-        }
-    }
 }
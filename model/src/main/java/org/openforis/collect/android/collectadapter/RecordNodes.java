@@ -15,14 +15,20 @@ import static org.openforis.collect.android.collectadapter.AttributeUtils.isHidd
  * @author Daniel Wiell
  */
 class RecordNodes {
+    private final CollectRecord record;
     private final Map<Integer, Node> nodeById = new HashMap<Integer, Node>();
 
     public RecordNodes(CollectRecord record) {
         if (record == null)
             throw new IllegalArgumentException("Record is null");
+        this.record = record;
         add(record.getRootEntity());
     }
 
+    public CollectRecord record() {
+        return record;
+    }
+
     public void add(Entity entity) {
         if (entity == null)
             throw new IllegalArgumentException("Entity is null");
@@ -18,25 +18,46 @@ import org.openforis.idm.model.FileAttribute;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.*;
-import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
+import static java.util.Arrays.asList;
+
 /**
+ * Exports records as a pipeline: records are converted on the calling thread, marshalled to XML on a pool of threads,
+ * and written to the zip file, together with their files, by a single writer thread, in the order of the records.
+ * The number of records being marshalled or waiting to be written is bounded.
+ *
  * @author Daniel Wiell
  */
 public class SurveyExporter {
     private static final Logger LOG = Logger.getLogger(SurveyExporter.class.getName());
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MARSHALLING_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private static final int MAX_RECORDS_IN_PIPELINE = 2 * MARSHALLING_THREADS;
+    private static final Set<String> COMPRESSED_FILE_EXTENSIONS = new HashSet<String>(asList(
+            "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "m4a", "aac", "ogg", "3gp", "zip"));
     private final UiSurvey uiSurvey;
     private final CollectSurvey collectSurvey;
     private final SurveyManager surveyManager;
     private final boolean excludeBinaries;
     private final CollectRecordProvider collectRecordProvider;
     private final RecordFileManager recordFileManager;
-    private final DataMarshaller dataMarshaller;
+    private final ThreadLocal<DataMarshaller> dataMarshaller = new ThreadLocal<DataMarshaller>() {
+        protected DataMarshaller initialValue() {
+            return new DataMarshaller();
+        }
+    };
+    private final AtomicReference<IOException> writeFailure = new AtomicReference<IOException>();
     private ZipOutputStream zipOutputStream;
 
     public SurveyExporter(UiSurvey uiSurvey, CollectSurvey collectSurvey, SurveyManager surveyManager, boolean excludeBinaries, CollectRecordProvider collectRecordProvider, RecordFileManager recordFileManager) throws IOException {
@@ -46,7 +67,6 @@ public class SurveyExporter {
         this.excludeBinaries = excludeBinaries;
         this.collectRecordProvider = collectRecordProvider;
         this.recordFileManager = recordFileManager;
-        dataMarshaller = new DataMarshaller();
     }
 
     public void export(File outputFile) throws IOException, AllRecordKeysNotSpecified {
@@ -56,7 +76,7 @@ public class SurveyExporter {
                 outputFile.getParentFile().mkdirs();
             else
                 removeOldExportFiles(outputFile);
-            zipOutputStream = new ZipOutputStream(new FileOutputStream(outputFile));
+            zipOutputStream = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile), BUFFER_SIZE));
             addInfoFile();
             addIdmFile();
             exportRecords();
@@ -104,26 +124,101 @@ public class SurveyExporter {
     }
 
     private void exportRecords() throws IOException {
+        ExecutorService marshallers = Executors.newFixedThreadPool(MARSHALLING_THREADS);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        Semaphore recordsInPipeline = new Semaphore(MAX_RECORDS_IN_PIPELINE);
         User user = Settings.user();
-        for (UiNode rc : uiSurvey.getChildren()) {
-            UiRecordCollection recordCollection = (UiRecordCollection) rc;
-            for (UiNode rp : recordCollection.getChildren()) {
+        try {
+            for (UiNode rc : uiSurvey.getChildren())
+                for (UiNode rp : ((UiRecordCollection) rc).getChildren()) {
+                    acquire(recordsInPipeline);
+                    throwIfWriteFailed();
+                    exportRecord((UiRecord.Placeholder) rp, user, marshallers, writer, recordsInPipeline);
+                }
+            writer.shutdown();
+            awaitTermination(writer);
+            throwIfWriteFailed();
+        } finally {
+            marshallers.shutdownNow();
+            writer.shutdownNow();
+            awaitTerminationQuietly(writer); // Don't let the zip file be closed while written to
+        }
+    }
+
+    private void exportRecord(final UiRecord.Placeholder recordPlaceholder, User user, ExecutorService marshallers,
+                              ExecutorService writer, final Semaphore recordsInPipeline) throws IOException {
+        final CollectRecord record;
+        try {
+            record = collectRecordProvider.record(recordPlaceholder);
+            record.setCreatedBy(user);
+            record.setCreationDate(recordPlaceholder.getCreatedOn());
+            record.setModifiedBy(user);
+            record.setModifiedDate(recordPlaceholder.getModifiedOn());
+            record.setOwner(user);
+        } catch (Exception e) {
+            recordsInPipeline.release();
+            throw exportFailed(recordPlaceholder, e);
+        }
+        final Future<byte[]> xml = marshallers.submit(new Callable<byte[]>() {
+            public byte[] call() throws IOException {
+                return marshal(record);
+            }
+        });
+        writer.submit(new Runnable() {
+            public void run() {
                 try {
-                    UiRecord.Placeholder recordPlaceholder = (UiRecord.Placeholder) rp;
-                    CollectRecord record = collectRecordProvider.record(recordPlaceholder.getId());
-                    record.setCreatedBy(user);
-                    record.setCreationDate(rp.getCreatedOn());
-                    record.setModifiedBy(user);
-                    record.setModifiedDate(rp.getModifiedOn());
-                    record.setOwner(user);
-                    exportRecord(record);
-                    if (!excludeBinaries)
-                        exportRecordFiles(record);
+                    if (writeFailure.get() == null) {
+                        writeRecord(record, xml.get());
+                        if (!excludeBinaries)
+                            exportRecordFiles(record);
+                    }
+                } catch (ExecutionException e) {
+                    writeFailure.compareAndSet(null, exportFailed(recordPlaceholder, e.getCause()));
                 } catch (Exception e) {
-                    throw new IOException(String.format("Error exporting record %s with id %d: %s",
-                            ((UiRecord.Placeholder) rp).getKeyAttributes(), rp.getId(), e.getMessage()), e);
+                    writeFailure.compareAndSet(null, exportFailed(recordPlaceholder, e));
+                } finally {
+                    collectRecordProvider.exported(recordPlaceholder);
+                    recordsInPipeline.release();
                 }
             }
+        });
+    }
+
+    private IOException exportFailed(UiRecord.Placeholder recordPlaceholder, Throwable e) {
+        return new IOException(String.format("Error exporting record %s with id %d: %s",
+                recordPlaceholder.getKeyAttributes(), recordPlaceholder.getId(), e.getMessage()), e);
+    }
+
+    private void throwIfWriteFailed() throws IOException {
+        IOException failure = writeFailure.get();
+        if (failure != null)
+            throw failure;
+    }
+
+    private void acquire(Semaphore semaphore) throws InterruptedIOException {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export interrupted");
+        }
+    }
+
+    private void awaitTermination(ExecutorService executor) throws InterruptedIOException {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS))
+                ; // Keep waiting
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export interrupted");
+        }
+    }
+
+    private void awaitTerminationQuietly(ExecutorService executor) {
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -143,32 +238,79 @@ public class SurveyExporter {
         }
     }
 
+    /**
+     * Already compressed files are stored as they are, which requires the size and CRC up front.
+     */
     private void writeFile(File file, String entryName) throws IOException {
         ZipEntry entry = new ZipEntry(entryName);
+        if (isCompressed(file)) {
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(file.length());
+            entry.setCompressedSize(file.length());
+            entry.setCrc(crc(file));
+        }
         zipOutputStream.putNextEntry(entry);
-        IOUtils.copy(new FileInputStream(file), zipOutputStream);
-        zipOutputStream.closeEntry();
-        zipOutputStream.flush();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer))
+                zipOutputStream.write(buffer, 0, read);
+        } finally {
+            in.close();
+            zipOutputStream.closeEntry();
+        }
+    }
+
+    private boolean isCompressed(File file) {
+        String name = file.getName();
+        int extensionStart = name.lastIndexOf('.');
+        return extensionStart >= 0
+                && COMPRESSED_FILE_EXTENSIONS.contains(name.substring(extensionStart + 1).toLowerCase(Locale.ENGLISH));
     }
 
-    private void exportRecord(CollectRecord record) throws IOException {
+    private long crc(File file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        InputStream in = new FileInputStream(file);
+        try {
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer))
+                crc.update(buffer, 0, read);
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    private byte[] marshal(CollectRecord record) throws IOException {
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(xml, "UTF-8");
+        try {
+            dataMarshaller.get().write(record, writer);
+        } catch (XmlPullParserException e) {
+            throw new IllegalStateException(e);
+        }
+        writer.flush();
+        return xml.toByteArray();
+    }
+
+    private void writeRecord(CollectRecord record, byte[] xml) throws IOException {
         BackupDataExtractor.BackupRecordEntry recordEntry = new BackupDataExtractor.BackupRecordEntry(CollectRecord.Step.CLEANSING, record.getId());
-        ZipEntry entry = new ZipEntry(recordEntry.getName());
+        zipOutputStream.putNextEntry(new ZipEntry(recordEntry.getName()));
         try {
-            zipOutputStream.putNextEntry(entry);
-            OutputStreamWriter writer = new OutputStreamWriter(zipOutputStream);
-            try {
-                dataMarshaller.write(record, writer);
-            } catch (XmlPullParserException e) {
-                throw new IllegalStateException(e);
-            }
+            zipOutputStream.write(xml);
         } finally {
             zipOutputStream.closeEntry();
         }
     }
 
     interface CollectRecordProvider {
-        CollectRecord record(int recordId);
+        CollectRecord record(UiRecord.Placeholder recordPlaceholder);
+
+        /**
+         * Called by the writer thread when done with the record, whether written or not.
+         * Not called for records left in the pipeline when the export fails.
+         */
+        void exported(UiRecord.Placeholder recordPlaceholder);
     }
 
     public static class AllRecordKeysNotSpecified extends RuntimeException {
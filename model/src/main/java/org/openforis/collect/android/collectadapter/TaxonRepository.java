@@ -3,6 +3,7 @@ package org.openforis.collect.android.collectadapter;
 import org.openforis.collect.android.util.persistence.ConnectionCallback;
 import org.openforis.collect.android.util.persistence.Database;
 import org.openforis.collect.android.viewmodel.UiTaxon;
+import org.openforis.collect.android.viewmodelmanager.TaxonMatches;
 import org.openforis.collect.android.viewmodelmanager.TaxonService;
 
 import java.sql.Connection;
@@ -13,38 +14,65 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
+ * Finds taxa through {@link TaxonSearchIndex}. Until the index is built, taxa are found by matching their names.
+ *
  * @author Daniel Wiell
  */
 public class TaxonRepository implements TaxonService {
+    private static final Logger LOG = Logger.getLogger(TaxonRepository.class.getName());
     private final Database database;
     private final Map<String, Integer> taxonomyIdByName = new HashMap<String, Integer>();
+    private final TaxonSearchIndex searchIndex = new TaxonSearchIndex();
+    private volatile boolean searchIndexBuilt;
 
-    public TaxonRepository(Database database) {
+    /**
+     * @param indexBuilder runs the build of the search index. The build stops when the thread running it is interrupted.
+     */
+    public TaxonRepository(Database database, Executor indexBuilder) {
         this.database = database;
         initTaxonomy();
+        indexBuilder.execute(new Runnable() {
+            public void run() {
+                buildSearchIndex();
+            }
+        });
     }
 
-    public List<UiTaxon> find(final String query, final String taxonomy, final int maxResults) {
-        return database.execute(new ConnectionCallback<List<UiTaxon>>() {
-            public List<UiTaxon> execute(Connection connection) throws SQLException {
+    public TaxonMatches find(final String query, final String taxonomy, final int maxResults) {
+        return database.execute(new ConnectionCallback<TaxonMatches>() {
+            public TaxonMatches execute(Connection connection) throws SQLException {
                 ConstraintBuilder constraintBuilder = new ConstraintBuilder(query);
+                // Once built, the search index narrows down the taxa. The constraint picks the matching vernacular names
+                boolean indexed = searchIndexBuilt;
                 PreparedStatement ps = connection.prepareStatement("" +
                         "SELECT taxonomy_id, code, scientific_name, vernacular_name\n" +
                         "FROM ofc_taxon t\n" +
                         "LEFT JOIN ofc_taxon_vernacular_name v ON t.id = v.taxon_id\n" +
-                        "WHERE taxonomy_id = ? AND code IS NOT NULL\n" +
+                        (indexed
+                                ? "WHERE t.id IN (\n" + searchIndex.candidateTaxonIdsSql(constraintBuilder.terms.length) + ")"
+                                : "WHERE taxonomy_id = ?") +
+                        " AND code IS NOT NULL\n" +
                         "AND " + constraintBuilder.constraint() + "\n" +
                         "ORDER BY scientific_name, vernacular_name\n" +
                         "LIMIT ?");
-                ps.setInt(1, taxonomyId(taxonomy));
-                int i = 1;
+                int i;
+                if (indexed) {
+                    i = searchIndex.bindCandidateTaxonIds(ps, 0, taxonomyId(taxonomy), constraintBuilder.terms);
+                } else {
+                    ps.setInt(1, taxonomyId(taxonomy));
+                    i = 1;
+                }
                 for (String param : constraintBuilder.params) {
                     i += 1;
                     ps.setString(i, param);
                 }
-                ps.setInt(i + 1, maxResults * 3);
+                int rowLimit = maxResults * 3;
+                ps.setInt(i + 1, rowLimit + 1); // One row past the limit tells if the result is truncated
                 ResultSet rs = ps.executeQuery();
 
 
@@ -52,7 +80,8 @@ public class TaxonRepository implements TaxonService {
                 List<String> commonNames = new ArrayList<String>();
                 String code = null;
                 String scientificName = null;
-                while (rs.next()) {
+                int rows = 0;
+                while (rs.next() && ++rows <= rowLimit) {
                     if (code != null && !code.equals(rs.getString("code"))) {
                         result.add(new UiTaxon(code, scientificName, commonNames));
                         commonNames = new ArrayList<String>();
@@ -69,7 +98,8 @@ public class TaxonRepository implements TaxonService {
 
                 ps.close();
                 rs.close();
-                return result.subList(0, Math.min(maxResults, result.size()));
+                boolean truncated = rows > rowLimit || result.size() > maxResults;
+                return new TaxonMatches(result.subList(0, Math.min(maxResults, result.size())), truncated);
             }
         });
     }
@@ -120,13 +150,38 @@ public class TaxonRepository implements TaxonService {
         });
     }
 
+    private void buildSearchIndex() {
+        try {
+            database.execute(new ConnectionCallback<Void>() {
+                public Void execute(Connection connection) throws SQLException {
+                    searchIndex.createIfMissing(connection);
+                    return null;
+                }
+            });
+            // One transaction per chunk, letting searches run in between
+            boolean more = true;
+            while (more) {
+                if (Thread.currentThread().isInterrupted())
+                    return;
+                more = database.execute(new ConnectionCallback<Boolean>() {
+                    public Boolean execute(Connection connection) throws SQLException {
+                        return searchIndex.buildNextChunk(connection);
+                    }
+                });
+            }
+            searchIndexBuilt = true;
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to build taxon search index", e);
+        }
+    }
 
     private static class ConstraintBuilder {
+        private final String[] terms;
         private final List<String> params = new ArrayList<String>();
         private final StringBuilder constraint = new StringBuilder();
 
         public ConstraintBuilder(String query) {
-            String[] terms = query.toLowerCase().split(" ");
+            terms = TaxonSearchIndex.normalize(query).split(" ");
             for (int i = 0; i < terms.length; i++) {
                 String queryTerm = terms[i];
                 if (i != 0) constraint.append("AND ");
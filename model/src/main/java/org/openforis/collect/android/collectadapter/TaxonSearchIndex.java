@@ -0,0 +1,157 @@
+package org.openforis.collect.android.collectadapter;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Tokens of taxa, indexed for prefix lookups: the lower-cased code, and each lower-cased word of the scientific name
+ * and the vernacular names. A query term matches a taxon when it's a prefix of one of its tokens.
+ * <p/>
+ * The survey database, taxa included, is replaced when a survey is imported, so the index is built when the survey
+ * is opened, in chunks of taxa, each in its own transaction. The last indexed taxon is kept, so an interrupted build
+ * continues where it stopped. A plain table is used rather than FTS, to work with the SQLite versions of all
+ * supported Android versions, as well as with the H2 test database.
+ *
+ * @author Daniel Wiell
+ */
+class TaxonSearchIndex {
+    // Sorts after any character a token can contain, except ones outside the Basic Multilingual Plane
+    private static final String PREFIX_END = "\uFFFF";
+
+    static final int TAXA_PER_CHUNK = 500;
+
+    void createIfMissing(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        statement.execute("" +
+                "CREATE TABLE IF NOT EXISTS ofc_taxon_search(\n" +
+                "taxonomy_id INTEGER NOT NULL,\n" +
+                "token VARCHAR NOT NULL,\n" +
+                "taxon_id INTEGER NOT NULL\n" +
+                ")");
+        statement.execute("CREATE INDEX IF NOT EXISTS ofc_taxon_search_idx ON ofc_taxon_search(taxonomy_id, token, taxon_id)");
+        statement.execute("CREATE TABLE IF NOT EXISTS ofc_taxon_search_progress(last_taxon_id INTEGER NOT NULL)");
+        // Vernacular names of the matching taxa are joined by taxon
+        statement.execute("CREATE INDEX IF NOT EXISTS ofc_taxon_vernacular_name_taxon_idx ON ofc_taxon_vernacular_name(taxon_id)");
+        ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM ofc_taxon_search_progress");
+        rs.next();
+        boolean started = rs.getInt(1) > 0;
+        rs.close();
+        if (!started)
+            statement.execute("INSERT INTO ofc_taxon_search_progress(last_taxon_id) VALUES(0)");
+        statement.close();
+    }
+
+    /**
+     * Indexes the next chunk of taxa, returning false when there were no more taxa to index.
+     */
+    boolean buildNextChunk(Connection connection) throws SQLException {
+        Statement statement = connection.createStatement();
+        ResultSet rs = statement.executeQuery("SELECT last_taxon_id FROM ofc_taxon_search_progress");
+        rs.next();
+        int lastTaxonId = rs.getInt(1);
+        rs.close();
+        statement.close();
+
+        PreparedStatement insert = connection.prepareStatement("" +
+                "INSERT INTO ofc_taxon_search(taxonomy_id, token, taxon_id) VALUES(?, ?, ?)");
+        PreparedStatement taxa = connection.prepareStatement("" +
+                "SELECT id, taxonomy_id, code, scientific_name\n" +
+                "FROM ofc_taxon\n" +
+                "WHERE id > ? AND code IS NOT NULL\n" +
+                "ORDER BY id\n" +
+                "LIMIT ?");
+        taxa.setInt(1, lastTaxonId);
+        taxa.setInt(2, TAXA_PER_CHUNK);
+        rs = taxa.executeQuery();
+        int firstTaxonId = lastTaxonId + 1;
+        boolean found = false;
+        while (rs.next()) {
+            found = true;
+            lastTaxonId = rs.getInt(1);
+            Set<String> tokens = words(rs.getString(4));
+            tokens.add(normalize(rs.getString(3)));
+            addBatch(insert, rs.getInt(2), tokens, lastTaxonId);
+        }
+        rs.close();
+        taxa.close();
+        if (!found) {
+            insert.close();
+            return false;
+        }
+
+        PreparedStatement vernacularNames = connection.prepareStatement("" +
+                "SELECT t.id, t.taxonomy_id, v.vernacular_name\n" +
+                "FROM ofc_taxon t\n" +
+                "JOIN ofc_taxon_vernacular_name v ON t.id = v.taxon_id\n" +
+                "WHERE t.id BETWEEN ? AND ? AND t.code IS NOT NULL");
+        vernacularNames.setInt(1, firstTaxonId);
+        vernacularNames.setInt(2, lastTaxonId);
+        rs = vernacularNames.executeQuery();
+        while (rs.next())
+            addBatch(insert, rs.getInt(2), words(rs.getString(3)), rs.getInt(1));
+        rs.close();
+        vernacularNames.close();
+        insert.executeBatch();
+        insert.close();
+
+        PreparedStatement progress = connection.prepareStatement("UPDATE ofc_taxon_search_progress SET last_taxon_id = ?");
+        progress.setInt(1, lastTaxonId);
+        progress.executeUpdate();
+        progress.close();
+        return true;
+    }
+
+    /**
+     * Selects the ids of the taxa matching all terms. Bind with {@link #bindCandidateTaxonIds}.
+     */
+    String candidateTaxonIdsSql(int termCount) {
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < termCount; i++) {
+            if (i > 0)
+                sql.append("INTERSECT\n");
+            sql.append("SELECT taxon_id FROM ofc_taxon_search WHERE taxonomy_id = ? AND token >= ? AND token < ?\n");
+        }
+        return sql.toString();
+    }
+
+    int bindCandidateTaxonIds(PreparedStatement ps, int index, int taxonomyId, String[] terms) throws SQLException {
+        for (String term : terms) {
+            ps.setInt(++index, taxonomyId);
+            ps.setString(++index, term);
+            ps.setString(++index, term + PREFIX_END);
+        }
+        return index;
+    }
+
+    static String normalize(String text) {
+        return text.toLowerCase(Locale.ENGLISH);
+    }
+
+    private void addBatch(PreparedStatement insert, int taxonomyId, Set<String> tokens, int taxonId) throws SQLException {
+        for (String token : tokens) {
+            insert.setInt(1, taxonomyId);
+            insert.setString(2, token);
+            insert.setInt(3, taxonId);
+            insert.addBatch();
+        }
+    }
+
+    /**
+     * Words are separated by space, the same way query terms are.
+     */
+    private static Set<String> words(String text) {
+        Set<String> words = new LinkedHashSet<String>();
+        if (text == null)
+            return words;
+        for (String word : normalize(text).split(" "))
+            if (word.length() > 0)
+                words.add(word);
+        return words;
+    }
+}
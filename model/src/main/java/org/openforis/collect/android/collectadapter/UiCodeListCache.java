@@ -0,0 +1,90 @@
+package org.openforis.collect.android.collectadapter;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import org.openforis.collect.android.viewmodel.UiCodeList;
+import org.openforis.idm.metamodel.CodeAttributeDefinition;
+import org.openforis.idm.metamodel.ModelVersion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Code lists converted to the view model, shared by all attributes with the same code list, level and parent codes,
+ * in records of the same survey version, as items are filtered by version.
+ * Weighted by the number of codes, to bound the memory used by large external code lists.
+ *
+ * @author Daniel Wiell
+ */
+class UiCodeListCache {
+    static final int MAX_CACHED_CODES = 20000;
+
+    private final Cache<Key, UiCodeList> codeListByKey = CacheBuilder.newBuilder()
+            .concurrencyLevel(1) // Single segment, so a large code list can take up to the whole weight
+            .maximumWeight(MAX_CACHED_CODES)
+            .weigher(new Weigher<Key, UiCodeList>() {
+                public int weigh(Key key, UiCodeList codeList) {
+                    return codeList.getCodes().size() + 1;
+                }
+            })
+            .build();
+
+    /**
+     * Code list of attributes with the definition and parent codes, starting with the root level,
+     * in a record of the version. Loaded by the loader if not cached.
+     */
+    synchronized UiCodeList codeList(CodeAttributeDefinition definition, ModelVersion version, boolean valueShown,
+                                     List<String> parentCodes, Callable<UiCodeList> loader) {
+        Key key = new Key(definition, version, valueShown, parentCodes);
+        UiCodeList codeList = codeListByKey.getIfPresent(key);
+        if (codeList != null)
+            return codeList;
+        try {
+            codeList = loader.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        codeListByKey.put(key, codeList);
+        return codeList;
+    }
+
+    synchronized void clear() {
+        codeListByKey.invalidateAll();
+    }
+
+    private static class Key {
+        final int codeListId;
+        final int level;
+        final Integer versionId;
+        final boolean valueShown;
+        final List<String> parentCodes;
+
+        Key(CodeAttributeDefinition definition, ModelVersion version, boolean valueShown, List<String> parentCodes) {
+            this.codeListId = definition.getList().getId();
+            this.level = definition.getLevelPosition();
+            this.versionId = version == null ? null : version.getId();
+            this.valueShown = valueShown;
+            this.parentCodes = new ArrayList<String>(parentCodes);
+        }
+
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return codeListId == key.codeListId
+                    && level == key.level
+                    && Objects.equal(versionId, key.versionId)
+                    && valueShown == key.valueShown
+                    && parentCodes.equals(key.parentCodes);
+        }
+
+        public int hashCode() {
+            return Objects.hashCode(codeListId, level, versionId, valueShown, parentCodes);
+        }
+    }
+}
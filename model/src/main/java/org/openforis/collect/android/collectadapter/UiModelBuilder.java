@@ -23,10 +23,12 @@ import static org.openforis.collect.android.collectadapter.AttributeUtils.isShow
 class UiModelBuilder {
     private final CollectSurvey survey;
     private final Definitions definitions;
+    private final IdGenerator idGenerator;
 
-    public UiModelBuilder(CollectSurvey survey, Definitions definitions) {
+    public UiModelBuilder(CollectSurvey survey, Definitions definitions, IdGenerator idGenerator) {
         this.survey = survey;
         this.definitions = definitions;
+        this.idGenerator = idGenerator;
     }
 
     public UiSurvey createUiSurvey() {
@@ -37,7 +39,7 @@ class UiModelBuilder {
     }
 
     private UiRecordCollection createUiRecordCollection(EntityDefinition recordDefinition) {
-        return new UiRecordCollection(IdGenerator.nextId(), definitions.toCollectionDefinition(recordDefinition));
+        return new UiRecordCollection(idGenerator.nextId(), definitions.toCollectionDefinition(recordDefinition));
     }
 
     public UiRecord createRecord(CollectRecord record, UiSurvey uiSurvey) {
@@ -145,7 +147,7 @@ class UiModelBuilder {
         }
 
         private UiEntity instantiateUiEntity(Entity entity) {
-            entity.setId(IdGenerator.nextId());
+            entity.setId(idGenerator.nextId());
             UiEntity uiEntity = new UiEntity(entity.getId(), isRelevant(entity), definitions.toDefinition(entity));
             setRelevance(entity.getParent(), uiEntity);
             return uiEntity;
@@ -169,13 +171,13 @@ class UiModelBuilder {
         }
 
         private UiAttribute instantiateUiAttribute(Attribute attribute) {
-            attribute.setId(IdGenerator.nextId());
+            attribute.setId(idGenerator.nextId());
             Definition definition = definitions.toDefinition(attribute);
             return AttributeConverter.toUiAttribute((UiAttributeDefinition) definition, attribute);
         }
 
         private UiRecord instantiateUiRecord(Entity rootEntity, UiSurvey uiSurvey) {
-            rootEntity.setId(IdGenerator.nextId());
+            rootEntity.setId(idGenerator.nextId());
             String name = rootEntity.getName();
             UiRecordCollection collection = uiSurvey.lookupRecordCollection(name);
             return new UiRecord(rootEntity.getId(), definitions.toDefinition(rootEntity), collection);
@@ -183,7 +185,7 @@ class UiModelBuilder {
 
         private UiAttributeCollection instantiateUiAttributeCollection(AttributeDefinition attributeDefinition, Entity parentEntity) {
             return new UiAttributeCollection(
-                    IdGenerator.nextId(),
+                    idGenerator.nextId(),
                     parentEntity.getId(),
                     parentEntity.isRelevant(attributeDefinition.getName()),
                     (UiAttributeCollectionDefinition) definitions.toCollectionDefinition(attributeDefinition)
@@ -192,7 +194,7 @@ class UiModelBuilder {
 
         private UiEntityCollection instantiateUiEntityCollection(EntityDefinition entityDefinition, Entity parentEntity) {
             return new UiEntityCollection(
-                    IdGenerator.nextId(),
+                    idGenerator.nextId(),
                     parentEntity.getId(),
                     parentEntity.isRelevant(entityDefinition.getName()),
                     definitions.toCollectionDefinition(entityDefinition)
@@ -0,0 +1,109 @@
+package org.openforis.collect.android.collectadapter;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.openforis.collect.android.viewmodel.UiValidationError;
+import org.openforis.collect.manager.ResourceBundleMessageSource;
+import org.openforis.collect.model.validation.ValidationMessageBuilder;
+import org.openforis.idm.metamodel.validation.Check;
+import org.openforis.idm.metamodel.validation.ValidationResult;
+import org.openforis.idm.metamodel.validation.ValidationResultFlag;
+import org.openforis.idm.model.Attribute;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.PropertyResourceBundle;
+
+/**
+ * Validation messages of the selected survey, in its preferred language.
+ * Messages are kept by validator, flag and message arguments, so errors repeated over many nodes are rendered once.
+ * Count messages are rendered the first time they're displayed, from arguments taken when the error is created.
+ * Attribute messages take their arguments from the attribute, which changes with the record, so they're rendered
+ * when the error is created.
+ * <p/>
+ * Checks are specified per node definition, so messages of a check are kept per check instance.
+ * Messages of other validators are kept per validator type, attribute definition and value.
+ *
+ * @author Daniel Wiell
+ */
+class ValidationMessages {
+    private static final int MAX_MESSAGES = 500;
+
+    private final Messages messages = new Messages();
+    private final ValidationMessageBuilder validationMessageBuilder = ValidationMessageBuilder.createInstance(messages);
+    private final Locale locale;
+    private final Cache<Key, String> messageByKey = CacheBuilder.newBuilder()
+            .maximumSize(MAX_MESSAGES)
+            .build();
+
+    ValidationMessages(String preferredLanguage) {
+        locale = new Locale(preferredLanguage);
+    }
+
+    UiValidationError.Message countMessage(final String messageKey, Object... args) {
+        final Object[] messageArgs = args.clone();
+        final Key key = new Key(messageKey, null, Arrays.asList(messageArgs));
+        return new UiValidationError.Message() {
+            public String render() {
+                String message = messageByKey.getIfPresent(key);
+                if (message == null) {
+                    message = messages.getMessage(locale, messageKey, messageArgs);
+                    messageByKey.put(key, message);
+                }
+                return message;
+            }
+        };
+    }
+
+    String attributeMessage(Attribute<?, ?> attribute, ValidationResult validationResult) {
+        Key key = key(attribute, validationResult);
+        String message = messageByKey.getIfPresent(key);
+        if (message == null) {
+            message = validationMessageBuilder.getValidationMessage(attribute, validationResult, locale);
+            messageByKey.put(key, message);
+        }
+        return message;
+    }
+
+    private Key key(Attribute<?, ?> attribute, ValidationResult validationResult) {
+        Object validator = validationResult.getValidator();
+        if (validator instanceof Check)
+            return new Key(validator, validationResult.getFlag(), Collections.<Object>singletonList(attribute.getValue()));
+        return new Key(validator.getClass(), validationResult.getFlag(),
+                Arrays.<Object>asList(attribute.getDefinition().getId(), attribute.getValue()));
+    }
+
+    private static class Key {
+        final Object validator;
+        final ValidationResultFlag flag;
+        final List<Object> args;
+
+        Key(Object validator, ValidationResultFlag flag, List<Object> args) {
+            this.validator = validator;
+            this.flag = flag;
+            this.args = args;
+        }
+
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return validator.equals(key.validator)
+                    && flag == key.flag
+                    && args.equals(key.args);
+        }
+
+        public int hashCode() {
+            return Objects.hashCode(validator, flag, args);
+        }
+    }
+
+    private static class Messages extends ResourceBundleMessageSource {
+        protected PropertyResourceBundle findBundle(Locale locale, String baseName) {
+            return (PropertyResourceBundle) PropertyResourceBundle.getBundle(baseName, locale);
+        }
+    }
+}
@@ -51,7 +51,111 @@ public class NodeDatabaseSchemaChangeLog {
                 new SchemaChange("ALTER TABLE ofc_view_model ADD COLUMN created_on TIMESTAMP",
                         "UPDATE ofc_view_model SET created_on = CURRENT_TIMESTAMP",
                         "ALTER TABLE ofc_view_model ADD COLUMN modified_on TIMESTAMP ",
-                        "UPDATE ofc_view_model SET modified_on = CURRENT_TIMESTAMP")
+                        "UPDATE ofc_view_model SET modified_on = CURRENT_TIMESTAMP"),
+
+                new SchemaChange("CREATE INDEX idx_ofc_view_model_2 ON ofc_view_model(parent_id)"),
+
+                // Replace the val_* columns with a single val column, encoded as in NodeValueCodec.
+                // VARCHAR has the same affinity as TEXT in SQLite, but can be indexed by the H2 test database.
+                new SchemaChange("CREATE TABLE ofc_view_model_typed(\n" +
+                        "id INTEGER PRIMARY KEY NOT NULL,\n" +
+                        "relevant INTEGER NOT NULL,\n" +
+                        "status TEXT NOT NULL,\n" +
+                        "parent_id INTEGER,\n" +
+                        "parent_entity_id INTEGER,\n" +
+                        "definition_id VARCHAR NOT NULL,\n" +
+                        "survey_id INTEGER NOT NULL,\n" +
+                        "record_id INTEGER NOT NULL,\n" +
+                        "record_collection_name TEXT,\n" +
+                        "record_key_attribute INTEGER,\n" +
+                        "node_type INTEGER NOT NULL,\n" +
+                        "val VARCHAR,\n" +
+                        "created_on TIMESTAMP,\n" +
+                        "modified_on TIMESTAMP\n" +
+                        ")",
+                        "INSERT INTO ofc_view_model_typed(\n" +
+                                "   id, relevant, status, parent_id, parent_entity_id, definition_id, survey_id, record_id,\n" +
+                                "   record_collection_name, record_key_attribute, node_type, val, created_on, modified_on)\n" +
+                                "SELECT id, relevant, status, parent_id, parent_entity_id, definition_id, survey_id, record_id,\n" +
+                                "   record_collection_name, record_key_attribute, node_type,\n" +
+                                "   CASE node_type\n" +
+                                "       WHEN 6 THEN " + text("val_boolean") + "\n" +
+                                "       WHEN 7 THEN " + fields("val_code_value", "val_code_qualifier", "val_code_label") + "\n" +
+                                "       WHEN 8 THEN " + fields("val_x", "val_y", "val_srs") + "\n" +
+                                "       WHEN 9 THEN " + text("val_date") + "\n" +
+                                "       WHEN 10 THEN " + text("val_double") + "\n" +
+                                "       WHEN 11 THEN " + fields("val_double_from", "val_double_to") + "\n" +
+                                "       WHEN 12 THEN val_file\n" +
+                                "       WHEN 13 THEN " + text("val_int") + "\n" +
+                                "       WHEN 14 THEN " + fields("val_int_from", "val_int_to") + "\n" +
+                                "       WHEN 15 THEN " + fields("val_taxon_code", "val_taxon_scientific_name") + "\n" +
+                                "       WHEN 16 THEN val_text\n" +
+                                "       WHEN 17 THEN " + fields("val_hour", "val_minute") + "\n" +
+                                "   END,\n" +
+                                "   created_on, modified_on\n" +
+                                "FROM ofc_view_model",
+                        "DROP TABLE ofc_view_model",
+                        "ALTER TABLE ofc_view_model_typed RENAME TO ofc_view_model",
+                        "CREATE INDEX idx_ofc_view_model_1 ON ofc_view_model(record_id)",
+                        "CREATE INDEX idx_ofc_view_model_2 ON ofc_view_model(parent_id)"),
+
+                // Maintained by RecordSummaries. Null key_values are collected when first listed.
+                new SchemaChange("CREATE TABLE ofc_record_summary(\n" +
+                        "record_id INTEGER PRIMARY KEY NOT NULL,\n" +
+                        "survey_id INTEGER NOT NULL,\n" +
+                        "definition_id TEXT NOT NULL,\n" +
+                        "record_collection_name TEXT,\n" +
+                        "status TEXT NOT NULL,\n" +
+                        "key_values TEXT,\n" +
+                        "node_count INTEGER NOT NULL,\n" +
+                        "created_on TIMESTAMP,\n" +
+                        "modified_on TIMESTAMP\n" +
+                        ")",
+                        "INSERT INTO ofc_record_summary(\n" +
+                                "   record_id, survey_id, definition_id, record_collection_name, status, key_values, node_count,\n" +
+                                "   created_on, modified_on)\n" +
+                                "SELECT r.id, r.survey_id, r.definition_id, r.record_collection_name, r.status, NULL,\n" +
+                                "   (SELECT COUNT(*) FROM ofc_view_model n WHERE n.record_id = r.id),\n" +
+                                "   r.created_on, r.modified_on\n" +
+                                "FROM ofc_view_model r\n" +
+                                "WHERE r.parent_id IS NULL",
+                        "CREATE INDEX idx_ofc_record_summary_1 ON ofc_record_summary(survey_id)"),
+
+                // Composite record key hash, for the record key lookups of RecordUniquenessChecker.
+                // Hashed in Java, so existing records are backfilled by RecordKeyIndex when first used.
+                new SchemaChange("ALTER TABLE ofc_record_summary ADD COLUMN key_hash INTEGER",
+                        "CREATE INDEX idx_ofc_record_summary_2 ON ofc_record_summary(key_hash)"),
+
+                // Next unreserved id, maintained by NodeIdSequence. Seeded from the existing nodes.
+                new SchemaChange("CREATE TABLE ofc_id_sequence(\n" +
+                        "name VARCHAR PRIMARY KEY NOT NULL,\n" +
+                        "next_id INTEGER NOT NULL\n" +
+                        ")",
+                        "INSERT INTO ofc_id_sequence(name, next_id)\n" +
+                                "SELECT 'node', COALESCE(MAX(id), 0) + 1 FROM ofc_view_model")
         );
     }
+
+    private static String text(String column) {
+        return "CAST(" + column + " AS TEXT)";
+    }
+
+    /**
+     * Each column as &lt;length&gt;:&lt;text&gt;, or - if null. Null if all columns are null.
+     */
+    private static String fields(String... columns) {
+        StringBuilder allNull = new StringBuilder();
+        StringBuilder fields = new StringBuilder();
+        for (String column : columns) {
+            if (allNull.length() > 0) {
+                allNull.append(" AND ");
+                fields.append(" || ");
+            }
+            allNull.append(column).append(" IS NULL");
+            fields.append("CASE WHEN ").append(column).append(" IS NULL THEN '-' ELSE ")
+                    .append("CAST(LENGTH(").append(text(column)).append(") AS TEXT) || ':' || ").append(text(column))
+                    .append(" END");
+        }
+        return "CASE WHEN " + allNull + " THEN NULL ELSE " + fields + " END";
+    }
 }
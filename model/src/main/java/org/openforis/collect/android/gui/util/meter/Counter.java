@@ -0,0 +1,28 @@
+package org.openforis.collect.android.gui.util.meter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts events. Obtained from {@link Metrics#counter(Class, String)}.
+ *
+ * @author Daniel Wiell
+ */
+public final class Counter {
+    private final AtomicLong count = new AtomicLong();
+
+    Counter() {
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long n) {
+        if (Metrics.isEnabled())
+            count.addAndGet(n);
+    }
+
+    public long count() {
+        return count.get();
+    }
+}
@@ -0,0 +1,10 @@
+package org.openforis.collect.android.gui.util.meter;
+
+/**
+ * A value read when metrics are snapshot. Registered with {@link Metrics#gauge(Class, String, Gauge)}.
+ *
+ * @author Daniel Wiell
+ */
+public interface Gauge {
+    long value();
+}
@@ -0,0 +1,82 @@
+package org.openforis.collect.android.gui.util.meter;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Registry of the timers, counters and gauges of the application, named after the class they measure.
+ * Metrics are enabled by default. When disabled, timers and counters only read a volatile flag.
+ *
+ * @author Daniel Wiell
+ */
+public final class Metrics {
+    private static final Logger LOG = Logger.getLogger(Metrics.class.getName());
+    private static volatile boolean enabled = true;
+    private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+    private static final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+    private Metrics() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    public static Timer timer(Class owner, String name) {
+        String key = name(owner, name);
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            timers.putIfAbsent(key, new Timer());
+            timer = timers.get(key);
+        }
+        return timer;
+    }
+
+    public static Counter counter(Class owner, String name) {
+        String key = name(owner, name);
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            counters.putIfAbsent(key, new Counter());
+            counter = counters.get(key);
+        }
+        return counter;
+    }
+
+    /**
+     * Registers a gauge, replacing any previously registered with the same name.
+     */
+    public static void gauge(Class owner, String name, Gauge gauge) {
+        gauges.put(name(owner, name), gauge);
+    }
+
+    public static MetricsSnapshot snapshot() {
+        Map<String, Histogram.Snapshot> timerSnapshots = new TreeMap<String, Histogram.Snapshot>();
+        for (Map.Entry<String, Timer> entry : timers.entrySet())
+            timerSnapshots.put(entry.getKey(), entry.getValue().snapshot());
+        Map<String, Long> counterValues = new TreeMap<String, Long>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet())
+            counterValues.put(entry.getKey(), entry.getValue().count());
+        Map<String, Long> gaugeValues = new TreeMap<String, Long>();
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            try {
+                gaugeValues.put(entry.getKey(), entry.getValue().value());
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Failed to read gauge " + entry.getKey(), e);
+            }
+        }
+        return new MetricsSnapshot(System.currentTimeMillis(), timerSnapshots, counterValues, gaugeValues);
+    }
+
+    private static String name(Class owner, String name) {
+        return owner.getSimpleName() + "." + name;
+    }
+}
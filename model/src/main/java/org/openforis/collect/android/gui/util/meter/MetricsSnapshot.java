@@ -0,0 +1,86 @@
+package org.openforis.collect.android.gui.util.meter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The values of all metrics at a point in time. Durations are exported in milliseconds.
+ *
+ * @author Daniel Wiell
+ */
+public final class MetricsSnapshot {
+    private static final double NANOS_PER_MILLI = 1000000d;
+    public final long timestamp;
+    public final Map<String, Histogram.Snapshot> timers;
+    public final Map<String, Long> counters;
+    public final Map<String, Long> gauges;
+
+    MetricsSnapshot(long timestamp, Map<String, Histogram.Snapshot> timers, Map<String, Long> counters, Map<String, Long> gauges) {
+        this.timestamp = timestamp;
+        this.timers = timers;
+        this.counters = counters;
+        this.gauges = gauges;
+    }
+
+    /**
+     * Writes the snapshot as JSON, replacing the file if it exists.
+     */
+    public void writeTo(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(toJson());
+        } finally {
+            writer.close();
+        }
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"timestamp\": ").append(timestamp).append(",\n  \"timers\": {");
+        for (Iterator<Map.Entry<String, Histogram.Snapshot>> it = timers.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Histogram.Snapshot> entry = it.next();
+            Histogram.Snapshot timer = entry.getValue();
+            json.append("\n    ").append(quote(entry.getKey())).append(": {")
+                    .append("\"count\": ").append(timer.count)
+                    .append(", \"totalMillis\": ").append(millis(timer.sum))
+                    .append(", \"meanMillis\": ").append(millis(timer.mean()))
+                    .append(", \"p50Millis\": ").append(millis(timer.percentile(50)))
+                    .append(", \"p90Millis\": ").append(millis(timer.percentile(90)))
+                    .append(", \"p99Millis\": ").append(millis(timer.percentile(99)))
+                    .append(", \"maxMillis\": ").append(millis(timer.max))
+                    .append('}');
+            if (it.hasNext())
+                json.append(',');
+        }
+        json.append("\n  },\n  \"counters\": ");
+        appendValues(counters, json);
+        json.append(",\n  \"gauges\": ");
+        appendValues(gauges, json);
+        json.append("\n}\n");
+        return json.toString();
+    }
+
+    private void appendValues(Map<String, Long> values, StringBuilder json) {
+        json.append('{');
+        for (Iterator<Map.Entry<String, Long>> it = values.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> entry = it.next();
+            json.append("\n    ").append(quote(entry.getKey())).append(": ").append(entry.getValue());
+            if (it.hasNext())
+                json.append(',');
+        }
+        json.append("\n  }");
+    }
+
+    private static String millis(double nanos) {
+        return String.valueOf(Math.round(nanos / NANOS_PER_MILLI * 1000) / 1000d);
+    }
+
+    private static String quote(String s) {
+        return '"' + s.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+}
@@ -1,38 +1,37 @@
 package org.openforis.collect.android.gui.util.meter;
 
-
-import java.util.concurrent.Callable;
-import java.util.logging.Logger;
-
 /**
+ * Records durations in nanoseconds. Timers are obtained from {@link Metrics#timer(Class, String)},
+ * and typically kept in static fields:
+ * <pre>
+ *     long start = TIMER.start();
+ *     try {
+ *         ...
+ *     } finally {
+ *         TIMER.stop(start);
+ *     }
+ * </pre>
+ * When metrics are disabled, nothing is measured or recorded.
+ *
  * @author Daniel Wiell
  */
-public class Timer {
-    private static final Logger LOG = Logger.getLogger(Timer.class.getName());
-    public static boolean enabled = true;
+public final class Timer {
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+    private final Histogram histogram = new Histogram();
+
+    Timer() {
+    }
 
-    public static void time(Class c, String name, Runnable action) {
-        long start = System.currentTimeMillis();
-        try {
-            action.run();
-        } finally {
-            log(c, name, start);
-        }
+    public long start() {
+        return Metrics.isEnabled() ? System.nanoTime() : NOT_STARTED;
     }
 
-    public static <T> T time(Class c, String name, Callable<T> action) {
-        long start = System.currentTimeMillis();
-        try {
-            return action.call();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        } finally {
-            log(c, name, start);
-        }
+    public void stop(long start) {
+        if (start != NOT_STARTED)
+            histogram.record(System.nanoTime() - start);
     }
 
-    private static void log(Class c, String name, long start) {
-        if (enabled)
-            LOG.info(c.getSimpleName() + "." + name + ": " + (System.currentTimeMillis() - start) + " millis");
+    Histogram.Snapshot snapshot() {
+        return histogram.snapshot();
     }
 }
@@ -27,6 +27,13 @@ public class ResultSetHelper {
         return value;
     }
 
+    public Integer getInteger(int columnIndex) throws SQLException {
+        int value = rs.getInt(columnIndex);
+        if (rs.wasNull())
+            return null;
+        return value;
+    }
+
     public Long getLong(String columnName) throws SQLException {
         long value = rs.getLong(columnName);
         if (rs.wasNull())
@@ -53,11 +60,22 @@ public class ResultSetHelper {
         // current version 1.0.3 has a bug: it doesn't consider missing milliseconds in timestamp
         //return rs.getTimestamp(columnName);
 
-        String timestampStr = rs.getString(columnName);
+        return parseTimestamp(rs.getString(columnName));
+    }
+
+    public Timestamp getTimestamp(int columnIndex) throws SQLException {
+        return parseTimestamp(rs.getString(columnIndex));
+    }
 
+    private Timestamp parseTimestamp(String timestampStr) {
         if (timestampStr == null) {
             return null;
         } else {
+            try {
+                return Timestamp.valueOf(timestampStr); // Cheap, and handles both formats below
+            } catch (IllegalArgumentException e) {
+                //Fall back to formatters
+            }
             for (SimpleDateFormat formatter: TIMESTAMP_FORMATTERS)
                 try {
                     java.util.Date parsedTimestamp = formatter.parse(timestampStr);
@@ -0,0 +1,237 @@
+package org.openforis.collect.android.util.persistence;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a connection open between transactions, and caches the statements prepared on it, keyed by SQL text.
+ * The least recently used statement is closed when the cache is full.
+ * SQL built per call, such as IN-lists, should be limited to a few shapes, or it pushes the other statements out.
+ * <p/>
+ * Statements handed out by the session connection are returned to the cache when closed,
+ * or when the transaction is {@link #release() released}.
+ *
+ * @author Daniel Wiell
+ */
+public class StatementCachingSession {
+    public static final int DEFAULT_MAX_STATEMENTS = 32;
+
+    private final DataSource dataSource;
+    private final int maxStatements;
+    private final LinkedHashMap<String, CachedStatement> statementBySql;
+    private final List<CachedStatement> evictedInUse = new ArrayList<CachedStatement>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private Connection connection;
+    private Connection sessionConnection;
+
+    public StatementCachingSession(DataSource dataSource) {
+        this(dataSource, DEFAULT_MAX_STATEMENTS);
+    }
+
+    public StatementCachingSession(DataSource dataSource, final int maxStatements) {
+        if (maxStatements < 1)
+            throw new IllegalArgumentException("maxStatements must be at least 1. Was " + maxStatements);
+        this.dataSource = dataSource;
+        this.maxStatements = maxStatements;
+        statementBySql = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= StatementCachingSession.this.maxStatements)
+                    return false;
+                evict(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns the session connection, opening a new one if there is none, or if it has been closed.
+     * Closing the returned connection has no effect - it is closed by {@link #close()}.
+     */
+    public synchronized Connection connection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            discardStatements();
+            connection = dataSource.getConnection();
+            sessionConnection = sessionConnection(connection);
+        }
+        return sessionConnection;
+    }
+
+    /**
+     * Returns every statement handed out since the last release to the cache.
+     * Called when a transaction completes, so statements never closed by the callers are reused too.
+     */
+    public synchronized void release() {
+        for (CachedStatement statement : statementBySql.values())
+            if (statement.inUse)
+                statement.reset();
+        for (CachedStatement statement : evictedInUse)
+            closeQuietly(statement.delegate);
+        evictedInUse.clear();
+    }
+
+    public synchronized void close() {
+        discardStatements();
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ignore) {
+            }
+            connection = null;
+            sessionConnection = null;
+        }
+    }
+
+    public Statistics statistics() {
+        return new Statistics(hits.get(), misses.get(), evictions.get(), size());
+    }
+
+    private synchronized int size() {
+        return statementBySql.size();
+    }
+
+    private synchronized PreparedStatement prepareStatement(String sql) throws SQLException {
+        CachedStatement statement = statementBySql.get(sql);
+        if (statement != null && !statement.inUse) {
+            hits.incrementAndGet();
+            statement.inUse = true;
+            return statement.proxy;
+        }
+        misses.incrementAndGet();
+        if (statement != null)
+            return connection.prepareStatement(sql); // Same SQL already in use in this transaction - don't cache
+        statement = new CachedStatement(connection.prepareStatement(sql));
+        statement.inUse = true;
+        statementBySql.put(sql, statement);
+        return statement.proxy;
+    }
+
+    private void evict(CachedStatement statement) {
+        evictions.incrementAndGet();
+        statement.evicted = true;
+        if (statement.inUse)
+            evictedInUse.add(statement);
+        else
+            closeQuietly(statement.delegate);
+    }
+
+    private void discardStatements() {
+        for (Iterator<CachedStatement> it = statementBySql.values().iterator(); it.hasNext(); ) {
+            closeQuietly(it.next().delegate);
+            it.remove();
+        }
+        for (CachedStatement statement : evictedInUse)
+            closeQuietly(statement.delegate);
+        evictedInUse.clear();
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignore) {
+        }
+    }
+
+    private Connection sessionConnection(final Connection connection) {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class[]{Connection.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if (name.equals("prepareStatement") && args.length == 1)
+                            return prepareStatement((String) args[0]);
+                        if (name.equals("close"))
+                            return null;
+                        return invokeDelegate(connection, method, args);
+                    }
+                });
+    }
+
+    private static Object invokeDelegate(Object delegate, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private class CachedStatement {
+        final PreparedStatement delegate;
+        final PreparedStatement proxy;
+        boolean inUse;
+        boolean evicted;
+
+        CachedStatement(PreparedStatement delegate) {
+            this.delegate = delegate;
+            proxy = (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class[]{PreparedStatement.class},
+                    new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if (method.getName().equals("close")) {
+                                returnToCache();
+                                return null;
+                            }
+                            return invokeDelegate(CachedStatement.this.delegate, method, args);
+                        }
+                    });
+        }
+
+        void returnToCache() {
+            synchronized (StatementCachingSession.this) {
+                if (evicted) {
+                    evictedInUse.remove(this);
+                    closeQuietly(delegate);
+                } else
+                    reset();
+            }
+        }
+
+        void reset() {
+            inUse = false;
+            try {
+                delegate.clearParameters();
+                delegate.clearBatch();
+            } catch (SQLException ignore) {
+                // Not all drivers supports clearing batches
+            }
+        }
+    }
+
+    public static final class Statistics {
+        public final long hits;
+        public final long misses;
+        public final long evictions;
+        public final int size;
+
+        public Statistics(long hits, long misses, long evictions, int size) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.size = size;
+        }
+
+        public double hitRatio() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+
+        public String toString() {
+            return "hits: " + hits + ", misses: " + misses + ", evictions: " + evictions + ", size: " + size;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package org.openforis.collect.android.viewmodel;
+
+import java.util.List;
+
+/**
+ * Materializes the parts of a record that were loaded as stubs.
+ *
+ * @author Daniel Wiell
+ */
+public interface LazyNodeLoader {
+    /**
+     * Loads the children of a stub node, with their descendants attached.
+     */
+    List<UiNode> loadChildren(UiInternalNode node);
+
+    /**
+     * Returns the ids of the ancestors of a node, starting with the root. Empty if there is no such node.
+     */
+    List<Integer> ancestorIds(int nodeId);
+}
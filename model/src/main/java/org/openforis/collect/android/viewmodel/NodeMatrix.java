@@ -1,6 +1,8 @@
 package org.openforis.collect.android.viewmodel;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
 
 public class NodeMatrix {
@@ -48,19 +50,40 @@ public class NodeMatrix {
 
     private List<UiInternalNode> rows(UiNode node) {
         List<UiInternalNode> rows = new ArrayList<UiInternalNode>();
-        UiNode root = rootNode(node);
+        UiInternalNode root = rootNode(node);
 
         if (root == null)
             rows.add((UiInternalNode) node);
         else
-            for (UiNode nodeWithName : root.findAllByName(node.getName()))
-                if (nodeWithName instanceof UiEntity)
-                    rows.add((UiInternalNode) nodeWithName);
+            for (UiNode nodeWithDefinitions : nodesWithDefinitionPath(root, node))
+                if (nodeWithDefinitions instanceof UiEntity)
+                    rows.add((UiInternalNode) nodeWithDefinitions);
         return rows;
     }
 
-    private UiNode rootNode(UiNode node) {
-        UiNode root = entityCollection(node);
+    /**
+     * Descendants of the root with the same definitions as the ancestors of the node, in document order.
+     * Only the nodes on the path are loaded.
+     */
+    private List<UiNode> nodesWithDefinitionPath(UiInternalNode root, UiNode node) {
+        LinkedList<String> definitionIds = new LinkedList<String>();
+        for (UiNode pathNode = node; pathNode != root; pathNode = pathNode.getParent())
+            definitionIds.addFirst(pathNode.getDefinition().id);
+        List<UiNode> nodes = Collections.<UiNode>singletonList(root);
+        for (String definitionId : definitionIds) {
+            List<UiNode> children = new ArrayList<UiNode>();
+            for (UiNode parent : nodes)
+                if (parent instanceof UiInternalNode)
+                    for (UiNode child : ((UiInternalNode) parent).getChildren())
+                        if (child.getDefinition().id.equals(definitionId))
+                            children.add(child);
+            nodes = children;
+        }
+        return nodes;
+    }
+
+    private UiInternalNode rootNode(UiNode node) {
+        UiInternalNode root = entityCollection(node);
         if (root == null)
             root = node.getUiRecord();
         return root;
@@ -80,8 +103,6 @@ public class NodeMatrix {
     }
 
     public int columnIndex(UiNode node) {
-        UiInternalNode row = node.getParent();
-        List<UiNode> relevantChildren = row.getRelevantChildren();
-        return relevantChildren.indexOf(node);
+        return node.getRelevantIndexInParent();
     }
 }
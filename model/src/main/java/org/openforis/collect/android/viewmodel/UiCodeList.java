@@ -8,6 +8,7 @@ public class UiCodeList {
     private final List<UiCode> codes;
     private final Map<String, UiCode> codeByValue = new HashMap<String, UiCode>();
     private final UiCode qualifiableCode;
+    private UiCodeListSearch search;
 
     public UiCodeList(List<UiCode> codes, UiCode qualifiableCode) {
         this.codes = codes;
@@ -24,6 +25,13 @@ public class UiCodeList {
         return codeByValue.get(value);
     }
 
+    /**
+     * Finds the codes matching the query, ranked by how well they match.
+     */
+    public List<UiCode> find(String query) {
+        return search().find(query);
+    }
+
     public boolean isQualifiable() {
         return qualifiableCode != null;
     }
@@ -35,4 +43,10 @@ public class UiCodeList {
     public UiCode getQualifiableCode() {
         return qualifiableCode;
     }
+
+    private synchronized UiCodeListSearch search() {
+        if (search == null)
+            search = new UiCodeListSearch(codes);
+        return search;
+    }
 }
@@ -0,0 +1,149 @@
+package org.openforis.collect.android.viewmodel;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Searchable form of a code list, built once per {@link UiCodeList}.
+ * <p/>
+ * A term matches a code when it's a prefix of a word in its value, label or {@code toString()}, where a word starts at
+ * a letter or digit that doesn't follow another one. Every word start is indexed, up to the next white space, in an
+ * array sorted for prefix lookups by binary search.
+ * <p/>
+ * Codes matching all terms are ranked: codes with the query as value first, then codes with value or label starting
+ * with the query, then the rest. Within a rank, the code list order is kept.
+ *
+ * @author Daniel Wiell
+ */
+class UiCodeListSearch {
+    private final List<UiCode> codes;
+    private final String[] normalizedValues;
+    private final String[] normalizedLabels;
+    private final String[] tokens;
+    private final int[] codeIndexes;
+
+    UiCodeListSearch(List<UiCode> codes) {
+        this.codes = codes;
+        normalizedValues = new String[codes.size()];
+        normalizedLabels = new String[codes.size()];
+        List<Token> tokenList = new ArrayList<Token>();
+        for (int i = 0; i < codes.size(); i++) {
+            UiCode code = codes.get(i);
+            normalizedValues[i] = normalize(code.getValue());
+            normalizedLabels[i] = normalize(code.getLabel());
+            Set<String> codeTokens = new HashSet<String>();
+            addTokens(normalizedValues[i], codeTokens);
+            addTokens(normalizedLabels[i], codeTokens);
+            addTokens(normalize(code.toString()), codeTokens);
+            for (String token : codeTokens)
+                tokenList.add(new Token(token, i));
+        }
+        Collections.sort(tokenList);
+        tokens = new String[tokenList.size()];
+        codeIndexes = new int[tokenList.size()];
+        for (int i = 0; i < tokenList.size(); i++) {
+            tokens[i] = tokenList.get(i).text;
+            codeIndexes[i] = tokenList.get(i).codeIndex;
+        }
+    }
+
+    List<UiCode> find(String query) {
+        String normalizedQuery = query == null ? "" : normalize(query);
+        if (normalizedQuery.length() == 0)
+            return codes;
+        BitSet matching = null;
+        for (String term : normalizedQuery.split(" ")) {
+            if (term.length() == 0)
+                continue;
+            BitSet termMatching = codesWithTokenPrefix(term);
+            if (matching == null)
+                matching = termMatching;
+            else
+                matching.and(termMatching);
+        }
+        return matching == null ? codes : ranked(matching, normalizedQuery);
+    }
+
+    private BitSet codesWithTokenPrefix(String prefix) {
+        BitSet matching = new BitSet(codes.size());
+        for (int i = firstTokenNotBefore(prefix); i < tokens.length && tokens[i].startsWith(prefix); i++)
+            matching.set(codeIndexes[i]);
+        return matching;
+    }
+
+    /**
+     * Binary search for the first token not sorting before the prefix. Several codes can share a token, so
+     * {@link java.util.Arrays#binarySearch} doesn't do, as it can find any of them.
+     */
+    private int firstTokenNotBefore(String prefix) {
+        int low = 0;
+        int high = tokens.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (tokens[middle].compareTo(prefix) < 0)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private List<UiCode> ranked(BitSet matching, String normalizedQuery) {
+        List<UiCode> exact = new ArrayList<UiCode>();
+        List<UiCode> prefix = new ArrayList<UiCode>();
+        List<UiCode> wordPrefix = new ArrayList<UiCode>();
+        for (int i = matching.nextSetBit(0); i >= 0; i = matching.nextSetBit(i + 1)) {
+            UiCode code = codes.get(i);
+            if (normalizedValues[i].equals(normalizedQuery))
+                exact.add(code);
+            else if (normalizedValues[i].startsWith(normalizedQuery)
+                    || (normalizedLabels[i] != null && normalizedLabels[i].startsWith(normalizedQuery)))
+                prefix.add(code);
+            else
+                wordPrefix.add(code);
+        }
+        exact.addAll(prefix);
+        exact.addAll(wordPrefix);
+        return exact;
+    }
+
+    private static void addTokens(String text, Set<String> tokens) {
+        if (text == null)
+            return;
+        for (int i = 0; i < text.length(); i++) {
+            if (isWordCharacter(text.charAt(i)) && (i == 0 || !isWordCharacter(text.charAt(i - 1)))) {
+                int end = i;
+                while (end < text.length() && !Character.isWhitespace(text.charAt(end)))
+                    end++;
+                tokens.add(text.substring(i, end));
+            }
+        }
+    }
+
+    private static boolean isWordCharacter(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static String normalize(String text) {
+        return text == null ? null : text.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    private static class Token implements Comparable<Token> {
+        final String text;
+        final int codeIndex;
+
+        Token(String text, int codeIndex) {
+            this.text = text;
+            this.codeIndex = codeIndex;
+        }
+
+        public int compareTo(Token other) {
+            return text.compareTo(other.text);
+        }
+    }
+}
@@ -9,14 +9,61 @@ import java.util.*;
  * @author Daniel Wiell
  */
 public class UiInternalNode extends UiNode {
-    // TODO: Use LinkedHashMap instead
     private Map<Integer, UiNode> childById = new HashMap<Integer, UiNode>();
     private List<UiNode> children = new ArrayList<UiNode>();
+    private Map<Integer, Integer> childIndexById = new HashMap<Integer, Integer>(); // Rebuilt when null
+    // Snapshot of the relevant children and their indexes, rebuilt when null
+    private List<UiNode> relevantChildren;
+    private Map<Integer, Integer> relevantChildIndexById;
+    private LazyNodeLoader childLoader;
+    // Maintained as children are added, removed or change status or relevance
+    private final int[] childCountByStatus = new int[Status.values().length];
+    private final int[] relevantChildCountByStatus = new int[Status.values().length];
 
     public UiInternalNode(int id, boolean relevant, Definition definition) {
         super(id, relevant, definition);
     }
 
+    /**
+     * Makes this node a stub, with children loaded by the loader the first time they are accessed.
+     */
+    public void loadChildrenLazily(LazyNodeLoader childLoader) {
+        if (!children.isEmpty())
+            throw new IllegalStateException("Node " + this + " already has children");
+        this.childLoader = childLoader;
+    }
+
+    public boolean isChildrenLoaded() {
+        return childLoader == null;
+    }
+
+    public void loadChildren() {
+        if (childLoader == null)
+            return;
+        LazyNodeLoader loader = childLoader;
+        childLoader = null;
+        List<UiNode> loadedChildren = loader.loadChildren(this);
+        for (UiNode child : loadedChildren)
+            addChild(child);
+        for (UiNode child : loadedChildren) {
+            child.init();
+            if (child instanceof UiInternalNode)
+                ((UiInternalNode) child).updateStatusOfNodeAndDescendants();
+        }
+    }
+
+    /**
+     * Children currently in memory, without loading the children of a stub.
+     */
+    List<UiNode> getLoadedChildren() {
+        return Collections.unmodifiableList(children);
+    }
+
+    private List<UiNode> children() {
+        loadChildren();
+        return children;
+    }
+
     public void register(UiNode node) {
         if (getParent() != null)
             getParent().register(node);
@@ -28,44 +75,146 @@ public class UiInternalNode extends UiNode {
     }
 
     public boolean isRelevant() {
-        boolean isTab = getClass().equals(UiInternalNode.class);
-        if (!isTab) // If not a tab, use relevance as specified
+        if (!isTab()) // If not a tab, use relevance as specified
             return super.isRelevant();
-        for (UiNode child : children)  // Tabs are relevant if any child is relevant
-            if (child.isRelevant())
+        loadChildren();
+        return hasRelevantChildren(); // Tabs are relevant if any child is relevant
+    }
+
+    private boolean isTab() {
+        return getClass().equals(UiInternalNode.class);
+    }
+
+    private boolean hasRelevantChildren() {
+        for (int count : relevantChildCountByStatus)
+            if (count > 0)
                 return true;
         return false;
     }
 
+    /**
+     * The worst status of the relevant children, or the best status if there are none.
+     */
+    public Status getWorstRelevantChildStatus() {
+        loadChildren();
+        return worstStatus(relevantChildCountByStatus);
+    }
+
+    private static Status worstStatus(int[] countByStatus) {
+        for (int i = countByStatus.length - 1; i > 0; i--)
+            if (countByStatus[i] > 0)
+                return Status.values()[i];
+        return Status.values()[0];
+    }
+
+    void childStatusChanged(UiNode child, Status oldStatus) {
+        if (!isChild(child))
+            return; // A record has the record collection as parent, but is represented there by its placeholder
+        boolean hadRelevantChildren = hasRelevantChildren();
+        boolean relevant = child.isRelevant();
+        count(oldStatus, relevant, -1);
+        count(child.getStatus(), relevant, 1);
+        relevantChildrenChanged(hadRelevantChildren);
+    }
+
+    void childRelevanceChanged(UiNode child) {
+        if (!isChild(child))
+            return;
+        invalidateRelevantChildren();
+        boolean hadRelevantChildren = hasRelevantChildren();
+        Status status = child.getStatus();
+        if (status != null)
+            relevantChildCountByStatus[status.ordinal()] += child.isRelevant() ? 1 : -1;
+        relevantChildrenChanged(hadRelevantChildren);
+    }
+
+    private boolean isChild(UiNode node) {
+        return childById.get(node.getId()) == node;
+    }
+
+    private void count(Status status, boolean relevant, int delta) {
+        if (status == null)
+            return;
+        childCountByStatus[status.ordinal()] += delta;
+        if (relevant)
+            relevantChildCountByStatus[status.ordinal()] += delta;
+    }
+
+    /**
+     * The relevance of a tab is given by its children, so the parent of a tab is told when it changes.
+     */
+    private void relevantChildrenChanged(boolean hadRelevantChildren) {
+        if (isTab() && getParent() != null && hadRelevantChildren != hasRelevantChildren())
+            getParent().childRelevanceChanged(this);
+    }
+
     public List<UiNode> getChildren() {
-        return Collections.unmodifiableList(children);
+        return Collections.unmodifiableList(children());
     }
 
+    /**
+     * The relevant children at the time of the call. The returned list doesn't change when the children do.
+     */
     public List<UiNode> getRelevantChildren() {
-        List<UiNode> result = new ArrayList<UiNode>(children);
-        CollectionUtils.filter(result, new Predicate<UiNode>() {
-            public boolean evaluate(UiNode node) {
-                return node.isRelevant();
-            }
-        });
-        return result;
+        loadChildren();
+        if (relevantChildren == null) {
+            List<UiNode> result = new ArrayList<UiNode>(children);
+            CollectionUtils.filter(result, new Predicate<UiNode>() {
+                public boolean evaluate(UiNode node) {
+                    return node.isRelevant();
+                }
+            });
+            relevantChildren = Collections.unmodifiableList(result);
+            relevantChildIndexById = indexById(result);
+        }
+        return relevantChildren;
+    }
+
+    /**
+     * The index of the child among the relevant children, or -1 if it's not a relevant child.
+     */
+    public int getRelevantChildIndex(int id) {
+        getRelevantChildren();
+        Integer index = relevantChildIndexById.get(id);
+        return index == null ? -1 : index;
+    }
+
+    private void invalidateRelevantChildren() {
+        relevantChildren = null;
+        relevantChildIndexById = null;
+    }
+
+    private static Map<Integer, Integer> indexById(List<UiNode> nodes) {
+        Map<Integer, Integer> indexById = new HashMap<Integer, Integer>();
+        for (int i = 0; i < nodes.size(); i++)
+            indexById.put(nodes.get(i).getId(), i);
+        return indexById;
     }
 
     public void addChild(UiNode node) {
-        addChild(children.size(), node);
+        addChild(children().size(), node);
     }
 
     private void addChild(int position, UiNode node) {
+        boolean hadRelevantChildren = hasRelevantChildren();
+        if (childIndexById != null && position == children.size())
+            childIndexById.put(node.getId(), position);
+        else
+            childIndexById = null;
+        invalidateRelevantChildren();
         children.add(position, node);
         childById.put(node.getId(), node);
         node.setParent(this);
+        count(node.getStatus(), node.isRelevant(), 1);
+        relevantChildrenChanged(hadRelevantChildren);
     }
 
     public int getChildCount() {
-        return children.size();
+        return children().size();
     }
 
     public UiNode getChildById(int id) {
+        loadChildren();
         UiNode child = childById.get(id);
         if (child == null)
             throw new IllegalStateException("Node " + this + " contains no child with id " + id);
@@ -73,19 +222,22 @@ public class UiInternalNode extends UiNode {
     }
 
     public boolean containsChildWithId(int id) {
+        loadChildren();
         return childById.containsKey(id);
     }
 
     public int getChildIndex(int id) {
-        for (int i = 0; i < children.size(); i++) {
-            UiNode child = children.get(i);
-            if (child.getId() == id)
-                return i;
-        }
-        throw new IllegalStateException("Node " + this + " contains no child with id " + id);
+        loadChildren();
+        if (childIndexById == null)
+            childIndexById = indexById(children);
+        Integer index = childIndexById.get(id);
+        if (index == null)
+            throw new IllegalStateException("Node " + this + " contains no child with id " + id);
+        return index;
     }
 
     public UiNode getFirstChild() {
+        List<UiNode> children = children();
         if (children.isEmpty())
             throw new IllegalStateException("Node " + this + " contains no children");
         return children.get(0);
@@ -99,11 +251,35 @@ public class UiInternalNode extends UiNode {
     }
 
     public UiNode getChildAt(int childIndex) {
+        List<UiNode> children = children();
         if (childIndex >= children.size())
             throw new IllegalStateException("Node " + this + " doesn't contain a child at index " + childIndex);
         return children.get(childIndex);
     }
 
+    /**
+     * This node and its descendants with any of the definition ids, in document order.
+     * Only tabs and nodes with one of the definitions are searched, so stubs of other entities aren't loaded.
+     */
+    public List<UiNode> findAllByDefinitionId(String... definitionIds) {
+        List<String> ids = Arrays.asList(definitionIds);
+        List<UiNode> found = new ArrayList<UiNode>();
+        if (ids.contains(getDefinition().id))
+            found.add(this);
+        addChildrenByDefinitionId(this, ids, found);
+        return found;
+    }
+
+    private static void addChildrenByDefinitionId(UiInternalNode node, Collection<String> definitionIds, List<UiNode> found) {
+        for (UiNode child : node.getChildren()) {
+            boolean matching = definitionIds.contains(child.getDefinition().id);
+            if (matching)
+                found.add(child);
+            if (child instanceof UiInternalNode && (matching || ((UiInternalNode) child).isTab()))
+                addChildrenByDefinitionId((UiInternalNode) child, definitionIds, found);
+        }
+    }
+
     public void addChildren(Collection<? extends UiNode> nodes) {
         for (UiNode child : nodes)
             addChild(child);
@@ -111,27 +287,18 @@ public class UiInternalNode extends UiNode {
 
     public Status determineStatus(Set<UiValidationError> validationErrors) {
         Status status = super.determineStatus(validationErrors);
-        for (UiNode child : children)
-            if (child.getStatus().isWorseThen(status))
-                status = child.getStatus();
-        return status;
+        loadChildren();
+        Status childStatus = worstStatus(childCountByStatus);
+        return childStatus.isWorseThen(status) ? childStatus : status;
     }
 
     public void updateStatusOfNodeAndDescendants() {
-        int maxStatus = 0;
-        for (UiNode child : children) {
-            int childStatus;
-            if (child instanceof UiInternalNode) {
-                UiInternalNode internalNodeChild = (UiInternalNode) child;
-                internalNodeChild.updateStatusOfNodeAndDescendants();
-                childStatus = internalNodeChild.getStatus().ordinal();
-            } else
-                childStatus = child.getStatus().ordinal();
-            if (child.isRelevant() && childStatus > maxStatus) {
-                maxStatus = childStatus;
-            }
-        }
-        setStatus(Status.values()[maxStatus]);
+        if (!isChildrenLoaded())
+            return; // Keep the stored status of a stub - it's updated when the children are loaded
+        for (UiNode child : children)
+            if (child instanceof UiInternalNode)
+                ((UiInternalNode) child).updateStatusOfNodeAndDescendants();
+        setStatus(worstStatus(relevantChildCountByStatus));
     }
 
     public String toString() {
@@ -139,8 +306,15 @@ public class UiInternalNode extends UiNode {
     }
 
     public void removeChild(UiNode node) {
+        loadChildren();
+        boolean hadRelevantChildren = hasRelevantChildren();
+        if (isChild(node))
+            count(node.getStatus(), node.isRelevant(), -1);
         childById.remove(node.getId());
         children.remove(node);
+        childIndexById = null;
+        invalidateRelevantChildren();
         unregister(node);
+        relevantChildrenChanged(hadRelevantChildren);
     }
 }
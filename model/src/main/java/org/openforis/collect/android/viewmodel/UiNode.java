@@ -1,8 +1,5 @@
 package org.openforis.collect.android.viewmodel;
 
-import org.openforis.commons.collection.CollectionUtils;
-import org.openforis.commons.collection.Predicate;
-
 import java.util.*;
 
 /**
@@ -29,7 +26,7 @@ public abstract class UiNode {
         if (parent != null)
             parent.register(this);
         if (this instanceof UiInternalNode) {
-            for (UiNode child : ((UiInternalNode) this).getChildren())
+            for (UiNode child : ((UiInternalNode) this).getLoadedChildren())
                 child.init();
         }
     }
@@ -63,7 +60,10 @@ public abstract class UiNode {
     }
 
     public void setStatus(Status status) {
+        Status oldStatus = this.status;
         this.status = status;
+        if (parent != null && oldStatus != status)
+            parent.childStatusChanged(this, oldStatus);
     }
 
     public boolean isRelevant() {
@@ -71,7 +71,10 @@ public abstract class UiNode {
     }
 
     public void setRelevant(boolean relevant) {
+        boolean wasRelevant = isRelevant();
         this.relevant = relevant;
+        if (parent != null && wasRelevant != isRelevant())
+            parent.childRelevanceChanged(this);
     }
 
     public Date getCreatedOn() {
@@ -99,29 +102,72 @@ public abstract class UiNode {
     }
 
     public List<UiNode> updateStatusOfParents() {
-        UiInternalNode parentNode = getParent();
-        if (parentNode == null)
-            return Collections.emptyList();
+        return new ArrayList<UiNode>(updateStatusOfParents(Collections.singleton(this)));
+    }
+
+    /**
+     * Updates the status of the ancestors of the nodes. Each ancestor is recomputed at most once, deepest first,
+     * and propagation stops at ancestors whose status didn't change.
+     *
+     * @return the ancestors with changed status, deepest first
+     */
+    public static Set<UiNode> updateStatusOfParents(Collection<? extends UiNode> nodes) {
+        SortedMap<Integer, Set<UiInternalNode>> dirtyParentsByDepth =
+                new TreeMap<Integer, Set<UiInternalNode>>(Collections.<Integer>reverseOrder());
+        for (UiNode node : nodes) {
+            UiInternalNode parentNode = node.getParent();
+            if (parentNode != null)
+                markDirty(parentNode, depth(parentNode), dirtyParentsByDepth);
+        }
+        Set<UiNode> updatedParents = new LinkedHashSet<UiNode>();
+        while (!dirtyParentsByDepth.isEmpty()) {
+            int depth = dirtyParentsByDepth.firstKey();
+            for (UiInternalNode parentNode : dirtyParentsByDepth.remove(depth)) {
+                Status newParentStatus = statusFromChildren(parentNode);
+                if (newParentStatus != parentNode.getStatus()) {
+                    UiInternalNode next = parentNode.changeStatus(newParentStatus);
+                    updatedParents.add(parentNode);
+                    if (next != null)
+                        markDirty(next, depth - 1, dirtyParentsByDepth);
+                }
+            }
+        }
+        return updatedParents;
+    }
+
+    /**
+     * Sets the status when changed by a child, returning the parent to propagate the change to, or null.
+     */
+    UiInternalNode changeStatus(Status status) {
+        setStatus(status);
+        return parent;
+    }
+
+    private static void markDirty(UiInternalNode node, int depth, SortedMap<Integer, Set<UiInternalNode>> dirtyNodesByDepth) {
+        Set<UiInternalNode> dirtyNodes = dirtyNodesByDepth.get(depth);
+        if (dirtyNodes == null) {
+            dirtyNodes = new LinkedHashSet<UiInternalNode>();
+            dirtyNodesByDepth.put(depth, dirtyNodes);
+        }
+        dirtyNodes.add(node);
+    }
 
+    private static Status statusFromChildren(UiInternalNode parentNode) {
         UiNode.Status defaultStatus = UiNode.Status.values()[0];
         UiNode.Status newParentStatus = parentNode.getValidationErrors() == null || parentNode.getValidationErrors().isEmpty() ?
                 defaultStatus: Status.VALIDATION_ERROR;
-        if (! parentNode.getChildren().isEmpty()) {
-            UiNode.Status descendantStatus = defaultStatus;
-            for (UiNode child : parentNode.getChildren()) {
-                if (child.isRelevant() && child.getStatus().ordinal() > descendantStatus.ordinal())
-                    descendantStatus = child.getStatus();
-            }
-            if (descendantStatus.ordinal() > newParentStatus.ordinal()) {
-                newParentStatus = descendantStatus;
-            }
-        }
-        if (newParentStatus != parentNode.getStatus()) {
-            return parentNode.updateStatusOfNodeAndParents(newParentStatus);
-        }
-        return Collections.emptyList();
+        UiNode.Status descendantStatus = parentNode.getWorstRelevantChildStatus();
+        if (descendantStatus.ordinal() > newParentStatus.ordinal())
+            newParentStatus = descendantStatus;
+        return newParentStatus;
     }
 
+    private static int depth(UiNode node) {
+        int depth = 0;
+        for (UiNode ancestor = node.getParent(); ancestor != null; ancestor = ancestor.getParent())
+            depth++;
+        return depth;
+    }
 
     public UiNode.Status determineStatus(Set<UiValidationError> validationErrors) {
         UiNode.Status newStatus;
@@ -163,14 +209,16 @@ public abstract class UiNode {
     }
 
     public List<UiNode> getRelevantSiblings() {
-        List<UiNode> siblings = parent.getChildren();
-        List<UiNode> relevantSiblings = new ArrayList<UiNode>(siblings);
-        CollectionUtils.filter(relevantSiblings, new Predicate<UiNode>() {
-            public boolean evaluate(UiNode item) {
-                return item.isRelevant();
-            }
-        });
-        return relevantSiblings;
+        return parent.getRelevantChildren();
+    }
+
+    /**
+     * The index of this node among its relevant siblings, or -1 if it's not relevant.
+     */
+    public int getRelevantIndexInParent() {
+        if (parent == null)
+            throw new IllegalStateException("Parent is null");
+        return parent.getRelevantChildIndex(id);
     }
 
     public UiRecord getUiRecord() {  // TODO: Can this be removed or moved? This doesn't make sense for UiRecordCollection and UiSurvey
@@ -207,18 +255,8 @@ public abstract class UiNode {
         this.validationErrors = validationErrors;
     }
 
-    public Collection<UiNode> findAllByName(String name) {
-        ArrayList<UiNode> found = new ArrayList<UiNode>();
-        if (definition.name.equals(name))
-            found.add(this);
-        if (this instanceof UiInternalNode)
-            for (UiNode childNode : ((UiInternalNode) this).getChildren())
-                found.addAll(childNode.findAllByName(name));
-        return found;
-    }
-
     public void updateStatus(Set<UiValidationError> validationErrors) {
-        status = determineStatus(validationErrors);
+        setStatus(determineStatus(validationErrors));
     }
 
     public String toString() {
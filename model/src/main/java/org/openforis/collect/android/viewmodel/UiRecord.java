@@ -7,6 +7,7 @@ import java.util.*;
  */
 public class UiRecord extends UiEntity {
     private Map<Integer, UiNode> nodeById = new HashMap<Integer, UiNode>();
+    private LazyNodeLoader nodeLoader;
 
     public UiRecord(int id, Definition definition, UiRecordCollection recordCollection, Placeholder placeholder) {
         super(id, true, definition);
@@ -27,6 +28,11 @@ public class UiRecord extends UiEntity {
         return updatedNodes;
     }
 
+    UiInternalNode changeStatus(Status status) {
+        updateStatusOfNodeAndParents(status);
+        return null;
+    }
+
     public void register(UiNode node) {
         super.register(node);
         nodeById.put(node.getId(), node);
@@ -34,13 +40,40 @@ public class UiRecord extends UiEntity {
 
     public void unregister(UiNode node) {
         super.unregister(node);
+        removeFromIndexes(node);
+    }
+
+    private void removeFromIndexes(UiNode node) {
         nodeById.remove(node.getId());
+        if (node instanceof UiInternalNode)
+            for (UiNode child : ((UiInternalNode) node).getLoadedChildren())
+                removeFromIndexes(child);
     }
 
     public UiNode lookupNode(int nodeId) {
         if (nodeId == getId())
             return this;
-        return nodeById.get(nodeId); // TODO: Throw exception if not found?
+        UiNode node = nodeById.get(nodeId); // TODO: Throw exception if not found?
+        if (node == null && nodeLoader != null)
+            node = loadNode(nodeId);
+        return node;
+    }
+
+    /**
+     * Set when parts of the record are loaded as stubs, to load nodes not yet in memory when looked up.
+     */
+    public void setNodeLoader(LazyNodeLoader nodeLoader) {
+        this.nodeLoader = nodeLoader;
+    }
+
+    private UiNode loadNode(int nodeId) {
+        for (Integer ancestorId : nodeLoader.ancestorIds(nodeId)) {
+            UiNode ancestor = ancestorId == getId() ? this : nodeById.get(ancestorId);
+            if (!(ancestor instanceof UiInternalNode))
+                return null;
+            ((UiInternalNode) ancestor).loadChildren();
+        }
+        return nodeById.get(nodeId);
     }
 
     public Placeholder createPlaceholder() {
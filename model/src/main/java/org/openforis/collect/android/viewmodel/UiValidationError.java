@@ -4,11 +4,21 @@ package org.openforis.collect.android.viewmodel;
  * @author Daniel Wiell
  */
 public class UiValidationError {
-    private final String message;
+    private Message message;
+    private String renderedMessage;
     private final Level level;
     private final UiNode node;
 
     public UiValidationError(String message, Level level, UiNode node) {
+        this.renderedMessage = message;
+        this.level = level;
+        this.node = node;
+    }
+
+    /**
+     * Creates an error with the message rendered the first time it's displayed.
+     */
+    public UiValidationError(Message message, Level level, UiNode node) {
         this.message = message;
         this.level = level;
         this.node = node;
@@ -22,11 +32,19 @@ public class UiValidationError {
         return node;
     }
 
-    public String toString() {
-        return message;
+    public synchronized String toString() {
+        if (message != null) {
+            renderedMessage = message.render();
+            message = null;
+        }
+        return renderedMessage;
     }
 
     public enum Level {
         WARNING, ERROR
     }
+
+    public interface Message {
+        String render();
+    }
 }
@@ -1,36 +1,35 @@
 package org.openforis.collect.android.viewmodelmanager;
 
 
-import org.openforis.collect.android.IdGenerator;
 import org.openforis.collect.android.util.persistence.ConnectionCallback;
 import org.openforis.collect.android.util.persistence.Database;
 import org.openforis.collect.android.util.persistence.PreparedStatementHelper;
 import org.openforis.collect.android.util.persistence.ResultSetHelper;
 
-import java.io.File;
 import java.sql.*;
-import java.sql.Date;
 import java.util.*;
 
 /**
  * @author Daniel Wiell
  */
 public class DataSourceNodeRepository implements NodeRepository {
+    private static final int MAX_IDS_PER_QUERY = 500; // SQLite allows at most 999 parameters in a statement
+    // IN-lists are padded to one of these sizes, so queries with a varying number of ids share a few cached statements
+    private static final int[] IN_LIST_SIZES = {1, 10, 100, MAX_IDS_PER_QUERY};
+    private static final String UPDATE_NODE_SQL = "" +
+            "UPDATE ofc_view_model\n" +
+            "SET relevant = ?, status = ?, parent_id = ?, parent_entity_id = ?, definition_id = ?, survey_id = ?, record_id = ?,\n" +
+            "    record_collection_name = ?, record_key_attribute = ?, node_type = ?, val = ?, created_on = ?, modified_on = ?\n" +
+            "WHERE id = ?";
+    private static final String UPDATE_MODIFIED_ON_SQL = "" +
+            "UPDATE ofc_view_model\n" +
+            "SET modified_on = ?\n" +
+            "WHERE id = ?";
     private final Database database;
+    private final RecordSummaries recordSummaries = new RecordSummaries();
 
     public DataSourceNodeRepository(Database database) {
         this.database = database;
-        IdGenerator.setLastId(lastId());
-    }
-
-    private int lastId() {
-        return database.execute(new ConnectionCallback<Integer>() {
-            public Integer execute(Connection connection) throws SQLException {
-                ResultSet rs = connection.createStatement().executeQuery("SELECT MAX(id) FROM ofc_view_model");
-                rs.next();
-                return rs.getInt(1);
-            }
-        });
     }
 
     public void insert(final List<NodeDto> nodes, final Map<Integer, StatusChange> statusChanges) {
@@ -39,18 +38,15 @@ public class DataSourceNodeRepository implements NodeRepository {
                 PreparedStatement ps = connection.prepareStatement("" +
                         "INSERT INTO ofc_view_model(\n" +
                         "   relevant, status, parent_id, parent_entity_id, definition_id, survey_id, record_id, record_collection_name,\n" +
-                        "   record_key_attribute, node_type,\n" +
-                        "   val_text, val_date, val_hour, val_minute, val_code_value, val_code_qualifier, val_code_label,\n" +
-                        "   val_boolean, val_int, val_int_from, val_int_to,\n" +
-                        "   val_double, val_double_from, val_double_to, val_x, val_y, val_srs, val_taxon_code,\n" +
-                        "   val_taxon_scientific_name, val_file, created_on, modified_on, id)\n" +
-                        "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                        "   record_key_attribute, node_type, val, created_on, modified_on, id)\n" +
+                        "VALUES(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
                 for (NodeDto node : nodes) {
                     bind(ps, node);
                     ps.addBatch();
                 }
                 ps.executeBatch();
                 ps.close();
+                recordSummaries.inserted(connection, nodes);
                 updateStatusChanges(connection, statusChanges);
                 return null;
             }
@@ -60,6 +56,7 @@ public class DataSourceNodeRepository implements NodeRepository {
     public void removeAll(final List<Integer> ids, final Map<Integer, StatusChange> statusChanges) {
         database.execute(new ConnectionCallback<Void>() {
             public Void execute(Connection connection) throws SQLException {
+                recordSummaries.removing(connection, ids);
                 removeNodes(connection, ids);
                 updateStatusChanges(connection, statusChanges);
                 return null;
@@ -84,6 +81,7 @@ public class DataSourceNodeRepository implements NodeRepository {
                 ps.setInt(1, recordId);
                 ps.executeUpdate();
                 ps.close();
+                recordSummaries.recordRemoved(connection, recordId);
                 return null;
             }
         });
@@ -92,20 +90,13 @@ public class DataSourceNodeRepository implements NodeRepository {
     public NodeDto.Collection recordNodes(final int recordId) {
         return database.execute(new ConnectionCallback<NodeDto.Collection>() {
             public NodeDto.Collection execute(Connection connection) throws SQLException {
-                PreparedStatement ps = connection.prepareStatement("" +
-                        "SELECT id, relevant, status, parent_id, parent_entity_id, survey_id, record_id, definition_id,\n" +
-                        "       record_collection_name, record_key_attribute, node_type,\n" +
-                        "       val_text, val_date, val_hour, val_minute, val_code_value, val_code_qualifier, val_code_label,\n" +
-                        "       val_boolean, val_int, val_int_from,\n" +
-                        "       val_int_to, val_double, val_double_from, val_double_to, val_x, val_y, val_srs,\n" +
-                        "       val_taxon_code, val_taxon_scientific_name, val_file, created_on, modified_on\n" +
-                        " FROM ofc_view_model\n" +
-                        " WHERE record_id = ?");
+                PreparedStatement ps = connection.prepareStatement(NodeRowMapper.SELECT_SQL + "WHERE record_id = ?");
                 ps.setInt(1, recordId);
                 ResultSet rs = ps.executeQuery();
+                NodeRowMapper mapper = new NodeRowMapper(rs);
                 NodeDto.Collection collection = new NodeDto.Collection();
                 while (rs.next())
-                    collection.addNode(toNode(rs));
+                    collection.addNode(mapper.map());
                 rs.close();
                 ps.close();
                 return collection;
@@ -113,10 +104,103 @@ public class DataSourceNodeRepository implements NodeRepository {
         });
     }
 
+    public NodeDto node(final int nodeId) {
+        return database.execute(new ConnectionCallback<NodeDto>() {
+            public NodeDto execute(Connection connection) throws SQLException {
+                PreparedStatement ps = connection.prepareStatement(NodeRowMapper.SELECT_SQL + "WHERE id = ?");
+                ps.setInt(1, nodeId);
+                ResultSet rs = ps.executeQuery();
+                NodeDto node = rs.next() ? new NodeRowMapper(rs).map() : null;
+                rs.close();
+                ps.close();
+                return node;
+            }
+        });
+    }
+
+    public NodeDto.Collection childNodes(final Collection<Integer> parentIds) {
+        return database.execute(new ConnectionCallback<NodeDto.Collection>() {
+            public NodeDto.Collection execute(Connection connection) throws SQLException {
+                NodeDto.Collection collection = new NodeDto.Collection();
+                List<Integer> ids = new ArrayList<Integer>(parentIds);
+                for (int from = 0; from < ids.size(); from += MAX_IDS_PER_QUERY) {
+                    List<Integer> batch = ids.subList(from, Math.min(from + MAX_IDS_PER_QUERY, ids.size()));
+                    PreparedStatement ps = connection.prepareStatement(NodeRowMapper.SELECT_SQL +
+                            "WHERE parent_id IN (" + inListPlaceholders(batch.size()) + ")");
+                    setInList(new PreparedStatementHelper(ps), batch);
+                    ResultSet rs = ps.executeQuery();
+                    NodeRowMapper mapper = new NodeRowMapper(rs);
+                    while (rs.next())
+                        collection.addNode(mapper.map());
+                    rs.close();
+                    ps.close();
+                }
+                return collection;
+            }
+        });
+    }
+
+    public List<Integer> ancestorIds(final int nodeId) {
+        return database.execute(new ConnectionCallback<List<Integer>>() {
+            public List<Integer> execute(Connection connection) throws SQLException {
+                PreparedStatement ps = connection.prepareStatement("SELECT parent_id FROM ofc_view_model WHERE id = ?");
+                LinkedList<Integer> ancestorIds = new LinkedList<Integer>();
+                Integer id = nodeId;
+                while (id != null) {
+                    ps.setInt(1, id);
+                    ResultSet rs = ps.executeQuery();
+                    if (!rs.next()) {
+                        rs.close();
+                        ps.close();
+                        return new ArrayList<Integer>();
+                    }
+                    id = new ResultSetHelper(rs).getInteger(1);
+                    rs.close();
+                    if (id != null)
+                        ancestorIds.addFirst(id);
+                }
+                ps.close();
+                return ancestorIds;
+            }
+        });
+    }
+
+    /**
+     * Placeholders of an IN-list of ids, padded to one of a few sizes. Bind the ids with {@link #setInList}.
+     */
+    static String inListPlaceholders(int idCount) {
+        int count = inListSize(idCount);
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < count; i++)
+            s.append(i == 0 ? "?" : ", ?");
+        return s.toString();
+    }
+
+    /**
+     * Binds the ids of an IN-list, repeating the last id as padding.
+     */
+    static void setInList(PreparedStatementHelper psh, List<Integer> ids) throws SQLException {
+        for (int id : ids)
+            psh.setInt(id);
+        int lastId = ids.get(ids.size() - 1);
+        for (int i = ids.size(); i < inListSize(ids.size()); i++)
+            psh.setInt(lastId);
+    }
+
+    static int inListSize(int idCount) {
+        if (idCount > MAX_IDS_PER_QUERY)
+            throw new IllegalArgumentException("At most " + MAX_IDS_PER_QUERY + " ids in an IN-list. Was " + idCount);
+        for (int size : IN_LIST_SIZES)
+            if (idCount <= size)
+                return size;
+        return MAX_IDS_PER_QUERY;
+    }
+
     public void update(final NodeDto node, final Map<Integer, StatusChange> statusChanges) {
         database.execute(new ConnectionCallback<Void>() {
             public Void execute(Connection connection) throws SQLException {
                 updateAttribute(connection, node);
+                recordSummaries.updated(connection, Collections.singleton(node));
                 updateStatusChanges(connection, statusChanges);
                 return null;
             }
@@ -127,37 +211,67 @@ public class DataSourceNodeRepository implements NodeRepository {
         database.execute(new ConnectionCallback<Void>() {
             public Void execute(Connection connection) throws SQLException {
                 updateModifiedOn(connection, node);
+                recordSummaries.modifiedOnUpdated(connection, Collections.singleton(node));
                 return null;
             }
         });
     }
 
+    public void updateAll(final Collection<NodeDto> nodes, final Map<Integer, StatusChange> statusChanges,
+                          final Collection<NodeDto> modifiedOnUpdates) {
+        database.execute(new ConnectionCallback<Void>() {
+            public Void execute(Connection connection) throws SQLException {
+                updateAttributes(connection, nodes);
+                recordSummaries.updated(connection, nodes);
+                updateStatusChanges(connection, statusChanges);
+                updateModifiedOn(connection, modifiedOnUpdates);
+                recordSummaries.modifiedOnUpdated(connection, modifiedOnUpdates);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Nodes sharing the same status and relevance are updated together, so there is a statement per distinct change
+     * rather than per node.
+     */
     private void updateStatusChanges(Connection connection, Map<Integer, StatusChange> statusChanges) throws SQLException {
-        PreparedStatement ps = connection.prepareStatement("" +
-                "UPDATE ofc_view_model\n" +
-                "SET relevant = ?, status = ?\n" +
-                "WHERE id = ?");
+        Map<StatusChange, List<Integer>> idsByStatusChange = idsByStatusChange(statusChanges);
+        for (Map.Entry<StatusChange, List<Integer>> entry : idsByStatusChange.entrySet()) {
+            StatusChange statusChange = entry.getKey();
+            List<Integer> ids = entry.getValue();
+            for (int from = 0; from < ids.size(); from += MAX_IDS_PER_QUERY) {
+                List<Integer> batch = ids.subList(from, Math.min(from + MAX_IDS_PER_QUERY, ids.size()));
+                PreparedStatement ps = connection.prepareStatement("" +
+                        "UPDATE ofc_view_model\n" +
+                        "SET relevant = ?, status = ?\n" +
+                        "WHERE id IN (" + inListPlaceholders(batch.size()) + ")");
+                PreparedStatementHelper psh = new PreparedStatementHelper(ps);
+                psh.setBoolean(statusChange.relevant);
+                psh.setString(statusChange.status);
+                setInList(psh, batch);
+                ps.executeUpdate();
+                ps.close();
+                recordSummaries.statusChanged(connection, statusChange, batch);
+            }
+        }
+    }
+
+    private Map<StatusChange, List<Integer>> idsByStatusChange(Map<Integer, StatusChange> statusChanges) {
+        Map<StatusChange, List<Integer>> idsByStatusChange = new HashMap<StatusChange, List<Integer>>();
         for (Map.Entry<Integer, StatusChange> statusChangeEntry : statusChanges.entrySet()) {
-            int id = statusChangeEntry.getKey();
-            StatusChange statusChange = statusChangeEntry.getValue();
-            ps.setBoolean(1, statusChange.relevant);
-            ps.setString(2, statusChange.status);
-            ps.setInt(3, id);
-            ps.addBatch();
+            List<Integer> ids = idsByStatusChange.get(statusChangeEntry.getValue());
+            if (ids == null) {
+                ids = new ArrayList<Integer>();
+                idsByStatusChange.put(statusChangeEntry.getValue(), ids);
+            }
+            ids.add(statusChangeEntry.getKey());
         }
-        ps.executeBatch();
-        ps.close();
+        return idsByStatusChange;
     }
 
     private void updateAttribute(Connection connection, NodeDto node) throws SQLException {
-        PreparedStatement ps = connection.prepareStatement("" +
-                "UPDATE ofc_view_model\n" +
-                "SET relevant = ?, status = ?, parent_id = ?, parent_entity_id = ?, definition_id = ?, survey_id = ?, record_id = ?,\n" +
-                "    record_collection_name = ?, record_key_attribute = ?, node_type = ?, val_text = ?, val_date = ?, val_hour = ?,\n" +
-                "    val_minute = ?, val_code_value = ?, val_code_qualifier = ?, val_code_label = ?, val_boolean = ?, val_int = ?, val_int_from = ?,\n" +
-                "    val_int_to = ?, val_double = ?, val_double_from = ?, val_double_to = ?, val_x = ?, val_y = ?, val_srs = ?,\n" +
-                "    val_taxon_code = ?, val_taxon_scientific_name = ?, val_file = ?, created_on = ?, modified_on = ?\n" +
-                "WHERE id = ?");
+        PreparedStatement ps = connection.prepareStatement(UPDATE_NODE_SQL);
         bind(ps, node);
         int rowsUpdated = ps.executeUpdate();
         if (rowsUpdated != 1)
@@ -165,11 +279,20 @@ public class DataSourceNodeRepository implements NodeRepository {
         ps.close();
     }
 
+    private void updateAttributes(Connection connection, Collection<NodeDto> nodes) throws SQLException {
+        if (nodes.isEmpty())
+            return;
+        PreparedStatement ps = connection.prepareStatement(UPDATE_NODE_SQL);
+        for (NodeDto node : nodes) {
+            bind(ps, node);
+            ps.addBatch();
+        }
+        assertEachRowUpdated(ps.executeBatch());
+        ps.close();
+    }
+
     private void updateModifiedOn(Connection connection, NodeDto node) throws SQLException {
-        PreparedStatement ps = connection.prepareStatement("" +
-                "UPDATE ofc_view_model\n" +
-                "SET modified_on = ?\n" +
-                "WHERE id = ?");
+        PreparedStatement ps = connection.prepareStatement(UPDATE_MODIFIED_ON_SQL);
         PreparedStatementHelper psh = new PreparedStatementHelper(ps);
         psh.setTimestamp(node.modifiedOn);
         psh.setInt(node.id);
@@ -179,77 +302,34 @@ public class DataSourceNodeRepository implements NodeRepository {
         ps.close();
     }
 
+    private void updateModifiedOn(Connection connection, Collection<NodeDto> nodes) throws SQLException {
+        if (nodes.isEmpty())
+            return;
+        PreparedStatement ps = connection.prepareStatement(UPDATE_MODIFIED_ON_SQL);
+        for (NodeDto node : nodes) {
+            PreparedStatementHelper psh = new PreparedStatementHelper(ps);
+            psh.setTimestamp(node.modifiedOn);
+            psh.setInt(node.id);
+            ps.addBatch();
+        }
+        assertEachRowUpdated(ps.executeBatch());
+        ps.close();
+    }
+
+    private void assertEachRowUpdated(int[] updateCounts) {
+        for (int rowsUpdated : updateCounts)
+            if (rowsUpdated != 1 && rowsUpdated != Statement.SUCCESS_NO_INFO)
+                throw new IllegalStateException("Expected exactly one row to be updated. Was " + rowsUpdated);
+    }
+
     public NodeDto.Collection surveyRecords(final int surveyId) {
         return database.execute(new ConnectionCallback<NodeDto.Collection>() {
             public NodeDto.Collection execute(Connection connection) throws SQLException {
-                PreparedStatement ps = connection.prepareStatement("" +
-                        "SELECT id, relevant, status, parent_id, parent_entity_id, survey_id, record_id, definition_id, record_collection_name,\n" +
-                        "       record_key_attribute, node_type,\n" +
-                        "       val_text, val_date, val_hour, val_minute, val_code_value, val_code_qualifier, val_code_label,\n" +
-                        "       val_boolean, val_int, val_int_from,\n" +
-                        "       val_int_to, val_double, val_double_from, val_double_to, val_x, val_y, val_srs,\n" +
-                        "       val_taxon_code, val_taxon_scientific_name, val_file, created_on, modified_on\n" +
-                        "FROM ofc_view_model\n" +
-                        "WHERE survey_id = ? AND (parent_id IS NULL OR record_key_attribute = ?)\n" +
-                        "ORDER BY id");
-                ps.setInt(1, surveyId);
-                ps.setInt(2, 1);
-                ResultSet rs = ps.executeQuery();
-                NodeDto.Collection collection = new NodeDto.Collection();
-                while (rs.next()) {
-                    NodeDto node = toNode(rs);
-                    if (node.parentId != null)
-                        node.parentId = node.recordId; // Put key attributes directly under record // TODO: Ugly!
-                    collection.addNode(node);
-                }
-                rs.close();
-                ps.close();
-                return collection;
+                return recordSummaries.surveyRecords(connection, surveyId);
             }
         });
     }
 
-    private NodeDto toNode(ResultSet rs) throws SQLException {
-        NodeDto n = new NodeDto();
-        ResultSetHelper helper = new ResultSetHelper(rs);
-        n.id = rs.getInt("id");
-        n.relevant = rs.getBoolean("relevant");
-        n.status = rs.getString("status");
-        n.parentId = helper.getInteger("parent_id");
-        n.parentEntityId = helper.getInteger("parent_entity_id");
-        n.definitionId = rs.getString("definition_id");
-        n.surveyId = rs.getInt("survey_id");
-        n.recordId = rs.getInt("record_id");
-        n.recordCollectionName = rs.getString("record_collection_name");
-        n.recordKeyAttribute = rs.getBoolean("record_key_attribute");
-        n.type = NodeDto.Type.byId(rs.getInt("node_type"));
-        n.text = rs.getString("val_text");
-        Long dateMillis = helper.getLong("val_date");
-        n.date = dateMillis == null ? null : new Date(dateMillis);
-        n.hour = helper.getInteger("val_hour");
-        n.minute = helper.getInteger("val_minute");
-        n.codeValue = rs.getString("val_code_value");
-        n.codeQualifier = rs.getString("val_code_qualifier");
-        n.codeLabel = rs.getString("val_code_label");
-        n.booleanValue = helper.getBoolean("val_boolean");
-        n.intValue = helper.getInteger("val_int");
-        n.intFrom = helper.getInteger("val_int_from");
-        n.intTo = helper.getInteger("val_int_to");
-        n.doubleValue = helper.getDouble("val_double");
-        n.doubleFrom = helper.getDouble("val_double_from");
-        n.doubleTo = helper.getDouble("val_double_to");
-        n.x = helper.getDouble("val_x");
-        n.y = helper.getDouble("val_y");
-        n.srs = rs.getString("val_srs");
-        n.taxonCode = rs.getString("val_taxon_code");
-        n.taxonScientificName = rs.getString("val_taxon_scientific_name");
-        String filePath = rs.getString("val_file");
-        n.file = filePath == null ? null : new File(filePath);
-        n.createdOn = helper.getTimestamp("created_on");
-        n.modifiedOn = helper.getTimestamp("modified_on");
-        return n;
-    }
-
     private void bind(PreparedStatement ps, NodeDto node) throws SQLException {
         PreparedStatementHelper psh = new PreparedStatementHelper(ps);
         psh.setBoolean(node.relevant);
@@ -262,26 +342,7 @@ public class DataSourceNodeRepository implements NodeRepository {
         psh.setString(node.recordCollectionName);
         psh.setBoolean(node.recordKeyAttribute);
         psh.setInt(node.type.id);
-        psh.setString(node.text);
-        psh.setLongOrNull(node.date == null ? null : node.date.getTime());
-        psh.setIntOrNull(node.hour);
-        psh.setIntOrNull(node.minute);
-        psh.setString(node.codeValue);
-        psh.setString(node.codeQualifier);
-        psh.setString(node.codeLabel);
-        psh.setBooleanOrNull(node.booleanValue);
-        psh.setIntOrNull(node.intValue);
-        psh.setIntOrNull(node.intFrom);
-        psh.setIntOrNull(node.intTo);
-        psh.setDoubleOrNull(node.doubleValue);
-        psh.setDoubleOrNull(node.doubleFrom);
-        psh.setDoubleOrNull(node.doubleTo);
-        psh.setDoubleOrNull(node.x);
-        psh.setDoubleOrNull(node.y);
-        psh.setStringOrNull(node.srs);
-        psh.setString(node.taxonCode);
-        psh.setString(node.taxonScientificName);
-        psh.setStringOrNull(node.file == null ? null : node.file.getAbsolutePath());
+        psh.setStringOrNull(NodeValueCodec.encode(node));
         psh.setTimestamp(node.createdOn);
         psh.setTimestamp(node.modifiedOn);
         psh.setInt(node.id);
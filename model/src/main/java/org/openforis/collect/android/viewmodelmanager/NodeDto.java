@@ -110,7 +110,7 @@ public class NodeDto {
         TEXT_ATTRIBUTE(16, UiTextAttribute.class),
         TIME_ATTRIBUTE(17, UiTimeAttribute.class);
 
-        private static final Map<Integer, Type> TYPE_BY_ID = new HashMap<Integer, Type>();
+        private static final Type[] TYPE_BY_ID;
         private static final Map<Class<? extends UiNode>, Type> TYPE_BY_CLASS = new HashMap<Class<? extends UiNode>, Type>();
 
         public final int id;
@@ -121,16 +121,19 @@ public class NodeDto {
             this.uiNodeClass = uiNodeClass;
         }
 
+        static {
+            int maxId = 0;
+            for (Type type : values())
+                maxId = Math.max(maxId, type.id);
+            TYPE_BY_ID = new Type[maxId + 1];
+            for (Type type : values())
+                TYPE_BY_ID[type.id] = type;
+        }
+
         public static Type byId(int id) {
-            Type type = TYPE_BY_ID.get(id);
-            if (type == null) {
-                for (Type t : values())
-                    if (t.id == id) {
-                        TYPE_BY_ID.put(id, t);
-                        return t;
-                    }
+            Type type = id >= 0 && id < TYPE_BY_ID.length ? TYPE_BY_ID[id] : null;
+            if (type == null)
                 throw new IllegalArgumentException("No type with id " + id);
-            }
             return type;
         }
 
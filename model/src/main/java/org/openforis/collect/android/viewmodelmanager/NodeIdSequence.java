@@ -0,0 +1,46 @@
+package org.openforis.collect.android.viewmodelmanager;
+
+import org.openforis.collect.android.IdGenerator;
+import org.openforis.collect.android.util.persistence.ConnectionCallback;
+import org.openforis.collect.android.util.persistence.Database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reserves node ids in <code>ofc_id_sequence</code>, which holds the next unreserved id of the node database.
+ * Ids reserved but not used when the app stops are skipped.
+ *
+ * @author Daniel Wiell
+ */
+public class NodeIdSequence implements IdGenerator.BlockSource {
+    private static final String SEQUENCE_NAME = "node";
+    private final Database database;
+
+    public NodeIdSequence(Database database) {
+        this.database = database;
+    }
+
+    public int reserve(final int size) {
+        return database.execute(new ConnectionCallback<Integer>() {
+            public Integer execute(Connection connection) throws SQLException {
+                PreparedStatement ps = connection.prepareStatement("SELECT next_id FROM ofc_id_sequence WHERE name = ?");
+                ps.setString(1, SEQUENCE_NAME);
+                ResultSet rs = ps.executeQuery();
+                if (!rs.next())
+                    throw new IllegalStateException("No id sequence named " + SEQUENCE_NAME);
+                int first = rs.getInt(1);
+                rs.close();
+                ps.close();
+                ps = connection.prepareStatement("UPDATE ofc_id_sequence SET next_id = ? WHERE name = ?");
+                ps.setInt(1, first + size);
+                ps.setString(2, SEQUENCE_NAME);
+                ps.executeUpdate();
+                ps.close();
+                return first;
+            }
+        });
+    }
+}
@@ -0,0 +1,275 @@
+package org.openforis.collect.android.viewmodelmanager;
+
+import java.io.*;
+import java.util.Date;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of node changes not yet written to the node database.
+ * Each entry is checksummed, so an entry torn by a crash in the middle of an append is ignored on replay.
+ * An entry holds all changes of one edit, and is synced once.
+ *
+ * @author Daniel Wiell
+ */
+public class NodeJournal {
+    private static final byte UPDATE_ENTRY = 1;
+    private static final byte MODIFIED_ON_ENTRY = 2;
+
+    private final File file;
+    private FileOutputStream out;
+
+    public NodeJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Appends an updated node together with the status changes it caused, as a single entry.
+     */
+    public void appendUpdate(NodeDto node, Map<Integer, StatusChange> statusChanges) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256 + 16 * statusChanges.size());
+        DataOutputStream entry = new DataOutputStream(bytes);
+        entry.writeByte(UPDATE_ENTRY);
+        writeNode(node, entry);
+        entry.writeInt(statusChanges.size());
+        for (Map.Entry<Integer, StatusChange> statusChange : statusChanges.entrySet()) {
+            entry.writeInt(statusChange.getKey());
+            entry.writeUTF(statusChange.getValue().status);
+            entry.writeBoolean(statusChange.getValue().relevant);
+        }
+        append(bytes.toByteArray());
+    }
+
+    public void appendModifiedOn(int nodeId, Date modifiedOn) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        DataOutputStream entry = new DataOutputStream(bytes);
+        entry.writeByte(MODIFIED_ON_ENTRY);
+        entry.writeInt(nodeId);
+        entry.writeLong(modifiedOn.getTime());
+        append(bytes.toByteArray());
+    }
+
+    /**
+     * Feeds every complete entry to the visitor, in the order they were appended.
+     */
+    public void replay(Visitor visitor) throws IOException {
+        if (!file.exists())
+            return;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            byte[] payload;
+            while ((payload = readEntry(in)) != null) {
+                DataInputStream entry = new DataInputStream(new ByteArrayInputStream(payload));
+                byte type = entry.readByte();
+                switch (type) {
+                    case UPDATE_ENTRY:
+                        visitor.node(readNode(entry));
+                        int statusChangeCount = entry.readInt();
+                        for (int i = 0; i < statusChangeCount; i++) {
+                            int id = entry.readInt();
+                            visitor.statusChange(id, new StatusChange(entry.readUTF(), entry.readBoolean()));
+                        }
+                        break;
+                    case MODIFIED_ON_ENTRY:
+                        visitor.modifiedOn(entry.readInt(), new Date(entry.readLong()));
+                        break;
+                    default:
+                        throw new IOException("Unexpected journal entry type " + type + " in " + file);
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Discards all entries. Called once the journaled changes have been committed to the node database.
+     */
+    public void truncate() throws IOException {
+        if (out != null)
+            out.getChannel().truncate(0);
+        else if (file.exists() && !file.delete())
+            throw new IOException("Failed to delete journal " + file);
+    }
+
+    public void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+
+    public void delete() throws IOException {
+        close();
+        if (file.exists() && !file.delete())
+            throw new IOException("Failed to delete journal " + file);
+    }
+
+    private void append(byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(payload.length + 12);
+        DataOutputStream entry = new DataOutputStream(bytes);
+        entry.writeInt(payload.length);
+        entry.write(payload);
+        entry.writeLong(crc.getValue());
+        FileOutputStream out = openForAppend();
+        out.write(bytes.toByteArray());
+        out.getFD().sync();
+    }
+
+    private FileOutputStream openForAppend() throws FileNotFoundException {
+        if (out == null)
+            out = new FileOutputStream(file, true);
+        return out;
+    }
+
+    private byte[] readEntry(DataInputStream in) throws IOException {
+        try {
+            int length = in.readInt();
+            if (length <= 0)
+                return null;
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            long expectedCrc = in.readLong();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return crc.getValue() == expectedCrc ? payload : null;
+        } catch (EOFException e) {
+            return null; // Entry torn by crash - ignore it
+        }
+    }
+
+    private void writeNode(NodeDto node, DataOutputStream out) throws IOException {
+        out.writeInt(node.id);
+        out.writeBoolean(node.relevant);
+        writeString(node.status, out);
+        writeInteger(node.parentId, out);
+        writeInteger(node.parentEntityId, out);
+        writeString(node.definitionId, out);
+        out.writeInt(node.surveyId);
+        writeString(node.recordCollectionName, out);
+        out.writeInt(node.recordId);
+        out.writeBoolean(node.recordKeyAttribute);
+        out.writeInt(node.type.id);
+        writeString(node.text, out);
+        writeDate(node.date, out);
+        writeInteger(node.hour, out);
+        writeInteger(node.minute, out);
+        writeString(node.codeValue, out);
+        writeString(node.codeQualifier, out);
+        writeString(node.codeLabel, out);
+        writeBoolean(node.booleanValue, out);
+        writeInteger(node.intValue, out);
+        writeInteger(node.intFrom, out);
+        writeInteger(node.intTo, out);
+        writeDouble(node.doubleValue, out);
+        writeDouble(node.doubleFrom, out);
+        writeDouble(node.doubleTo, out);
+        writeDouble(node.x, out);
+        writeDouble(node.y, out);
+        writeString(node.srs, out);
+        writeString(node.taxonCode, out);
+        writeString(node.taxonScientificName, out);
+        writeString(node.file == null ? null : node.file.getAbsolutePath(), out);
+        writeDate(node.createdOn, out);
+        writeDate(node.modifiedOn, out);
+    }
+
+    private NodeDto readNode(DataInputStream in) throws IOException {
+        NodeDto n = new NodeDto();
+        n.id = in.readInt();
+        n.relevant = in.readBoolean();
+        n.status = readString(in);
+        n.parentId = readInteger(in);
+        n.parentEntityId = readInteger(in);
+        n.definitionId = readString(in);
+        n.surveyId = in.readInt();
+        n.recordCollectionName = readString(in);
+        n.recordId = in.readInt();
+        n.recordKeyAttribute = in.readBoolean();
+        n.type = NodeDto.Type.byId(in.readInt());
+        n.text = readString(in);
+        n.date = readDate(in);
+        n.hour = readInteger(in);
+        n.minute = readInteger(in);
+        n.codeValue = readString(in);
+        n.codeQualifier = readString(in);
+        n.codeLabel = readString(in);
+        n.booleanValue = readBoolean(in);
+        n.intValue = readInteger(in);
+        n.intFrom = readInteger(in);
+        n.intTo = readInteger(in);
+        n.doubleValue = readDouble(in);
+        n.doubleFrom = readDouble(in);
+        n.doubleTo = readDouble(in);
+        n.x = readDouble(in);
+        n.y = readDouble(in);
+        n.srs = readString(in);
+        n.taxonCode = readString(in);
+        n.taxonScientificName = readString(in);
+        String filePath = readString(in);
+        n.file = filePath == null ? null : new File(filePath);
+        n.createdOn = readDate(in);
+        n.modifiedOn = readDate(in);
+        return n;
+    }
+
+    private void writeString(String value, DataOutputStream out) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private void writeInteger(Integer value, DataOutputStream out) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeInt(value);
+    }
+
+    private Integer readInteger(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private void writeDouble(Double value, DataOutputStream out) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeDouble(value);
+    }
+
+    private Double readDouble(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+
+    private void writeBoolean(Boolean value, DataOutputStream out) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeBoolean(value);
+    }
+
+    private Boolean readBoolean(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readBoolean() : null;
+    }
+
+    private void writeDate(Date value, DataOutputStream out) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeLong(value.getTime());
+    }
+
+    private Date readDate(DataInputStream in) throws IOException {
+        return in.readBoolean() ? new Date(in.readLong()) : null;
+    }
+
+    public interface Visitor {
+        void node(NodeDto node);
+
+        void statusChange(int nodeId, StatusChange statusChange);
+
+        void modifiedOn(int nodeId, Date modifiedOn);
+    }
+}
@@ -1,5 +1,6 @@
 package org.openforis.collect.android.viewmodelmanager;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -12,10 +13,27 @@ public interface NodeRepository {
 
     NodeDto.Collection recordNodes(int recordId);
 
+    /**
+     * Returns the node with the given id, or null if there is none.
+     */
+    NodeDto node(int nodeId);
+
+    /**
+     * Returns the nodes whose parent is one of the given ids.
+     */
+    NodeDto.Collection childNodes(Collection<Integer> parentIds);
+
+    /**
+     * Returns the ids of the ancestors of a node, starting with the root. Empty if there is no such node.
+     */
+    List<Integer> ancestorIds(int nodeId);
+
     void update(NodeDto node, Map<Integer, StatusChange> statusChanges);
 
     void updateModifiedOn(NodeDto record);
 
+    void updateAll(Collection<NodeDto> nodes, Map<Integer, StatusChange> statusChanges, Collection<NodeDto> modifiedOnUpdates);
+
     NodeDto.Collection surveyRecords(int surveyId);
 
     void removeAll(List<Integer> ids, Map<Integer, StatusChange> statusChanges);
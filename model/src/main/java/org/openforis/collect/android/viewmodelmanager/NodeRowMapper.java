@@ -0,0 +1,61 @@
+package org.openforis.collect.android.viewmodelmanager;
+
+import org.openforis.collect.android.util.persistence.ResultSetHelper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps rows selected by {@link #SELECT_SQL} to nodes. Columns are read by position, so the column list and the
+ * positions are kept together here. One mapper is created per result set.
+ *
+ * @author Daniel Wiell
+ */
+class NodeRowMapper {
+    static final String SELECT_SQL = "" +
+            "SELECT id, relevant, status, parent_id, parent_entity_id, survey_id, record_id, definition_id,\n" +
+            "       record_collection_name, record_key_attribute, node_type, val, created_on, modified_on\n" +
+            "FROM ofc_view_model\n";
+
+    private static final int ID = 1;
+    private static final int RELEVANT = 2;
+    private static final int STATUS = 3;
+    private static final int PARENT_ID = 4;
+    private static final int PARENT_ENTITY_ID = 5;
+    private static final int SURVEY_ID = 6;
+    private static final int RECORD_ID = 7;
+    private static final int DEFINITION_ID = 8;
+    private static final int RECORD_COLLECTION_NAME = 9;
+    private static final int RECORD_KEY_ATTRIBUTE = 10;
+    private static final int NODE_TYPE = 11;
+    private static final int VAL = 12;
+    private static final int CREATED_ON = 13;
+    private static final int MODIFIED_ON = 14;
+
+    private final ResultSet rs;
+    private final ResultSetHelper helper;
+
+    NodeRowMapper(ResultSet rs) {
+        this.rs = rs;
+        helper = new ResultSetHelper(rs);
+    }
+
+    NodeDto map() throws SQLException {
+        NodeDto n = new NodeDto();
+        n.id = rs.getInt(ID);
+        n.relevant = rs.getBoolean(RELEVANT);
+        n.status = rs.getString(STATUS);
+        n.parentId = helper.getInteger(PARENT_ID);
+        n.parentEntityId = helper.getInteger(PARENT_ENTITY_ID);
+        n.surveyId = rs.getInt(SURVEY_ID);
+        n.recordId = rs.getInt(RECORD_ID);
+        n.definitionId = rs.getString(DEFINITION_ID);
+        n.recordCollectionName = rs.getString(RECORD_COLLECTION_NAME);
+        n.recordKeyAttribute = rs.getBoolean(RECORD_KEY_ATTRIBUTE);
+        n.type = NodeDto.Type.byId(rs.getInt(NODE_TYPE));
+        NodeValueCodec.decode(rs.getString(VAL), n);
+        n.createdOn = helper.getTimestamp(CREATED_ON);
+        n.modifiedOn = helper.getTimestamp(MODIFIED_ON);
+        return n;
+    }
+}
@@ -0,0 +1,205 @@
+package org.openforis.collect.android.viewmodelmanager;
+
+import java.io.File;
+import java.util.Date;
+
+/**
+ * Encodes the value of a node into the single <code>val</code> column of <code>ofc_view_model</code>.
+ * The encoding is given by the node type:
+ * <ul>
+ * <li>Attributes with a single field store the field as text, or null.</li>
+ * <li>Attributes with several fields store each field as <code>&lt;length&gt;:&lt;text&gt;</code>,
+ * or <code>-</code> when the field is null. The value is null when all fields are null.
+ * Length is in code points, to match the SQLite <code>length()</code> function used when migrating.</li>
+ * <li>Other nodes have no value.</li>
+ * </ul>
+ *
+ * @author Daniel Wiell
+ */
+public final class NodeValueCodec {
+    private static final char LENGTH_SEPARATOR = ':';
+    private static final char NULL_FIELD = '-';
+
+    private NodeValueCodec() {
+    }
+
+    public static String encode(NodeDto node) {
+        switch (node.type) {
+            case BOOLEAN_ATTRIBUTE:
+                return node.booleanValue == null ? null : node.booleanValue ? "1" : "0";
+            case CODE_ATTRIBUTE:
+                return fields(node.codeValue, node.codeQualifier, node.codeLabel);
+            case COORDINATE_ATTRIBUTE:
+                return fields(toString(node.x), toString(node.y), node.srs);
+            case DATE_ATTRIBUTE:
+                return node.date == null ? null : Long.toString(node.date.getTime());
+            case DOUBLE_ATTRIBUTE:
+                return toString(node.doubleValue);
+            case DOUBLE_RANGE_ATTRIBUTE:
+                return fields(toString(node.doubleFrom), toString(node.doubleTo));
+            case FILE_ATTRIBUTE:
+                return node.file == null ? null : node.file.getAbsolutePath();
+            case INTEGER_ATTRIBUTE:
+                return toString(node.intValue);
+            case INTEGER_RANGE_ATTRIBUTE:
+                return fields(toString(node.intFrom), toString(node.intTo));
+            case TAXON_ATTRIBUTE:
+                return fields(node.taxonCode, node.taxonScientificName);
+            case TEXT_ATTRIBUTE:
+                return node.text;
+            case TIME_ATTRIBUTE:
+                return fields(toString(node.hour), toString(node.minute));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns how a non-null field starts the encoded value of an attribute with several fields, or null.
+     */
+    public static String encodeFirstField(String field) {
+        return field == null ? null : fields(field);
+    }
+
+    /**
+     * Sets the value fields of the node from an encoded value. The node type must already be set.
+     */
+    public static void decode(String value, NodeDto node) {
+        if (value == null)
+            return;
+        FieldReader reader = new FieldReader(value);
+        switch (node.type) {
+            case BOOLEAN_ATTRIBUTE:
+                node.booleanValue = value.equals("1") || value.equalsIgnoreCase("true");
+                break;
+            case CODE_ATTRIBUTE:
+                node.codeValue = reader.string();
+                node.codeQualifier = reader.string();
+                node.codeLabel = reader.string();
+                break;
+            case COORDINATE_ATTRIBUTE:
+                node.x = reader.doubleValue();
+                node.y = reader.doubleValue();
+                node.srs = reader.string();
+                break;
+            case DATE_ATTRIBUTE:
+                node.date = new Date(Long.parseLong(value));
+                break;
+            case DOUBLE_ATTRIBUTE:
+                node.doubleValue = Double.parseDouble(value);
+                break;
+            case DOUBLE_RANGE_ATTRIBUTE:
+                node.doubleFrom = reader.doubleValue();
+                node.doubleTo = reader.doubleValue();
+                break;
+            case FILE_ATTRIBUTE:
+                node.file = new File(value);
+                break;
+            case INTEGER_ATTRIBUTE:
+                node.intValue = parseInt(value, 0, value.length());
+                break;
+            case INTEGER_RANGE_ATTRIBUTE:
+                node.intFrom = reader.intValue();
+                node.intTo = reader.intValue();
+                break;
+            case TAXON_ATTRIBUTE:
+                node.taxonCode = reader.string();
+                node.taxonScientificName = reader.string();
+                break;
+            case TEXT_ATTRIBUTE:
+                node.text = value;
+                break;
+            case TIME_ATTRIBUTE:
+                node.hour = reader.intValue();
+                node.minute = reader.intValue();
+                break;
+        }
+    }
+
+    /**
+     * Encodes fields the way attributes with several fields are encoded. Null if all fields are null.
+     */
+    public static String encodeFields(String... fields) {
+        return fields(fields);
+    }
+
+    private static String fields(String... fields) {
+        boolean allNull = true;
+        for (String field : fields)
+            allNull &= field == null;
+        if (allNull)
+            return null;
+        StringBuilder s = new StringBuilder();
+        for (String field : fields) {
+            if (field == null)
+                s.append(NULL_FIELD);
+            else
+                s.append(field.codePointCount(0, field.length())).append(LENGTH_SEPARATOR).append(field);
+        }
+        return s.toString();
+    }
+
+    private static String toString(Object value) {
+        return value == null ? null : value.toString();
+    }
+
+    private static int parseInt(String s, int start, int end) {
+        boolean negative = s.charAt(start) == '-';
+        int result = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("Not an integer: " + s.substring(start, end));
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Reads fields encoded by {@link #encodeFields(String...)}, in order.
+     */
+    public static final class FieldReader {
+        private final String value;
+        private int position;
+        private int start;
+        private int end;
+
+        public FieldReader(String value) {
+            this.value = value;
+        }
+
+        public boolean hasNext() {
+            return position < value.length();
+        }
+
+        public String string() {
+            return next() ? value.substring(start, end) : null;
+        }
+
+        public Integer intValue() {
+            return next() ? parseInt(value, start, end) : null;
+        }
+
+        public Double doubleValue() {
+            return next() ? Double.parseDouble(value.substring(start, end)) : null;
+        }
+
+        /**
+         * Moves to the next field, returning false if it's null.
+         */
+        private boolean next() {
+            if (position >= value.length())
+                throw new IllegalStateException("Unexpected end of encoded value: " + value);
+            if (value.charAt(position) == NULL_FIELD) {
+                position++;
+                return false;
+            }
+            int separator = value.indexOf(LENGTH_SEPARATOR, position);
+            int length = parseInt(value, position, separator);
+            start = separator + 1;
+            end = value.offsetByCodePoints(start, length);
+            position = end;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.openforis.collect.android.viewmodelmanager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Looks up records by their keys, using the composite key hash in <code>ofc_record_summary.key_hash</code>,
+ * maintained by {@link RecordSummaries}. Records with the same hash are compared by their <code>key_values</code>.
+ * <p/>
+ * The hash is computed in Java, so it can't be set by the schema migration adding it. Records without hash are
+ * hashed the first time the index is used.
+ *
+ * @author Daniel Wiell
+ */
+public final class RecordKeyIndex {
+    private final RecordSummaries recordSummaries = new RecordSummaries();
+    private volatile boolean backfilled;
+
+    /**
+     * True if a record other than the one of the keys has the same key values.
+     * All keys are expected to belong to the same record.
+     */
+    public boolean hasOtherRecord(Connection connection, List<NodeDto> keys) throws SQLException {
+        if (!backfilled) {
+            backfill(connection);
+            backfilled = true;
+        }
+        String compositeKey = compositeKey(keys);
+        PreparedStatement ps = connection.prepareStatement("" +
+                "SELECT record_id, key_values\n" +
+                "FROM ofc_record_summary\n" +
+                "WHERE key_hash = ? AND record_id != ?");
+        ps.setInt(1, compositeKey.hashCode());
+        ps.setInt(2, keys.get(0).recordId); // The recordId is the same for all keys - pick it from the first
+        ResultSet rs = ps.executeQuery();
+        boolean found = false;
+        while (!found && rs.next()) {
+            NodeDto record = new NodeDto();
+            record.id = rs.getInt(1);
+            String keyValues = rs.getString(2);
+            found = keyValues != null
+                    && compositeKey.equals(compositeKey(RecordSummaries.decodeKeys(keyValues, record).values()));
+        }
+        rs.close();
+        ps.close();
+        return found;
+    }
+
+    static int hash(Collection<NodeDto> keys) {
+        return compositeKey(keys).hashCode();
+    }
+
+    /**
+     * Key values ordered by definition id. Codes are compared by code value only, as qualifier and label don't make
+     * keys differ.
+     */
+    private static String compositeKey(Collection<NodeDto> keys) {
+        Map<String, String> valueByDefinitionId = new TreeMap<String, String>();
+        for (NodeDto key : keys)
+            valueByDefinitionId.put(key.definitionId, key.type == NodeDto.Type.CODE_ATTRIBUTE
+                    ? key.codeValue
+                    : NodeValueCodec.encode(key));
+        StringBuilder compositeKey = new StringBuilder();
+        for (Map.Entry<String, String> entry : valueByDefinitionId.entrySet())
+            compositeKey.append(NodeValueCodec.encodeFields(entry.getKey(), entry.getValue()));
+        return compositeKey.toString();
+    }
+
+    private void backfill(Connection connection) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("" +
+                "SELECT record_id, key_values\n" +
+                "FROM ofc_record_summary\n" +
+                "WHERE key_hash IS NULL");
+        ResultSet rs = ps.executeQuery();
+        Map<Integer, String> keyValuesByRecordId = new LinkedHashMap<Integer, String>();
+        while (rs.next())
+            keyValuesByRecordId.put(rs.getInt(1), rs.getString(2));
+        rs.close();
+        ps.close();
+        for (Map.Entry<Integer, String> entry : keyValuesByRecordId.entrySet()) {
+            NodeDto record = new NodeDto();
+            record.id = entry.getKey();
+            if (entry.getValue() == null)
+                recordSummaries.collectKeys(connection, record);
+            else
+                recordSummaries.writeKeys(connection, record.id, RecordSummaries.decodeKeys(entry.getValue(), record));
+        }
+    }
+}
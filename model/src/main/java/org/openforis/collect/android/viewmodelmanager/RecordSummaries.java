@@ -0,0 +1,303 @@
+package org.openforis.collect.android.viewmodelmanager;
+
+import org.openforis.collect.android.util.persistence.PreparedStatementHelper;
+import org.openforis.collect.android.util.persistence.ResultSetHelper;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Maintains <code>ofc_record_summary</code>, one row per record with what the record list needs.
+ * Called by {@link DataSourceNodeRepository} on the same connection as the node changes, so both are committed together.
+ * <p/>
+ * Key attributes are stored in <code>key_values</code>, each as the fields id, definition id, node type and value,
+ * encoded with {@link NodeValueCodec#encodeFields(String...)}. Their status is not kept, so listed keys have none.
+ * Null <code>key_values</code> means the keys have not been collected yet (records summarised by the schema migration),
+ * and they are then read from <code>ofc_view_model</code>.
+ * <code>key_hash</code> is the hash of the composite key, kept with <code>key_values</code> for {@link RecordKeyIndex}.
+ *
+ * @author Daniel Wiell
+ */
+class RecordSummaries {
+    private static final String SELECT_KEYS_SQL = "SELECT key_values FROM ofc_record_summary WHERE record_id = ?";
+    private static final String UPDATE_KEYS_SQL = "UPDATE ofc_record_summary SET key_values = ?, key_hash = ? WHERE record_id = ?";
+
+    void inserted(Connection connection, List<NodeDto> nodes) throws SQLException {
+        Map<Integer, Integer> nodeCountByRecordId = new HashMap<Integer, Integer>();
+        Map<Integer, List<NodeDto>> keysByRecordId = new HashMap<Integer, List<NodeDto>>();
+        List<NodeDto> records = new ArrayList<NodeDto>();
+        for (NodeDto node : nodes) {
+            if (node.parentId == null)
+                records.add(node);
+            Integer count = nodeCountByRecordId.get(node.recordId);
+            nodeCountByRecordId.put(node.recordId, count == null ? 1 : count + 1);
+            if (node.recordKeyAttribute)
+                keys(keysByRecordId, node.recordId).add(node);
+        }
+        insertRecords(connection, records);
+        addToNodeCount(connection, nodeCountByRecordId);
+        for (Map.Entry<Integer, List<NodeDto>> entry : keysByRecordId.entrySet())
+            updateKeys(connection, entry.getKey(), entry.getValue(), Collections.<Integer>emptySet());
+    }
+
+    void updated(Connection connection, Collection<NodeDto> nodes) throws SQLException {
+        Map<Integer, List<NodeDto>> keysByRecordId = new HashMap<Integer, List<NodeDto>>();
+        for (NodeDto node : nodes) {
+            if (node.parentId == null)
+                updateRecord(connection, node);
+            if (node.recordKeyAttribute)
+                keys(keysByRecordId, node.recordId).add(node);
+        }
+        for (Map.Entry<Integer, List<NodeDto>> entry : keysByRecordId.entrySet())
+            updateKeys(connection, entry.getKey(), entry.getValue(), Collections.<Integer>emptySet());
+    }
+
+    /**
+     * Must be called before the nodes are deleted, since the record is looked up from the first node.
+     * All nodes are expected to belong to the same record.
+     */
+    void removing(Connection connection, List<Integer> ids) throws SQLException {
+        if (ids.isEmpty())
+            return;
+        Integer recordId = recordId(connection, ids.get(0));
+        if (recordId == null)
+            return;
+        PreparedStatement ps = connection.prepareStatement("" +
+                "UPDATE ofc_record_summary SET node_count = node_count - ? WHERE record_id = ?");
+        ps.setInt(1, ids.size());
+        ps.setInt(2, recordId);
+        ps.executeUpdate();
+        ps.close();
+        updateKeys(connection, recordId, Collections.<NodeDto>emptyList(), new HashSet<Integer>(ids));
+    }
+
+    void recordRemoved(Connection connection, int recordId) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("DELETE FROM ofc_record_summary WHERE record_id = ?");
+        ps.setInt(1, recordId);
+        ps.executeUpdate();
+        ps.close();
+    }
+
+    /**
+     * Status changes of nodes other than records don't match any row.
+     */
+    void statusChanged(Connection connection, StatusChange statusChange, List<Integer> ids) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("" +
+                "UPDATE ofc_record_summary SET status = ? WHERE record_id IN (" +
+                DataSourceNodeRepository.inListPlaceholders(ids.size()) + ")");
+        PreparedStatementHelper psh = new PreparedStatementHelper(ps);
+        psh.setString(statusChange.status);
+        DataSourceNodeRepository.setInList(psh, ids);
+        ps.executeUpdate();
+        ps.close();
+    }
+
+    /**
+     * Modifications of nodes other than records don't match any row.
+     */
+    void modifiedOnUpdated(Connection connection, Collection<NodeDto> nodes) throws SQLException {
+        if (nodes.isEmpty())
+            return;
+        PreparedStatement ps = connection.prepareStatement("" +
+                "UPDATE ofc_record_summary SET modified_on = ? WHERE record_id = ?");
+        for (NodeDto node : nodes) {
+            PreparedStatementHelper psh = new PreparedStatementHelper(ps);
+            psh.setTimestamp(node.modifiedOn);
+            psh.setInt(node.id);
+            ps.addBatch();
+        }
+        ps.executeBatch();
+        ps.close();
+    }
+
+    /**
+     * Records of the survey, with key attributes as children of the record nodes.
+     */
+    NodeDto.Collection surveyRecords(Connection connection, int surveyId) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("" +
+                "SELECT record_id, survey_id, definition_id, record_collection_name, status, key_values,\n" +
+                "       created_on, modified_on\n" +
+                "FROM ofc_record_summary\n" +
+                "WHERE survey_id = ?\n" +
+                "ORDER BY record_id");
+        ps.setInt(1, surveyId);
+        ResultSet rs = ps.executeQuery();
+        ResultSetHelper helper = new ResultSetHelper(rs);
+        NodeDto.Collection collection = new NodeDto.Collection();
+        List<NodeDto> recordsWithoutKeys = new ArrayList<NodeDto>();
+        while (rs.next()) {
+            NodeDto record = new NodeDto();
+            record.id = rs.getInt(1);
+            record.recordId = record.id;
+            record.surveyId = rs.getInt(2);
+            record.definitionId = rs.getString(3);
+            record.recordCollectionName = rs.getString(4);
+            record.status = rs.getString(5);
+            record.relevant = true;
+            record.type = NodeDto.Type.RECORD;
+            record.createdOn = helper.getTimestamp(7);
+            record.modifiedOn = helper.getTimestamp(8);
+            collection.addNode(record);
+            String keyValues = rs.getString(6);
+            if (keyValues == null)
+                recordsWithoutKeys.add(record);
+            else
+                for (NodeDto key : decodeKeys(keyValues, record).values())
+                    collection.addNode(key);
+        }
+        rs.close();
+        ps.close();
+        for (NodeDto record : recordsWithoutKeys)
+            for (NodeDto key : collectKeys(connection, record).values())
+                collection.addNode(key);
+        return collection;
+    }
+
+    private void insertRecords(Connection connection, List<NodeDto> records) throws SQLException {
+        if (records.isEmpty())
+            return;
+        PreparedStatement ps = connection.prepareStatement("" +
+                "INSERT INTO ofc_record_summary(\n" +
+                "   record_id, survey_id, definition_id, record_collection_name, status, key_values, key_hash, node_count,\n" +
+                "   created_on, modified_on)\n" +
+                "VALUES(?, ?, ?, ?, ?, '', ?, 0, ?, ?)");
+        for (NodeDto record : records) {
+            PreparedStatementHelper psh = new PreparedStatementHelper(ps);
+            psh.setInt(record.id);
+            psh.setInt(record.surveyId);
+            psh.setString(record.definitionId);
+            psh.setString(record.recordCollectionName);
+            psh.setString(record.status);
+            psh.setInt(RecordKeyIndex.hash(Collections.<NodeDto>emptyList()));
+            psh.setTimestamp(record.createdOn);
+            psh.setTimestamp(record.modifiedOn);
+            ps.addBatch();
+        }
+        ps.executeBatch();
+        ps.close();
+    }
+
+    private void updateRecord(Connection connection, NodeDto record) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("" +
+                "UPDATE ofc_record_summary SET status = ?, modified_on = ? WHERE record_id = ?");
+        PreparedStatementHelper psh = new PreparedStatementHelper(ps);
+        psh.setString(record.status);
+        psh.setTimestamp(record.modifiedOn);
+        psh.setInt(record.id);
+        ps.executeUpdate();
+        ps.close();
+    }
+
+    private void addToNodeCount(Connection connection, Map<Integer, Integer> nodeCountByRecordId) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("" +
+                "UPDATE ofc_record_summary SET node_count = node_count + ? WHERE record_id = ?");
+        for (Map.Entry<Integer, Integer> entry : nodeCountByRecordId.entrySet()) {
+            ps.setInt(1, entry.getValue());
+            ps.setInt(2, entry.getKey());
+            ps.addBatch();
+        }
+        ps.executeBatch();
+        ps.close();
+    }
+
+    /**
+     * Adds or replaces the changed keys and drops the removed ones. Does nothing if the keys have not been collected.
+     */
+    private void updateKeys(Connection connection, int recordId, List<NodeDto> changedKeys, Set<Integer> removedIds) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement(SELECT_KEYS_SQL);
+        ps.setInt(1, recordId);
+        ResultSet rs = ps.executeQuery();
+        String keyValues = rs.next() ? rs.getString(1) : null;
+        rs.close();
+        ps.close();
+        if (keyValues == null)
+            return;
+        NodeDto record = new NodeDto();
+        record.id = recordId;
+        Map<Integer, NodeDto> keys = decodeKeys(keyValues, record);
+        if (!keys.keySet().removeAll(removedIds) && changedKeys.isEmpty())
+            return;
+        for (NodeDto key : changedKeys)
+            keys.put(key.id, key);
+        writeKeys(connection, recordId, keys);
+    }
+
+    Map<Integer, NodeDto> collectKeys(Connection connection, NodeDto record) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement(NodeRowMapper.SELECT_SQL +
+                "WHERE record_id = ? AND record_key_attribute = ?");
+        ps.setInt(1, record.id);
+        ps.setInt(2, 1);
+        ResultSet rs = ps.executeQuery();
+        NodeRowMapper mapper = new NodeRowMapper(rs);
+        Map<Integer, NodeDto> keys = new TreeMap<Integer, NodeDto>();
+        while (rs.next()) {
+            NodeDto key = mapper.map();
+            key.parentId = record.id; // Put key attributes directly under record
+            key.status = null; // Not kept in the summary - leave it out here too, so listed keys are alike
+            keys.put(key.id, key);
+        }
+        rs.close();
+        ps.close();
+        writeKeys(connection, record.id, keys);
+        return keys;
+    }
+
+    void writeKeys(Connection connection, int recordId, Map<Integer, NodeDto> keys) throws SQLException {
+        StringBuilder keyValues = new StringBuilder();
+        for (NodeDto key : keys.values())
+            keyValues.append(NodeValueCodec.encodeFields(
+                    Integer.toString(key.id),
+                    key.definitionId,
+                    Integer.toString(key.type.id),
+                    NodeValueCodec.encode(key)));
+        PreparedStatement ps = connection.prepareStatement(UPDATE_KEYS_SQL);
+        ps.setString(1, keyValues.toString());
+        ps.setInt(2, RecordKeyIndex.hash(keys.values()));
+        ps.setInt(3, recordId);
+        ps.executeUpdate();
+        ps.close();
+    }
+
+    static Map<Integer, NodeDto> decodeKeys(String keyValues, NodeDto record) {
+        Map<Integer, NodeDto> keys = new TreeMap<Integer, NodeDto>();
+        NodeValueCodec.FieldReader reader = new NodeValueCodec.FieldReader(keyValues);
+        while (reader.hasNext()) {
+            NodeDto key = new NodeDto();
+            key.id = reader.intValue();
+            key.definitionId = reader.string();
+            key.type = NodeDto.Type.byId(reader.intValue());
+            NodeValueCodec.decode(reader.string(), key);
+            key.parentId = record.id;
+            key.parentEntityId = record.id;
+            key.recordId = record.id;
+            key.surveyId = record.surveyId;
+            key.recordCollectionName = record.recordCollectionName;
+            key.recordKeyAttribute = true;
+            key.relevant = true;
+            keys.put(key.id, key);
+        }
+        return keys;
+    }
+
+    private Integer recordId(Connection connection, int nodeId) throws SQLException {
+        PreparedStatement ps = connection.prepareStatement("SELECT record_id FROM ofc_view_model WHERE id = ?");
+        ps.setInt(1, nodeId);
+        ResultSet rs = ps.executeQuery();
+        Integer recordId = rs.next() ? rs.getInt(1) : null;
+        rs.close();
+        ps.close();
+        return recordId;
+    }
+
+    private List<NodeDto> keys(Map<Integer, List<NodeDto>> keysByRecordId, int recordId) {
+        List<NodeDto> keys = keysByRecordId.get(recordId);
+        if (keys == null) {
+            keys = new ArrayList<NodeDto>();
+            keysByRecordId.put(recordId, keys);
+        }
+        return keys;
+    }
+}
@@ -10,4 +10,20 @@ public class StatusChange {
         this.status = node.getStatus().name();
         this.relevant = node.isRelevant();
     }
+
+    public StatusChange(String status, boolean relevant) {
+        this.status = status;
+        this.relevant = relevant;
+    }
+
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        StatusChange that = (StatusChange) o;
+        return relevant == that.relevant && status.equals(that.status);
+    }
+
+    public int hashCode() {
+        return 31 * status.hashCode() + (relevant ? 1 : 0);
+    }
 }
@@ -0,0 +1,20 @@
+package org.openforis.collect.android.viewmodelmanager;
+
+import org.openforis.collect.android.viewmodel.UiTaxon;
+
+import java.util.List;
+
+/**
+ * Taxa found by {@link TaxonService#find}.
+ *
+ * @author Daniel Wiell
+ */
+public class TaxonMatches {
+    public final List<UiTaxon> taxa;
+    public final boolean truncated; // More taxa, or vernacular names, match than included
+
+    public TaxonMatches(List<UiTaxon> taxa, boolean truncated) {
+        this.taxa = taxa;
+        this.truncated = truncated;
+    }
+}
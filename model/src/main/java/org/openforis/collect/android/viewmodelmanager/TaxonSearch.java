@@ -0,0 +1,150 @@
+package org.openforis.collect.android.viewmodelmanager;
+
+import org.openforis.collect.android.viewmodel.UiTaxon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous taxon lookup for a taxonomy, for search-as-you-type.
+ * <p/>
+ * Only the latest query is kept: searching for another query cancels the previous one, which is either still waiting
+ * out the debounce window, or is discarded when completed. A query extending a previous one, whose matches weren't
+ * truncated, is answered by filtering the previous results, without hitting the database.
+ * <p/>
+ * The in-memory filtering mirrors the matching of {@link TaxonService#find}: each space-separated term must be a prefix
+ * of the code, or of a word in the scientific name or a vernacular name.
+ *
+ * @author Daniel Wiell
+ */
+public class TaxonSearch {
+    private final TaxonService taxonService;
+    private final String taxonomy;
+    private final int maxResults;
+    private final ScheduledExecutorService executor;
+    private final long debounceMillis;
+
+    private String pendingQuery;
+    private Future<List<UiTaxon>> pending;
+    private String lastQuery;
+    private TaxonMatches lastMatches;
+
+    public TaxonSearch(TaxonService taxonService, String taxonomy, int maxResults,
+                       ScheduledExecutorService executor, long debounceMillis) {
+        this.taxonService = taxonService;
+        this.taxonomy = taxonomy;
+        this.maxResults = maxResults;
+        this.executor = executor;
+        this.debounceMillis = debounceMillis;
+    }
+
+    /**
+     * Searches for taxa matching the query. Searching for the same query as the pending one returns the pending future.
+     * The future of a superseded query is cancelled.
+     */
+    public synchronized Future<List<UiTaxon>> search(final String query) {
+        if (pending != null && query.equals(pendingQuery) && !pending.isCancelled())
+            return pending;
+        cancel();
+        pendingQuery = query;
+        List<UiTaxon> reusable = filterLastResults(query);
+        if (reusable != null) {
+            FutureTask<List<UiTaxon>> completed = new FutureTask<List<UiTaxon>>(constant(reusable));
+            completed.run();
+            pending = completed;
+        } else
+            pending = executor.schedule(new Callable<List<UiTaxon>>() {
+                public List<UiTaxon> call() throws Exception {
+                    TaxonMatches matches = taxonService.find(query, taxonomy, maxResults);
+                    completed(query, matches);
+                    return matches.taxa;
+                }
+            }, debounceMillis, TimeUnit.MILLISECONDS);
+        return pending;
+    }
+
+    /**
+     * Cancels the pending query, if any. A query already running against the database completes, but its results are
+     * discarded.
+     */
+    public synchronized void cancel() {
+        if (pending != null)
+            pending.cancel(false);
+        pending = null;
+        pendingQuery = null;
+    }
+
+    private synchronized void completed(String query, TaxonMatches matches) {
+        lastQuery = query;
+        lastMatches = matches;
+    }
+
+    private List<UiTaxon> filterLastResults(String query) {
+        if (lastMatches == null || lastMatches.truncated || !query.startsWith(lastQuery))
+            return null;
+        String[] terms = terms(query);
+        List<UiTaxon> results = new ArrayList<UiTaxon>();
+        for (UiTaxon taxon : lastMatches.taxa) {
+            UiTaxon match = match(taxon, terms);
+            if (match != null)
+                results.add(match);
+        }
+        return Collections.unmodifiableList(results);
+    }
+
+    /**
+     * Returns the taxon with the vernacular names matching the terms, or null if it doesn't match.
+     * Vernacular names not matching the previous query are already left out, so a taxon without vernacular names
+     * has none at all.
+     */
+    private static UiTaxon match(UiTaxon taxon, String[] terms) {
+        String code = normalize(taxon.getCode());
+        String scientificName = normalize(taxon.getScientificName());
+        List<String> commonNames = taxon.getCommonNames();
+        if (commonNames.isEmpty())
+            return matches(terms, code, scientificName, null) ? taxon : null;
+        List<String> matchingCommonNames = new ArrayList<String>();
+        for (String commonName : commonNames)
+            if (matches(terms, code, scientificName, normalize(commonName)))
+                matchingCommonNames.add(commonName);
+        if (matchingCommonNames.isEmpty())
+            return null;
+        if (matchingCommonNames.size() == commonNames.size())
+            return taxon;
+        return new UiTaxon(taxon.getCode(), taxon.getScientificName(), matchingCommonNames);
+    }
+
+    private static boolean matches(String[] terms, String code, String scientificName, String commonName) {
+        for (String term : terms)
+            if (!code.startsWith(term) && !containsWordPrefix(scientificName, term) && !containsWordPrefix(commonName, term))
+                return false;
+        return true;
+    }
+
+    private static boolean containsWordPrefix(String text, String term) {
+        return text != null && (text.startsWith(term) || text.contains(" " + term));
+    }
+
+    private static String[] terms(String query) {
+        return normalize(query).split(" ");
+    }
+
+    private static String normalize(String text) {
+        return text == null ? null : text.toLowerCase(Locale.ENGLISH);
+    }
+
+    private static <T> Callable<T> constant(final T value) {
+        return new Callable<T>() {
+            public T call() throws Exception {
+                return value;
+            }
+        };
+    }
+}
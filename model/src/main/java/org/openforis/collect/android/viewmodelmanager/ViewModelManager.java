@@ -1,5 +1,6 @@
 package org.openforis.collect.android.viewmodelmanager;
 
+import org.openforis.collect.android.gui.util.meter.Metrics;
 import org.openforis.collect.android.gui.util.meter.Timer;
 import org.openforis.collect.android.viewmodel.*;
 
@@ -12,6 +13,7 @@ import java.util.Map;
  * @author Daniel Wiell
  */
 public class ViewModelManager {
+    private static final Timer INSERT_ENTITY_TIMER = Metrics.timer(ViewModelRepository.class, "insertEntity");
     private final ViewModelRepository repo;
     private UiSurvey selectedSurvey;
     private UiRecord selectedRecord;
@@ -54,6 +56,16 @@ public class ViewModelManager {
         return this.selectedRecord;
     }
 
+    /**
+     * Loads a record with all its nodes, without selecting it.
+     */
+    public UiRecord loadFullRecord(int recordId) {
+        UiRecord record = repo.fullRecordById(selectedSurvey, recordId);
+        if (record == null)
+            throw new IllegalStateException("No record found with id " + recordId);
+        return record;
+    }
+
     private UiRecord loadRecord(int recordId) {
         UiRecord record = repo.recordById(selectedSurvey, recordId);
         if (record == null)
@@ -63,15 +75,16 @@ public class ViewModelManager {
         return record;
     }
 
-    public void addEntity(final UiEntity entity, final Map<UiNode, UiNodeChange> nodeChanges) {
+    public void addEntity(UiEntity entity, Map<UiNode, UiNodeChange> nodeChanges) {
         validateRequiredness(entity);
         entity.updateStatusOfNodeAndDescendants(); // TODO: This should sbe done at record.init()? Ugly anyway
         entity.updateStatusOfParents();
-        Timer.time(ViewModelRepository.class, "insertEntity", new Runnable() {
-            public void run() {
-                repo.insertEntity(entity, statusChanges(nodeChanges));
-            }
-        });
+        long start = INSERT_ENTITY_TIMER.start();
+        try {
+            repo.insertEntity(entity, statusChanges(nodeChanges));
+        } finally {
+            INSERT_ENTITY_TIMER.stop(start);
+        }
         updateRecordModifiedDate(entity.getUiRecord());
     }
 
@@ -152,13 +165,8 @@ public class ViewModelManager {
             }
         }
 
-        for (Map.Entry<UiNode, UiNodeChange> nodeChangeEntry : nodeChanges.entrySet()) {
-            UiNode changedNode = nodeChangeEntry.getKey();
-            List<UiNode> updatedParents = changedNode.updateStatusOfParents();
-            for (UiNode updatedParent : updatedParents) {
-                statusChanges.put(updatedParent.getId(), new StatusChange(updatedParent));
-            }
-        }
+        for (UiNode updatedParent : UiNode.updateStatusOfParents(nodeChanges.keySet()))
+            statusChanges.put(updatedParent.getId(), new StatusChange(updatedParent));
         return statusChanges;
     }
 
@@ -1,7 +1,10 @@
 package org.openforis.collect.android.viewmodelmanager;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.openforis.collect.android.DefinitionProvider;
 import org.openforis.collect.android.attributeconverter.AttributeConverter;
+import org.openforis.collect.android.gui.util.meter.Metrics;
 import org.openforis.collect.android.gui.util.meter.Timer;
 import org.openforis.collect.android.viewmodel.*;
 
@@ -17,6 +20,12 @@ public interface ViewModelRepository {
 
     UiRecord recordById(UiSurvey survey, int recordId);
 
+    /**
+     * The record with all its nodes, loaded at once even in lazy mode.
+     * In lazy mode, the nodes are kept to load the stubs of the record from, until the record is changed.
+     */
+    UiRecord fullRecordById(UiSurvey survey, int recordId);
+
     List<UiRecord.Placeholder> surveyRecords(int surveyId);
 
     void insertEntity(UiEntity entity, Map<Integer, StatusChange> statusChanges);
@@ -32,26 +41,69 @@ public interface ViewModelRepository {
     void removeRecord(int recordId);
 
 
+    /**
+     * In lazy mode, entity collections of a loaded record are stubs. Their entities are loaded when first accessed,
+     * level by level through the parent id index, so opening a record takes time proportional to what is shown
+     * rather than to the size of the record. Loaded subtrees are kept in a bounded cache until the record changes.
+     * Once a record has been loaded in full, its stubs are loaded from those nodes instead of reading them again.
+     */
     class DatabaseViewModelRepository implements ViewModelRepository {
+        private static final int MAX_CACHED_SUBTREES = 64;
+        private static final int MAX_CACHED_RECORDS = 2;
+        private static final Timer INSERT_TIMER = Metrics.timer(NodeRepository.class, "insert");
+
         private final DefinitionProvider definitionProvider;
         private final NodeRepository repo;
+        private final boolean lazy;
+        private final Cache<SubtreeKey, Collection> subtreeCache;
+        private final Cache<Integer, Collection> recordNodesCache;
+        private int recordChanges; // Guarded by this
 
         public DatabaseViewModelRepository(DefinitionProvider definitionProvider, NodeRepository repo) {
+            this(definitionProvider, repo, false);
+        }
+
+        public DatabaseViewModelRepository(DefinitionProvider definitionProvider, NodeRepository repo, boolean lazy) {
             this.definitionProvider = definitionProvider;
             this.repo = repo;
+            this.lazy = lazy;
+            subtreeCache = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_SUBTREES).build();
+            recordNodesCache = CacheBuilder.newBuilder().maximumSize(MAX_CACHED_RECORDS).build();
         }
 
         public void insertRecord(UiRecord record) {
+            invalidateSubtrees(record.getId());
             repo.insert(toNodeDtoList(record), new HashMap<Integer, StatusChange>());
         }
 
         public void updateRecordModifiedOn(UiRecord record) {
+            invalidateSubtrees(record.getId());
             repo.updateModifiedOn(toNodeDto(record));
         }
 
         public UiRecord recordById(UiSurvey survey, int recordId) {
+            if (!lazy) {
+                Collection nodeCollection = repo.recordNodes(recordId);
+                return toRecord(survey, nodeCollection.getRootNode(), nodeCollection);
+            }
+            NodeDto recordNode = repo.node(recordId);
+            if (recordNode == null)
+                return null;
+            UiRecord record = toRecord(survey, recordNode, subtree(recordId, recordId));
+            record.setNodeLoader(new SubtreeLoader(recordId));
+            return record;
+        }
+
+        public UiRecord fullRecordById(UiSurvey survey, int recordId) {
+            int changesBefore = recordChanges();
             Collection nodeCollection = repo.recordNodes(recordId);
-            return toRecord(survey, nodeCollection);
+            if (lazy)
+                cacheRecordNodes(recordId, nodeCollection, changesBefore);
+            NodeDto recordNode = nodeCollection.getRootNode();
+            UiRecordCollection recordCollection = survey.lookupRecordCollection(recordNode.recordCollectionName);
+            Definition definition = definitionProvider.getById(recordNode.definitionId);
+            UiRecord record = new UiRecord(recordNode.id, definition, recordCollection); // Leaves the placeholder alone
+            return initRecord(record, recordNode, nodeCollection, false);
         }
 
         public List<UiRecord.Placeholder> surveyRecords(int surveyId) {
@@ -81,29 +133,35 @@ public interface ViewModelRepository {
             return keyAttributes;
         }
 
-        public void insertEntity(UiEntity entity, final Map<Integer, StatusChange> statusChanges) {
-            final List<NodeDto> nodes = toNodeDtoList(entity);
+        public void insertEntity(UiEntity entity, Map<Integer, StatusChange> statusChanges) {
+            List<NodeDto> nodes = toNodeDtoList(entity);
+            invalidateSubtrees(entity.getUiRecord().getId());
 
-            Timer.time(NodeRepository.class, "insert", new Runnable() {
-                public void run() {
-                    repo.insert(nodes, statusChanges);
-                }
-            });
+            long start = INSERT_TIMER.start();
+            try {
+                repo.insert(nodes, statusChanges);
+            } finally {
+                INSERT_TIMER.stop(start);
+            }
         }
 
         public void insertAttribute(UiAttribute attribute, final Map<Integer, StatusChange> statusChanges) {
+            invalidateSubtrees(attribute.getUiRecord().getId());
             repo.insert(Arrays.asList(uiAttributeToDto(attribute)), statusChanges);
         }
 
         public void updateAttribute(UiAttribute attribute, Map<Integer, StatusChange> statusChanges) {
+            invalidateSubtrees(attribute.getUiRecord().getId());
             repo.update(uiAttributeToDto(attribute), statusChanges);
         }
 
         public void removeNode(UiNode node, Map<Integer, StatusChange> statusChanges) {
+            invalidateSubtrees(node.getUiRecord().getId());
             repo.removeAll(toIds(node), statusChanges);
         }
 
         public void removeRecord(int recordId) {
+            invalidateSubtrees(recordId);
             repo.removeRecord(recordId);
         }
 
@@ -116,31 +174,104 @@ public interface ViewModelRepository {
             return ids;
         }
 
-        private UiRecord toRecord(UiSurvey survey, Collection nodeCollection) {
-            NodeDto recordNode = nodeCollection.getRootNode();
+        private UiRecord toRecord(UiSurvey survey, NodeDto recordNode, Collection nodeCollection) {
             UiRecordCollection recordCollection = survey.lookupRecordCollection(recordNode.recordCollectionName);
             Definition definition = definitionProvider.getById(recordNode.definitionId);
             UiRecord record = new UiRecord(recordNode.id, definition, recordCollection,
                     (UiRecord.Placeholder) recordCollection.getChildById(recordNode.id));
+            return initRecord(record, recordNode, nodeCollection, lazy);
+        }
+
+        private UiRecord initRecord(UiRecord record, NodeDto recordNode, Collection nodeCollection, boolean lazy) {
             record.setStatus(UiNode.Status.valueOf(recordNode.status));
             record.setCreatedOn(recordNode.createdOn);
             record.setModifiedOn(recordNode.modifiedOn);
-            addChildNodes(record, nodeCollection);
+            addChildNodes(record, nodeCollection, lazy);
             record.init();
             return record;
         }
 
-        private void addChildNodes(UiInternalNode parentNode, Collection nodeCollection) {
-            List<NodeDto> childNodeDtoList = nodeCollection.childrenOf(parentNode.getId());
+        private void addChildNodes(UiInternalNode parentNode, Collection nodeCollection, boolean lazy) {
+            parentNode.addChildren(toChildNodes(parentNode.getId(), nodeCollection, lazy));
+        }
+
+        private List<UiNode> toChildNodes(int parentId, Collection nodeCollection, boolean lazy) {
+            List<NodeDto> childNodeDtoList = nodeCollection.childrenOf(parentId);
+            List<UiNode> children = new ArrayList<UiNode>();
             for (NodeDto nodeDto : childNodeDtoList) {
                 UiNode child = toUiNode(nodeDto);
                 child.setStatus(UiNode.Status.valueOf(nodeDto.status));
-                parentNode.addChild(child);
-                if (child instanceof UiInternalNode)
-                    addChildNodes((UiInternalNode) child, nodeCollection);
+                children.add(child);
+                if (lazy && child instanceof UiEntityCollection)
+                    ((UiEntityCollection) child).loadChildrenLazily(new SubtreeLoader(nodeDto.recordId));
+                else if (child instanceof UiInternalNode)
+                    addChildNodes((UiInternalNode) child, nodeCollection, lazy);
+            }
+            return children;
+        }
+
+        /**
+         * Loads the descendants of a node, one level at a time, stopping at entity collections.
+         * Taken from the nodes of the record when loaded in full.
+         */
+        private Collection subtree(int recordId, int rootId) {
+            Collection recordNodes = recordNodesCache.getIfPresent(recordId);
+            SubtreeKey key = new SubtreeKey(recordId, rootId);
+            if (recordNodes == null) {
+                Collection subtree = subtreeCache.getIfPresent(key);
+                if (subtree != null)
+                    return subtree;
+            }
+            Collection subtree = new Collection();
+            List<Integer> parentIds = Collections.singletonList(rootId);
+            while (!parentIds.isEmpty()) {
+                Collection level = recordNodes == null ? repo.childNodes(parentIds) : recordNodes;
+                List<Integer> nextParentIds = new ArrayList<Integer>();
+                for (Integer parentId : parentIds) {
+                    for (NodeDto node : level.childrenOf(parentId)) {
+                        subtree.addNode(node);
+                        if (isExpandedWithParent(node))
+                            nextParentIds.add(node.id);
+                    }
+                }
+                parentIds = nextParentIds;
+            }
+            if (recordNodes == null)
+                subtreeCache.put(key, subtree);
+            return subtree;
+        }
+
+        private boolean isExpandedWithParent(NodeDto node) {
+            switch (node.type) {
+                case ENTITY:
+                case INTERNAL_NODE:
+                case ATTRIBUTE_COLLECTION:
+                    return true;
+                default:
+                    return false;
             }
         }
 
+        /**
+         * Records can be loaded in full by another thread, so nodes read before the record was changed are not kept.
+         */
+        private synchronized void cacheRecordNodes(int recordId, Collection recordNodes, int changesBefore) {
+            if (recordChanges == changesBefore)
+                recordNodesCache.put(recordId, recordNodes);
+        }
+
+        private synchronized int recordChanges() {
+            return recordChanges;
+        }
+
+        private synchronized void invalidateSubtrees(int recordId) {
+            recordChanges++;
+            recordNodesCache.invalidate(recordId);
+            for (Iterator<SubtreeKey> it = subtreeCache.asMap().keySet().iterator(); it.hasNext(); )
+                if (it.next().recordId == recordId)
+                    it.remove();
+        }
+
         // TODO: Move conversion logic somewhere else
         private UiNode toUiNode(NodeDto nodeDto) {
             Definition definition = definitionProvider.getById(nodeDto.definitionId);
@@ -214,6 +345,43 @@ public interface ViewModelRepository {
             return uiNodeToDto(entity);
         }
 
+        private class SubtreeLoader implements LazyNodeLoader {
+            private final int recordId;
+
+            SubtreeLoader(int recordId) {
+                this.recordId = recordId;
+            }
+
+            public List<UiNode> loadChildren(UiInternalNode node) {
+                return toChildNodes(node.getId(), subtree(recordId, node.getId()), lazy);
+            }
+
+            public List<Integer> ancestorIds(int nodeId) {
+                return repo.ancestorIds(nodeId);
+            }
+        }
+
+        private static class SubtreeKey {
+            final int recordId;
+            final int rootId;
+
+            SubtreeKey(int recordId, int rootId) {
+                this.recordId = recordId;
+                this.rootId = rootId;
+            }
+
+            public boolean equals(Object o) {
+                if (this == o) return true;
+                if (o == null || getClass() != o.getClass()) return false;
+                SubtreeKey that = (SubtreeKey) o;
+                return recordId == that.recordId && rootId == that.rootId;
+            }
+
+            public int hashCode() {
+                return 31 * recordId + rootId;
+            }
+        }
+
         private NodeDto uiNodeToDto(UiNode node) {
             NodeDto dto = new NodeDto();
             dto.id = node.getId();
@@ -0,0 +1,241 @@
+package org.openforis.collect.android.viewmodelmanager;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces attribute updates, status changes and modified-on updates in memory, and writes them to the
+ * underlying repository in one batch. Changes are appended to a {@link NodeJournal} before being acknowledged,
+ * so pending changes survive a crash and are written when the repository is next created.
+ * <p/>
+ * Pending changes are flushed a short while after the last change, explicitly by {@link #flush()},
+ * and before any other repository operation - including loading another record.
+ *
+ * @author Daniel Wiell
+ */
+public class WriteBehindNodeRepository implements NodeRepository {
+    private static final Logger LOG = Logger.getLogger(WriteBehindNodeRepository.class.getName());
+    public static final long DEFAULT_FLUSH_DELAY_MILLIS = 500;
+
+    private final NodeRepository repo;
+    private final NodeJournal journal;
+    private final long flushDelayMillis;
+    private final ScheduledExecutorService scheduler;
+
+    private final Map<Integer, NodeDto> dirtyNodes = new LinkedHashMap<Integer, NodeDto>();
+    private final Map<Integer, StatusChange> dirtyStatusChanges = new LinkedHashMap<Integer, StatusChange>();
+    private final Map<Integer, NodeDto> dirtyModifiedOn = new LinkedHashMap<Integer, NodeDto>();
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean journalFlushed; // Journal holds entries already written to the repository
+
+    public WriteBehindNodeRepository(NodeRepository repo, NodeJournal journal) {
+        this(repo, journal, DEFAULT_FLUSH_DELAY_MILLIS);
+    }
+
+    public WriteBehindNodeRepository(NodeRepository repo, NodeJournal journal, long flushDelayMillis) {
+        this.repo = repo;
+        this.journal = journal;
+        this.flushDelayMillis = flushDelayMillis;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "node-write-behind");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        recover();
+    }
+
+    public synchronized void update(NodeDto node, Map<Integer, StatusChange> statusChanges) {
+        try {
+            journal.appendUpdate(node, statusChanges);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to journal node " + node.id + " - writing it through", e);
+            flush();
+            repo.update(node, statusChanges);
+            return;
+        }
+        addDirtyNode(node);
+        for (Map.Entry<Integer, StatusChange> entry : statusChanges.entrySet())
+            addDirtyStatusChange(entry.getKey(), entry.getValue());
+        scheduleFlush();
+    }
+
+    public synchronized void updateModifiedOn(NodeDto record) {
+        try {
+            journal.appendModifiedOn(record.id, record.modifiedOn);
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to journal modified date of node " + record.id + " - writing it through", e);
+            flush();
+            repo.updateModifiedOn(record);
+            return;
+        }
+        addDirtyModifiedOn(record.id, record.modifiedOn);
+        scheduleFlush();
+    }
+
+    public synchronized void updateAll(Collection<NodeDto> nodes, Map<Integer, StatusChange> statusChanges, Collection<NodeDto> modifiedOnUpdates) {
+        flush();
+        repo.updateAll(nodes, statusChanges, modifiedOnUpdates);
+    }
+
+    public synchronized void insert(List<NodeDto> nodes, Map<Integer, StatusChange> statusChanges) {
+        flush();
+        repo.insert(nodes, statusChanges);
+    }
+
+    public synchronized NodeDto.Collection recordNodes(int recordId) {
+        flush();
+        return repo.recordNodes(recordId);
+    }
+
+    public synchronized NodeDto node(int nodeId) {
+        flush();
+        return repo.node(nodeId);
+    }
+
+    public synchronized NodeDto.Collection childNodes(Collection<Integer> parentIds) {
+        flush();
+        return repo.childNodes(parentIds);
+    }
+
+    public synchronized List<Integer> ancestorIds(int nodeId) {
+        flush();
+        return repo.ancestorIds(nodeId);
+    }
+
+    public synchronized NodeDto.Collection surveyRecords(int surveyId) {
+        flush();
+        return repo.surveyRecords(surveyId);
+    }
+
+    public synchronized void removeAll(List<Integer> ids, Map<Integer, StatusChange> statusChanges) {
+        flush();
+        repo.removeAll(ids, statusChanges);
+    }
+
+    public synchronized void removeRecord(int recordId) {
+        flush();
+        repo.removeRecord(recordId);
+    }
+
+    /**
+     * Writes all pending changes to the underlying repository in a single batch, and clears the journal.
+     * Fails if the journal cannot be cleared, as its entries would otherwise be replayed over later changes.
+     * Clearing it is retried by the next flush.
+     */
+    public synchronized void flush() {
+        cancelScheduledFlush();
+        if (!(dirtyNodes.isEmpty() && dirtyStatusChanges.isEmpty() && dirtyModifiedOn.isEmpty())) {
+            repo.updateAll(
+                    new ArrayList<NodeDto>(dirtyNodes.values()),
+                    new HashMap<Integer, StatusChange>(dirtyStatusChanges),
+                    new ArrayList<NodeDto>(dirtyModifiedOn.values())
+            );
+            dirtyNodes.clear();
+            dirtyStatusChanges.clear();
+            dirtyModifiedOn.clear();
+            journalFlushed = true;
+        }
+        if (journalFlushed) {
+            try {
+                journal.truncate();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to truncate node journal", e);
+            }
+            journalFlushed = false;
+        }
+    }
+
+    /**
+     * Flushes pending changes and stops the flush timer. The repository must not be used after being closed.
+     */
+    public synchronized void close() {
+        flush();
+        scheduler.shutdown();
+        try {
+            journal.close();
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to close node journal", e);
+        }
+    }
+
+    private void addDirtyNode(NodeDto node) {
+        // The node row carries status and relevance too, so an earlier pending status change is superseded
+        dirtyStatusChanges.remove(node.id);
+        NodeDto pendingModifiedOn = dirtyModifiedOn.remove(node.id);
+        if (pendingModifiedOn != null && pendingModifiedOn.modifiedOn.after(node.modifiedOn))
+            node.modifiedOn = pendingModifiedOn.modifiedOn;
+        dirtyNodes.put(node.id, node);
+    }
+
+    private void addDirtyStatusChange(int nodeId, StatusChange statusChange) {
+        NodeDto dirtyNode = dirtyNodes.get(nodeId);
+        if (dirtyNode == null) {
+            dirtyStatusChanges.put(nodeId, statusChange);
+        } else {
+            dirtyNode.status = statusChange.status;
+            dirtyNode.relevant = statusChange.relevant;
+        }
+    }
+
+    private void addDirtyModifiedOn(int nodeId, Date modifiedOn) {
+        NodeDto dirtyNode = dirtyNodes.get(nodeId);
+        if (dirtyNode == null) {
+            NodeDto node = new NodeDto();
+            node.id = nodeId;
+            node.modifiedOn = modifiedOn;
+            dirtyModifiedOn.put(nodeId, node);
+        } else {
+            dirtyNode.modifiedOn = modifiedOn;
+        }
+    }
+
+    private void scheduleFlush() {
+        cancelScheduledFlush();
+        scheduledFlush = scheduler.schedule(new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                } catch (RuntimeException e) {
+                    LOG.log(Level.SEVERE, "Failed to flush pending node changes - they remain journaled", e);
+                }
+            }
+        }, flushDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelScheduledFlush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    private synchronized void recover() {
+        try {
+            journal.replay(new NodeJournal.Visitor() {
+                public void node(NodeDto node) {
+                    addDirtyNode(node);
+                }
+
+                public void statusChange(int nodeId, StatusChange statusChange) {
+                    addDirtyStatusChange(nodeId, statusChange);
+                }
+
+                public void modifiedOn(int nodeId, Date modifiedOn) {
+                    addDirtyModifiedOn(nodeId, modifiedOn);
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to replay node journal", e);
+        }
+        flush();
+    }
+}
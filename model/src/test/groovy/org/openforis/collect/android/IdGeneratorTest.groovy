@@ -0,0 +1,62 @@
+package org.openforis.collect.android
+
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+/**
+ * @author Daniel Wiell
+ */
+class IdGeneratorTest extends Specification {
+    def blockSource = new CountingBlockSource()
+    def generator = new IdGenerator(blockSource)
+
+    def 'Ids are handed out from reserved blocks'() {
+        when:
+        def ids = (1..2500).collect { generator.nextId() }
+
+        then:
+        ids == (1..2500).toList()
+        blockSource.reservations == 3
+    }
+
+    def 'Generators with different block sources are independent'() {
+        generator.nextId()
+
+        when:
+        def other = new IdGenerator(new CountingBlockSource(next: 5000))
+
+        then:
+        other.nextId() == 5000
+        generator.nextId() == 2
+    }
+
+    def 'Ids are unique across threads'() {
+        def executor = Executors.newFixedThreadPool(8)
+
+        when:
+        def futures = (1..8).collect {
+            executor.submit({ (1..1000).collect { generator.nextId() } } as Callable)
+        }
+        def ids = futures.collectMany { it.get() }
+
+        then:
+        ids.unique(false).size() == 8000
+
+        cleanup:
+        executor.shutdown()
+    }
+
+    static class CountingBlockSource implements IdGenerator.BlockSource {
+        int next = 1
+        int reservations
+
+        synchronized int reserve(int size) {
+            reservations++
+            def first = next
+            next += size
+            return first
+        }
+    }
+}
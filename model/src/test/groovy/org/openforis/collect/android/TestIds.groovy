@@ -0,0 +1,14 @@
+package org.openforis.collect.android
+
+/**
+ * Ids unique within a test run, for surveys, definitions and rows created by tests.
+ *
+ * @author Daniel Wiell
+ */
+class TestIds {
+    private static final IdGenerator ids = new IdGenerator()
+
+    static int nextId() {
+        ids.nextId()
+    }
+}
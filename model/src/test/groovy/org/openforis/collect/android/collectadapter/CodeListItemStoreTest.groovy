@@ -0,0 +1,217 @@
+package org.openforis.collect.android.collectadapter
+
+import org.openforis.collect.android.TestIds
+import org.openforis.collect.android.util.persistence.ConnectionCallback
+import org.openforis.collect.android.util.persistence.Database
+import org.openforis.collect.model.CollectSurvey
+import spock.lang.Specification
+
+import javax.sql.DataSource
+
+/**
+ * @author Daniel Wiell
+ */
+@SuppressWarnings("GroovyUnusedDeclaration")
+class CodeListItemStoreTest extends Specification {
+    static final long MAX_BYTES = 100000
+    @Delegate IdmBuilder builder = new IdmBuilder()
+    def database = new CountingDatabase(new TestDatabase())
+    def survey = survey()
+    def codeList = survey.getCodeList('list')
+    def otherCodeList = survey.getCodeList('other_list')
+    def store = new CodeListItemStore(database, MAX_BYTES)
+
+    def setup() {
+        database.sql.execute('''
+                CREATE TABLE ofc_code_list(
+                    id INTEGER PRIMARY KEY NOT NULL,
+                    code_list_id INTEGER,
+                    item_id INTEGER,
+                    parent_id INTEGER,
+                    sort_order INTEGER,
+                    code VARCHAR,
+                    qualifiable INTEGER,
+                    since_version_id INTEGER,
+                    deprecated_version_id INTEGER,
+                    label1 VARCHAR, label2 VARCHAR, label3 VARCHAR,
+                    description1 VARCHAR, description2 VARCHAR, description3 VARCHAR,
+                    level INTEGER
+                )''')
+    }
+
+    def cleanup() {
+        database.sql.execute('DROP TABLE ofc_code_list')
+    }
+
+    def 'Single item is taken from the cached items of its parent'() {
+        insertItems(codeList, null, 1, 'a', 'b')
+        def items = store.childItems(codeList, null)
+        database.executions = 0
+
+        when:
+        def item = store.item(codeList, null, 'b')
+
+        then:
+        database.executions == 0
+        item.is(items[1])
+    }
+
+    def 'Item loaded on its own is shared with the items of its parent'() {
+        insertItems(codeList, null, 1, 'a', 'b')
+        def item = store.item(codeList, null, 'b')
+
+        when:
+        def items = store.childItems(codeList, null)
+
+        then:
+        items*.code == ['a', 'b']
+        items[1].is(item)
+        store.statistics().entries == 1
+    }
+
+    def 'Items are evicted when the store is full'() {
+        def first = insertItems(codeList, null, 1, codes(200))
+        insertItems(codeList, first, 2, codes(400))
+
+        when:
+        store.childItems(codeList, null)
+        store.childItems(codeList, first)
+
+        then:
+        store.statistics().evictions > 0
+        store.statistics().bytes <= MAX_BYTES
+    }
+
+    def 'Items of a parent taking up most of the store are cached'() {
+        insertItems(codeList, null, 1, codes(500))
+        store.childItems(codeList, null)
+        database.executions = 0
+
+        when:
+        store.childItems(codeList, null)
+
+        then:
+        database.executions == 0
+        store.statistics().bytes > MAX_BYTES / 2
+    }
+
+    def 'Warm-up loads the top levels of each code list in its own transaction'() {
+        def first = insertItems(codeList, null, 1, 'a', 'b')
+        def child = insertItems(codeList, first, 2, 'a1')
+        insertItems(codeList, child, 3, 'a11')
+        insertItems(otherCodeList, null, 1, 'x')
+
+        when:
+        store.warmUp(survey)
+
+        then:
+        database.executions == 2
+        store.statistics().entries == 3
+
+        when:
+        store.childItems(codeList, null)
+        store.childItems(codeList, first)
+        store.childItems(otherCodeList, null)
+
+        then:
+        database.executions == 2
+    }
+
+    def 'Warm-up stops when half the store is used'() {
+        insertItems(codeList, null, 1, codes(300))
+        insertItems(otherCodeList, null, 1, 'x')
+
+        when:
+        store.warmUp(survey)
+
+        then:
+        database.executions == 1
+        store.statistics().entries == 1
+    }
+
+    def 'Warm-up stops when the thread is interrupted'() {
+        insertItems(codeList, null, 1, 'a')
+        Thread.currentThread().interrupt()
+
+        when:
+        store.warmUp(survey)
+
+        then:
+        Thread.interrupted()
+        database.executions == 0
+    }
+
+    /**
+     * Inserts items with the codes, returning the id of the first one.
+     */
+    private Integer insertItems(codeList, Integer parentId, int level, String... codes) {
+        Integer firstId = null
+        codes.eachWithIndex { code, i ->
+            def id = TestIds.nextId()
+            if (firstId == null)
+                firstId = id
+            database.sql.executeInsert("""
+                INSERT INTO ofc_code_list(id, code_list_id, item_id, parent_id, sort_order, code, qualifiable, label1, level)
+                VALUES($id, $codeList.id, $id, $parentId, $i, $code, 0, $code, $level)""")
+        }
+        return firstId
+    }
+
+    private String[] codes(int count) {
+        (1..count).collect { "code-$it" as String } as String[]
+    }
+
+    CollectSurvey survey() {
+        def idm = idmXmlStream {
+            codeLists {
+                list(id: TestIds.nextId(), name: 'list') {
+                    label(type: 'item', 'List')
+                    codingScheme(scope: 'local')
+                    hierarchy {
+                        level(name: 'first') {
+                            label('First')
+                        }
+                        level(name: 'second') {
+                            label('Second')
+                        }
+                        level(name: 'third') {
+                            label('Third')
+                        }
+                    }
+                }
+                list(id: TestIds.nextId(), name: 'other_list') {
+                    label(type: 'item', 'Other list')
+                    codingScheme(scope: 'local')
+                }
+            }
+            schema {
+                entity('root', 'Root') {
+                    text('text', 'Text')
+                }
+            }
+        }
+        return TestCollectModelFactory.surveyManager.importModel(idm, "survey", false)
+    }
+
+    private static class CountingDatabase implements Database {
+        private final TestDatabase database
+        int executions
+
+        CountingDatabase(TestDatabase database) {
+            this.database = database
+        }
+
+        def getSql() {
+            database.sql
+        }
+
+        DataSource dataSource() {
+            database.dataSource()
+        }
+
+        def <T> T execute(ConnectionCallback<T> connectionCallback) {
+            executions++
+            database.execute(connectionCallback)
+        }
+    }
+}
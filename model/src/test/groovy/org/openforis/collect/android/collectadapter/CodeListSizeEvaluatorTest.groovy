@@ -1,6 +1,6 @@
 package org.openforis.collect.android.collectadapter
 
-import org.openforis.collect.android.IdGenerator
+import org.openforis.collect.android.TestIds
 import org.openforis.collect.model.CollectSurvey
 import org.openforis.idm.metamodel.CodeAttributeDefinition
 import spock.lang.Specification
@@ -53,7 +53,7 @@ class CodeListSizeEvaluatorTest extends Specification {
     CollectSurvey survey() {
         def idm = idmXmlStream {
             codeLists {
-                list(id: codeListId = IdGenerator.nextId(), name: 'list') {
+                list(id: codeListId = TestIds.nextId(), name: 'list') {
                     label(type: 'item', 'Hierarchy')
                     codingScheme(scope: 'local')
                     hierarchy {
@@ -65,20 +65,20 @@ class CodeListSizeEvaluatorTest extends Specification {
                         }
                     }
                 }
-                list(id: externalCodeListId = IdGenerator.nextId(), name: 'external', lookup: 'external') {
+                list(id: externalCodeListId = TestIds.nextId(), name: 'external', lookup: 'external') {
                     label(type: 'item', 'Hierarchy')
                     codingScheme(scope: 'local')
                 }
             }
             schema {
                 entity('root', 'Root') {
-                    code(id: IdGenerator.nextId(), name: 'root_code_attribute', list: 'list') {
+                    code(id: TestIds.nextId(), name: 'root_code_attribute', list: 'list') {
                         label('Root Code Attribute')
                     }
-                    code(id: IdGenerator.nextId(), name: 'child_code_attribute', list: 'list', parent: 'root_code_attribute') {
+                    code(id: TestIds.nextId(), name: 'child_code_attribute', list: 'list', parent: 'root_code_attribute') {
                         label('Child Code Attribute')
                     }
-                    code(id: IdGenerator.nextId(), name: 'external_attribute', list: 'external') {
+                    code(id: TestIds.nextId(), name: 'external_attribute', list: 'external') {
                         label('External Attribute')
                     }
                 }
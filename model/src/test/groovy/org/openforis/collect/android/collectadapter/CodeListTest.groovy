@@ -7,7 +7,7 @@ import org.openforis.collect.android.viewmodelmanager.NodeTestDatabase
 import spock.lang.Ignore
 import spock.lang.Specification
 
-import static org.openforis.collect.android.IdGenerator.nextId
+import static org.openforis.collect.android.TestIds.nextId
 import static org.openforis.collect.android.collectadapter.TestCollectModelFactory.surveyService
 
 /**
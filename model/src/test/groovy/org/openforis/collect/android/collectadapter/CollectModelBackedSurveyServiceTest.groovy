@@ -166,6 +166,27 @@ class CollectModelBackedSurveyServiceTest extends Specification {
         loadedAttribute.text == 'Updated text'
     }
 
+    def 'Can update an attribute of a reselected record'() {
+        surveyService.importSurvey(idm)
+        def uiRecord = surveyService.addRecord('entity_name')
+        def attribute = findUiTextAttribute('uiAttribute_name', uiRecord)
+        attribute.text = 'First text'
+        surveyService.updateAttribute(attribute)
+        surveyService.addRecord('entity_name')
+
+        when:
+        def reselectedRecord = surveyService.selectRecord(uiRecord.id)
+        def reselectedAttribute = findUiTextAttribute('uiAttribute_name', reselectedRecord)
+        reselectedAttribute.text = 'Second text'
+        surveyService.updateAttribute(reselectedAttribute)
+
+        then:
+        surveyService.loadSurvey()
+        def loadedRecord = surveyService.selectRecord(uiRecord.id)
+        findUiTextAttribute('uiAttribute_name', loadedRecord).text == 'Second text'
+        reselectedAttribute.status == OK
+    }
+
     def 'When setting the value of an required attribute, it changes state from VALIDATION_ERROR to OK'() {
         surveyService.importSurvey(idm)
         def uiRecord = surveyService.addRecord('entity_name')
@@ -1,9 +1,22 @@
 package org.openforis.collect.android.collectadapter
 
+import org.openforis.collect.android.IdGenerator
+import org.openforis.collect.android.Settings
+import org.openforis.collect.android.TestIds
 import org.openforis.collect.android.util.persistence.Database
+import org.openforis.collect.android.viewmodel.UiCode
+import org.openforis.collect.android.viewmodel.UiCodeAttribute
+import org.openforis.collect.android.viewmodel.UiInternalNode
+import org.openforis.collect.android.viewmodel.UiNode
+import org.openforis.collect.manager.CodeListManager
+import org.openforis.idm.metamodel.CodeList
+import org.openforis.idm.metamodel.CodeListItem
+import org.openforis.idm.metamodel.ModelVersion
 import spock.lang.Specification
+import spock.lang.Timeout
 
 import javax.sql.DataSource
+import java.util.concurrent.CountDownLatch
 
 /**
  * @author Daniel Wiell
@@ -17,6 +30,7 @@ class CollectModelManagerTest extends Specification {
 
     def setup() {
         database.dataSource() >> Mock(DataSource)
+        database.execute(_) >> [:]
         manager = TestCollectModelFactory.collectModelManager(database)
     }
 
@@ -33,4 +47,80 @@ class CollectModelManagerTest extends Specification {
         then:
         collectSurvey
     }
-}
\ No newline at end of file
+
+    @Timeout(10)
+    def 'Selected record is shown without waiting for it to be initialized'() {
+        def codeListManager = new RecordingCodeListManager()
+        manager = new CollectModelManager(TestCollectModelFactory.surveyManager, TestCollectModelFactory.recordManager,
+                codeListManager, null, null, database, new IdGenerator(), Settings.PreferredLanguageMode.SURVEY_DEFAULT, null)
+        def uiRecord = manager.addRecord('root', manager.importSurvey(codeListSurvey()))
+        def initialization = new CountDownLatch(1)
+        manager.recordSelected(uiRecord, { initialization.await(); uiRecord } as CollectModelManager.RecordLoader)
+        def parentCode = codeAttribute(uiRecord, 'parent_code')
+        def childCode = codeAttribute(uiRecord, 'child_code')
+        parentCode.code = new UiCode('a', 'A')
+
+        when:
+        def codeList = manager.codeList(childCode)
+        manager.getMaxCodeListSize(childCode)
+        def validationChanges = manager.validateAttribute(childCode)
+
+        then: 'The parent code is taken from the view model'
+        codeListManager.rootItemCodes == ['a']
+        codeList.codes.empty
+        validationChanges.isEmpty()
+
+        cleanup:
+        initialization.countDown()
+    }
+
+    private UiCodeAttribute codeAttribute(UiNode node, String name) {
+        if (node instanceof UiCodeAttribute && node.name == name)
+            return node
+        if (node instanceof UiInternalNode)
+            for (UiNode child : node.children) {
+                def attribute = codeAttribute(child, name)
+                if (attribute)
+                    return attribute
+            }
+        return null
+    }
+
+    private InputStream codeListSurvey() {
+        idmXmlStream {
+            codeLists {
+                list(id: TestIds.nextId(), name: 'list') {
+                    label(type: 'item', 'Hierarchy')
+                    codingScheme(scope: 'local')
+                    hierarchy {
+                        level(name: 'parent_level') {
+                            label('Parent Level')
+                        }
+                        level(name: 'child_level') {
+                            label('Child Level')
+                        }
+                    }
+                }
+            }
+            schema {
+                entity('root', 'Root') {
+                    code(id: TestIds.nextId(), name: 'parent_code', list: 'list') {
+                        label('Parent Code')
+                    }
+                    code(id: TestIds.nextId(), name: 'child_code', list: 'list', parent: 'parent_code') {
+                        label('Child Code')
+                    }
+                }
+            }
+        }
+    }
+
+    private static class RecordingCodeListManager extends CodeListManager {
+        final List<String> rootItemCodes = []
+
+        public <T extends CodeListItem> T loadRootItem(CodeList list, String code, ModelVersion version) {
+            rootItemCodes << code
+            return null
+        }
+    }
+}
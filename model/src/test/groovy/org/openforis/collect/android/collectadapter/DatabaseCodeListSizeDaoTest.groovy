@@ -1,6 +1,7 @@
 package org.openforis.collect.android.collectadapter
 
-import org.openforis.collect.android.IdGenerator
+import org.openforis.collect.android.TestIds
+import org.openforis.collect.model.CollectSurvey
 import spock.lang.Ignore
 import spock.lang.Specification
 
@@ -10,16 +11,21 @@ import spock.lang.Specification
 @Ignore
 class DatabaseCodeListSizeDaoTest extends Specification {
     public static final NO_PARENT = null
-    def codeListId = IdGenerator.nextId()
+    def codeListId = TestIds.nextId()
     def database = new ModelTestDatabase()
     def dao = new DatabaseCodeListSizeDao(database)
+    def survey = Stub(CollectSurvey) {
+        getCodeLists() >> []
+    }
 
     def cleanup() {
+        database.sql.execute('DROP TABLE IF EXISTS ofc_code_list_size')
         database.reset()
     }
 
     def 'Can load root code list size'() {
         3.times { insertItem(NO_PARENT, 1) }
+        dao.loadSizes(survey)
 
         expect: dao.codeListSize(codeListId, 1) == 3
     }
@@ -28,6 +34,7 @@ class DatabaseCodeListSizeDaoTest extends Specification {
         def ids = [] as List<Integer>
         3.times { ids << insertItem(NO_PARENT, 1) }
         insertItem(ids.first(), 2)
+        dao.loadSizes(survey)
 
         expect: dao.codeListSize(codeListId, 1) == 3
     }
@@ -36,12 +43,36 @@ class DatabaseCodeListSizeDaoTest extends Specification {
         def ids = [] as List<Integer>
         3.times { ids << insertItem(NO_PARENT, 1) }
         4.times { insertItem(ids.first(), 2) }
+        dao.loadSizes(survey)
 
         expect: dao.codeListSize(codeListId, 1) == 3
     }
 
+    def 'Child level size is the max number of items of a parent'() {
+        def ids = [] as List<Integer>
+        3.times { ids << insertItem(NO_PARENT, 1) }
+        4.times { insertItem(ids.first(), 2) }
+        2.times { insertItem(ids.last(), 2) }
+        dao.loadSizes(survey)
+
+        expect: dao.codeListSize(codeListId, 2) == 4
+    }
+
+    def 'Sizes are read from the persisted catalogue'() {
+        3.times { insertItem(NO_PARENT, 1) }
+        dao.loadSizes(survey)
+        insertItem(NO_PARENT, 1)
+
+        when:
+        def reloadedDao = new DatabaseCodeListSizeDao(database)
+        reloadedDao.loadSizes(survey)
+
+        then:
+        reloadedDao.codeListSize(codeListId, 1) == 3
+    }
+
     private int insertItem(Integer parentId, int level) {
-        def id = IdGenerator.nextId()
+        def id = TestIds.nextId()
         database.sql.executeInsert("""
             INSERT INTO ofc_code_list(id, code_list_id, item_id, parent_id, level, sort_order, code)
             VALUES ($id, $codeListId, $id, $parentId, $level, 0, $id)
@@ -1,6 +1,6 @@
 package org.openforis.collect.android.collectadapter
 
-import org.openforis.collect.android.IdGenerator
+import org.openforis.collect.android.TestIds
 import org.openforis.collect.model.CollectSurvey
 import spock.lang.Specification
 
@@ -48,7 +48,65 @@ class MobileExternalCodeListProviderTest extends Specification {
         items.collect { it.code } == ['first_nested', 'second_nested']
     }
 
+    def 'Items are in natural order of code'() {
+        createExternalTable([level1: 'plot10'],
+                [level1: 'plot9'],
+                [level1: 'plot1'])
+
+        when:
+        def items = provider.getRootItems(survey.getCodeList('external_table'))
+
+        then:
+        items.collect { it.code } == ['plot1', 'plot9', 'plot10']
+    }
+
+    def 'Items are in natural order of code once the lookup table is prepared'() {
+        createExternalTable([level1: 'plot10'],
+                [level1: 'plot9'],
+                [level1: 'plot1'])
+        provider.prepareLookupTables(survey)
+
+        when:
+        def items = provider.getRootItems(survey.getCodeList('external_table'))
+
+        then:
+        items.collect { it.code } == ['plot1', 'plot9', 'plot10']
+        database.sql.firstRow("SELECT COUNT(*) c FROM ofc_lookup_table_index WHERE lookup_table = 'external_table'").c == 1
+    }
+
+    def 'Lookup tables are not prepared by item queries'() {
+        createExternalTable([level1: 'first'])
+
+        when:
+        provider.getRootItems(survey.getCodeList('external_table'))
+
+        then:
+        database.sql.firstRow("SELECT COUNT(*) c FROM information_schema.tables WHERE lower(table_name) = 'ofc_lookup_table_index'").c == 0
+    }
+
+    def 'Items are cached'() {
+        createExternalTable([level1: 'first'])
+        def codeList = survey.getCodeList('external_table')
+        provider.getRootItems(codeList)
+        insert([level1: 'second'])
+
+        expect:
+        provider.getRootItems(codeList).collect { it.code } == ['first']
+    }
+
+    def 'Natural sort key orders numbers by value'() {
+        expect:
+        codes.sort(false) { LookupTableIndexer.naturalSortKey(it) } == sorted
+
+        where:
+        codes                       | sorted
+        ['10', '9', '1']            | ['1', '9', '10']
+        ['a10b', 'a9c', 'a9b']      | ['a9b', 'a9c', 'a10b']
+        ['007', '8', '10']          | ['007', '8', '10']
+    }
+
     def dropTable() {
+        database.sql.execute("DROP TABLE IF EXISTS ofc_lookup_table_index" as String)
         database.sql.execute("DROP TABLE IF EXISTS external_table" as String)
     }
 
@@ -70,7 +128,7 @@ class MobileExternalCodeListProviderTest extends Specification {
     void insert(Map item) {
         database.sql.executeInsert("""
             INSERT INTO external_table(id, survey_id, survey_work_id, level1, level2, level3, location)
-            VALUES(${IdGenerator.nextId()}, $survey.id, null, $item.level1, $item.level2, $item.level3, 'Unspecified')""")
+            VALUES(${TestIds.nextId()}, $survey.id, null, $item.level1, $item.level2, $item.level3, 'Unspecified')""")
     }
 
     CollectSurvey survey() {
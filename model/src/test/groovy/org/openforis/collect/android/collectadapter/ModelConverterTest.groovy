@@ -1,5 +1,6 @@
 package org.openforis.collect.android.collectadapter
 
+import org.openforis.collect.android.IdGenerator
 import org.openforis.collect.android.viewmodel.UiAttribute
 import org.openforis.collect.android.viewmodel.UiInternalNode
 import org.openforis.collect.android.viewmodel.UiNode
@@ -92,7 +93,7 @@ class ModelConverterTest extends Specification {
     }
 
     private ModelConverter modelConverter(CollectSurvey collectSurvey) {
-        new ModelConverter(collectSurvey, new Definitions(collectSurvey, collectSurvey.getDefaultLanguage()))
+        new ModelConverter(collectSurvey, new Definitions(collectSurvey, collectSurvey.getDefaultLanguage()), new IdGenerator())
     }
 
     private InputStream getIdm() {
@@ -0,0 +1,97 @@
+package org.openforis.collect.android.collectadapter
+
+import groovy.sql.Sql
+import org.openforis.collect.android.collectadapter.RecordUniquenessChecker.DataSourceRecordUniquenessChecker
+import org.openforis.collect.android.viewmodel.UiCodeAttribute
+import org.openforis.collect.android.viewmodel.UiTextAttribute
+import org.openforis.collect.android.viewmodelmanager.DataSourceNodeRepository
+import org.openforis.collect.android.viewmodelmanager.NodeDto
+import org.openforis.collect.android.viewmodelmanager.NodeTestDatabase
+import spock.lang.Specification
+
+import static org.openforis.collect.android.viewmodelmanager.NodeDto.Type.*
+
+/**
+ * @author Daniel Wiell
+ */
+class RecordUniquenessCheckerTest extends Specification {
+    def database = new NodeTestDatabase()
+    def repo = new DataSourceNodeRepository(database)
+    def checker = new DataSourceRecordUniquenessChecker(database)
+
+    def cleanup() {
+        database.reset()
+    }
+
+    def 'Keys of another record are not unique'() {
+        insertRecord(10, 'plot', '001')
+
+        expect:
+        !checker.isUnique(keys(20, 'plot', '001'))
+        checker.isUnique(keys(20, 'plot', '002'))
+        checker.isUnique(keys(20, 'other', '001'))
+    }
+
+    def 'Keys of the record itself are unique'() {
+        insertRecord(10, 'plot', '001')
+
+        expect:
+        checker.isUnique(keys(10, 'plot', '001'))
+    }
+
+    def 'Codes are compared by code value only'() {
+        insertRecord(10, 'plot', '001', 'Qualifier')
+
+        expect:
+        !checker.isUnique(keys(20, 'plot', '001'))
+    }
+
+    def 'Updated keys are checked'() {
+        def code = insertRecord(10, 'plot', '001')
+        code.codeValue = '002'
+        repo.update(code, [:])
+
+        expect:
+        checker.isUnique(keys(20, 'plot', '001'))
+        !checker.isUnique(keys(20, 'plot', '002'))
+    }
+
+    def 'Records without key hash are backfilled'() {
+        insertRecord(10, 'plot', '001')
+        insertRecord(20, 'plot', '002')
+        sql().executeUpdate('UPDATE ofc_record_summary SET key_hash = NULL')
+        sql().executeUpdate('UPDATE ofc_record_summary SET key_values = NULL WHERE record_id = 20')
+
+        expect:
+        !checker.isUnique(keys(30, 'plot', '001'))
+        !checker.isUnique(keys(30, 'plot', '002'))
+        sql().firstRow('SELECT COUNT(*) count FROM ofc_record_summary WHERE key_hash IS NULL').count == 0
+    }
+
+    private NodeDto insertRecord(int recordId, String text, String code, String qualifier = null) {
+        def record = new NodeDto(id: recordId, status: 'OK', definitionId: 'record', surveyId: 2, recordId: recordId,
+                recordCollectionName: 'name', type: RECORD)
+        def textKey = key(recordId + 1, recordId, '1', TEXT_ATTRIBUTE, [text: text])
+        def codeKey = key(recordId + 2, recordId, '2', CODE_ATTRIBUTE, [codeValue: code, codeQualifier: qualifier])
+        repo.insert([record, textKey, codeKey], [:])
+        return codeKey
+    }
+
+    private List<NodeDto> keys(int recordId, String text, String code) {
+        [
+                NodeDto.recordKeyAttribute(recordId, '2', code, UiCodeAttribute),
+                NodeDto.recordKeyAttribute(recordId, '1', text, UiTextAttribute)
+        ]
+    }
+
+    private NodeDto key(int id, int recordId, String definitionId, NodeDto.Type type, Map values) {
+        def node = new NodeDto(id: id, parentId: recordId, parentEntityId: recordId, status: 'OK', relevant: true,
+                definitionId: definitionId, surveyId: 2, recordId: recordId, recordKeyAttribute: true, type: type)
+        values.each { node[it.key] = it.value }
+        return node
+    }
+
+    private Sql sql() {
+        new Sql(database.dataSource())
+    }
+}
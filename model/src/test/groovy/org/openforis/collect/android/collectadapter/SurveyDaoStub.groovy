@@ -1,6 +1,6 @@
 package org.openforis.collect.android.collectadapter
 
-import org.openforis.collect.android.IdGenerator
+import org.openforis.collect.android.TestIds
 import org.openforis.collect.model.CollectSurvey
 import org.openforis.collect.model.SurveySummary
 import org.openforis.collect.persistence.SurveyDao
@@ -23,7 +23,7 @@ class SurveyDaoStub extends SurveyDao {
     }
 
     void insert(CollectSurvey survey) throws SurveyImportException {
-        survey.id = IdGenerator.nextId()
+        survey.id = TestIds.nextId()
         surveyByName[survey.name] = survey
     }
 }
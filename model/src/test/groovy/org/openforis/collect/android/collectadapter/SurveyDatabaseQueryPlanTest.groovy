@@ -0,0 +1,114 @@
+package org.openforis.collect.android.collectadapter
+
+import groovy.sql.Sql
+import org.openforis.collect.android.databaseschema.RecordingDatabase
+import org.openforis.collect.model.CollectSurvey
+import spock.lang.Specification
+
+import java.util.concurrent.Executor
+
+/**
+ * Runs the lookups of the tables collectadapter adds to the survey database against SQLite, and checks their query
+ * plans. The survey tables are reduced to the columns used. The added tables are built first, which reads whole
+ * tables by design, so only statements run after that are checked.
+ *
+ * @author Daniel Wiell
+ */
+@SuppressWarnings("GroovyUnusedDeclaration")
+class SurveyDatabaseQueryPlanTest extends Specification {
+    @Delegate
+    IdmBuilder builder = new IdmBuilder()
+    def file = File.createTempFile('survey', '.db')
+    def database = new RecordingDatabase(file)
+    def sql = new Sql(database.dataSource())
+
+    def setup() {
+        sql.execute('CREATE TABLE ofc_taxonomy(id INTEGER PRIMARY KEY NOT NULL, name TEXT)')
+        sql.execute('CREATE TABLE ofc_taxon(id INTEGER PRIMARY KEY NOT NULL, taxonomy_id INTEGER, code TEXT, scientific_name TEXT)')
+        sql.execute('CREATE TABLE ofc_taxon_vernacular_name(id INTEGER PRIMARY KEY NOT NULL, taxon_id INTEGER, ' +
+                'vernacular_name TEXT, language_code TEXT)')
+        sql.execute('CREATE TABLE ofc_code_list(id INTEGER PRIMARY KEY NOT NULL, code_list_id INTEGER, level INTEGER, ' +
+                'parent_id INTEGER, code TEXT)')
+        sql.execute('CREATE TABLE external_table(id INTEGER PRIMARY KEY NOT NULL, survey_id INTEGER, survey_work_id INTEGER, ' +
+                'level1 TEXT NOT NULL, level2 TEXT, level3 TEXT, location TEXT NOT NULL)')
+        sql.execute("INSERT INTO ofc_taxonomy VALUES(1, 'trees')")
+        sql.execute("INSERT INTO ofc_taxon VALUES(1, 1, 'QUE/ROB', 'Quercus robur'), (2, 1, 'FAG/SYL', 'Fagus sylvatica')")
+        sql.execute("INSERT INTO ofc_taxon_vernacular_name VALUES(1, 1, 'English oak', 'eng')")
+        sql.execute("INSERT INTO ofc_code_list VALUES(1, 123, 1, NULL, 'a'), (2, 123, 2, 1, 'b')")
+        sql.execute("INSERT INTO external_table VALUES(1, NULL, NULL, 'first', NULL, NULL, 'Unspecified'), " +
+                "(2, NULL, NULL, 'first', 'nested', NULL, 'Unspecified')")
+    }
+
+    def cleanup() {
+        sql.close()
+        file.delete()
+    }
+
+    def 'Taxa are found through ofc_taxon_search'() {
+        def repo = new TaxonRepository(database, { it.run() } as Executor)
+        database.statements.clear()
+
+        when:
+        repo.find('quercus ro', 'trees', 10)
+        repo.find('oak', 'trees', 10)
+
+        then:
+        !database.statements.isEmpty()
+        database.tableScans().isEmpty()
+    }
+
+    def 'External code list items are selected through the indexes of LookupTableIndexer'() {
+        def survey = survey()
+        def codeList = survey.getCodeList('external_table')
+        def provider = new MobileExternalCodeListProvider(database)
+        provider.prepareLookupTables(survey)
+        database.statements.clear()
+
+        when:
+        provider.getChildItems(provider.getRootItems(codeList).first())
+
+        then:
+        database.statements.size() > 2
+        database.tableScans().isEmpty()
+    }
+
+    def 'Code list sizes are read from ofc_code_list_size, once it is populated'() {
+        def survey = survey()
+        new DatabaseCodeListSizeDao(database).loadSizes(survey)
+        database.statements.clear()
+
+        when:
+        new DatabaseCodeListSizeDao(database).loadSizes(survey)
+
+        then:
+        database.scannedTables() == ['ofc_code_list_size'] as Set
+    }
+
+    CollectSurvey survey() {
+        def idm = idmXmlStream {
+            codeLists {
+                list(id: 123, lookup: 'external_table', name: 'external_table') {
+                    label(type: 'item', 'Sample Ids')
+                    codingScheme(scope: 'local')
+                    hierarchy {
+                        level(name: 'level1') {
+                            label('Cluster id')
+                        }
+                        level(name: 'level2') {
+                            label('Plot id')
+                        }
+                        level(name: 'level3') {
+                            label('Subplot id')
+                        }
+                    }
+                }
+            }
+            schema {
+                entity('foo', 'Bar') {
+                    text('uiAttribute name', 'The label')
+                }
+            }
+        }
+        return TestCollectModelFactory.surveyManager.importModel(idm, "survey", false)
+    }
+}
@@ -0,0 +1,183 @@
+package org.openforis.collect.android.collectadapter
+
+import org.openforis.collect.android.viewmodel.Definition
+import org.openforis.collect.android.viewmodel.UiNode
+import org.openforis.collect.android.viewmodel.UiRecord
+import org.openforis.collect.android.viewmodel.UiRecordCollection
+import org.openforis.collect.android.viewmodel.UiSurvey
+import org.openforis.collect.io.data.BackupDataExtractor
+import org.openforis.collect.io.data.RecordFileBackupTask
+import org.openforis.collect.manager.RecordFileManager
+import org.openforis.collect.model.CollectRecord
+import org.openforis.collect.model.CollectSurvey
+import org.openforis.collect.model.User
+import org.openforis.idm.model.EntityBuilder
+import org.openforis.idm.model.FileAttribute
+import spock.lang.Specification
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipFile
+
+/**
+ * @author Daniel Wiell
+ */
+@SuppressWarnings("GroovyUnusedDeclaration")
+class SurveyExporterTest extends Specification {
+    static final int RECORD_COUNT = 20
+    @Delegate IdmBuilder builder = new IdmBuilder()
+    def survey = survey()
+    def uiSurvey = new UiSurvey(1, new Definition('survey', 'survey', 'Survey', true))
+    def recordCollection = new UiRecordCollection(2, new Definition('records', 'root', 'Root', true))
+    def dir = File.createTempDir()
+    def exportFile = new File(dir, 'export/export.collect-data')
+    def records = new Records()
+    def recordFiles = new RecordFiles()
+
+    def setup() {
+        uiSurvey.addChild(recordCollection)
+        RECORD_COUNT.times { addRecord(100 + it) }
+    }
+
+    def cleanup() {
+        dir.deleteDir()
+    }
+
+    def 'Records are written in the order of the records, while marshalled concurrently'() {
+        when:
+        export()
+
+        then:
+        recordEntryNames() == (100..<100 + RECORD_COUNT).collect { recordEntryName(it) }
+        records.exported.toSet() == (100..<100 + RECORD_COUNT).toSet()
+    }
+
+    def 'Already compressed record files are stored with their size and CRC'() {
+        def photo = recordFile(103, 'photo.jpg', 'jpg-content')
+        def notes = recordFile(104, 'notes.txt', 'text-content')
+
+        when:
+        export()
+
+        then:
+        def zip = new ZipFile(exportFile)
+        def photoEntry = zip.getEntry(fileEntryName(103))
+        photoEntry.method == ZipEntry.STORED
+        photoEntry.size == photo.length()
+        photoEntry.compressedSize == photo.length()
+        photoEntry.crc == crc(photo)
+        zip.getInputStream(photoEntry).bytes == photo.bytes
+        zip.getEntry(fileEntryName(104)).method == ZipEntry.DEFLATED
+        zip.getInputStream(zip.getEntry(fileEntryName(104))).bytes == notes.bytes
+        zip.close()
+    }
+
+    def 'The first failure to write a record fails the export'() {
+        recordFile(105, 'first.jpg', 'content')
+        recordFile(107, 'second.jpg', 'content')
+        recordFiles.failing << 105 << 107
+
+        when:
+        export()
+
+        then:
+        def e = thrown IOException
+        e.message.contains('id 105')
+    }
+
+    def 'Failure to provide a record fails the export'() {
+        records.failing << 110
+
+        when:
+        export()
+
+        then:
+        def e = thrown IOException
+        e.message.contains('id 110')
+        !records.exported.contains(110)
+    }
+
+    private void export() {
+        new SurveyExporter(uiSurvey, survey, TestCollectModelFactory.surveyManager, false, records, recordFiles)
+                .export(exportFile)
+    }
+
+    private List<String> recordEntryNames() {
+        def zip = new ZipFile(exportFile)
+        def recordEntryNames = records.byId.keySet().collect { recordEntryName(it) }
+        def names = zip.entries().collect { it.name }.findAll { it in recordEntryNames }
+        zip.close()
+        return names
+    }
+
+    private String recordEntryName(int recordId) {
+        new BackupDataExtractor.BackupRecordEntry(CollectRecord.Step.CLEANSING, recordId).name
+    }
+
+    private String fileEntryName(int recordId) {
+        RecordFileBackupTask.determineRecordFileEntryName(records.byId[recordId].getFileAttributes().first())
+    }
+
+    private File recordFile(int recordId, String fileName, String content) {
+        def file = new File(dir, fileName)
+        file.text = content
+        EntityBuilder.addValue(records.byId[recordId].rootEntity, 'photo', new org.openforis.idm.model.File(fileName, file.length()))
+        recordFiles.byFileName[fileName] = file
+        return file
+    }
+
+    private long crc(File file) {
+        def crc = new CRC32()
+        crc.update(file.bytes)
+        crc.value
+    }
+
+    private void addRecord(int id) {
+        def record = TestCollectModelFactory.recordManager.create(survey, 'root', new User(), null, null, CollectRecord.Step.CLEANSING)
+        record.id = id
+        records.byId[id] = record
+        recordCollection.addChild(new UiRecord.Placeholder(id, UiNode.Status.OK, 'root', recordCollection.definition,
+                [], new Date(), new Date()))
+    }
+
+    CollectSurvey survey() {
+        def idm = idmXmlStream {
+            schema {
+                entity('root', 'Root') {
+                    text('name', 'Name')
+                    attribute('file', 'photo', 'Photo', [:])
+                }
+            }
+        }
+        return TestCollectModelFactory.surveyManager.importModel(idm, "survey", false)
+    }
+
+    private static class Records implements SurveyExporter.CollectRecordProvider {
+        final Map<Integer, CollectRecord> byId = [:]
+        final Set<Integer> failing = []
+        final List<Integer> exported = new CopyOnWriteArrayList<Integer>()
+
+        CollectRecord record(UiRecord.Placeholder recordPlaceholder) {
+            if (recordPlaceholder.id in failing)
+                throw new IllegalStateException('Failed to load record')
+            byId[recordPlaceholder.id]
+        }
+
+        void exported(UiRecord.Placeholder recordPlaceholder) {
+            exported << recordPlaceholder.id
+        }
+    }
+
+    private static class RecordFiles extends RecordFileManager {
+        final Map<String, File> byFileName = new ConcurrentHashMap<String, File>()
+        final Set<Integer> failing = []
+
+        File getRepositoryFile(FileAttribute fileAttribute) {
+            if (fileAttribute.record.id in failing)
+                throw new IllegalStateException('Failed to read file')
+            byFileName[fileAttribute.filename]
+        }
+    }
+}
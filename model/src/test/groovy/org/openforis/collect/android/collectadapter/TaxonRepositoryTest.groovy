@@ -5,7 +5,9 @@ import org.openforis.collect.model.CollectSurvey
 import spock.lang.Ignore
 import spock.lang.Specification
 
-import static org.openforis.collect.android.IdGenerator.nextId
+import java.util.concurrent.Executor
+
+import static org.openforis.collect.android.TestIds.nextId
 
 /**
  * @author Daniel Wiell
@@ -23,7 +25,8 @@ class TaxonRepositoryTest extends Specification {
         int surveyId = insertSurvey()
         taxonomy = insertTaxonomy(surveyId, 'taxonomy')
         anotherTaxonomy = insertTaxonomy(surveyId, 'another-taxonomy')
-        repo = new TaxonRepository(database)
+        // Taxa are inserted after the repository is created, so the search index is left unbuilt
+        repo = new TaxonRepository(database, {} as Executor)
     }
 
     def cleanup() {
@@ -33,7 +36,7 @@ class TaxonRepositoryTest extends Specification {
     def 'No matches returns empty list'() {
         insertTaxon('code', 'name', taxonomy)
 
-        expect: repo.find('notExpectedToBeFound', taxonomy.name, 10).empty
+        expect: repo.find('notExpectedToBeFound', taxonomy.name, 10).taxa.empty
     }
 
     def 'Can match a code and scientific name'() {
@@ -42,10 +45,10 @@ class TaxonRepositoryTest extends Specification {
         insertTaxon('code', 'name', anotherTaxonomy) // Not expected to match - wrong taxonomy
 
         expect:
-            repo.find("c", taxonomy.name, 10)*.code == ['code']
-            repo.find("n", taxonomy.name, 10)*.code == ['code']
-            repo.find("C", taxonomy.name, 10)*.code == ['code']
-            repo.find("N", taxonomy.name, 10)*.code == ['code']
+            repo.find("c", taxonomy.name, 10).taxa*.code == ['code']
+            repo.find("n", taxonomy.name, 10).taxa*.code == ['code']
+            repo.find("C", taxonomy.name, 10).taxa*.code == ['code']
+            repo.find("N", taxonomy.name, 10).taxa*.code == ['code']
     }
 
     def 'Can limit results'() {
@@ -54,7 +57,8 @@ class TaxonRepositoryTest extends Specification {
         insertTaxon('a3', 'name3', taxonomy)
 
         expect:
-            repo.find("a", taxonomy.name, 2).size() == 2
+            repo.find("a", taxonomy.name, 2).taxa.size() == 2
+            repo.find("a", taxonomy.name, 2).truncated
     }
 
     private void insertTaxon(String code, String scientificName, Taxonomy taxonomy) {
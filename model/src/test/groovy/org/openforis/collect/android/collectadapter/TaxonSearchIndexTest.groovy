@@ -0,0 +1,137 @@
+package org.openforis.collect.android.collectadapter
+
+import groovy.sql.Sql
+import org.h2.jdbcx.JdbcDataSource
+import org.openforis.collect.android.util.persistence.ConnectionCallback
+import org.openforis.collect.android.util.persistence.Database
+import spock.lang.Specification
+
+import javax.sql.DataSource
+import java.util.concurrent.Executor
+
+/**
+ * @author Daniel Wiell
+ */
+class TaxonSearchIndexTest extends Specification {
+    def database = new TaxonDatabase()
+    def sql = new Sql(database.dataSource())
+    def direct = { it.run() } as Executor
+
+    def setup() {
+        sql.execute('CREATE TABLE ofc_taxonomy(id INTEGER, name VARCHAR)')
+        sql.execute('CREATE TABLE ofc_taxon(id INTEGER PRIMARY KEY, taxonomy_id INTEGER, code VARCHAR, scientific_name VARCHAR)')
+        sql.execute('CREATE TABLE ofc_taxon_vernacular_name(id INTEGER, taxon_id INTEGER, vernacular_name VARCHAR, language_code VARCHAR)')
+        sql.execute("INSERT INTO ofc_taxonomy VALUES(1, 'trees'), (2, 'other')")
+        sql.execute("INSERT INTO ofc_taxon VALUES(1, 1, 'QUE/ROB', 'Quercus robur'), (2, 1, 'QUE/RUB', 'Quercus rubra'), " +
+                "(3, 1, 'FAG/SYL', 'Fagus sylvatica'), (4, 2, 'QUE/ROB', 'Quercus robur')")
+        sql.execute("INSERT INTO ofc_taxon_vernacular_name VALUES(1, 1, 'English oak', 'eng'), (2, 2, 'Red oak', 'eng'), " +
+                "(3, 3, 'Common beech', 'eng')")
+    }
+
+    def cleanup() {
+        sql.close()
+    }
+
+    def 'Terms match prefixes of code, scientific name words and vernacular name words'() {
+        def repo = new TaxonRepository(database, direct)
+
+        expect:
+        repo.find(query, 'trees', 10).taxa*.code == codes
+
+        where:
+        query         | codes
+        'que'         | ['QUE/ROB', 'QUE/RUB']
+        'fag/'        | ['FAG/SYL']
+        'RUB'         | ['QUE/RUB']
+        'oak'         | ['QUE/ROB', 'QUE/RUB']
+        'quercus red' | ['QUE/RUB']
+        'beech com'   | ['FAG/SYL']
+        'uercus'      | []
+        ''            | ['FAG/SYL', 'QUE/ROB', 'QUE/RUB']
+    }
+
+    def 'Only vernacular names matching the query are included'() {
+        sql.execute("INSERT INTO ofc_taxon_vernacular_name VALUES(4, 1, 'Pedunculate oak', 'eng')")
+        def repo = new TaxonRepository(database, direct)
+
+        expect:
+        repo.find('pedunculate', 'trees', 10).taxa.first().commonNames == ['Pedunculate oak']
+    }
+
+    def 'Matches are truncated when more taxa match than asked for'() {
+        def repo = new TaxonRepository(database, direct)
+
+        expect:
+        repo.find('quercus', 'trees', 1).truncated
+        !repo.find('quercus', 'trees', 2).truncated
+    }
+
+    def 'Matches are truncated when more vernacular names match than fetched'() {
+        sql.execute("INSERT INTO ofc_taxon_vernacular_name VALUES(4, 3, 'Beech', 'eng'), (5, 3, 'Beech tree', 'eng'), " +
+                "(6, 3, 'European beech', 'eng')")
+        def repo = new TaxonRepository(database, direct)
+
+        when:
+        def matches = repo.find('beech', 'trees', 1)
+
+        then:
+        matches.taxa*.code == ['FAG/SYL']
+        matches.truncated
+    }
+
+    def 'Taxa are found by name until the index is built'() {
+        def build = null
+        def repo = new TaxonRepository(database, { build = it } as Executor)
+
+        expect:
+        repo.find('quercus red', 'trees', 10).taxa*.code == ['QUE/RUB']
+        sql.firstRow("SELECT COUNT(*) c FROM information_schema.tables WHERE table_name = 'OFC_TAXON_SEARCH'").c == 0
+
+        when:
+        build.run()
+
+        then:
+        repo.find('quercus red', 'trees', 10).taxa*.code == ['QUE/RUB']
+        sql.firstRow("SELECT COUNT(*) c FROM ofc_taxon_search").c > 0
+    }
+
+    def 'Index is built in chunks of taxa'() {
+        def taxa = (10..<10 + TaxonSearchIndex.TAXA_PER_CHUNK).collect { [it, 1, "ABI/$it" as String, "Abies $it" as String] }
+        sql.withBatch('INSERT INTO ofc_taxon VALUES(?, ?, ?, ?)') { batch -> taxa.each { batch.addBatch(it) } }
+        sql.execute("INSERT INTO ofc_taxon_vernacular_name VALUES(4, ${9 + TaxonSearchIndex.TAXA_PER_CHUNK}, 'Last fir', 'eng')")
+        def repo = new TaxonRepository(database, direct)
+
+        expect:
+        repo.find('abi/10', 'trees', 2).taxa*.code == ['ABI/10', 'ABI/100']
+        repo.find('last', 'trees', 10).taxa*.code == ["ABI/${9 + TaxonSearchIndex.TAXA_PER_CHUNK}"]
+        sql.firstRow("SELECT last_taxon_id FROM ofc_taxon_search_progress").last_taxon_id ==
+                9 + TaxonSearchIndex.TAXA_PER_CHUNK
+    }
+
+    def 'Index is built once'() {
+        new TaxonRepository(database, direct)
+
+        when:
+        new TaxonRepository(database, direct)
+
+        then:
+        sql.firstRow("SELECT COUNT(*) c FROM ofc_taxon_search WHERE taxon_id = 1").c == 5
+    }
+
+    private static class TaxonDatabase implements Database {
+        private final DataSource dataSource = new JdbcDataSource(
+                url: "jdbc:h2:mem:${Math.random()};DB_CLOSE_DELAY=-1", user: 'sa', password: 'sa')
+
+        DataSource dataSource() {
+            return dataSource
+        }
+
+        def <T> T execute(ConnectionCallback<T> connectionCallback) {
+            T result = null
+            new Sql(dataSource).withTransaction {
+                result = connectionCallback.execute(it)
+            }
+            return result
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package org.openforis.collect.android.collectadapter
 
+import org.openforis.collect.android.IdGenerator
 import org.openforis.collect.android.Settings
 import org.openforis.collect.android.util.persistence.Database
 import org.openforis.collect.android.viewmodelmanager.DataSourceNodeRepository
+import org.openforis.collect.android.viewmodelmanager.NodeIdSequence
 import org.openforis.collect.android.viewmodelmanager.NodeTestDatabase
 import org.openforis.collect.android.viewmodelmanager.ViewModelManager
 import org.openforis.collect.android.viewmodelmanager.ViewModelRepository
@@ -29,7 +31,7 @@ class TestCollectModelFactory {
         def codeListManager = new CodeListManager(codeListItemDao: new CodeListItemDao(dataSource: modelDatabase.dataSource()))
         def surveyManager = surveyManager(codeListManager, collectValidator(codeListManager, recordManager))
         def collectModelManager = new CollectModelManager(surveyManager, recordManager, codeListManager, null, modelDatabase,
-                Settings.PreferredLanguageMode.SURVEY_DEFAULT, null)
+                new IdGenerator(new NodeIdSequence(nodeDatabase)), Settings.PreferredLanguageMode.SURVEY_DEFAULT, null)
         new CollectModelBackedSurveyService(
                 new ViewModelManager(
                         new ViewModelRepository.DatabaseViewModelRepository(
@@ -41,7 +43,8 @@ class TestCollectModelFactory {
         )
     }
     static CollectModelManager collectModelManager(Database database) {
-        new CollectModelManager(surveyManager, recordManager, null, null, null, database, Settings.PreferredLanguageMode.SURVEY_DEFAULT, null)
+        new CollectModelManager(surveyManager, recordManager, null, null, null, database, new IdGenerator(),
+                Settings.PreferredLanguageMode.SURVEY_DEFAULT, null)
     }
 
     public static RecordManager getRecordManager() {
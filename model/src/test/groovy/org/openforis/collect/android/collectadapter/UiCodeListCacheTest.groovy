@@ -0,0 +1,127 @@
+package org.openforis.collect.android.collectadapter
+
+import org.openforis.collect.android.TestIds
+import org.openforis.collect.android.viewmodel.UiCode
+import org.openforis.collect.android.viewmodel.UiCodeList
+import org.openforis.collect.model.CollectSurvey
+import org.openforis.idm.metamodel.CodeAttributeDefinition
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+
+/**
+ * @author Daniel Wiell
+ */
+@SuppressWarnings("GroovyUnusedDeclaration")
+class UiCodeListCacheTest extends Specification {
+    @Delegate IdmBuilder builder = new IdmBuilder()
+    final survey = survey()
+    final parentDefinition = survey.schema.getDefinitionByPath('/root/plot/parent_code') as CodeAttributeDefinition
+    final childDefinition = survey.schema.getDefinitionByPath('/root/plot/child_code') as CodeAttributeDefinition
+    def cache = new UiCodeListCache()
+    def loads = 0
+
+    def 'Attributes with the same parent codes share the code list'() {
+        def version = survey.getVersion('v1')
+
+        when:
+        def firstCodeList = cache.codeList(childDefinition, version, false, ['a'], loader(1))
+        def secondCodeList = cache.codeList(childDefinition, version, false, ['a'], loader(1))
+
+        then:
+        loads == 1
+        firstCodeList.is(secondCodeList)
+    }
+
+    def 'Attributes with different parent codes have their own code lists'() {
+        def version = survey.getVersion('v1')
+
+        when:
+        cache.codeList(childDefinition, version, false, ['a'], loader(1))
+        cache.codeList(childDefinition, version, false, ['b'], loader(1))
+        cache.codeList(childDefinition, version, false, [null], loader(0))
+
+        then:
+        loads == 3
+    }
+
+    def 'Code lists are kept per survey version'() {
+        when:
+        cache.codeList(parentDefinition, survey.getVersion('v1'), false, [], loader(1))
+        cache.codeList(parentDefinition, survey.getVersion('v1'), false, [], loader(1))
+        cache.codeList(parentDefinition, survey.getVersion('v2'), false, [], loader(1))
+
+        then:
+        loads == 2
+    }
+
+    def 'Code lists are evicted when the cached codes exceed the limit'() {
+        def version = survey.getVersion('v1')
+        cache.codeList(parentDefinition, version, false, [], loader(UiCodeListCache.MAX_CACHED_CODES - 1))
+        cache.codeList(parentDefinition, version, true, [], loader(1))
+
+        when:
+        cache.codeList(parentDefinition, version, false, [], loader(1))
+
+        then:
+        loads == 3
+    }
+
+    def 'A code list of nearly the limit is cached'() {
+        def version = survey.getVersion('v1')
+
+        when:
+        cache.codeList(parentDefinition, version, false, [], loader(UiCodeListCache.MAX_CACHED_CODES - 1))
+        cache.codeList(parentDefinition, version, false, [], loader(1))
+
+        then:
+        loads == 1
+    }
+
+    private Callable<UiCodeList> loader(int codeCount) {
+        return {
+            loads++
+            new UiCodeList((0..<codeCount).collect { new UiCode(it as String, it as String) }, null)
+        } as Callable<UiCodeList>
+    }
+
+    private CollectSurvey survey() {
+        def idm = idmXmlStream {
+            versioning {
+                version(id: TestIds.nextId(), name: 'v1') {
+                    label('Version 1')
+                }
+                version(id: TestIds.nextId(), name: 'v2') {
+                    label('Version 2')
+                }
+            }
+            codeLists {
+                list(id: TestIds.nextId(), name: 'list') {
+                    label(type: 'item', 'Hierarchy')
+                    codingScheme(scope: 'local')
+                    hierarchy {
+                        level(name: 'parent_level') {
+                            label('Parent Level')
+                        }
+                        level(name: 'child_level') {
+                            label('Child Level')
+                        }
+                    }
+                }
+            }
+            schema {
+                entity('root', 'Root') {
+                    entity('plot', 'Plot', [multiple: true]) {
+                        code(id: TestIds.nextId(), name: 'parent_code', list: 'list') {
+                            label('Parent Code')
+                        }
+                        code(id: TestIds.nextId(), name: 'child_code', list: 'list', parent: 'parent_code') {
+                            label('Child Code')
+                        }
+                    }
+                }
+            }
+        }
+        TestCollectModelFactory.surveyManager.importModel(idm, 'survey', false)
+    }
+}
@@ -0,0 +1,83 @@
+package org.openforis.collect.android.databaseschema
+
+import groovy.sql.Sql
+import org.openforis.collect.android.collectadapter.RecordUniquenessChecker.DataSourceRecordUniquenessChecker
+import org.openforis.collect.android.viewmodelmanager.DataSourceNodeRepository
+import org.openforis.collect.android.viewmodelmanager.NodeDto
+import org.openforis.collect.android.viewmodelmanager.NodeIdSequence
+import org.openforis.collect.android.viewmodelmanager.StatusChange
+import spock.lang.Specification
+
+import static org.openforis.collect.android.viewmodelmanager.NodeDto.Type.*
+
+/**
+ * Runs the node database statements of viewmodelmanager and collectadapter against SQLite, recording every statement,
+ * and fails if the query plan of any of them scans a whole table.
+ *
+ * @author Daniel Wiell
+ */
+class NodeDatabaseQueryPlanTest extends Specification {
+    def file = File.createTempFile('nodes', '.db')
+    def database = new RecordingDatabase(file)
+
+    def setup() {
+        def sql = new Sql(database.dataSource())
+        for (change in new NodeDatabaseSchemaChangeLog().changes())
+            for (statement in change.statements())
+                sql.execute(statement as String)
+        sql.close()
+    }
+
+    def cleanup() {
+        file.delete()
+    }
+
+    def 'No statement scans a whole table'() {
+        exerciseNodeRepository()
+        exerciseRecordUniquenessChecker()
+
+        when:
+        def scans = database.tableScans()
+
+        then:
+        database.statements.size() > 20
+        scans.isEmpty()
+    }
+
+    private void exerciseNodeRepository() {
+        def repo = new DataSourceNodeRepository(database)
+        def key = node(11, 10, TEXT_ATTRIBUTE, [recordKeyAttribute: true, text: 'key'])
+        repo.insert([node(10, null, RECORD), key, node(12, 10, ENTITY), node(13, 12, ENTITY)], [:])
+        repo.update(key, [10: new StatusChange('OK', true)])
+        repo.updateAll([key], [12: new StatusChange('OK', true)], [node(10, null, RECORD)])
+        repo.updateModifiedOn(node(10, null, RECORD))
+        repo.recordNodes(10)
+        repo.node(12)
+        repo.childNodes([10, 12])
+        repo.ancestorIds(13)
+        repo.surveyRecords(2)
+        new Sql(database.dataSource()).executeUpdate('UPDATE ofc_record_summary SET key_values = NULL')
+        repo.surveyRecords(2)
+        repo.removeAll([13], [:])
+        repo.removeRecord(10)
+        new NodeIdSequence(database).reserve(100)
+    }
+
+    private void exerciseRecordUniquenessChecker() {
+        def checker = new DataSourceRecordUniquenessChecker(database)
+        checker.isUnique([node(11, 10, TEXT_ATTRIBUTE, [definitionId: '1', text: 'key'])])
+        checker.isUnique([
+                node(11, 10, CODE_ATTRIBUTE, [definitionId: '1', codeValue: '001']),
+                node(12, 10, CODE_ATTRIBUTE, [definitionId: '2']),
+                node(13, 10, INTEGER_ATTRIBUTE, [definitionId: '3'])
+        ])
+    }
+
+    private NodeDto node(int id, Integer parentId, NodeDto.Type type, Map properties = [:]) {
+        def node = new NodeDto(id: id, parentId: parentId, parentEntityId: parentId, status: 'OK', relevant: true,
+                definitionId: '1', surveyId: 2, recordId: 10, recordCollectionName: 'records', type: type,
+                createdOn: new Date(), modifiedOn: new Date())
+        properties.each { node[it.key] = it.value }
+        return node
+    }
+}
@@ -0,0 +1,95 @@
+package org.openforis.collect.android.databaseschema
+
+import groovy.sql.Sql
+import org.h2.jdbcx.JdbcDataSource
+import org.openforis.collect.android.viewmodelmanager.NodeDto
+import org.openforis.collect.android.viewmodelmanager.NodeValueCodec
+import spock.lang.Specification
+
+/**
+ * @author Daniel Wiell
+ */
+class NodeDatabaseSchemaChangeLogTest extends Specification {
+    def sql = new Sql(new JdbcDataSource(url: "jdbc:h2:mem:${Math.random()};DB_CLOSE_DELAY=-1", user: 'sa', password: 'sa'))
+    def changes = new NodeDatabaseSchemaChangeLog().changes()
+    def valColumnChange = changeCreating('ofc_view_model_typed')
+    def recordSummaryChange = changeCreating('ofc_record_summary')
+    def idSequenceChange = changeCreating('ofc_id_sequence')
+
+    def cleanup() {
+        sql.close()
+    }
+
+    def 'Values in val_* columns are migrated to the encoded val column'() {
+        apply(changes.subList(0, valColumnChange))
+        insertLegacy(1, NodeDto.Type.CODE_ATTRIBUTE, [val_code_value: '001', val_code_label: 'Label'])
+        insertLegacy(2, NodeDto.Type.COORDINATE_ATTRIBUTE, [val_x: 12.5d, val_y: -3d, val_srs: 'EPSG:4326'])
+        insertLegacy(3, NodeDto.Type.TEXT_ATTRIBUTE, [val_text: 'Some text'])
+        insertLegacy(4, NodeDto.Type.TIME_ATTRIBUTE, [val_hour: 9])
+        insertLegacy(5, NodeDto.Type.INTEGER_ATTRIBUTE, [:])
+
+        when:
+        apply([changes[valColumnChange]])
+
+        then:
+        decode(1).with { codeValue == '001' && codeQualifier == null && codeLabel == 'Label' }
+        decode(2).with { x == 12.5d && y == -3d && srs == 'EPSG:4326' }
+        decode(3).text == 'Some text'
+        decode(4).with { hour == 9 && minute == null }
+        sql.firstRow('SELECT val FROM ofc_view_model WHERE id = 5').val == null
+    }
+
+    def 'Existing records are summarised'() {
+        apply(changes.subList(0, recordSummaryChange))
+        insert(1, null, 1)
+        insert(2, 1, 1)
+        insert(3, 1, 1)
+        insert(4, null, 4)
+
+        when:
+        apply([changes[recordSummaryChange]])
+
+        then:
+        sql.rows('SELECT record_id, node_count, key_values FROM ofc_record_summary ORDER BY record_id').collect {
+            [it.record_id, it.node_count, it.key_values]
+        } == [[1, 3, null], [4, 1, null]]
+    }
+
+    def 'Id sequence is seeded from existing nodes'() {
+        apply(changes.subList(0, idSequenceChange))
+        insert(1, null, 1)
+        insert(7, 1, 1)
+
+        when:
+        apply([changes[idSequenceChange]])
+
+        then:
+        sql.firstRow('SELECT next_id FROM ofc_id_sequence WHERE name = \'node\'').next_id == 8
+    }
+
+    private int changeCreating(String table) {
+        changes.findIndexOf { change -> change.statements().any { it.startsWith("CREATE TABLE $table") } }
+    }
+
+    private void insert(int id, Integer parentId, int recordId) {
+        sql.executeInsert('INSERT INTO ofc_view_model(id, relevant, status, parent_id, definition_id, survey_id, record_id, node_type) ' +
+                'VALUES(?, 1, \'OK\', ?, \'1\', 1, ?, ?)', [id, parentId, recordId, NodeDto.Type.ENTITY.id])
+    }
+
+    private void apply(List changes) {
+        changes.each { change -> change.statements().each { sql.execute(it as String) } }
+    }
+
+    private void insertLegacy(int id, NodeDto.Type type, Map values) {
+        def columns = [id: id, relevant: 1, status: 'OK', definition_id: '1', survey_id: 1, record_id: 1, node_type: type.id] + values
+        sql.executeInsert("INSERT INTO ofc_view_model(${columns.keySet().join(', ')}) VALUES(${columns.collect { '?' }.join(', ')})" as String,
+                columns.values() as List)
+    }
+
+    private NodeDto decode(int id) {
+        def row = sql.firstRow('SELECT node_type, CAST(val AS VARCHAR) val FROM ofc_view_model WHERE id = ?', [id])
+        def node = new NodeDto(type: NodeDto.Type.byId(row.node_type as int))
+        NodeValueCodec.decode(row.val as String, node)
+        return node
+    }
+}
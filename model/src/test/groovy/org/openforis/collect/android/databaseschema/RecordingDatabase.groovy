@@ -0,0 +1,109 @@
+package org.openforis.collect.android.databaseschema
+
+import org.openforis.collect.android.util.persistence.ConnectionCallback
+import org.openforis.collect.android.util.persistence.Database
+import org.sqlite.SQLiteDataSource
+
+import javax.sql.DataSource
+import java.lang.reflect.InvocationHandler
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Method
+import java.lang.reflect.Proxy
+import java.sql.Connection
+import java.sql.Statement
+
+/**
+ * SQLite database running callbacks in a transaction, recording the SQL of each statement prepared or executed,
+ * to have their query plans checked.
+ *
+ * @author Daniel Wiell
+ */
+class RecordingDatabase implements Database {
+    final Set<String> statements = new LinkedHashSet<String>()
+    private final DataSource dataSource
+
+    RecordingDatabase(File file) {
+        dataSource = new SQLiteDataSource(url: "jdbc:sqlite:$file.absolutePath")
+    }
+
+    DataSource dataSource() {
+        return dataSource
+    }
+
+    def <T> T execute(ConnectionCallback<T> connectionCallback) {
+        def connection = dataSource.connection
+        try {
+            connection.autoCommit = false
+            def result = connectionCallback.execute(recording(connection))
+            connection.commit()
+            return result
+        } finally {
+            connection.close()
+        }
+    }
+
+    /**
+     * The full table scans in the query plans of the recorded statements, by statement.
+     */
+    Map<String, List<String>> tableScans() {
+        statements.collectEntries { [(it): planScans(it)] }.findAll { it.value }
+    }
+
+    /**
+     * The tables scanned by any of the recorded statements.
+     */
+    Set<String> scannedTables() {
+        tableScans().values().flatten().collect { String detail ->
+            detail.replace('SCAN TABLE ', 'SCAN ').split(' ')[1]
+        } as Set
+    }
+
+    private List<String> planScans(String statement) {
+        def connection = dataSource.connection
+        try {
+            def rs = connection.createStatement().executeQuery('EXPLAIN QUERY PLAN ' + statement)
+            def scans = []
+            while (rs.next()) {
+                def detail = rs.getString('detail')
+                if (detail.startsWith('SCAN') && !detail.contains('CONSTANT ROW'))
+                    scans << detail
+            }
+            return scans
+        } finally {
+            connection.close()
+        }
+    }
+
+    private Connection recording(Connection connection) {
+        proxy(Connection, connection) { Method method, Object[] args ->
+            if (method.name == 'prepareStatement')
+                statements << (args[0] as String)
+            def result = invoke(connection, method, args)
+            return result instanceof Statement && method.name == 'createStatement'
+                    ? recording(result as Statement)
+                    : result
+        }
+    }
+
+    private Statement recording(Statement statement) {
+        proxy(Statement, statement) { Method method, Object[] args ->
+            if (method.name.startsWith('execute') && args)
+                statements << (args[0] as String)
+            return invoke(statement, method, args)
+        }
+    }
+
+    private static <T> T proxy(Class<T> type, T delegate, Closure handler) {
+        Proxy.newProxyInstance(type.classLoader, [type] as Class[], { proxy, Method method, Object[] args ->
+            handler.call(method, args)
+        } as InvocationHandler) as T
+    }
+
+    private static Object invoke(Object delegate, Method method, Object[] args) {
+        try {
+            return method.invoke(delegate, args)
+        } catch (InvocationTargetException e) {
+            throw e.cause
+        }
+    }
+}
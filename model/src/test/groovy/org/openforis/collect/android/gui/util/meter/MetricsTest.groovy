@@ -0,0 +1,84 @@
+package org.openforis.collect.android.gui.util.meter
+
+import groovy.json.JsonSlurper
+import spock.lang.Specification
+
+/**
+ * @author Daniel Wiell
+ */
+class MetricsTest extends Specification {
+    def cleanup() {
+        Metrics.enabled = true
+    }
+
+    def 'Percentiles are within bucket precision'() {
+        def histogram = new Histogram()
+        (1..10000).each { histogram.record(it * 1000L) }
+
+        when:
+        def snapshot = histogram.snapshot()
+
+        then:
+        snapshot.count == 10000
+        snapshot.max == 10000000
+        within(snapshot.percentile(50), 5000000)
+        within(snapshot.percentile(90), 9000000)
+        within(snapshot.percentile(99), 9900000)
+        snapshot.percentile(100) == 10000000
+    }
+
+    def 'Small values are counted exactly'() {
+        def histogram = new Histogram()
+        [0, 1, 2, 3].each { histogram.record(it) }
+
+        expect:
+        histogram.snapshot().percentile(50) == 1
+        histogram.snapshot().percentile(100) == 3
+    }
+
+    def 'Huge values are counted in the last bucket'() {
+        def histogram = new Histogram()
+        histogram.record(Long.MAX_VALUE)
+
+        expect:
+        histogram.snapshot().percentile(50) == Long.MAX_VALUE
+    }
+
+    def 'Timers with the same name are shared'() {
+        expect:
+        Metrics.timer(MetricsTest, 'shared').is(Metrics.timer(MetricsTest, 'shared'))
+    }
+
+    def 'Nothing is recorded when disabled'() {
+        def timer = Metrics.timer(MetricsTest, 'disabled')
+        def counter = Metrics.counter(MetricsTest, 'disabled')
+        Metrics.enabled = false
+
+        when:
+        timer.stop(timer.start())
+        counter.increment()
+
+        then:
+        timer.snapshot().count == 0
+        counter.count() == 0
+    }
+
+    def 'Snapshot is exported as JSON'() {
+        def timer = Metrics.timer(MetricsTest, 'exported')
+        timer.stop(timer.start())
+        Metrics.counter(MetricsTest, 'exported').add(3)
+        Metrics.gauge(MetricsTest, 'exported', { 42L } as Gauge)
+
+        when:
+        def json = new JsonSlurper().parseText(Metrics.snapshot().toJson())
+
+        then:
+        json.timers['MetricsTest.exported'].count == 1
+        json.counters['MetricsTest.exported'] == 3
+        json.gauges['MetricsTest.exported'] == 42
+    }
+
+    private boolean within(long value, long expected) {
+        Math.abs(value - expected) <= expected * 0.07
+    }
+}
@@ -0,0 +1,75 @@
+package org.openforis.collect.android.util.persistence
+
+import org.h2.jdbcx.JdbcDataSource
+import spock.lang.Specification
+
+/**
+ * @author Daniel Wiell
+ */
+class StatementCachingSessionTest extends Specification {
+    def dataSource = new JdbcDataSource(url: "jdbc:h2:mem:${Math.random()};DB_CLOSE_DELAY=-1", user: 'sa', password: 'sa')
+    def session = new StatementCachingSession(dataSource, 2)
+
+    def cleanup() {
+        session.close()
+    }
+
+    def 'Closed statement is reused when same SQL is prepared again'() {
+        def connection = session.connection()
+
+        when:
+        connection.prepareStatement('SELECT 1').close()
+        def ps = connection.prepareStatement('SELECT 1')
+
+        then:
+        session.statistics().hits == 1
+        session.statistics().misses == 1
+        ps.executeQuery().next()
+    }
+
+    def 'Statements are returned to cache when session is released'() {
+        def connection = session.connection()
+        connection.prepareStatement('SELECT 1')
+
+        when:
+        session.release()
+        connection.prepareStatement('SELECT 1')
+
+        then:
+        session.statistics().hits == 1
+    }
+
+    def 'Statement in use is not handed out twice'() {
+        def connection = session.connection()
+
+        when:
+        def ps1 = connection.prepareStatement('SELECT 1')
+        def ps2 = connection.prepareStatement('SELECT 1')
+
+        then:
+        !ps1.is(ps2)
+        session.statistics().misses == 2
+    }
+
+    def 'Least recently used statement is evicted when cache is full'() {
+        def connection = session.connection()
+
+        when:
+        ['SELECT 1', 'SELECT 2', 'SELECT 3'].each { connection.prepareStatement(it).close() }
+
+        then:
+        session.statistics().evictions == 1
+        session.statistics().size == 2
+    }
+
+    def 'Closing session connection keeps it open'() {
+        def connection = session.connection()
+
+        when:
+        connection.close()
+
+        then:
+        !connection.closed
+        session.connection().is(connection)
+    }
+}
@@ -4,6 +4,7 @@ import spock.lang.Specification
 
 class NodeMatrixTest extends Specification {
     def id = 0
+    def definitionByName = [:]
     def record = record()
 
     def 'Matrix for record contains one row'() {
@@ -48,6 +49,21 @@ class NodeMatrixTest extends Specification {
             matrix.rows() == [nestedEntity, nestedSibling]
     }
 
+    def 'Only stubs on the path to the entity are loaded'() {
+        def entityCollection = entityCollection()
+        def entity = entityIn(entityCollection)
+        def nestedEntity = entityIn(entity, 'nested')
+        def otherCollection = new UiEntityCollection(nextId, entity.id, true, new Definition('other', 'other', 'other', true))
+        otherCollection.loadChildrenLazily([loadChildren: { [] }, ancestorIds: { [] }] as LazyNodeLoader)
+        entity.addChild(otherCollection)
+
+        when:
+        new NodeMatrix(nestedEntity)
+
+        then:
+        !otherCollection.childrenLoaded
+    }
+
     def 'Rows for entity directly under record only contains entity'() {
         def entity = entityIn(record)
         def matrix = new NodeMatrix(entity)
@@ -94,13 +110,17 @@ class NodeMatrixTest extends Specification {
     }
 
     private UiEntity entityIn(UiInternalNode internalNode, String name = 'entity') {
-        entityIn(internalNode, new Definition(id as String, name, name, true))
+        def definition = definitionByName[name]
+        if (definition == null)
+            definition = definitionByName[name] = new Definition(nextId as String, name, name, true)
+        entityIn(internalNode, definition)
     }
 
     private UiEntity entityIn(UiInternalNode internalNode, Definition definition) {
         def id = nextId
         def entity = new UiEntity(id, true, definition)
         internalNode.addChild(entity)
+        entity.init()
         return entity
     }
 
@@ -108,6 +128,7 @@ class NodeMatrixTest extends Specification {
         def id = nextId
         def attribute = new UiTextAttribute(id, true, definition)
         entity.addChild(attribute)
+        attribute.init()
         return attribute
     }
 
@@ -121,6 +142,7 @@ class NodeMatrixTest extends Specification {
         def entityCollection = new UiEntityCollection(id, record.id, true, new Definition(id as String, name, name,
                 true))
         record.addChild(entityCollection)
+        entityCollection.init()
         return entityCollection
     }
 
@@ -0,0 +1,50 @@
+package org.openforis.collect.android.viewmodel
+
+import spock.lang.Specification
+
+class UiCodeListSearchTest extends Specification {
+    def north = new UiCode('NW', 'North-West')
+    def south = new UiCode('SW', 'South-West')
+    def northEast = new UiCode('NE', 'North East')
+    def newRegion = new UiCode('NEW', 'Newly added region')
+    def hidden = new UiCode('HID', 'Hidden value', null, false)
+    def codeList = new UiCodeList([north, south, northEast, newRegion, hidden], null)
+
+    def 'Terms match prefixes of words in value and label'() {
+        expect:
+        codeList.find(query)*.value == values
+
+        where:
+        query        | values
+        'west'       | ['NW', 'SW']
+        'WES'        | ['NW', 'SW']
+        'north-w'    | ['NW']
+        'east north' | ['NE']
+        'orth'       | []
+        'hid'        | ['HID']
+        ''           | ['NW', 'SW', 'NE', 'NEW', 'HID']
+        '   '        | ['NW', 'SW', 'NE', 'NEW', 'HID']
+    }
+
+    def 'Exact value ranks before prefix, which ranks before word prefix'() {
+        expect:
+        codeList.find('ne') == [northEast, newRegion]
+        codeList.find('new') == [newRegion]
+        codeList.find('n') == [north, northEast, newRegion]
+    }
+
+    def 'Word prefix matches rank after value and label prefix matches'() {
+        def region = new UiCode('R1', 'Region of new settlers')
+
+        expect:
+        new UiCodeList([region, newRegion], null).find('new') == [newRegion, region]
+    }
+
+    def 'Regular expression characters are matched literally'() {
+        def special = new UiCode('C1', 'Plot (a+b)')
+
+        expect:
+        new UiCodeList([special, north], null).find('a+') == [special]
+        new UiCodeList([special, north], null).find('.*') == []
+    }
+}
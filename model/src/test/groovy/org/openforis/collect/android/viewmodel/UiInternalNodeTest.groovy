@@ -0,0 +1,126 @@
+package org.openforis.collect.android.viewmodel
+
+import spock.lang.Specification
+
+class UiInternalNodeTest extends Specification {
+    def id = 0
+    def node = new UiEntity(++id, true, new Definition(id as String, 'entity', 'entity', true))
+    def first = attribute()
+    def second = attribute()
+    def third = attribute()
+
+    def 'Child index follows additions and removals'() {
+        expect:
+        [first, second, third].collect { it.indexInParent } == [0, 1, 2]
+
+        when:
+        node.removeChild(second)
+        def fourth = attribute()
+
+        then:
+        [first, third, fourth].collect { it.indexInParent } == [0, 1, 2]
+    }
+
+    def 'Relevant children follow relevance of children'() {
+        when:
+        second.relevant = false
+
+        then:
+        node.relevantChildren == [first, third]
+        third.relevantIndexInParent == 1
+        second.relevantIndexInParent == -1
+
+        when:
+        second.relevant = true
+
+        then:
+        node.relevantChildren == [first, second, third]
+        third.relevantIndexInParent == 2
+    }
+
+    def 'Relevant children are a snapshot'() {
+        def relevantChildren = node.relevantChildren
+
+        when:
+        first.relevant = false
+
+        then:
+        relevantChildren == [first, second, third]
+        node.relevantChildren == [second, third]
+    }
+
+    def 'Finds nodes by definition within the subtree, in document order'() {
+        def record = record()
+        def entityDefinition = new Definition('entity', 'entity', 'entity', true)
+        def attributeDefinition = new UiAttributeDefinition('attribute', 'attribute', 'attribute', true)
+        def entity = child(record, new UiEntity(++id, true, entityDefinition))
+        def otherEntity = child(record, new UiEntity(++id, true, entityDefinition))
+        def attribute = child(entity, new UiTextAttribute(++id, true, attributeDefinition))
+        child(otherEntity, new UiTextAttribute(++id, true, attributeDefinition))
+        def secondAttribute = child(entity, new UiTextAttribute(++id, true, attributeDefinition))
+
+        expect:
+        entity.findAllByDefinitionId('attribute') == [attribute, secondAttribute]
+        record.findAllByDefinitionId('entity', 'attribute').size() == 5
+        record.findAllByDefinitionId('entity') == [entity, otherEntity]
+        entity.findAllByDefinitionId('entity') == [entity]
+    }
+
+    def 'Removed nodes and their descendants are not found'() {
+        def record = record()
+        def entity = child(record, new UiEntity(++id, true, new Definition('entity', 'entity', 'entity', true)))
+        def attribute = child(entity, new UiTextAttribute(++id, true, new UiAttributeDefinition('attribute', 'attribute', 'attribute', true)))
+
+        when:
+        record.removeChild(entity)
+
+        then:
+        record.findAllByDefinitionId('entity', 'attribute').empty
+        record.lookupNode(attribute.id) == null
+    }
+
+    def 'Collections with the definitions are loaded when finding nodes'() {
+        def record = record()
+        def collection = new UiEntityCollection(++id, record.id, true, new Definition('collection', 'entity', 'entity', true))
+        def entity = new UiEntity(++id, true, new Definition('entity', 'entity', 'entity', true))
+        collection.loadChildrenLazily([loadChildren: { [entity] }, ancestorIds: { [] }] as LazyNodeLoader)
+        child(record, collection)
+
+        expect:
+        record.findAllByDefinitionId('collection', 'entity') == [collection, entity]
+        collection.childrenLoaded
+    }
+
+    def 'Other entities and collections are not searched'() {
+        def record = record()
+        def tab = child(record, new UiInternalNode(++id, true, new Definition('tab', 'tab', 'tab', true)))
+        def attributeDefinition = new UiAttributeDefinition('attribute', 'attribute', 'attribute', true)
+        def attribute = child(tab, new UiTextAttribute(++id, true, attributeDefinition))
+        def entity = child(record, new UiEntity(++id, true, new Definition('entity', 'entity', 'entity', true)))
+        child(entity, new UiTextAttribute(++id, true, attributeDefinition))
+        def collection = new UiEntityCollection(++id, record.id, true, new Definition('collection', 'entity', 'entity', true))
+        collection.loadChildrenLazily([loadChildren: { [] }, ancestorIds: { [] }] as LazyNodeLoader)
+        child(record, collection)
+
+        expect:
+        record.findAllByDefinitionId('attribute') == [attribute]
+        !collection.childrenLoaded
+    }
+
+    private UiRecord record() {
+        def definition = new Definition('record', 'record', 'record', true)
+        new UiRecord(++id, definition, null, new UiRecord.Placeholder(id, null, null, definition, [], new Date(), new Date()))
+    }
+
+    private <T extends UiNode> T child(UiInternalNode parent, T child) {
+        parent.addChild(child)
+        child.init()
+        return child
+    }
+
+    private UiAttribute attribute() {
+        def attribute = new UiTextAttribute(++id, true, new UiAttributeDefinition(id as String, 'attribute', 'attribute', true))
+        node.addChild(attribute)
+        return attribute
+    }
+}
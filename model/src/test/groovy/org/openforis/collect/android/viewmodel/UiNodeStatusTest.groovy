@@ -0,0 +1,141 @@
+package org.openforis.collect.android.viewmodel
+
+import spock.lang.Specification
+
+import static org.openforis.collect.android.viewmodel.UiNode.Status.*
+
+class UiNodeStatusTest extends Specification {
+    def id = 0
+    def recordCollection = new UiRecordCollection(++id, new Definition(id as String, 'records', 'records', true))
+    def record = record()
+    def entityCollection = entityCollection()
+    def entity = entityIn(entityCollection)
+    def attribute = attributeIn(entity)
+    def sibling = attributeIn(entity)
+
+    def 'Ancestors of changed nodes are updated once, deepest first'() {
+        attribute.status = VALIDATION_ERROR
+        sibling.status = VALIDATION_WARNING
+
+        when:
+        def updated = UiNode.updateStatusOfParents([attribute, sibling])
+
+        then:
+        updated as List == [entity, entityCollection, record]
+        entity.status == VALIDATION_ERROR
+        record.status == VALIDATION_ERROR
+    }
+
+    def 'Propagation stops at the record, updating its placeholder'() {
+        attribute.status = VALIDATION_ERROR
+
+        when:
+        UiNode.updateStatusOfParents([attribute])
+
+        then:
+        recordCollection.getChildById(record.id).status == VALIDATION_ERROR
+        recordCollection.status == OK
+    }
+
+    def 'Propagation stops at ancestors with unchanged status'() {
+        attribute.status = VALIDATION_ERROR
+        sibling.status = VALIDATION_ERROR
+        UiNode.updateStatusOfParents([attribute, sibling])
+        sibling.status = OK
+
+        expect:
+        UiNode.updateStatusOfParents([sibling]).empty
+    }
+
+    def 'Irrelevant children do not affect the status of parent'() {
+        attribute.status = VALIDATION_ERROR
+        attribute.relevant = false
+
+        expect:
+        UiNode.updateStatusOfParents([attribute]).empty
+        entity.status == OK
+    }
+
+    def 'Parent status follows relevance and removal of children'() {
+        attribute.status = VALIDATION_ERROR
+        UiNode.updateStatusOfParents([attribute])
+
+        when:
+        attribute.relevant = false
+        UiNode.updateStatusOfParents([attribute])
+
+        then:
+        entity.status == OK
+
+        when:
+        attribute.relevant = true
+        sibling.status = VALIDATION_WARNING
+        entity.removeChild(attribute)
+        UiNode.updateStatusOfParents([sibling])
+
+        then:
+        entity.status == VALIDATION_WARNING
+    }
+
+    def 'Parent status follows validation status of children'() {
+        attribute.updateStatus([new UiValidationError('error', UiValidationError.Level.ERROR, attribute)] as Set)
+        UiNode.updateStatusOfParents([attribute])
+
+        expect:
+        entity.status == VALIDATION_ERROR
+
+        when:
+        attribute.updateStatus([] as Set)
+        UiNode.updateStatusOfParents([attribute])
+
+        then:
+        entity.status == OK
+    }
+
+    def 'Tab is relevant while any child is relevant'() {
+        def tab = new UiInternalNode(++id, true, new Definition(id as String, 'tab', 'tab', true))
+        entity.addChild(tab)
+        def tabAttribute = attributeIn(tab)
+        tabAttribute.status = VALIDATION_ERROR
+        UiNode.updateStatusOfParents([tabAttribute])
+
+        when:
+        tabAttribute.relevant = false
+
+        then:
+        !tab.relevant
+        entity.worstRelevantChildStatus == OK
+
+        when:
+        tabAttribute.relevant = true
+
+        then:
+        tab.relevant
+        entity.worstRelevantChildStatus == VALIDATION_ERROR
+    }
+
+    private UiEntity entityIn(UiInternalNode internalNode) {
+        def entity = new UiEntity(++id, true, new Definition(id as String, 'entity', 'entity', true))
+        internalNode.addChild(entity)
+        return entity
+    }
+
+    private UiAttribute attributeIn(UiInternalNode entity) {
+        def attribute = new UiTextAttribute(++id, true, new UiAttributeDefinition(id as String, 'attribute', 'attribute', true))
+        entity.addChild(attribute)
+        return attribute
+    }
+
+    private UiEntityCollection entityCollection() {
+        def entityCollection = new UiEntityCollection(++id, record.id, true,
+                new Definition(id as String, 'entityCollection', 'entityCollection', true))
+        record.addChild(entityCollection)
+        return entityCollection
+    }
+
+    private UiRecord record() {
+        def definition = new Definition(++id as String, 'record', 'record', true)
+        recordCollection.addChild(new UiRecord.Placeholder(id, OK, 'records', definition, [], new Date(), new Date()))
+        new UiRecord(id, definition, recordCollection)
+    }
+}
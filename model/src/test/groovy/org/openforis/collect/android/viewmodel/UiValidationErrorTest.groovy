@@ -0,0 +1,29 @@
+package org.openforis.collect.android.viewmodel
+
+import spock.lang.Specification
+
+import static org.openforis.collect.android.viewmodel.UiValidationError.Level.ERROR
+
+class UiValidationErrorTest extends Specification {
+    def message = Mock(UiValidationError.Message)
+
+    def 'Message is rendered when first displayed, and only once'() {
+        def error = new UiValidationError(message, ERROR, null)
+
+        when:
+        error.toString()
+        def rendered = error.toString()
+
+        then:
+        1 * message.render() >> 'The message'
+        rendered == 'The message'
+    }
+
+    def 'Message is not rendered unless displayed'() {
+        when:
+        new UiValidationError(message, ERROR, null)
+
+        then:
+        0 * message.render()
+    }
+}
@@ -1,8 +1,9 @@
 package org.openforis.collect.android.viewmodelmanager
 
+import groovy.sql.Sql
 import spock.lang.Specification
 
-import static org.openforis.collect.android.viewmodelmanager.NodeDto.Type.RECORD
+import static org.openforis.collect.android.viewmodelmanager.NodeDto.Type.*
 
 /**
  * @author Daniel Wiell
@@ -28,4 +29,133 @@ class DataSourceNodeRepositoryTest extends Specification {
         nodes.rootNode.recordId == 3
         nodes.rootNode.recordCollectionName == 'name'
     }
+
+    def 'Can load child nodes by parent ids'() {
+        repo.insert([record(), entity(4, 1), entity(5, 1), entity(6, 4)], [:])
+
+        when:
+        def nodes = repo.childNodes([1, 4])
+
+        then:
+        nodes.childrenOf(1)*.id == [4, 5]
+        nodes.childrenOf(4)*.id == [6]
+    }
+
+    def 'IN-lists of any length share a few statement shapes'() {
+        expect:
+        (1..500).collect { DataSourceNodeRepository.inListPlaceholders(it) }.toSet().size() == 4
+    }
+
+    def 'Ancestor ids start with the root'() {
+        repo.insert([record(), entity(4, 1), entity(6, 4)], [:])
+
+        expect:
+        repo.ancestorIds(6) == [1, 4]
+        repo.ancestorIds(1) == []
+        repo.ancestorIds(99) == []
+    }
+
+    def 'Status changes are persisted'() {
+        repo.insert([record(), entity(4, 1), entity(5, 1), entity(6, 4)], [:])
+
+        when:
+        repo.update(entity(6, 4), [
+                4: new StatusChange('VALIDATION_ERROR', true),
+                5: new StatusChange('VALIDATION_ERROR', true),
+                6: new StatusChange('EMPTY', false)])
+
+        then:
+        [4, 5, 6].collect { repo.node(it).status } == ['VALIDATION_ERROR', 'VALIDATION_ERROR', 'EMPTY']
+        [4, 5, 6].collect { repo.node(it).relevant } == [true, true, false]
+    }
+
+    def 'Survey records include key attributes'() {
+        repo.insert([summarisedRecord(10), key(11, 10, 'key 1'), key(12, 10, 'key 2'), entity(13, 10, 10)], [:])
+
+        when:
+        def records = repo.surveyRecords(2)
+
+        then:
+        records.childrenOf(null)*.id == [10]
+        records.childrenOf(10)*.id == [11, 12]
+        records.childrenOf(10)*.text == ['key 1', 'key 2']
+        summary(10).node_count == 4
+    }
+
+    def 'Record summary follows updates'() {
+        def keyAttribute = key(11, 10, 'old')
+        repo.insert([summarisedRecord(10), keyAttribute, entity(12, 10, 10)], [:])
+        keyAttribute.text = 'new'
+        def modifiedOn = new Date(123456789000)
+
+        when:
+        repo.update(keyAttribute, [10: new StatusChange('ERROR', true)])
+        repo.updateModifiedOn(new NodeDto(id: 10, modifiedOn: modifiedOn))
+        repo.removeAll([12], [:])
+
+        then:
+        def records = repo.surveyRecords(2)
+        def record = records.childrenOf(null).first()
+        record.status == 'ERROR'
+        record.modifiedOn.time == modifiedOn.time
+        records.childrenOf(10)*.text == ['new']
+        summary(10).node_count == 2
+    }
+
+    def 'Removing record removes summary'() {
+        repo.insert([summarisedRecord(10), key(11, 10, 'key')], [:])
+
+        when:
+        repo.removeRecord(10)
+
+        then:
+        repo.surveyRecords(2).childrenOf(null).empty
+    }
+
+    def 'Keys not yet summarised are collected when listing'() {
+        repo.insert([summarisedRecord(10), key(11, 10, 'key')], [:])
+        sql().executeUpdate('UPDATE ofc_record_summary SET key_values = NULL')
+
+        expect:
+        repo.surveyRecords(2).childrenOf(10)*.text == ['key']
+        summary(10).key_values != null
+    }
+
+    def 'Listed keys do not take the status of the record'() {
+        def record = summarisedRecord(10)
+        record.status = 'VALIDATION_ERROR'
+        repo.insert([record, key(11, 10, 'key')], [:])
+
+        when:
+        def records = repo.surveyRecords(2)
+
+        then:
+        records.childrenOf(null).first().status == 'VALIDATION_ERROR'
+        records.childrenOf(10).first().status == null
+    }
+
+    private Map summary(int recordId) {
+        sql().firstRow('SELECT node_count, CAST(key_values AS VARCHAR) key_values FROM ofc_record_summary WHERE record_id = ?', [recordId])
+    }
+
+    private Sql sql() {
+        new Sql(database.dataSource())
+    }
+
+    private NodeDto summarisedRecord(int id) {
+        new NodeDto(id: id, status: 'OK', definitionId: 'record', surveyId: 2, recordId: id, recordCollectionName: 'name', type: RECORD)
+    }
+
+    private NodeDto key(int id, int recordId, String text) {
+        new NodeDto(id: id, parentId: recordId, parentEntityId: recordId, status: 'OK', relevant: true, definitionId: "key $id",
+                surveyId: 2, recordId: recordId, recordKeyAttribute: true, type: TEXT_ATTRIBUTE, text: text)
+    }
+
+    private NodeDto record() {
+        new NodeDto(id: 1, status: 'OK', definitionId: 'record', surveyId: 2, recordId: 3, recordCollectionName: 'name', type: RECORD)
+    }
+
+    private NodeDto entity(int id, int parentId, int recordId = 3) {
+        new NodeDto(id: id, parentId: parentId, status: 'OK', definitionId: 'entity', surveyId: 2, recordId: recordId, type: ENTITY)
+    }
 }
@@ -0,0 +1,71 @@
+package org.openforis.collect.android.viewmodelmanager
+
+import groovy.sql.Sql
+import org.h2.jdbcx.JdbcDataSource
+import org.openforis.collect.android.IdGenerator
+import org.openforis.collect.android.databaseschema.NodeDatabaseSchemaChangeLog
+import org.openforis.collect.android.util.persistence.ConnectionCallback
+import org.openforis.collect.android.util.persistence.Database
+import spock.lang.Specification
+
+import javax.sql.DataSource
+
+/**
+ * @author Daniel Wiell
+ */
+class NodeIdSequenceTest extends Specification {
+    def firstDatabase = new NodeDatabase()
+    def secondDatabase = new NodeDatabase()
+
+    def setup() {
+        firstDatabase.sql.execute("UPDATE ofc_id_sequence SET next_id = 501 WHERE name = 'node'")
+    }
+
+    def 'Ids are generated per node database'() {
+        def first = new IdGenerator(new NodeIdSequence(firstDatabase))
+        def second = new IdGenerator(new NodeIdSequence(secondDatabase))
+
+        expect:
+        first.nextId() == 501
+        second.nextId() == 1
+        first.nextId() == 502
+        second.nextId() == 2
+    }
+
+    def 'Generator continues the sequence of its database, skipping ids reserved before'() {
+        new IdGenerator(new NodeIdSequence(firstDatabase)).nextId()
+        new IdGenerator(new NodeIdSequence(secondDatabase)).nextId()
+
+        expect:
+        new IdGenerator(new NodeIdSequence(firstDatabase)).nextId() == 1501
+        new IdGenerator(new NodeIdSequence(secondDatabase)).nextId() == 1001
+    }
+
+    private static class NodeDatabase implements Database {
+        private final DataSource dataSource = new JdbcDataSource(
+                url: "jdbc:h2:mem:${Math.random()};DB_CLOSE_DELAY=-1", user: 'sa', password: 'sa')
+
+        NodeDatabase() {
+            def sql = getSql()
+            for (change in new NodeDatabaseSchemaChangeLog().changes())
+                for (statement in change.statements())
+                    sql.execute(statement as String)
+        }
+
+        Sql getSql() {
+            new Sql(dataSource)
+        }
+
+        DataSource dataSource() {
+            return dataSource
+        }
+
+        def <T> T execute(ConnectionCallback<T> connectionCallback) {
+            T result = null
+            new Sql(dataSource).withTransaction {
+                result = connectionCallback.execute(it)
+            }
+            return result
+        }
+    }
+}
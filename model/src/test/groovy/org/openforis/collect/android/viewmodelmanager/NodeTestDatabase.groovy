@@ -13,7 +13,7 @@ import javax.sql.DataSource
  * @author Daniel Wiell
  */
 class NodeTestDatabase implements Database {
-    private static final String RESET_SCRIPT = "delete from ofc_view_model;"
+    private static final String RESET_SCRIPT = "delete from ofc_view_model; delete from ofc_record_summary;"
     private static final String URL = "jdbc:h2:mem:nodes;DB_CLOSE_DELAY=-1"
 
     private static boolean initialized
@@ -0,0 +1,49 @@
+package org.openforis.collect.android.viewmodelmanager
+
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import static org.openforis.collect.android.viewmodelmanager.NodeDto.Type.*
+
+/**
+ * @author Daniel Wiell
+ */
+class NodeValueCodecTest extends Specification {
+    @Unroll
+    def '#type value survives encoding'() {
+        def node = new NodeDto([type: type] + values)
+
+        when:
+        def decoded = new NodeDto(type: type)
+        NodeValueCodec.decode(NodeValueCodec.encode(node), decoded)
+
+        then:
+        values.each { field, value -> assert decoded[field] == value }
+
+        where:
+        type                    | values
+        BOOLEAN_ATTRIBUTE       | [booleanValue: false]
+        CODE_ATTRIBUTE          | [codeValue: '001', codeQualifier: null, codeLabel: 'Label: with - separators']
+        COORDINATE_ATTRIBUTE    | [x: 12.5d, y: -1.0E-7d, srs: 'EPSG:4326']
+        DATE_ATTRIBUTE          | [date: new Date(1400000000000)]
+        DOUBLE_ATTRIBUTE        | [doubleValue: 0.1d]
+        DOUBLE_RANGE_ATTRIBUTE  | [doubleFrom: null, doubleTo: 3d]
+        FILE_ATTRIBUTE          | [file: new File('/some/file.jpg')]
+        INTEGER_ATTRIBUTE       | [intValue: -42]
+        INTEGER_RANGE_ATTRIBUTE | [intFrom: 1, intTo: 10]
+        TAXON_ATTRIBUTE         | [taxonCode: 'PIN', taxonScientificName: 'Pinus 𝒜 sp.']
+        TEXT_ATTRIBUTE          | [text: '']
+        TIME_ATTRIBUTE          | [hour: 9, minute: 5]
+    }
+
+    def 'Attribute without value is encoded as null'() {
+        expect:
+        NodeValueCodec.encode(new NodeDto(type: CODE_ATTRIBUTE)) == null
+        NodeValueCodec.encode(new NodeDto(type: TEXT_ATTRIBUTE)) == null
+    }
+
+    def 'Nodes other than attributes have no value'() {
+        expect:
+        NodeValueCodec.encode(new NodeDto(type: ENTITY, text: 'ignored')) == null
+    }
+}
@@ -0,0 +1,116 @@
+package org.openforis.collect.android.viewmodelmanager
+
+import org.openforis.collect.android.DefinitionProvider
+import org.openforis.collect.android.viewmodel.*
+import spock.lang.IgnoreIf
+import spock.lang.Specification
+
+import java.lang.management.ManagementFactory
+
+import static org.openforis.collect.android.viewmodelmanager.NodeDto.Type.*
+import static org.openforis.collect.android.viewmodelmanager.ViewModelRepository.DatabaseViewModelRepository
+
+/**
+ * Reports time and bytes allocated per node when loading a large record.
+ * Only runs when the benchmark system property is set: gradle :model:test -Pbenchmark --tests '*RecordLoadingBenchmark'
+ *
+ * @author Daniel Wiell
+ */
+@IgnoreIf({ !System.getProperty('benchmark') })
+class RecordLoadingBenchmark extends Specification {
+    static final int ENTITIES = 5000
+    static final int ATTRIBUTES_PER_ENTITY = 9
+    static final int RECORD_ID = 1000000
+    static final int WARM_UP_ITERATIONS = 3
+
+    def database = new NodeTestDatabase()
+    def nodeRepository = new DataSourceNodeRepository(database)
+    def definitions = new DefinitionProviderStub()
+    def nodeCount
+
+    def setup() {
+        def nodes = recordNodes()
+        nodeCount = nodes.size()
+        nodeRepository.insert(nodes, [:])
+    }
+
+    def cleanup() {
+        database.reset()
+    }
+
+    def 'Decoding record nodes'() {
+        expect:
+        report('NodeRepository.recordNodes') { nodeRepository.recordNodes(RECORD_ID) }
+    }
+
+    def 'Loading record'() {
+        def repo = new DatabaseViewModelRepository(definitions, nodeRepository)
+
+        expect:
+        report('ViewModelRepository.recordById') { repo.recordById(definitions.survey, RECORD_ID) }
+    }
+
+    def 'Loading record lazily'() {
+        def repo = new DatabaseViewModelRepository(definitions, nodeRepository, true)
+
+        expect:
+        report('ViewModelRepository.recordById (lazy)') { repo.recordById(definitions.survey, RECORD_ID) }
+    }
+
+    private boolean report(String name, Closure load) {
+        WARM_UP_ITERATIONS.times { load() }
+        def threadBean = ManagementFactory.threadMXBean as com.sun.management.ThreadMXBean
+        def threadId = Thread.currentThread().id
+        def bytesBefore = threadBean.getThreadAllocatedBytes(threadId)
+        def start = System.nanoTime()
+        def result = load()
+        def millis = (System.nanoTime() - start) / 1000000
+        def bytes = threadBean.getThreadAllocatedBytes(threadId) - bytesBefore
+        println "$name: $nodeCount nodes in $millis ms, ${bytes.intdiv(nodeCount)} bytes allocated per node"
+        return result != null
+    }
+
+    private List<NodeDto> recordNodes() {
+        def id = RECORD_ID
+        def nodes = [node(id, null, definitions.record, RECORD)]
+        def collectionId = ++id
+        nodes << node(collectionId, RECORD_ID, definitions.entityCollection, ENTITY_COLLECTION)
+        ENTITIES.times {
+            def entityId = ++id
+            nodes << node(entityId, collectionId, definitions.entity, ENTITY)
+            ATTRIBUTES_PER_ENTITY.times {
+                def attribute = node(++id, entityId, definitions.attribute, TEXT_ATTRIBUTE)
+                attribute.text = "Value $id"
+                nodes << attribute
+            }
+        }
+        return nodes
+    }
+
+    private NodeDto node(int id, Integer parentId, Definition definition, NodeDto.Type type) {
+        new NodeDto(id: id, parentId: parentId, parentEntityId: parentId, status: 'OK', relevant: true,
+                definitionId: definition.id, surveyId: definitions.survey.id, recordId: RECORD_ID,
+                recordCollectionName: 'records', type: type)
+    }
+
+    private static class DefinitionProviderStub implements DefinitionProvider {
+        final record = new Definition('1', 'record', 'Record', false)
+        final entityCollection = new Definition('2', 'trees', 'Trees', false)
+        final entity = new Definition('3', 'tree', 'Tree', false)
+        final attribute = new UiAttributeDefinition('4', 'species', 'Species', false)
+        final survey = createSurvey()
+
+        Definition getById(String definitionId) {
+            [record, entityCollection, entity, attribute].find { it.id == definitionId }
+        }
+
+        private UiSurvey createSurvey() {
+            def survey = new UiSurvey(1, new Definition('0', 'survey', 'Survey', false))
+            def recordCollection = new UiRecordCollection(2, new Definition('records', 'records', 'Records', false))
+            survey.addChild(recordCollection)
+            recordCollection.addChild(new UiRecord.Placeholder(RECORD_ID, UiNode.Status.OK, 'records', record,
+                    [], new Date(), new Date()))
+            return survey
+        }
+    }
+}
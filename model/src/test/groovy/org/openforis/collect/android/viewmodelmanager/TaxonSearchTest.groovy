@@ -0,0 +1,139 @@
+package org.openforis.collect.android.viewmodelmanager
+
+import org.openforis.collect.android.viewmodel.UiTaxon
+import spock.lang.Specification
+
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+
+class TaxonSearchTest extends Specification {
+    static final int MAX_RESULTS = 3
+    def taxonService = Mock(TaxonService)
+    def executor = Executors.newSingleThreadScheduledExecutor()
+    def search = new TaxonSearch(taxonService, 'trees', MAX_RESULTS, executor, 50)
+
+    def oak = new UiTaxon('QUE/ROB', 'Quercus robur', ['English oak', 'Pedunculate oak'])
+    def redOak = new UiTaxon('QUE/RUB', 'Quercus rubra', ['Red oak'])
+    def larch = new UiTaxon('LAR/DEC', 'Larix decidua', [])
+
+    def cleanup() {
+        executor.shutdownNow()
+    }
+
+    def 'Searches the taxon service'() {
+        when:
+        def result = search.search('qu').get()
+
+        then:
+        1 * taxonService.find('qu', 'trees', MAX_RESULTS) >> matches(oak, redOak)
+        result == [oak, redOak]
+    }
+
+    def 'Superseded query is cancelled before hitting the taxon service'() {
+        def superseded = search.search('q')
+
+        when:
+        def result = search.search('l').get()
+
+        then:
+        1 * taxonService.find('l', 'trees', MAX_RESULTS) >> matches(larch)
+        0 * taxonService.find('q', _, _)
+        result == [larch]
+        superseded.cancelled
+
+        when:
+        superseded.get()
+
+        then:
+        thrown CancellationException
+    }
+
+    def 'Results of query superseded while running are discarded'() {
+        def running = new CountDownLatch(1)
+        def release = new CountDownLatch(1)
+        taxonService.find('q', _, _) >> {
+            running.countDown()
+            release.await()
+            matches(oak)
+        }
+        taxonService.find('l', _, _) >> matches(larch)
+        def superseded = search.search('q')
+        running.await()
+
+        when:
+        def next = search.search('l')
+        release.countDown()
+
+        then:
+        superseded.cancelled
+        next.get() == [larch]
+    }
+
+    def 'Searching for the pending query returns the pending search'() {
+        expect:
+        search.search('q').is(search.search('q'))
+    }
+
+    def 'Query extending a complete previous result filters it'() {
+        taxonService.find('q', _, _) >> matches(oak, redOak)
+        search.search('q').get()
+
+        when:
+        def result = search.search('quercus rub').get()
+
+        then:
+        0 * taxonService.find('quercus rub', _, _)
+        result == [redOak]
+    }
+
+    def 'Vernacular names not matching the extended query are left out'() {
+        taxonService.find('o', _, _) >> matches(oak, redOak)
+        search.search('o').get()
+
+        when:
+        def result = search.search('oak ped').get()
+
+        then:
+        result.size() == 1
+        result.first().commonNames == ['Pedunculate oak']
+    }
+
+    def 'Query extending a truncated previous result hits the taxon service'() {
+        taxonService.find('q', _, _) >> new TaxonMatches([oak, redOak], true)
+        search.search('q').get()
+
+        when:
+        search.search('qu').get()
+
+        then:
+        1 * taxonService.find('qu', 'trees', MAX_RESULTS) >> matches(oak, redOak)
+    }
+
+    def 'Query extending a complete previous result of max results filters it'() {
+        taxonService.find('l', _, _) >> matches(oak, redOak, larch)
+        search.search('l').get()
+
+        when:
+        def result = search.search('la').get()
+
+        then:
+        0 * taxonService.find('la', _, _)
+        result == [larch]
+    }
+
+    def 'Query not extending the previous one hits the taxon service'() {
+        taxonService.find('qu', _, _) >> matches(oak, redOak)
+        search.search('qu').get()
+
+        when:
+        search.search('q').get()
+
+        then:
+        1 * taxonService.find('q', 'trees', MAX_RESULTS) >> matches(oak, redOak)
+    }
+
+    private TaxonMatches matches(UiTaxon... taxa) {
+        new TaxonMatches(taxa as List, false)
+    }
+}
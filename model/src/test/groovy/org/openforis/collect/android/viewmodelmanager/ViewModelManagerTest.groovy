@@ -4,7 +4,7 @@ import org.openforis.collect.android.viewmodel.*
 import spock.lang.Specification
 
 import static java.lang.String.valueOf
-import static org.openforis.collect.android.IdGenerator.nextId
+import static org.openforis.collect.android.TestIds.nextId
 import static org.openforis.collect.android.viewmodel.UiNode.Status.*
 import static org.openforis.collect.android.viewmodel.UiValidationError.Level.ERROR
 import static org.openforis.collect.android.viewmodel.UiValidationError.Level.WARNING
@@ -1,7 +1,8 @@
 package org.openforis.collect.android.viewmodelmanager
 
+import groovy.sql.Sql
 import org.openforis.collect.android.DefinitionProvider
-import org.openforis.collect.android.IdGenerator
+import org.openforis.collect.android.TestIds
 import org.openforis.collect.android.viewmodel.*
 import spock.lang.Specification
 
@@ -15,6 +16,7 @@ class ViewModelRepositoryTest extends Specification {
     def nodes = new DefinitionProviderStub()
     def database = new NodeTestDatabase()
     def repo = new DatabaseViewModelRepository(nodes, new DataSourceNodeRepository(database))
+    def lazyRepo = new DatabaseViewModelRepository(nodes, new DataSourceNodeRepository(database), true)
 
     def cleanup() {
         database.reset()
@@ -95,6 +97,83 @@ class ViewModelRepositoryTest extends Specification {
         records.size() == 1
     }
 
+    def 'Entities of lazily loaded entity collection are loaded when accessed'() {
+        def record = nodes.addRecord()
+        def entityCollection = nodes.addEntityCollection(record)
+        def entity = nodes.addEntity(entityCollection)
+        def attribute = nodes.addTextAttribute(entity)
+        attribute.text = 'The text'
+        repo.insertRecord(record)
+
+        when:
+        def loadedRecord = lazyRepo.recordById(nodes.survey, record.id)
+        def loadedEntityCollection = loadedRecord.firstChild as UiEntityCollection
+
+        then:
+        !loadedEntityCollection.childrenLoaded
+        loadedEntityCollection.childCount == 1
+        loadedEntityCollection.childrenLoaded
+        assertEquals(entity, loadedEntityCollection.firstChild as UiEntity)
+    }
+
+    def 'Looking up node in lazily loaded entity collection loads the collection'() {
+        def record = nodes.addRecord()
+        def entityCollection = nodes.addEntityCollection(record)
+        def entity = nodes.addEntity(entityCollection)
+        def attribute = nodes.addTextAttribute(entity)
+        attribute.text = 'The text'
+        repo.insertRecord(record)
+
+        when:
+        def loadedRecord = lazyRepo.recordById(nodes.survey, record.id)
+        def loadedAttribute = loadedRecord.lookupNode(attribute.id) as UiTextAttribute
+
+        then:
+        loadedAttribute.text == 'The text'
+        (loadedRecord.firstChild as UiEntityCollection).childrenLoaded
+    }
+
+    def 'Full record is loaded at once in lazy mode, without changing the record placeholder'() {
+        def record = nodes.addRecord()
+        def entityCollection = nodes.addEntityCollection(record)
+        def entity = nodes.addEntity(entityCollection)
+        nodes.addTextAttribute(entity)
+        repo.insertRecord(record)
+        def placeholder = nodes.recordCollection.getChildById(record.id) as UiRecord.Placeholder
+        def keyAttributes = placeholder.@keyAttributes
+
+        when:
+        def loadedRecord = lazyRepo.fullRecordById(nodes.survey, record.id)
+        def loadedEntityCollection = loadedRecord.firstChild as UiEntityCollection
+
+        then:
+        loadedEntityCollection.childrenLoaded
+        assertEquals(entity, loadedEntityCollection.firstChild as UiEntity)
+        placeholder.@keyAttributes.is(keyAttributes)
+    }
+
+    def 'Stubs of a record loaded in full are loaded from its nodes, until the record is changed'() {
+        def record = nodes.addRecord()
+        def entityCollection = nodes.addEntityCollection(record)
+        def entity = nodes.addEntity(entityCollection)
+        nodes.addTextAttribute(entity)
+        repo.insertRecord(record)
+        lazyRepo.fullRecordById(nodes.survey, record.id)
+        deleteChildNodes(entityCollection)
+
+        expect: 'The deleted entity is not read again'
+        (lazyRepo.recordById(nodes.survey, record.id).firstChild as UiEntityCollection).childCount == 1
+
+        when:
+        lazyRepo.updateRecordModifiedOn(record)
+
+        then:
+        (lazyRepo.recordById(nodes.survey, record.id).firstChild as UiEntityCollection).childCount == 0
+    }
+
+    private void deleteChildNodes(UiNode parent) {
+        new Sql(database.dataSource()).execute('DELETE FROM ofc_view_model WHERE parent_id = ?', [parent.id])
+    }
 
     private void assertEquals(UiNode n, UiNode n2) {
         n2.with {
@@ -112,8 +191,8 @@ class ViewModelRepositoryTest extends Specification {
     }
 
     private class DefinitionProviderStub implements DefinitionProvider {
-        public static final int SURVEY_ID = IdGenerator.nextId()
-        public static final int RECORD_COLLECTION_ID = IdGenerator.nextId()
+        public static final int SURVEY_ID = TestIds.nextId()
+        public static final int RECORD_COLLECTION_ID = TestIds.nextId()
 
         private final definitionById = [:]
         final survey = createSurvey()
@@ -125,40 +204,40 @@ class ViewModelRepositoryTest extends Specification {
 
         UiRecord addRecord() {
             def definition = definition('record', 'Record')
-            def record = new UiRecord(IdGenerator.nextId(), definition, recordCollection)
+            def record = new UiRecord(TestIds.nextId(), definition, recordCollection)
             survey.addRecord(record)
             return record
         }
 
         private Definition definition(String name, String label) {
-            def definition = new Definition(IdGenerator.nextId().toString(), name, label, false)
+            def definition = new Definition(TestIds.nextId().toString(), name, label, false)
             definitionById[definition.id] = definition
             return definition
         }
 
         private Definition attributeDefinition(String name, String label) {
-            def definition = new UiAttributeDefinition(IdGenerator.nextId().toString(), name, label, false)
+            def definition = new UiAttributeDefinition(TestIds.nextId().toString(), name, label, false)
             definitionById[definition.id] = definition
             return definition
         }
 
         UiEntity addEntity(UiInternalNode parent) {
             def definition = definition('entity', 'Entity')
-            def entity = new UiEntity(IdGenerator.nextId(), true, definition)
+            def entity = new UiEntity(TestIds.nextId(), true, definition)
             parent.addChild(entity)
             return entity
         }
 
         UiEntityCollection addEntityCollection(UiEntity parent) {
             def definition = definition('entity-collection', 'Entity Collection')
-            def entityCollection = new UiEntityCollection(IdGenerator.nextId(), parent.id, true, definition)
+            def entityCollection = new UiEntityCollection(TestIds.nextId(), parent.id, true, definition)
             parent.addChild(entityCollection)
             return entityCollection
         }
 
         UiTextAttribute addTextAttribute(UiEntity entity) {
             def definition = attributeDefinition('text-uiAttribute', 'Text Attribute')
-            def attribute = new UiTextAttribute(IdGenerator.nextId(), true, definition)
+            def attribute = new UiTextAttribute(TestIds.nextId(), true, definition)
             entity.addChild(attribute)
             return attribute
         }
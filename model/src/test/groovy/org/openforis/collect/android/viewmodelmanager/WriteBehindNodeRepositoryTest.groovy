@@ -0,0 +1,144 @@
+package org.openforis.collect.android.viewmodelmanager
+
+import spock.lang.Specification
+
+import static org.openforis.collect.android.viewmodelmanager.NodeDto.Type.RECORD
+import static org.openforis.collect.android.viewmodelmanager.NodeDto.Type.TEXT_ATTRIBUTE
+
+/**
+ * @author Daniel Wiell
+ */
+class WriteBehindNodeRepositoryTest extends Specification {
+    def database = new NodeTestDatabase()
+    def journalFile = File.createTempFile('nodes', '.journal')
+    def dataSourceRepo = new DataSourceNodeRepository(database)
+    def repo = new WriteBehindNodeRepository(dataSourceRepo, new NodeJournal(journalFile), 60 * 1000)
+
+    def setup() {
+        dataSourceRepo.insert([record(), attribute('initial')], [:])
+    }
+
+    def cleanup() {
+        repo.close()
+        journalFile.delete()
+        database.reset()
+    }
+
+    def 'Updates are not written until flushed'() {
+        when:
+        repo.update(attribute('updated'), [:])
+
+        then:
+        text(dataSourceRepo.recordNodes(3)) == 'initial'
+
+        when:
+        repo.flush()
+
+        then:
+        text(dataSourceRepo.recordNodes(3)) == 'updated'
+    }
+
+    def 'Loading record nodes flushes pending updates'() {
+        repo.update(attribute('updated'), [:])
+
+        expect:
+        text(repo.recordNodes(3)) == 'updated'
+    }
+
+    def 'Status change of updated node is applied to the pending node'() {
+        repo.update(attribute('updated'), [:])
+        repo.update(record(), [2: new StatusChange('VALIDATION_ERROR', false)])
+
+        when:
+        repo.flush()
+
+        then:
+        def attribute = dataSourceRepo.recordNodes(3).childrenOf(1).first()
+        attribute.status == 'VALIDATION_ERROR'
+        !attribute.relevant
+    }
+
+    def 'Journaled updates are written when repository is created after a crash'() {
+        repo.update(attribute('journaled'), [:])
+
+        when:
+        new WriteBehindNodeRepository(dataSourceRepo, new NodeJournal(journalFile), 60 * 1000)
+
+        then:
+        text(dataSourceRepo.recordNodes(3)) == 'journaled'
+    }
+
+    def 'Journaled status changes are written when repository is created after a crash'() {
+        repo.update(attribute('journaled'), [1: new StatusChange('VALIDATION_ERROR', true)])
+
+        when:
+        new WriteBehindNodeRepository(dataSourceRepo, new NodeJournal(journalFile), 60 * 1000)
+
+        then:
+        def nodes = dataSourceRepo.recordNodes(3)
+        text(nodes) == 'journaled'
+        nodes.rootNode.status == 'VALIDATION_ERROR'
+    }
+
+    def 'Update is journaled as a single entry, so a torn append drops the node and its status changes together'() {
+        def journal = new NodeJournal(journalFile)
+        journal.appendUpdate(attribute('updated'), [1: new StatusChange('VALIDATION_ERROR', true)])
+        journal.close()
+        def visited = []
+
+        when:
+        new RandomAccessFile(journalFile, 'rw').withCloseable { it.setLength(it.length() - 1) }
+        journal.replay([
+                node        : { visited << it },
+                statusChange: { id, change -> visited << change },
+                modifiedOn  : { id, date -> visited << date }
+        ] as NodeJournal.Visitor)
+
+        then:
+        visited.empty
+    }
+
+    def 'Flush fails when the journal cannot be truncated, and truncation is retried by the next flush'() {
+        def failTruncation = true
+        def journal = new NodeJournal(journalFile) {
+            void truncate() throws IOException {
+                if (failTruncation)
+                    throw new IOException('Truncation failed')
+                super.truncate()
+            }
+        }
+        def repo = new WriteBehindNodeRepository(dataSourceRepo, journal, 60 * 1000)
+        repo.update(attribute('updated'), [:])
+
+        when:
+        repo.flush()
+
+        then:
+        thrown IllegalStateException
+        text(dataSourceRepo.recordNodes(3)) == 'updated'
+        journalFile.length() > 0
+
+        when:
+        failTruncation = false
+        repo.flush()
+
+        then:
+        journalFile.length() == 0
+
+        cleanup:
+        repo.close()
+    }
+
+    private NodeDto record() {
+        new NodeDto(id: 1, status: 'OK', definitionId: 'record', surveyId: 2, recordId: 3, recordCollectionName: 'name', type: RECORD)
+    }
+
+    private NodeDto attribute(String text) {
+        new NodeDto(id: 2, parentId: 1, status: 'OK', relevant: true, definitionId: 'attribute', surveyId: 2, recordId: 3,
+                type: TEXT_ATTRIBUTE, text: text)
+    }
+
+    private String text(NodeDto.Collection nodes) {
+        nodes.childrenOf(1).first().text
+    }
+}